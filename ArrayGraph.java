@@ -0,0 +1,139 @@
+import java.util.List;
+
+/**
+ * This class is a read-only copy of a graph in three flat arrays (compressed sparse row layout):
+ * the first edge of every node, and the target and weight of every edge. It is the in-memory
+ * counterpart of MappedGraph, for the searches that run on IndexedGraphInterface.
+ */
+public class ArrayGraph implements IndexedGraphInterface {
+
+  private final int[] first; // first edge index of each node, followed by the edge count
+  private final int[] target; // node that each edge points to
+  private final double[] weight; // weight of each edge
+
+  /**
+   * Creates a graph from its arrays, which are used without copying
+   *
+   * @param first  first edge index of each node, followed by the number of edges
+   * @param target node that each edge points to
+   * @param weight weight of each edge
+   */
+  public ArrayGraph(int[] first, int[] target, double[] weight) {
+    if (first.length == 0 || first[first.length - 1] != target.length
+        || target.length != weight.length) {
+      throw new IllegalArgumentException("edge arrays do not match the first edge indexes");
+    }
+    this.first = first;
+    this.target = target;
+    this.weight = weight;
+  }
+
+  /**
+   * Copies the nodes and edges of a graph, keeping the node ids of the graph
+   *
+   * @param graph the graph to copy
+   * @return the copy of the graph
+   */
+  public static ArrayGraph of(DijkstraGraph<?, Double> graph) {
+    List<? extends BaseGraph<?, Double>.Node> nodes = graph.nodesById;
+    int[] first = new int[nodes.size() + 1];
+    int edgeCount = 0;
+    for (int node = 0; node < nodes.size(); node++) {
+      first[node] = edgeCount;
+      edgeCount += nodes.get(node).edgesLeaving.size();
+    }
+    first[nodes.size()] = edgeCount;
+    int[] target = new int[edgeCount];
+    double[] weight = new double[edgeCount];
+    int edge = 0;
+    for (BaseGraph<?, Double>.Node node : nodes) {
+      for (BaseGraph<?, Double>.Edge leaving : node.edgesLeaving) {
+        target[edge] = leaving.successor.id;
+        weight[edge] = leaving.data;
+        edge++;
+      }
+    }
+    return new ArrayGraph(first, target, weight);
+  }
+
+  /**
+   * Copies an id-indexed graph, such as a MappedGraph, into memory
+   *
+   * @param graph the graph to copy
+   * @return the copy of the graph
+   */
+  public static ArrayGraph of(IndexedGraphInterface graph) {
+    int nodeCount = graph.getNodeCount();
+    int edgeCount = graph.getEdgeCount();
+    int[] first = new int[nodeCount + 1];
+    int[] target = new int[edgeCount];
+    double[] weight = new double[edgeCount];
+    int edge = 0;
+    for (int node = 0; node < nodeCount; node++) {
+      first[node] = edge;
+      for (int e = graph.firstEdge(node), last = graph.lastEdge(node); e < last; e++) {
+        target[edge] = graph.edgeTarget(e);
+        weight[edge] = graph.edgeWeight(e);
+        edge++;
+      }
+    }
+    first[nodeCount] = edge;
+    return new ArrayGraph(first, target, weight);
+  }
+
+  /**
+   * Returns the graph with every edge turned around, where the edges entering a node of this graph
+   * are the edges leaving it
+   */
+  public ArrayGraph reverse() {
+    int nodeCount = getNodeCount();
+    int[] reverseFirst = new int[nodeCount + 1];
+    for (int edge = 0; edge < target.length; edge++) {
+      reverseFirst[target[edge] + 1]++;
+    }
+    for (int node = 0; node < nodeCount; node++) {
+      reverseFirst[node + 1] += reverseFirst[node];
+    }
+    int[] next = reverseFirst.clone();
+    int[] reverseTarget = new int[target.length];
+    double[] reverseWeight = new double[target.length];
+    for (int node = 0; node < nodeCount; node++) {
+      for (int edge = first[node]; edge < first[node + 1]; edge++) {
+        int slot = next[target[edge]]++;
+        reverseTarget[slot] = node;
+        reverseWeight[slot] = weight[edge];
+      }
+    }
+    return new ArrayGraph(reverseFirst, reverseTarget, reverseWeight);
+  }
+
+  @Override
+  public int getNodeCount() {
+    return first.length - 1;
+  }
+
+  @Override
+  public int getEdgeCount() {
+    return target.length;
+  }
+
+  @Override
+  public int firstEdge(int node) {
+    return first[node];
+  }
+
+  @Override
+  public int lastEdge(int node) {
+    return first[node + 1];
+  }
+
+  @Override
+  public int edgeTarget(int edge) {
+    return target[edge];
+  }
+
+  @Override
+  public double edgeWeight(int edge) {
+    return weight[edge];
+  }
+}
@@ -0,0 +1,209 @@
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class runs the queries of a BuildingNavigatorBackend without blocking the caller, so that
+ * the backend can be embedded in a server. Queries run on a bounded pool of threads with a bounded
+ * queue: when the queue is full, new queries fail right away with a RejectedExecutionException
+ * instead of piling up. Every query has a deadline, after which it fails with a TimeoutException.
+ *
+ * Identical queries that are in flight at the same time are coalesced into one search, and every
+ * caller gets its own future for the shared result. When every caller of a query has cancelled it
+ * or passed its deadline, the thread running the search is interrupted, which aborts the search.
+ *
+ * Only the read-only queries of the backend are offered here; the map must not be changed through
+ * the backend while queries are running.
+ */
+public class AsyncBuildingNavigator implements AsyncBuildingNavigatorInterface {
+
+    private final BuildingNavigatorBackendInterface backend; // backend that answers the queries
+    private final ThreadPoolExecutor executor; // bounded pool with a bounded queue
+    private final long defaultTimeoutMillis; // deadline of queries that don't set their own
+    // queries that are queued or running, by a key made from the query's arguments
+    private final ConcurrentHashMap<String, InFlight<?>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * The constructor for AsyncBuildingNavigator class
+     *
+     * @param backend              the backend that answers the queries
+     * @param threads              the number of queries that run at the same time
+     * @param queueCapacity        the number of queries that may wait for a thread
+     * @param defaultTimeoutMillis the deadline of queries that don't set their own
+     */
+    public AsyncBuildingNavigator(BuildingNavigatorBackendInterface backend, int threads, int queueCapacity,
+            long defaultTimeoutMillis) {
+        this.backend = backend;
+        this.defaultTimeoutMillis = defaultTimeoutMillis;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * One distinct query, shared by every caller that asked for it while it was in flight. The
+     * number of callers that still wait for it is counted, so that it can be aborted once none do.
+     */
+    private class InFlight<T> implements Runnable {
+        private final String key; // key of the query in the inFlight map
+        private final Callable<T> query; // the call into the backend
+        private final CompletableFuture<T> result = new CompletableFuture<T>();
+        private int waiting; // callers that still wait for the result
+        private Thread runner; // thread running the query, or null when it isn't running
+
+        private InFlight(String key, Callable<T> query) {
+            this.key = key;
+            this.query = query;
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (result.isDone()) {
+                    return; // every caller gave up while the query was queued
+                }
+                runner = Thread.currentThread();
+            }
+            try {
+                result.complete(query.call());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            } finally {
+                synchronized (this) {
+                    runner = null;
+                }
+                // clear an interrupt that arrived after the search finished
+                Thread.interrupted();
+                inFlight.remove(key, this);
+            }
+        }
+
+        /**
+         * Adds a caller to the query
+         *
+         * @return a future of the caller's own, or null when the query was already aborted
+         */
+        private synchronized CompletableFuture<T> join() {
+            if (result.isCancelled()) {
+                return null;
+            }
+            waiting++;
+            return result.copy();
+        }
+
+        // removes a caller from the query, and aborts the query when no caller is left
+        private synchronized void leave() {
+            waiting--;
+            if (waiting == 0 && !result.isDone()) {
+                result.cancel(false);
+                inFlight.remove(key, this);
+                if (runner != null) {
+                    runner.interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs a query on the pool, or joins the identical query that is already in flight
+     *
+     * @param key           key made from the kind of the query and its arguments
+     * @param timeoutMillis the deadline of this caller
+     * @param query         the call into the backend
+     * @return future result of the query for this caller
+     */
+    @SuppressWarnings("unchecked")
+    private <T> CompletableFuture<T> submit(String key, long timeoutMillis, Callable<T> query) {
+        while (true) {
+            InFlight<T> created = new InFlight<T>(key, query);
+            InFlight<T> shared = (InFlight<T>) inFlight.putIfAbsent(key, created);
+            InFlight<T> target = shared == null ? created : shared;
+            CompletableFuture<T> future = target.join();
+            if (future == null) {
+                // the query was aborted just now, so start it again
+                inFlight.remove(key, target);
+                continue;
+            }
+            if (shared == null) {
+                try {
+                    executor.execute(created);
+                } catch (RejectedExecutionException e) {
+                    // the queue is full, so the query fails instead of waiting
+                    inFlight.remove(key, created);
+                    created.result.completeExceptionally(e);
+                }
+            }
+            future.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+            future.whenComplete((value, error) -> target.leave());
+            return future;
+        }
+    }
+
+    // joins the kind of a query and its arguments into a key, with a separator names cannot hold
+    private static String key(String kind, Object... arguments) {
+        StringBuilder key = new StringBuilder(kind);
+        for (Object argument : arguments) {
+            key.append('\0').append(argument);
+        }
+        return key.toString();
+    }
+
+    private static String[] withStops(String startBuilding, String endBuilding, String... stops) {
+        String[] buildings = new String[stops.length + 2];
+        buildings[0] = startBuilding;
+        buildings[1] = endBuilding;
+        System.arraycopy(stops, 0, buildings, 2, stops.length);
+        return buildings;
+    }
+
+    @Override
+    public CompletableFuture<Double> getShortestCost(String startBuilding, String endBuilding, String... stops) {
+        return getShortestCost(defaultTimeoutMillis, startBuilding, endBuilding, stops);
+    }
+
+    @Override
+    public CompletableFuture<Double> getShortestCost(long timeoutMillis, String startBuilding, String endBuilding,
+            String... stops) {
+        String[] stopsCopy = stops.clone();
+        return submit(key("cost", (Object[]) withStops(startBuilding, endBuilding, stopsCopy)), timeoutMillis,
+                () -> backend.getShortestCost(startBuilding, endBuilding, stopsCopy));
+    }
+
+    @Override
+    public CompletableFuture<String> getShortestPath(String startBuilding, String endBuilding, String... stops) {
+        return getShortestPath(defaultTimeoutMillis, startBuilding, endBuilding, stops);
+    }
+
+    @Override
+    public CompletableFuture<String> getShortestPath(long timeoutMillis, String startBuilding, String endBuilding,
+            String... stops) {
+        String[] stopsCopy = stops.clone();
+        return submit(key("path", (Object[]) withStops(startBuilding, endBuilding, stopsCopy)), timeoutMillis,
+                () -> backend.getShortestPath(startBuilding, endBuilding, stopsCopy));
+    }
+
+    @Override
+    public CompletableFuture<List<String>> getAlternativePaths(String startBuilding, String endBuilding, int count,
+            double maxOverlap) {
+        return submit(key("alternatives", startBuilding, endBuilding, count, maxOverlap), defaultTimeoutMillis,
+                () -> backend.getAlternativePaths(startBuilding, endBuilding, count, maxOverlap));
+    }
+
+    @Override
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        for (InFlight<?> query : inFlight.values()) {
+            query.result.cancel(false);
+        }
+        inFlight.clear();
+    }
+}
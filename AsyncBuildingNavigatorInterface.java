@@ -0,0 +1,32 @@
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/*
+ * This interface is a non-blocking routing interface for the AsyncBuildingNavigator class
+ */
+public interface AsyncBuildingNavigatorInterface extends AutoCloseable {
+
+    // returns the cost of the shortest path, finishing within the default deadline
+    public CompletableFuture<Double> getShortestCost(String startBuilding, String endBuilding, String... stops);
+
+    // returns the cost of the shortest path, finishing within timeoutMillis
+    public CompletableFuture<Double> getShortestCost(long timeoutMillis, String startBuilding, String endBuilding,
+            String... stops);
+
+    // returns the shortest path, finishing within the default deadline
+    public CompletableFuture<String> getShortestPath(String startBuilding, String endBuilding, String... stops);
+
+    // returns the shortest path, finishing within timeoutMillis
+    public CompletableFuture<String> getShortestPath(long timeoutMillis, String startBuilding, String endBuilding,
+            String... stops);
+
+    // returns up to count distinct routes, finishing within the default deadline
+    public CompletableFuture<List<String>> getAlternativePaths(String startBuilding, String endBuilding, int count,
+            double maxOverlap);
+
+    // returns the number of distinct queries that are queued or running
+    public int getInFlightCount();
+
+    // stops accepting queries and aborts the running ones
+    public void close();
+}
@@ -1,5 +1,5 @@
+import java.util.ArrayList;
 import java.util.List;
-import java.util.LinkedList;
 import java.util.Hashtable;
 import java.util.NoSuchElementException;
 
@@ -9,15 +9,22 @@ import java.util.NoSuchElementException;
  */  
 public class BaseGraph <NodeType, EdgeType extends Number> {
 
-    // Each node contains unique data along with two lists of directed edges
+    // Each node contains unique data along with two lists of directed edges,
+    // and a dense id between 0 and getNodeCount()-1. The lists are array
+    // lists that start small, as most buildings have only a few roads, so an
+    // edge costs one reference in each list rather than a linked list entry
     protected class Node {
         public NodeType data;
-        public List<Edge> edgesLeaving = new LinkedList<>();
-        public List<Edge> edgesEntering = new LinkedList<>();
+        public int id;
+        public List<Edge> edgesLeaving = new ArrayList<>(2);
+        public List<Edge> edgesEntering = new ArrayList<>(2);
         public Node(NodeType data) { this.data = data; }
     }
     // Nodes can be retrieved from this hashtable by their unique data
     protected Hashtable<NodeType,Node> nodes = new Hashtable();
+    // Nodes can also be retrieved from this list by their id, so algorithms
+    // can keep their per node state in plain arrays indexed by id
+    protected ArrayList<Node> nodesById = new ArrayList<>();
 
     // Each edge contains data/weight, and two nodes that it connects
     protected class Edge {
@@ -44,7 +51,10 @@ public class BaseGraph <NodeType, EdgeType extends Number> {
      */
     public boolean insertNode(NodeType data) {
         if(nodes.containsKey(data)) return false; // throws NPE when data's null
-        nodes.put(data,new Node(data));
+        Node newNode = new Node(data);
+        newNode.id = nodesById.size();
+        nodes.put(data,newNode);
+        nodesById.add(newNode);
         return true;
     }
     
@@ -61,6 +71,12 @@ public class BaseGraph <NodeType, EdgeType extends Number> {
         // remove this node from nodes collection
         if(!nodes.containsKey(data)) return false; // throws NPE when data==null
         Node oldNode = nodes.remove(data);
+        // keep ids dense by moving the last node into the removed node's id
+        Node lastNode = nodesById.remove(nodesById.size()-1);
+        if(lastNode != oldNode) {
+            lastNode.id = oldNode.id;
+            nodesById.set(oldNode.id,lastNode);
+        }
         // remove all edges entering neighboring nodes from this one
         for(Edge edge : oldNode.edgesLeaving)
             edge.successor.edgesEntering.remove(edge);
@@ -194,5 +210,30 @@ public class BaseGraph <NodeType, EdgeType extends Number> {
     public Node getBuilding(NodeType name) {
       return nodes.get(name);
     }
+
+    /**
+     * Return the id of the node containing the provided data.  Ids are dense,
+     * between 0 and getNodeCount()-1, and removing a node moves the node with
+     * the highest id into the removed node's id.
+     *
+     * @param data the node contents to look for
+     * @return the id of that node, or -1 if data is not found in the graph
+     * @throws NullPointerException if data is null
+     */
+    public int getNodeId(NodeType data) {
+        Node node = nodes.get(data);
+        return node == null ? -1 : node.id;
+    }
+
+    /**
+     * Return the data stored in the node with the provided id.
+     *
+     * @param id the id of the node
+     * @return the data item stored in that node
+     * @throws IndexOutOfBoundsException if no node has that id
+     */
+    public NodeType getNodeData(int id) {
+        return nodesById.get(id).data;
+    }
        
 }
@@ -22,10 +22,22 @@ public class Building implements BuildingInterface {
    */
   @Override
   public boolean equals(Object o) {
+    if (!(o instanceof Building)) {
+      return false;
+    }
     Building b = (Building) o;
     if (this.name.equals(b.getName())) {
       return true;
     }
     return false;
   }
+
+  /**
+   * Hashes the name of the building, so that buildings with the same name are found as the same
+   * key in the graph's hashtable
+   */
+  @Override
+  public int hashCode() {
+    return name.hashCode();
+  }
 }
@@ -0,0 +1,94 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * This class walks the building names of a map a page at a time, over a snapshot taken when the
+ * cursor was created: buildings added afterwards are not seen, and every page starts where the
+ * last one ended. The snapshot copies no names. It holds the number of buildings and, for
+ * alphabetical order, the sorted index that the map shares between all of its cursors, so a
+ * cursor takes the same memory whatever the size of its pages.
+ */
+public class BuildingCursor implements Iterator<String> {
+
+    private final NameDictionary names; // names of the buildings by id
+    private final int[] sorted; // ids in alphabetical order, or null to walk in id order
+    private final int size; // number of buildings in the snapshot
+    private int position; // position of the next building in the walk
+
+    /**
+     * Creates a cursor over the first size names of a dictionary. Names are only ever added to a
+     * dictionary, so those names stay the same while the map changes.
+     *
+     * @param names    the names of the buildings by id
+     * @param sorted   ids in alphabetical order, or null to walk in id order
+     * @param size     the number of buildings in the snapshot
+     * @param position the position of the first building to return
+     */
+    BuildingCursor(NameDictionary names, int[] sorted, int size, int position) {
+        this.names = names;
+        this.sorted = sorted;
+        this.size = size;
+        this.position = position;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return position < size;
+    }
+
+    @Override
+    public String next() {
+        if (position >= size) {
+            throw new NoSuchElementException("no more buildings");
+        }
+        return nameAt(position++);
+    }
+
+    /**
+     * Returns the next page of building names and moves past it
+     *
+     * @param limit the largest number of names to return
+     * @return up to limit names, none once every building was returned
+     * @throws IllegalArgumentException when the limit is negative
+     */
+    public List<String> nextPage(int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit cannot be negative");
+        }
+        // sized by what is left rather than by the limit, so a large limit costs nothing
+        int count = Math.min(limit, size - position);
+        List<String> page = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            page.add(nameAt(position++));
+        }
+        return page;
+    }
+
+    /**
+     * Returns the names that this cursor has not returned yet as a lazy stream, which creates each
+     * name when it is reached and splits for parallel use. The cursor itself does not move.
+     */
+    public Stream<String> stream() {
+        return IntStream.range(position, size).mapToObj(this::nameAt);
+    }
+
+    // returns the position of the next building, which is the number of buildings returned so far
+    // when the cursor started at the first building
+    public int getPosition() {
+        return position;
+    }
+
+    // returns the number of buildings in the snapshot
+    public int getSize() {
+        return size;
+    }
+
+    // returns the name at a position of the walk
+    private String nameAt(int position) {
+        return names.nameOf(sorted == null ? position : sorted[position]);
+    }
+}
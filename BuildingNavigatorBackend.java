@@ -1,13 +1,211 @@
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.AbstractMap;
 import java.util.ArrayList;
-import java.util.Enumeration;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
+/**
+ * The backend keeps the loaded map together with its indexes in one MapVersion,
+ * which is replaced as a whole when a map is loaded. Every query reads the
+ * current version once and works on it until it returns, so a query that is
+ * running while the map is reloaded finishes on the map it started with.
+ * addBuilding and insertRoad change the current version in place, so callers
+ * must keep queries out while they add buildings or roads, as
+ * BuildingNavigatorServer does by taking its write lock for them.
+ */
 public class BuildingNavigatorBackend implements BuildingNavigatorBackendInterface {
 
-    private DijkstraGraph<BuildingInterface, Double> dijkstraGraph; // DijstraGraph object
+    private volatile MapVersion map; // the loaded map and its indexes
     private MapReaderInterface buildingData; // MapReaderInterface object
+    private Map<String, String[]> facilities = new ConcurrentHashMap<>(); // facility buildings by category
+    private final Object changing = new Object(); // lets one load or change of the map run at a time
+    private MapChangeLog changeLog; // log of the changes to the map, or null when they aren't kept
+    private long compactAfter = 10000; // changes logged before the log is compacted into a snapshot
+    private volatile int oracleLevels = 3; // levels of the distance oracle, trading memory for accuracy
+    private int[] overlayCellSizes; // cell sizes of the overlay built for every map, or null for none
+    private String hubLabelFile; // file of the hub labels kept for every map, or null for none
+    private Thread hubLabelBuilder; // thread building the hub labels again, or null when none runs
+    private Thread oracleBuilder; // thread building the distance oracle, or null when none runs
+    private volatile IOException hubLabelFailure; // why the last labels built were not written, or null
+
+    /**
+     * The graph of a loaded map with the indexes built from it. The graph of a
+     * version is only changed by addBuilding and insertRoad.
+     */
+    private static class MapVersion {
+        private final DijkstraGraph<BuildingInterface, Double> graph; // DijstraGraph object
+        private final NameDictionary names; // maps building names to graph node ids
+        private final BuildingSearchIndex search; // prefix and typo tolerant name search
+        // which buildings can reach which, built again when a road is closed
+        private volatile ReachabilityIndex reach;
+        // nearest facility labels by category, computed when first needed
+        private final Map<String, FacilityPartition> facilityPartitions = new ConcurrentHashMap<>();
+        // building ids in alphabetical order, taken from the search index when first needed
+        // and dropped when a building is added
+        private volatile int[] sortedIds;
+        // estimated costs between any two buildings, built in the background when first needed
+        // and dropped when the map changes, whether the map was found to have no bounded oracle,
+        // and how often it was dropped, counted while holding changing
+        private volatile DistanceOracle oracle;
+        private volatile boolean oracleRejected;
+        private long oracleDrops;
+        // costs between any two buildings from hub labels, when they were asked for, dropped when
+        // a road changes until they are built again. A building added later has no labels.
+        private volatile HubLabelIndex hubLabels;
+        private long roadChanges; // roads changed in this version, counted while holding changing
+        // cells that queries cross in one step, when the backend uses an overlay. A new weight of a
+        // road is customized into it under the write lock, while queries hold the read lock.
+        private volatile OverlayGraph overlay;
+        private final ReadWriteLock overlayLock = new ReentrantReadWriteLock();
+
+        /**
+         * builds the name dictionary from the graph, adding the names in node id
+         * order so that the id of a name is the id of its node in the graph
+         */
+        private MapVersion(DijkstraGraph<BuildingInterface, Double> graph) {
+            this.graph = graph;
+            int count = graph == null ? 0 : graph.getNodeCount();
+            names = new NameDictionary(count);
+            for (int id = 0; id < count; id++) {
+                names.add(graph.getNodeData(id).getName());
+            }
+            search = new BuildingSearchIndex(names);
+            reach = new ReachabilityIndex(graph == null ? new ArrayGraph(new int[1], new int[0], new double[0])
+                    : ArrayGraph.of(graph));
+        }
+
+        /**
+         * returns the cost of the shortest route through the buildings from the
+         * overlay, searching only the cells at the ends of each leg, or NaN when
+         * there is no overlay or a building is not in it
+         */
+        private double overlayCost(String[] buildings) {
+            overlayLock.readLock().lock();
+            try {
+                OverlayGraph overlay = this.overlay;
+                if (overlay == null) {
+                    return Double.NaN;
+                }
+                int[] ids = new int[buildings.length];
+                for (int i = 0; i < buildings.length; i++) {
+                    ids[i] = names.indexOf(buildings[i]);
+                    // buildings added after the overlay was built have no cell
+                    if (ids[i] < 0 || ids[i] >= overlay.getNodeCount()) {
+                        return Double.NaN;
+                    }
+                }
+                double cost = 0;
+                for (int i = 0; i + 1 < ids.length; i++) {
+                    cost += overlay.shortestPathCost(ids[i], ids[i + 1]);
+                }
+                return cost;
+            } finally {
+                overlayLock.readLock().unlock();
+            }
+        }
+
+        /**
+         * returns the ids along the shortest path between two buildings from the
+         * overlay and sets cost[0] to its cost, or returns null when there is no
+         * overlay or a building is not in it
+         */
+        private int[] overlayPath(int start, int end, double[] cost) {
+            overlayLock.readLock().lock();
+            try {
+                OverlayGraph overlay = this.overlay;
+                if (overlay == null || start >= overlay.getNodeCount() || end >= overlay.getNodeCount()) {
+                    return null;
+                }
+                return overlay.shortestPathIds(start, end, cost);
+            } finally {
+                overlayLock.readLock().unlock();
+            }
+        }
+
+        /**
+         * follows a change of road in the overlay. A new weight of a road is
+         * customized into the cells that hold it, while a new road can change
+         * which buildings are on the border of a cell, so the overlay is built
+         * again. The road is already in the graph, so when the overlay cannot
+         * follow it, the overlay is dropped and queries search road by road
+         * rather than answer from cells that miss the road. It must be called
+         * while holding the changing lock.
+         */
+        private void updateOverlay(int from, int to, double distance, boolean existed, int[] cellSizes) {
+            if (overlay == null) {
+                return;
+            }
+            if (!existed || from >= overlay.getNodeCount() || to >= overlay.getNodeCount()) {
+                // queries keep the old overlay until the new one replaces it
+                try {
+                    overlay = new OverlayGraph(ArrayGraph.of(graph), cellSizes);
+                } catch (RuntimeException e) {
+                    overlay = null;
+                }
+                return;
+            }
+            overlayLock.writeLock().lock();
+            try {
+                overlay.setEdgeWeight(from, to, distance);
+                overlay.customize();
+            } catch (RuntimeException e) {
+                overlay = null;
+            } finally {
+                overlayLock.writeLock().unlock();
+            }
+        }
+
+        // drops the distance oracle after a change, so the next estimate builds it again
+        private void dropOracle() {
+            oracle = null;
+            oracleRejected = false;
+            oracleDrops++;
+        }
+
+        /**
+         * throws the NoSuchElementException of a search that finds no path when
+         * a leg between two consecutive buildings cannot be travelled, without
+         * running the search. Unknown buildings are left to the search.
+         *
+         * @param buildings the names of the buildings of the route, in order
+         */
+        private void checkReachable(String... buildings) {
+            ReachabilityIndex reach = this.reach;
+            for (int i = 0; i + 1 < buildings.length; i++) {
+                int from = names.indexOf(buildings[i]);
+                int to = names.indexOf(buildings[i + 1]);
+                if (from >= 0 && to >= 0 && !reach.reaches(from, to)) {
+                    throw new NoSuchElementException("no path from start to end");
+                }
+            }
+        }
+
+        /**
+         * returns the building stored in the graph with the provided name
+         *
+         * @param building the name of the building
+         * @return the building in the graph, or null when no building has that name
+         */
+        private BuildingInterface findBuilding(String building) {
+            int id = names.indexOf(building);
+            if (id < 0) {
+                return null;
+            }
+            return graph.getNodeData(id);
+        }
+    }
 
     /**
      * The constructor for BuildingNavigatorBackend class in which the nodeType is
@@ -18,7 +216,7 @@ public class BuildingNavigatorBackend implements BuildingNavigatorBackendInterfa
      */
     public BuildingNavigatorBackend(DijkstraGraph<BuildingInterface, Double> dijkstraGraph,
             MapReaderInterface buildingData) {
-        this.dijkstraGraph = dijkstraGraph;
+        this.map = new MapVersion(dijkstraGraph);
         this.buildingData = buildingData;
     }
 
@@ -29,8 +227,318 @@ public class BuildingNavigatorBackend implements BuildingNavigatorBackendInterfa
      * @throws FileNotFoundException when the file does not exist
      */
     public void loadData(String filename) throws FileNotFoundException {
-        dijkstraGraph = buildingData.read(filename);
+        synchronized (changing) {
+            map = indexed(new MapVersion(buildingData.read(filename)));
+            snapshotChangeLog();
+        }
+    }
+
+    /**
+     * reads the filename into a new graph while queries keep running on the
+     * current one, and replaces the current map with it only when it is valid,
+     * after its indexes and the nearest facility labels are built. Queries that
+     * are running keep the map they started with. Buildings and roads added
+     * since the current map was loaded are not carried over, and the change log
+     * starts over from the new map.
+     *
+     * @param filename the filename to load
+     * @throws FileNotFoundException    when the file does not exist
+     * @throws IllegalArgumentException when the file cannot be read as a map or
+     *                                  has no buildings, the current map is kept
+     */
+    public void reloadData(String filename) throws FileNotFoundException, IllegalArgumentException {
+        synchronized (changing) {
+            MapVersion next;
+            try {
+                next = new MapVersion(buildingData.read(filename));
+            } catch (FileNotFoundException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("map file " + filename + " is not valid: " + e.getMessage(), e);
+            }
+            if (next.graph.getNodeCount() == 0) {
+                throw new IllegalArgumentException("map file " + filename + " has no buildings");
+            }
+            // warm the facility labels so the first queries after the swap don't pay for them
+            for (String category : facilities.keySet()) {
+                facilityPartition(next, category);
+            }
+            map = indexed(next);
+            snapshotChangeLog();
+        }
+    }
+
+    /**
+     * keeps the changes made to the map in a change log in the directory, so
+     * that they survive a restart. When the directory holds a snapshot from an
+     * earlier run, the snapshot replaces the current map, and then the changes
+     * logged after it are applied. A new directory starts with a snapshot of the
+     * current map.
+     *
+     * @param directory    the directory of the snapshot and the change log
+     * @param compactAfter the number of logged changes after which the log is
+     *                     written into a new snapshot
+     * @return the number of logged changes that were applied
+     * @throws IOException when the snapshot or the log cannot be read or written
+     */
+    public int openChangeLog(String directory, long compactAfter) throws IOException {
+        synchronized (changing) {
+            closeChangeLog();
+            MapChangeLog log = new MapChangeLog(directory);
+            try {
+                String snapshot = log.getSnapshot();
+                if (snapshot != null) {
+                    map = indexed(new MapVersion(buildingData.read(snapshot)));
+                }
+                // the changes are applied while changeLog is null, so they aren't logged again
+                int replayed = log.replay(this);
+                if (snapshot == null) {
+                    log.compact(map.graph);
+                }
+                this.changeLog = log;
+                this.compactAfter = compactAfter;
+                return replayed;
+            } catch (IOException | RuntimeException e) {
+                log.close();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * writes the current map into a new snapshot and empties the change log,
+     * so that a restart doesn't replay the changes one by one
+     *
+     * @throws IOException when the snapshot cannot be written
+     */
+    public void compactChangeLog() throws IOException {
+        synchronized (changing) {
+            if (changeLog != null) {
+                changeLog.compact(map.graph);
+            }
+        }
+    }
+
+    /**
+     * answers shortest costs and routes through a multi-level overlay of cells,
+     * built for this map and for every map loaded afterwards. A query searches
+     * road by road only in the cells of its start and end, and crosses every
+     * other cell in one step. A new weight of an existing road is customized
+     * into the cells that hold it, and a new road builds the overlay again.
+     * Maps of towns joined by a few roads gain the most; on a plain street grid
+     * the overlay is no faster than a search.
+     *
+     * @param cellSizes the largest number of buildings in a cell of each level,
+     *                  from the smallest cells, or none to stop using an overlay
+     * @throws IllegalArgumentException when the cell sizes don't grow from level
+     *                                  to level
+     */
+    public void useOverlay(int... cellSizes) throws IllegalArgumentException {
+        synchronized (changing) {
+            int[] sizes = cellSizes.length == 0 ? null : cellSizes.clone();
+            map.overlay = sizes == null ? null : new OverlayGraph(ArrayGraph.of(map.graph), sizes);
+            overlayCellSizes = sizes;
+        }
+    }
+
+    // builds the indexes that the backend was asked to keep for every map into a
+    // newly read map version, before it is installed
+    private MapVersion indexed(MapVersion next) {
+        if (overlayCellSizes != null) {
+            next.overlay = new OverlayGraph(ArrayGraph.of(next.graph), overlayCellSizes);
+        }
+        if (hubLabelFile != null) {
+            HubLabelIndex labels = readHubLabels(next.graph, hubLabelFile);
+            if (labels == null) {
+                labels = new HubLabelIndex(next.graph);
+                writeHubLabels(labels);
+            }
+            next.hubLabels = labels;
+        }
+        return next;
+    }
+
+    /**
+     * answers shortest costs between two buildings from hub labels, for this map
+     * and for every map loaded afterwards. The labels are read from the file
+     * when it holds the labels of the map, and otherwise built and written to
+     * it, so the next start with the same map reads them back. When a road
+     * changes, costs are searched until the labels are built again on a thread
+     * of their own. The costs are those of Dijkstra's search, except that on
+     * fractional weights they can differ from it in the last bit, since they
+     * add up the roads in another order.
+     *
+     * @param filename the label file, usually HubLabelIndex.fileFor(the map file)
+     * @return the labels, which report their build time and size
+     * @throws IOException when built labels cannot be written
+     */
+    public HubLabelIndex useHubLabels(String filename) throws IOException {
+        synchronized (changing) {
+            MapVersion map = this.map;
+            HubLabelIndex labels = readHubLabels(map.graph, filename);
+            if (labels == null) {
+                labels = new HubLabelIndex(map.graph);
+                labels.write(filename);
+            }
+            map.hubLabels = labels;
+            hubLabelFile = filename;
+            return labels;
+        }
+    }
+
+    // returns the hub labels in the file when they were built from the graph, or null
+    private static HubLabelIndex readHubLabels(DijkstraGraph<BuildingInterface, Double> graph, String filename) {
+        if (Files.exists(Paths.get(filename))) {
+            try {
+                HubLabelIndex labels = HubLabelIndex.read(filename);
+                return labels.matches(graph) ? labels : null;
+            } catch (IOException e) {
+                // a file that was not completely written is built again
+            }
+        }
+        return null;
+    }
+
+    // writes labels built for a new map or after a change into the label file, where a
+    // failure only costs the next start a build and is kept for getHubLabelFailure
+    private void writeHubLabels(HubLabelIndex labels) {
+        try {
+            labels.write(hubLabelFile);
+            hubLabelFailure = null;
+        } catch (IOException e) {
+            hubLabelFailure = e;
+        }
+    }
+
+    /**
+     * returns why the hub labels last built for a newly loaded map or after a
+     * road change could not be written to the label file, or null when they
+     * were. Queries still use such labels; only the next start builds them
+     * again.
+     */
+    public IOException getHubLabelFailure() {
+        return hubLabelFailure;
+    }
+
+    // copies the graph of a map version with the same ids, so that an index built from the copy
+    // on another thread fits the version. It must be called while holding the changing lock.
+    private static DijkstraGraph<BuildingInterface, Double> copyGraph(MapVersion version) {
+        int[] order = new int[version.graph.getNodeCount()];
+        for (int id = 0; id < order.length; id++) {
+            order[id] = id;
+        }
+        return NodeOrder.reorder(version.graph, order);
+    }
+
+    /**
+     * starts building the hub labels of the current map again after a road
+     * changed, unless a build is already running. There is one builder at a
+     * time: it copies the map while no change can run, builds the labels from
+     * the copy, and installs them when no road changed meanwhile; otherwise it
+     * builds again from the map as it is then. It must be called while holding
+     * the changing lock.
+     */
+    private void rebuildHubLabels() {
+        if (hubLabelFile == null || hubLabelBuilder != null) {
+            return;
+        }
+        hubLabelBuilder = new Thread(() -> {
+            try {
+                while (true) {
+                    MapVersion version;
+                    long changes;
+                    DijkstraGraph<BuildingInterface, Double> copy;
+                    synchronized (changing) {
+                        version = map;
+                        if (hubLabelFile == null || version.hubLabels != null) {
+                            // labels are in place, or no longer wanted; a change after this starts
+                            // a new builder
+                            hubLabelBuilder = null;
+                            return;
+                        }
+                        changes = version.roadChanges;
+                        copy = copyGraph(version);
+                    }
+                    HubLabelIndex labels = new HubLabelIndex(copy);
+                    synchronized (changing) {
+                        if (map == version && version.roadChanges == changes && hubLabelFile != null) {
+                            version.hubLabels = labels;
+                            writeHubLabels(labels);
+                        }
+                    }
+                }
+            } catch (RuntimeException | Error e) {
+                synchronized (changing) {
+                    hubLabelBuilder = null;
+                }
+                throw e;
+            }
+        }, "hub-label-builder");
+        hubLabelBuilder.setDaemon(true);
+        hubLabelBuilder.start();
+    }
+
+    /**
+     * writes the changes that are still waiting and stops logging changes
+     *
+     * @throws IOException when the log cannot be written
+     */
+    public void closeChangeLog() throws IOException {
+        synchronized (changing) {
+            if (changeLog != null) {
+                changeLog.close();
+                changeLog = null;
+            }
+        }
+    }
 
+    // replaces the snapshot of an open change log with the map that was just loaded
+    private void snapshotChangeLog() {
+        try {
+            compactChangeLog();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * logs a change made to the map, and compacts the log when it grew past
+     * compactAfter changes. It must be called while holding the changing lock.
+     *
+     * @return future that completes once the change is on disk, or null when
+     *         changes aren't logged
+     */
+    private CompletableFuture<Void> logChange(Function<MapChangeLog, CompletableFuture<Void>> change) {
+        if (changeLog == null) {
+            return null;
+        }
+        CompletableFuture<Void> logged = change.apply(changeLog);
+        if (changeLog.getRecordCount() >= compactAfter) {
+            try {
+                changeLog.compact(map.graph);
+            } catch (IOException e) {
+                // the change is still in the log, so compaction is tried again after the next change
+            }
+        }
+        return logged;
+    }
+
+    // waits until a logged change is on disk and returns its result, outside of the changing
+    // lock so changes made by other threads in the meantime are forced to disk together with it
+    private static boolean awaitLogged(CompletableFuture<Boolean> logged) {
+        try {
+            return logged.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    // completes with true once a logged change is on disk, right away when changes aren't logged
+    private static CompletableFuture<Boolean> whenLogged(CompletableFuture<Void> logged) {
+        return logged == null ? CompletableFuture.completedFuture(true) : logged.thenApply(done -> true);
     }
 
     /**
@@ -42,15 +550,38 @@ public class BuildingNavigatorBackend implements BuildingNavigatorBackendInterfa
     @Override
     // adds a building into the graph
     public boolean addBuilding(String building) throws NullPointerException {
+        return awaitLogged(addBuildingLogged(building));
+    }
 
+    /**
+     * adds a building into the graph without waiting for the change log. The
+     * building can be found as soon as this returns; the future completes
+     * with the result of addBuilding once the change is on disk, so a caller
+     * holding a lock of its own can release it before waiting.
+     *
+     * @param building the name of the building
+     * @throws NullPointerException when the building name (input) is null
+     */
+    public CompletableFuture<Boolean> addBuildingLogged(String building) throws NullPointerException {
         if (building == null || building == "") {
             throw new NullPointerException("building cannot be empty");
         }
         // initialize the buildingInterface with the name of the building
         BuildingInterface toAdd = new Building(building);
 
-        // add the building to the graph
-        return dijkstraGraph.insertNode(toAdd);
+        synchronized (changing) {
+            MapVersion map = this.map;
+            // add the building to the graph, the new node takes the next id
+            if (!map.graph.insertNode(toAdd)) {
+                return CompletableFuture.completedFuture(false);
+            }
+            map.search.add(map.names.add(building));
+            map.sortedIds = null;
+            map.reach.addNode();
+            map.facilityPartitions.clear();
+            map.dropOracle();
+            return whenLogged(logChange(log -> log.logBuilding(building)));
+        }
     }
 
     /**
@@ -63,20 +594,54 @@ public class BuildingNavigatorBackend implements BuildingNavigatorBackendInterfa
     // adds a road between two buildings (going both ways) along with distance
     public boolean insertRoad(String startBuilding, String endBuilding, double distance)
             throws NullPointerException, IllegalArgumentException {
+        return awaitLogged(insertRoadLogged(startBuilding, endBuilding, distance));
+    }
+
+    /**
+     * inserts the road into the graph without waiting for the change log, see
+     * addBuildingLogged
+     *
+     * @throws NullPointerException     when the building name (input) is null
+     * @throws IllegalArgumentException when the distance is not a positive number
+     */
+    public CompletableFuture<Boolean> insertRoadLogged(String startBuilding, String endBuilding, double distance)
+            throws NullPointerException, IllegalArgumentException {
         if (startBuilding == null || endBuilding == null || startBuilding == "" || endBuilding == "") {
             throw new NullPointerException("Start or end building cannot be empty");
         }
-        // initialize the buildingInterface with the name of the building
-        BuildingInterface predecessor = new Building(startBuilding);
-        BuildingInterface successor = new Building(endBuilding);
-        BuildingInterface searchPred = dijkstraGraph.getNode(predecessor);
-        BuildingInterface searchSucc = dijkstraGraph.getNode(successor);
-        if (searchPred == null || searchSucc == null) {
-            throw new NullPointerException("the building doesn't exist in the map");
+        synchronized (changing) {
+            MapVersion map = this.map;
+            // find the buildings stored in the graph by their names
+            BuildingInterface searchPred = map.findBuilding(startBuilding);
+            BuildingInterface searchSucc = map.findBuilding(endBuilding);
+            if (searchPred == null || searchSucc == null) {
+                throw new NullPointerException("the building doesn't exist in the map");
+            }
+            // add the road to the graph
+            // a new road can change which facility is nearest, and any estimated cost
+            map.facilityPartitions.clear();
+            map.dropOracle();
+            boolean existed = map.graph.containsEdge(searchPred, searchSucc);
+            boolean wasOpen = existed && map.graph.getEdge(searchPred, searchSucc) < Double.POSITIVE_INFINITY;
+            if (!map.graph.insertEdge(searchPred, searchSucc, distance)) {
+                return CompletableFuture.completedFuture(false);
+            }
+            // costs are searched until the hub labels are built again
+            map.hubLabels = null;
+            map.roadChanges++;
+            rebuildHubLabels();
+            if (wasOpen && !(distance < Double.POSITIVE_INFINITY)) {
+                // closing a road can disconnect buildings, which the index cannot follow
+                map.reach = new ReachabilityIndex(map.graph);
+            } else {
+                map.reach.addEdge(map.names.indexOf(startBuilding), map.names.indexOf(endBuilding), distance);
+            }
+            CompletableFuture<Void> logged = logChange(log -> log.logRoad(startBuilding, endBuilding, distance));
+            // the road is in the map and in the log by now, so the overlay comes last
+            map.updateOverlay(map.names.indexOf(startBuilding), map.names.indexOf(endBuilding), distance, existed,
+                    overlayCellSizes);
+            return whenLogged(logged);
         }
-        // add the road to the graph
-        return dijkstraGraph.insertEdge(searchPred, searchSucc, distance);
-
     }
 
     /**
@@ -86,17 +651,47 @@ public class BuildingNavigatorBackend implements BuildingNavigatorBackendInterfa
      * @throws NullPointerException when the building name (input) is null
      */
     public boolean containsBuilding(String building) throws NullPointerException {
+        MapVersion map = this.map;
         if (building == null || building == "") {
             throw new NullPointerException("building cannot be empty");
         }
-        // initialize the buildingInterface with the name of the building
-        BuildingInterface toAdd = new Building(building);
-        BuildingInterface searchNode = dijkstraGraph.getNode(toAdd);
-        if (searchNode == null) {
-            return false;
+        // look up the id of the building name
+        return map.names.indexOf(building) >= 0;
+
+    }
+
+    /**
+     * returns the names of the buildings that start with the prefix, in
+     * alphabetical order, ignoring upper and lower case
+     *
+     * @param prefix the start of the building name
+     * @param limit  the largest number of names to return
+     * @throws NullPointerException when the prefix is null
+     */
+    public List<String> completeBuilding(String prefix, int limit) throws NullPointerException {
+        MapVersion map = this.map;
+        if (prefix == null) {
+            throw new NullPointerException("prefix cannot be null");
         }
-        return true;
+        return map.search.complete(prefix, limit);
+    }
 
+    /**
+     * returns the names of the buildings that are a few typos away from the
+     * building name, closest names first. Short names allow one edit and longer
+     * names allow two.
+     *
+     * @param building the possibly misspelled name of the building
+     * @param limit    the largest number of names to return
+     * @throws NullPointerException when the building name (input) is null
+     */
+    public List<String> suggestBuilding(String building, int limit) throws NullPointerException {
+        MapVersion map = this.map;
+        if (building == null || building == "") {
+            throw new NullPointerException("building cannot be empty");
+        }
+        int maxDistance = building.length() <= 4 ? 1 : 2;
+        return map.search.suggest(building, maxDistance, limit);
     }
 
     /**
@@ -104,7 +699,8 @@ public class BuildingNavigatorBackend implements BuildingNavigatorBackendInterfa
      * 
      */
     public int getNumBuildings() {
-        return dijkstraGraph.getNodeCount();
+        MapVersion map = this.map;
+        return map.graph.getNodeCount();
     }
 
     /**
@@ -118,6 +714,7 @@ public class BuildingNavigatorBackend implements BuildingNavigatorBackendInterfa
      */
     public double getShortestCost(String startBuilding, String endBuilding, String... stops)
             throws NullPointerException, IllegalArgumentException {
+        MapVersion map = this.map;
         // throw exception when the buildings (input) is null
         if (startBuilding == null || endBuilding == null || startBuilding == "" || endBuilding == "") {
             throw new NullPointerException("Start or end building cannot be empty");
@@ -125,29 +722,46 @@ public class BuildingNavigatorBackend implements BuildingNavigatorBackendInterfa
 
         // return the buildings in which the building name matches the inputted building
         // name
-        BuildingInterface predecessor = new Building(startBuilding);
-        BuildingInterface successor = new Building(endBuilding);
-        BuildingInterface searchPred = dijkstraGraph.getNode(predecessor);
-        BuildingInterface searchSucc = dijkstraGraph.getNode(successor);
+        BuildingInterface searchPred = map.findBuilding(startBuilding);
+        BuildingInterface searchSucc = map.findBuilding(endBuilding);
         BuildingInterface[] stopsArray = new Building[stops.length];
 
         if (searchPred == null || searchSucc == null) {
             throw new NullPointerException("the building doesn't exist in the map");
         }
+        // buildings that cannot reach each other are answered without a search
+        String[] buildings = route(startBuilding, endBuilding, stops);
+        map.checkReachable(buildings);
 
+        if (stops.length == 0) {
+            // buildings with hub labels are answered without a search
+            HubLabelIndex labels = map.hubLabels;
+            if (labels != null) {
+                int start = map.names.indexOf(startBuilding);
+                int end = map.names.indexOf(endBuilding);
+                if (start < labels.getNodeCount() && end < labels.getNodeCount()) {
+                    return labels.distance(start, end);
+                }
+            }
+        }
+        // with an overlay, every leg only searches the cells of its two ends
+        double overlayCost = map.overlayCost(buildings);
+        if (!Double.isNaN(overlayCost)) {
+            return overlayCost;
+        }
         if (stops.length == 0) {
             // when the stop is empty, calculate the shortestpath cost with two parameters
-            return dijkstraGraph.shortestPathStopsCost(searchPred, searchSucc);
+            return map.graph.shortestPathStopsCost(searchPred, searchSucc);
         } else {
             // else store the stops in the BuildingInterface array
             for (int i = 0; i < stops.length; i++) {
-                BuildingInterface stop = dijkstraGraph.getNode(new Building(stops[i]));
+                BuildingInterface stop = map.findBuilding(stops[i]);
                 stopsArray[i] = stop;
             }
         }
         // calculate the shortestpath cost with the shortestPathStopsCost that allows
         // any number of stops
-        return dijkstraGraph.shortestPathStopsCost(searchPred, searchSucc, stopsArray);
+        return map.graph.shortestPathStopsCost(searchPred, searchSucc, stopsArray);
     }
 
     /**
@@ -156,20 +770,19 @@ public class BuildingNavigatorBackend implements BuildingNavigatorBackendInterfa
      * @throws NullPointerException when the building name (input) is null
      */
     public boolean containsRoad(String startBuilding, String endBuilding) throws NullPointerException {
+        MapVersion map = this.map;
         if (startBuilding == null || endBuilding == null || startBuilding == "" || endBuilding == "") {
             throw new NullPointerException("Start or end building cannot be null");
         }
-        // initialize the buildingInterface with the name of the building
-        BuildingInterface predecessor = new Building(startBuilding);
-        BuildingInterface successor = new Building(endBuilding);
-        BuildingInterface searchPred = dijkstraGraph.getNode(predecessor);
-        BuildingInterface searchSucc = dijkstraGraph.getNode(successor);
+        // find the buildings stored in the graph by their names
+        BuildingInterface searchPred = map.findBuilding(startBuilding);
+        BuildingInterface searchSucc = map.findBuilding(endBuilding);
 
         if (searchPred == null || searchSucc == null) {
             return false;
         }
 
-        return dijkstraGraph.containsEdge(searchPred, searchSucc);
+        return map.graph.containsEdge(searchPred, searchSucc);
 
     }
 
@@ -178,7 +791,8 @@ public class BuildingNavigatorBackend implements BuildingNavigatorBackendInterfa
      * returns the number of roads in the graph
      */
     public int getNumRoads() {
-        return dijkstraGraph.getEdgeCount();
+        MapVersion map = this.map;
+        return map.graph.getEdgeCount();
 
     }
 
@@ -193,51 +807,300 @@ public class BuildingNavigatorBackend implements BuildingNavigatorBackendInterfa
      */
     public String getShortestPath(String startBuilding, String endBuilding, String... stops)
             throws NullPointerException, IllegalArgumentException, NoSuchElementException {
-        // throw exception when the buidlings (input) is null
+        Route route = getRoute(startBuilding, endBuilding, stops);
+        if (route.size() <= 1) {
+            throw new IllegalArgumentException("there is no path");
+        }
+        return route.toString();
+    }
+
+    /**
+     * returns the shortest route between two buildings through the stops in
+     * order, with its cost, its buildings and the cost of every leg, from one
+     * search per leg. The names of the buildings are only created when the
+     * route is read.
+     *
+     * @throws NullPointerException   when a building name (input) is null or
+     *                                not in the map
+     * @throws NoSuchElementException when a leg of the route cannot be travelled
+     */
+    public Route getRoute(String startBuilding, String endBuilding, String... stops)
+            throws NullPointerException, NoSuchElementException {
+        MapVersion map = this.map;
         if (startBuilding == null || endBuilding == null || startBuilding == "" || endBuilding == "") {
             throw new NullPointerException("Start or end building cannot be empty");
         }
+        String[] buildings = route(startBuilding, endBuilding, stops);
+        BuildingInterface[] waypoints = new BuildingInterface[buildings.length];
+        for (int i = 0; i < buildings.length; i++) {
+            waypoints[i] = map.findBuilding(buildings[i]);
+            if (waypoints[i] == null) {
+                throw new NullPointerException("the building doesn't exist in the map");
+            }
+        }
+        if (stops.length > 0 && stops.length + 2 > map.graph.getNodeCount()) {
+            throw new NoSuchElementException("too many stops");
+        }
+        // buildings that cannot reach each other are answered without a search
+        map.checkReachable(buildings);
 
-        // return the buildings in which the building name matches the inputted building
-        // name
-        BuildingInterface predecessor = new Building(startBuilding);
-        BuildingInterface successor = new Building(endBuilding);
-        BuildingInterface[] stopsArray = new Building[stops.length];
-        BuildingInterface searchPred = dijkstraGraph.getNode(predecessor);
-        BuildingInterface searchSucc = dijkstraGraph.getNode(successor);
-        List<BuildingInterface> pathList = new ArrayList<BuildingInterface>();
-        String pathstr = "";
+        int legCount = waypoints.length - 1;
+        int[][] legs = new int[legCount][];
+        double[] legCosts = new double[legCount];
+        double[] cost = new double[1];
+        int length = 1;
+        for (int leg = 0; leg < legCount; leg++) {
+            legs[leg] = map.overlayPath(map.names.indexOf(buildings[leg]), map.names.indexOf(buildings[leg + 1]),
+                    cost);
+            if (legs[leg] == null) {
+                legs[leg] = map.graph.shortestPathIds(waypoints[leg], waypoints[leg + 1], cost);
+            }
+            legCosts[leg] = cost[0];
+            length += legs[leg].length - 1;
+        }
+        // joins the legs, each leg starting with the building that ended the one before
+        int[] ids = new int[length];
+        int[] legEnds = new int[legCount];
+        ids[0] = legs[0][0];
+        int position = 0;
+        for (int leg = 0; leg < legCount; leg++) {
+            System.arraycopy(legs[leg], 1, ids, position + 1, legs[leg].length - 1);
+            position += legs[leg].length - 1;
+            legEnds[leg] = position;
+        }
+        return new Route(map.names, ids, legEnds, legCosts);
+    }
 
+    /**
+     * returns the travel time of the route that arrives earliest at the end
+     * building when leaving the start building at the departure time, using
+     * the time of day profiles of the roads that have one
+     *
+     * @param departure the departure time in minutes after midnight
+     * @throws NullPointerException     when the building name (input) is null
+     * @throws IllegalArgumentException when the departure time is negative
+     */
+    public double getShortestCostAt(String startBuilding, String endBuilding, double departure)
+            throws NullPointerException, IllegalArgumentException {
+        MapVersion map = this.map;
+        if (startBuilding == null || endBuilding == null || startBuilding == "" || endBuilding == "") {
+            throw new NullPointerException("Start or end building cannot be empty");
+        }
+        if (departure < 0) {
+            throw new IllegalArgumentException("departure time cannot be negative");
+        }
+        BuildingInterface searchPred = map.findBuilding(startBuilding);
+        BuildingInterface searchSucc = map.findBuilding(endBuilding);
         if (searchPred == null || searchSucc == null) {
             throw new NullPointerException("the building doesn't exist in the map");
         }
+        return map.graph.shortestPathCostAt(searchPred, searchSucc, departure);
+    }
 
-        if (stops.length == 0) {
-            // when the stop is empty, calculate the shortestpath cost with two parameters
-            pathList = dijkstraGraph.shortestPathStopsData(searchPred, searchSucc);
+    /**
+     * returns the route that arrives earliest at the end building when leaving
+     * the start building at the departure time, written as "A -> B -> C"
+     *
+     * @param departure the departure time in minutes after midnight
+     * @throws NullPointerException     when the building name (input) is null
+     * @throws IllegalArgumentException when the departure time is negative
+     */
+    public String getShortestPathAt(String startBuilding, String endBuilding, double departure)
+            throws NullPointerException, IllegalArgumentException {
+        MapVersion map = this.map;
+        if (startBuilding == null || endBuilding == null || startBuilding == "" || endBuilding == "") {
+            throw new NullPointerException("Start or end building cannot be empty");
+        }
+        if (departure < 0) {
+            throw new IllegalArgumentException("departure time cannot be negative");
+        }
+        BuildingInterface searchPred = map.findBuilding(startBuilding);
+        BuildingInterface searchSucc = map.findBuilding(endBuilding);
+        if (searchPred == null || searchSucc == null) {
+            throw new NullPointerException("the building doesn't exist in the map");
+        }
+        StringBuilder path = new StringBuilder();
+        for (BuildingInterface building : map.graph.shortestPathDataAt(searchPred, searchSucc,
+                departure)) {
+            if (path.length() > 0) {
+                path.append(" -> ");
+            }
+            path.append(building.getName());
+        }
+        return path.toString();
+    }
 
-        } else {
-            // else store the stops in the BuildingInterface array
-            for (int i = 0; i < stops.length; i++) {
-                BuildingInterface stop = dijkstraGraph.getNode(new Building(stops[i]));
-                stopsArray[i] = stop;
+    /**
+     * returns every building whose cost from the nearest of the start buildings
+     * is at most budget, paired with that cost, in order of increasing cost. The
+     * search runs lazily as the stream is consumed and never expands a building
+     * beyond the budget.
+     *
+     * @param budget         the largest cost of a returned building
+     * @param startBuildings the names of the buildings to search from
+     * @throws NullPointerException     when the building name (input) is null
+     * @throws IllegalArgumentException when the budget is negative or no start
+     *                                  building is given
+     */
+    public Stream<Map.Entry<String, Double>> getBuildingsWithin(double budget, String... startBuildings)
+            throws NullPointerException, IllegalArgumentException {
+        MapVersion map = this.map;
+        if (budget < 0 || startBuildings.length == 0) {
+            throw new IllegalArgumentException("budget cannot be negative and a start building is needed");
+        }
+        BuildingInterface[] starts = new BuildingInterface[startBuildings.length];
+        for (int i = 0; i < startBuildings.length; i++) {
+            if (startBuildings[i] == null || startBuildings[i] == "") {
+                throw new NullPointerException("Start building cannot be empty");
+            }
+            starts[i] = map.findBuilding(startBuildings[i]);
+            if (starts[i] == null) {
+                throw new NullPointerException("the building doesn't exist in the map");
             }
-            pathList = dijkstraGraph.shortestPathStopsData(searchPred, searchSucc, stopsArray);
         }
+        return map.graph.reachableWithin(budget, starts).map(
+                entry -> new AbstractMap.SimpleImmutableEntry<String, Double>(entry.getKey().getName(),
+                        entry.getValue()));
+    }
 
-        if (pathList.size() <= 1) {
-            throw new IllegalArgumentException("there is no path");
+    /**
+     * sets the buildings that are facilities of a category, such as the
+     * libraries, replacing the buildings set before for that category
+     *
+     * @param category   the name of the category
+     * @param buildings  the names of the facility buildings
+     * @throws NullPointerException when a building name (input) is null or is
+     *                              not in the map
+     */
+    public void setFacilities(String category, String... buildings) throws NullPointerException {
+        MapVersion map = this.map;
+        if (category == null || category == "") {
+            throw new NullPointerException("category cannot be empty");
         }
-        // store the name as the string in the shortest path with the ->
-        for (int i = 0; i < pathList.size() - 1; i++) {
-            pathstr += pathList.get(i).getName() + " -> ";
+        for (String building : buildings) {
+            if (building == null || map.findBuilding(building) == null) {
+                throw new NullPointerException("the building doesn't exist in the map");
+            }
         }
-        pathstr += pathList.get(pathList.size() - 1).getName();
+        facilities.put(category, buildings.clone());
+        map.facilityPartitions.remove(category);
+    }
 
-        // calculate the shortestpath cost with the shortestPathStopsCost that allows
-        // any number of stops
-        return pathstr;
+    /**
+     * returns the name of the facility of the category that is nearest to the
+     * building, or null when the building cannot reach any of them
+     *
+     * @throws NullPointerException     when the building name (input) is null
+     * @throws IllegalArgumentException when no facilities are set for the category
+     */
+    public String getNearestFacility(String category, String building)
+            throws NullPointerException, IllegalArgumentException {
+        MapVersion map = this.map;
+        int facility = facilityPartition(map, category).getFacility(buildingId(map, building));
+        return facility < 0 ? null : map.names.nameOf(facility);
+    }
+
+    /**
+     * returns the cost from the building to the nearest facility of the
+     * category, or infinity when the building cannot reach any of them
+     *
+     * @throws NullPointerException     when the building name (input) is null
+     * @throws IllegalArgumentException when no facilities are set for the category
+     */
+    public double getNearestFacilityCost(String category, String building)
+            throws NullPointerException, IllegalArgumentException {
+        MapVersion map = this.map;
+        return facilityPartition(map, category).getCost(buildingId(map, building));
+    }
 
+    // returns the names of a route's buildings in order: the start, the stops and the end
+    private static String[] route(String startBuilding, String endBuilding, String... stops) {
+        String[] route = new String[stops.length + 2];
+        route[0] = startBuilding;
+        System.arraycopy(stops, 0, route, 1, stops.length);
+        route[route.length - 1] = endBuilding;
+        return route;
+    }
+
+    // returns the id of the building, throwing NullPointerException when it is not in the map
+    private static int buildingId(MapVersion map, String building) {
+        if (building == null || building == "") {
+            throw new NullPointerException("building cannot be empty");
+        }
+        int id = map.names.indexOf(building);
+        if (id < 0) {
+            throw new NullPointerException("the building doesn't exist in the map");
+        }
+        return id;
+    }
+
+    /**
+     * returns the nearest facility labels of the category, labelling the whole
+     * map with one multi-source search the first time they are needed after the
+     * facilities or the map changed
+     */
+    private FacilityPartition facilityPartition(MapVersion map, String category) {
+        String[] buildings = facilities.get(category);
+        if (buildings == null) {
+            throw new IllegalArgumentException("no facilities are set for " + category);
+        }
+        FacilityPartition partition = map.facilityPartitions.get(category);
+        if (partition == null) {
+            // facilities that are not in a newly loaded map are left out
+            List<BuildingInterface> sources = new ArrayList<BuildingInterface>();
+            for (String building : buildings) {
+                BuildingInterface source = map.findBuilding(building);
+                if (source != null) {
+                    sources.add(source);
+                }
+            }
+            partition = map.graph.partitionByNearest(sources);
+            map.facilityPartitions.put(category, partition);
+        }
+        return partition;
+    }
+
+    /**
+     * returns up to count distinct routes between two buildings, cheapest first,
+     * each written as "A -> B -> C (cost)"
+     *
+     * @param startBuilding the name of the starting building
+     * @param endBuilding   the name of the destination building
+     * @param count         the largest number of routes to return
+     * @param maxOverlap    the largest fraction of a route's roads that may also
+     *                      be used by a cheaper route, where 1.0 allows any overlap
+     * @throws NullPointerException     when the building name (input) is null
+     * @throws IllegalArgumentException when count or maxOverlap is out of range
+     */
+    public List<String> getAlternativePaths(String startBuilding, String endBuilding, int count,
+            double maxOverlap) throws NullPointerException, IllegalArgumentException {
+        MapVersion map = this.map;
+        if (startBuilding == null || endBuilding == null || startBuilding == "" || endBuilding == "") {
+            throw new NullPointerException("Start or end building cannot be empty");
+        }
+        if (count < 1 || maxOverlap < 0.0 || maxOverlap > 1.0) {
+            throw new IllegalArgumentException("count must be positive and overlap between 0 and 1");
+        }
+        BuildingInterface searchPred = map.findBuilding(startBuilding);
+        BuildingInterface searchSucc = map.findBuilding(endBuilding);
+        if (searchPred == null || searchSucc == null) {
+            throw new NullPointerException("the building doesn't exist in the map");
+        }
+        map.checkReachable(startBuilding, endBuilding);
+        List<String> routes = new ArrayList<String>();
+        for (List<BuildingInterface> path : map.graph.shortestPathsData(searchPred, searchSucc,
+                count, maxOverlap)) {
+            StringBuilder route = new StringBuilder();
+            for (BuildingInterface building : path) {
+                if (route.length() > 0) {
+                    route.append(" -> ");
+                }
+                route.append(building.getName());
+            }
+            route.append(" (").append(map.graph.pathCost(path)).append(")");
+            routes.add(route.toString());
+        }
+        return routes;
     }
 
     /**
@@ -246,15 +1109,223 @@ public class BuildingNavigatorBackend implements BuildingNavigatorBackendInterfa
      *
      */
     public List<String> listBuilding() throws NullPointerException {
-        // store the building in the enumeration list
-        Enumeration<BuildingInterface> buildingList = dijkstraGraph.nodes.keys();
-        List<String> list = new ArrayList<String>();
-        while (buildingList.hasMoreElements()) {
-            // store the building name into the string list
-            list.add(buildingList.nextElement().getName());
+        return buildingCursor(false).nextPage(Integer.MAX_VALUE);
+    }
+
+    /**
+     * returns a cursor over the building names as they are when it is created,
+     * which copies no names. Buildings added afterwards are not seen by it.
+     *
+     * @param sorted whether to walk the names alphabetically, ignoring upper
+     *               and lower case, instead of in the order they were added
+     */
+    public BuildingCursor buildingCursor(boolean sorted) {
+        MapVersion map = this.map;
+        if (sorted) {
+            int[] ids = sortedIds(map);
+            return new BuildingCursor(map.names, ids, ids.length, 0);
         }
-        return list;
+        return new BuildingCursor(map.names, null, map.names.size(), 0);
+    }
 
+    /**
+     * returns the building names as they are now as a lazy stream, which
+     * creates every name only when the stream reaches it
+     *
+     * @param sorted whether the names are alphabetical instead of in the order
+     *               they were added
+     */
+    public Stream<String> streamBuildings(boolean sorted) {
+        return buildingCursor(sorted).stream();
+    }
+
+    /**
+     * returns a page of building names, starting after the last name of the
+     * previous page. Names are only ever added, so pages stay in order while
+     * buildings are added between them, and a building added before the
+     * current page is only missed in alphabetical order.
+     *
+     * @param after  the last name of the previous page, or null for the first
+     *               page
+     * @param limit  the largest number of names to return
+     * @param sorted whether the names are alphabetical instead of in the order
+     *               they were added
+     * @throws NoSuchElementException   when after is not a building
+     * @throws IllegalArgumentException when the limit is negative
+     */
+    public List<String> listBuilding(String after, int limit, boolean sorted)
+            throws NoSuchElementException, IllegalArgumentException {
+        MapVersion map = this.map;
+        int id = after == null ? -1 : map.names.indexOf(after);
+        if (after != null && id < 0) {
+            throw new NoSuchElementException("no building " + after);
+        }
+        if (!sorted) {
+            return new BuildingCursor(map.names, null, map.names.size(), id + 1).nextPage(limit);
+        }
+        int[] ids = sortedIds(map);
+        int position = 0;
+        if (after != null) {
+            // binary search for the position after the building, in the order of the index:
+            // by lower case name, then by id
+            String key = after.toLowerCase();
+            int high = ids.length;
+            while (position < high) {
+                int middle = (position + high) >>> 1;
+                int compared = map.names.nameOf(ids[middle]).toLowerCase().compareTo(key);
+                if (compared == 0) {
+                    compared = Integer.compare(ids[middle], id);
+                }
+                if (compared <= 0) {
+                    position = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+        }
+        return new BuildingCursor(map.names, ids, ids.length, position).nextPage(limit);
+    }
+
+    // returns the building ids of a map version in alphabetical order, walking
+    // the search index while no building can be added to it
+    private int[] sortedIds(MapVersion map) {
+        int[] ids = map.sortedIds;
+        if (ids == null) {
+            synchronized (changing) {
+                ids = map.sortedIds;
+                if (ids == null) {
+                    ids = map.search.sortedIds();
+                    map.sortedIds = ids;
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * sets the number of levels of the distance oracle behind getEstimatedCost.
+     * An oracle with k levels takes about k * n^(1 + 1/k) entries for n
+     * buildings and estimates costs at most 2k - 1 times the exact cost on maps
+     * whose roads cost the same both ways. The oracle is built again in the
+     * background when next needed.
+     *
+     * @param levels the number of levels, at least 1
+     * @throws IllegalArgumentException when levels is less than 1
+     */
+    public void setOracleLevels(int levels) throws IllegalArgumentException {
+        if (levels < 1) {
+            throw new IllegalArgumentException("an oracle needs at least one level");
+        }
+        synchronized (changing) {
+            oracleLevels = levels;
+            map.dropOracle();
+        }
+    }
+
+    /**
+     * returns an estimate of the cost of the shortest path between two buildings
+     * from the distance oracle of the map, in a few table lookups. The estimate
+     * is never below the exact cost and at most maxStretch times above it. When
+     * the oracle cannot promise that, because maxStretch is too small for its
+     * levels or the map has one-way roads, the exact cost is returned instead,
+     * so a maxStretch of 1 always searches. The oracle is built on a thread of
+     * its own when first needed and again after every change of the map, and
+     * the exact cost is returned until it is ready, so neither queries nor
+     * changes wait for a build.
+     *
+     * @param startBuilding the name of the starting building
+     * @param endBuilding   the name of the destination building
+     * @param maxStretch    the largest accepted ratio of the estimate to the exact cost
+     * @throws NullPointerException     when a building is not in the map
+     * @throws IllegalArgumentException when maxStretch is less than 1
+     * @throws NoSuchElementException   when there is no path between the buildings
+     */
+    public double getEstimatedCost(String startBuilding, String endBuilding, double maxStretch)
+            throws NullPointerException, IllegalArgumentException, NoSuchElementException {
+        if (!(maxStretch >= 1)) {
+            throw new IllegalArgumentException("maxStretch cannot be less than 1");
+        }
+        MapVersion map = this.map;
+        int start = buildingId(map, startBuilding);
+        int end = buildingId(map, endBuilding);
+        if (maxStretch > 1) {
+            DistanceOracle oracle = oracle(map);
+            if (oracle != null && oracle.getStretch() <= maxStretch) {
+                double estimate = oracle.estimate(start, end);
+                if (estimate < Double.POSITIVE_INFINITY) {
+                    return estimate;
+                }
+                // no path, which the exact search reports with its own message
+            }
+        }
+        return getShortestCost(startBuilding, endBuilding);
+    }
+
+    // returns the distance oracle of a map version, or null while it is being built or
+    // when the map has roads it cannot bound
+    private DistanceOracle oracle(MapVersion map) {
+        DistanceOracle oracle = map.oracle;
+        if (oracle == null && !map.oracleRejected) {
+            synchronized (changing) {
+                if (this.map == map) {
+                    buildOracle();
+                }
+            }
+        }
+        return oracle;
+    }
+
+    /**
+     * starts building the distance oracle of the current map, unless a build
+     * is already running. Like the hub label builder, there is one builder at
+     * a time: it copies the roads into arrays while no change can run, builds
+     * the oracle from the copy, and installs it when the oracle was not
+     * dropped meanwhile; otherwise it builds again from the map as it is then.
+     * It must be called while holding the changing lock.
+     */
+    private void buildOracle() {
+        if (oracleBuilder != null) {
+            return;
+        }
+        oracleBuilder = new Thread(() -> {
+            try {
+                while (true) {
+                    MapVersion version;
+                    long drops;
+                    int levels;
+                    ArrayGraph copy;
+                    synchronized (changing) {
+                        version = map;
+                        if (version.oracle != null || version.oracleRejected) {
+                            oracleBuilder = null;
+                            return;
+                        }
+                        drops = version.oracleDrops;
+                        levels = oracleLevels;
+                        copy = ArrayGraph.of(version.graph); // a few arrays, quick to copy under the lock
+                    }
+                    DistanceOracle oracle = null;
+                    try {
+                        oracle = new DistanceOracle(copy, levels, 1);
+                    } catch (IllegalArgumentException e) {
+                        // one-way roads, which the oracle cannot bound
+                    }
+                    synchronized (changing) {
+                        if (map == version && version.oracleDrops == drops) {
+                            version.oracle = oracle;
+                            version.oracleRejected = oracle == null;
+                        }
+                    }
+                }
+            } catch (RuntimeException | Error e) {
+                synchronized (changing) {
+                    oracleBuilder = null;
+                }
+                throw e;
+            }
+        }, "distance-oracle-builder");
+        oracleBuilder.setDaemon(true);
+        oracleBuilder.start();
     }
 
 }
@@ -1,5 +1,10 @@
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 
 /*
  * This interface is a BackendInterface for the BuildingNavigatorBackend class
@@ -12,12 +17,43 @@ public interface BuildingNavigatorBackendInterface {
     // load and store the data into the graph
     public void loadData(String filename) throws FileNotFoundException;
 
+    // loads a new map beside the current one and swaps it in once it is valid and indexed
+    public void reloadData(String filename) throws FileNotFoundException, IllegalArgumentException;
+
+    // keeps changes in a change log in the directory, replaying the changes logged earlier
+    public int openChangeLog(String directory, long compactAfter) throws IOException;
+
+    // writes the map into a new snapshot of the change log and empties the log
+    public void compactChangeLog() throws IOException;
+
+    // stops logging changes
+    public void closeChangeLog() throws IOException;
+
+    // answers shortest costs and routes through a multi-level overlay with these cell sizes, none to stop
+    public void useOverlay(int... cellSizes) throws IllegalArgumentException;
+
+    // answers shortest costs from hub labels kept in the file for every map, building and writing them when they
+    // are not there, and building them again after a road changes
+    public HubLabelIndex useHubLabels(String filename) throws IOException;
+
+    // returns why the hub labels last built in the background could not be written, or null
+    public IOException getHubLabelFailure();
+
     // adds a building into the graph
     public boolean addBuilding(String building) throws NullPointerException;
 
+    // adds a building and returns a future of the result that completes once the change is logged
+    public CompletableFuture<Boolean> addBuildingLogged(String building) throws NullPointerException;
+
     // checks if a building is in the graph
     public boolean containsBuilding(String building) throws NullPointerException;
 
+    // returns building names starting with the prefix, for autocomplete
+    public List<String> completeBuilding(String prefix, int limit) throws NullPointerException;
+
+    // returns building names within a few typos of the building name
+    public List<String> suggestBuilding(String building, int limit) throws NullPointerException;
+
     // returns the number of buildings in the graph
     public int getNumBuildings();
 
@@ -25,10 +61,19 @@ public interface BuildingNavigatorBackendInterface {
     public double getShortestCost(String startBuilding, String endBuilding, String... stops)
             throws NullPointerException, IllegalArgumentException;
 
+    // returns an estimate of the shortest path cost, at most maxStretch times the exact cost, falling back to the
+    // exact cost when the distance oracle cannot promise that or is still being built
+    public double getEstimatedCost(String startBuilding, String endBuilding, double maxStretch)
+            throws NullPointerException, IllegalArgumentException, NoSuchElementException;
+
     // adds a road between two buildings (going both ways) along with distance
     public boolean insertRoad(String startBuilding, String endBuilding, double distance)
             throws NullPointerException, IllegalArgumentException;
 
+    // adds a road and returns a future of the result that completes once the change is logged
+    public CompletableFuture<Boolean> insertRoadLogged(String startBuilding, String endBuilding, double distance)
+            throws NullPointerException, IllegalArgumentException;
+
     // checks if a road directly connecting two buildings is in the graph
     public boolean containsRoad(String startBuilding, String endBuilding) throws NullPointerException;
 
@@ -39,7 +84,48 @@ public interface BuildingNavigatorBackendInterface {
     public String getShortestPath(String startBuilding, String endBuilding, String... stops)
             throws NullPointerException, IllegalArgumentException;
 
+    // returns the shortest route through the stops with its cost, buildings and leg costs, from one search per leg
+    public Route getRoute(String startBuilding, String endBuilding, String... stops)
+            throws NullPointerException, NoSuchElementException;
+
+    // returns the travel time of the earliest arriving route when leaving at departure
+    public double getShortestCostAt(String startBuilding, String endBuilding, double departure)
+            throws NullPointerException, IllegalArgumentException;
+
+    // returns the earliest arriving route when leaving at departure (minutes after midnight)
+    public String getShortestPathAt(String startBuilding, String endBuilding, double departure)
+            throws NullPointerException, IllegalArgumentException;
+
+    // returns (building, cost) pairs within budget of the nearest start building, cheapest first
+    public Stream<Map.Entry<String, Double>> getBuildingsWithin(double budget, String... startBuildings)
+            throws NullPointerException, IllegalArgumentException;
+
+    // sets the facility buildings of a category, such as the libraries
+    public void setFacilities(String category, String... buildings) throws NullPointerException;
+
+    // returns the facility of the category nearest to the building
+    public String getNearestFacility(String category, String building)
+            throws NullPointerException, IllegalArgumentException;
+
+    // returns the cost from the building to its nearest facility of the category
+    public double getNearestFacilityCost(String category, String building)
+            throws NullPointerException, IllegalArgumentException;
+
+    // returns up to count distinct routes between two buildings, cheapest first
+    public List<String> getAlternativePaths(String startBuilding, String endBuilding, int count,
+            double maxOverlap) throws NullPointerException, IllegalArgumentException;
+
     // returns the list of the buildings in the graph
     public List<String> listBuilding() throws NullPointerException;
 
+    // returns a cursor over the building names as they are now, alphabetical or in the order they were added
+    public BuildingCursor buildingCursor(boolean sorted);
+
+    // returns the building names as they are now as a lazy stream, alphabetical or in the order they were added
+    public Stream<String> streamBuildings(boolean sorted);
+
+    // returns up to limit building names that come after a building, or from the first when after is null
+    public List<String> listBuilding(String after, int limit, boolean sorted)
+            throws NoSuchElementException, IllegalArgumentException;
+
 }
@@ -0,0 +1,224 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class runs a file (or standard input stream) of queries through the backend without the
+ * interactive menus, and writes one machine-readable result line per query.
+ *
+ * Each query line holds a command and its arguments separated by tabs or by "/" like the menu:
+ * <pre>
+ *   cost    start/end[/stop...]     cost of the shortest path
+ *   path    start/end[/stop...]     buildings along the shortest path
+ *   contains building               whether the building is in the map
+ *   list                            names of all buildings
+ *   buildings                       number of buildings
+ *   roads                           number of roads
+ * </pre>
+ * Blank lines and lines starting with # are skipped. Each result line is "ok" or "error", then the
+ * command, then the result values (or the error message), all separated by tabs, in the same order
+ * as the queries. Tabs, newlines and backslashes inside values are escaped as \t, \n and \\.
+ *
+ * Queries are read and answered in blocks, so memory use does not grow with the number of queries,
+ * and the queries of a block can be answered by several threads since they only read the map.
+ */
+public class BuildingNavigatorBatch {
+    private static final int BLOCK_SIZE = 4096; // queries read and answered together
+
+    private final BuildingNavigatorBackendInterface backend; // backend that answers the queries
+    private final int threads; // threads that answer the queries of a block
+
+    /**
+     * The constructor for BuildingNavigatorBatch class
+     *
+     * @param backend the backend with a loaded map
+     * @param threads the number of threads that answer queries, 1 answers them in order
+     */
+    public BuildingNavigatorBatch(BuildingNavigatorBackendInterface backend, int threads) {
+        this.backend = backend;
+        this.threads = threads;
+    }
+
+    /**
+     * Answers every query line of the input and writes the result lines to the output
+     *
+     * @param input  the query lines
+     * @param output where the result lines are written, it is flushed at the end
+     * @return the number of queries answered
+     * @throws IOException when the input cannot be read or the output cannot be written
+     */
+    public long run(BufferedReader input, Writer output) throws IOException {
+        ExecutorService executor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+        long count = 0;
+        try {
+            List<String> block = new ArrayList<String>(BLOCK_SIZE);
+            String line;
+            while ((line = input.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                block.add(line);
+                if (block.size() == BLOCK_SIZE) {
+                    count += answer(block, executor, output);
+                    block.clear();
+                }
+            }
+            count += answer(block, executor, output);
+        } finally {
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+        output.flush();
+        return count;
+    }
+
+    // answers a block of queries and writes the results in query order
+    private int answer(List<String> block, ExecutorService executor, Writer output) throws IOException {
+        if (executor == null) {
+            for (String query : block) {
+                output.write(answer(query));
+            }
+            return block.size();
+        }
+        List<Future<String>> results = new ArrayList<Future<String>>(block.size());
+        for (String query : block) {
+            results.add(executor.submit(() -> answer(query)));
+        }
+        for (Future<String> result : results) {
+            try {
+                output.write(result.get());
+            } catch (Exception e) {
+                throw new IOException("query could not be answered", e);
+            }
+        }
+        return block.size();
+    }
+
+    /**
+     * Answers one query
+     *
+     * @param query the query line
+     * @return the result line, ending with a newline
+     */
+    public String answer(String query) {
+        // the command is separated from its arguments by the first tab or space
+        int end = 0;
+        while (end < query.length() && query.charAt(end) != '\t' && query.charAt(end) != ' ') {
+            end++;
+        }
+        String command = query.substring(0, end).toLowerCase();
+        String[] arguments = end < query.length() ? query.substring(end + 1).split("\t|/") : new String[0];
+        String[] parts = new String[arguments.length + 1];
+        parts[0] = command;
+        System.arraycopy(arguments, 0, parts, 1, arguments.length);
+        StringBuilder line = new StringBuilder(64);
+        try {
+            List<String> values = new ArrayList<String>();
+            switch (command) {
+                case "cost":
+                    checkArguments(parts, 3);
+                    values.add(String.valueOf(backend.getShortestCost(arg(parts, 1), arg(parts, 2), stops(parts))));
+                    break;
+                case "path":
+                    checkArguments(parts, 3);
+                    Route route = backend.getRoute(arg(parts, 1), arg(parts, 2), stops(parts));
+                    if (route.size() <= 1) {
+                        throw new IllegalArgumentException("there is no path");
+                    }
+                    values.addAll(route.getBuildings());
+                    break;
+                case "contains":
+                    checkArguments(parts, 2);
+                    values.add(String.valueOf(backend.containsBuilding(arg(parts, 1))));
+                    break;
+                case "list":
+                    values.addAll(backend.listBuilding());
+                    break;
+                case "buildings":
+                    values.add(String.valueOf(backend.getNumBuildings()));
+                    break;
+                case "roads":
+                    values.add(String.valueOf(backend.getNumRoads()));
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown command " + command);
+            }
+            line.append("ok\t").append(escape(command));
+            for (String value : values) {
+                line.append('\t').append(escape(value));
+            }
+        } catch (Exception e) {
+            line.setLength(0);
+            line.append("error\t").append(escape(command)).append('\t').append(escape(String.valueOf(e.getMessage())));
+        }
+        return line.append('\n').toString();
+    }
+
+    private static void checkArguments(String[] parts, int needed) {
+        if (parts.length < needed) {
+            throw new IllegalArgumentException("missing arguments");
+        }
+    }
+
+    private static String arg(String[] parts, int index) {
+        return parts[index].trim();
+    }
+
+    private static String[] stops(String[] parts) {
+        String[] stops = new String[parts.length - 3];
+        for (int i = 3; i < parts.length; i++) {
+            stops[i - 3] = parts[i].trim();
+        }
+        return stops;
+    }
+
+    private static String escape(String value) {
+        if (value.indexOf('\t') < 0 && value.indexOf('\n') < 0 && value.indexOf('\\') < 0) {
+            return value;
+        }
+        return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n");
+    }
+
+    /**
+     * Runs a batch of queries
+     *
+     * @param args the map file, the query file (or - for standard input), and optionally the
+     *             number of threads
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: java BuildingNavigatorBatch map.dot [queries|-] [threads]");
+            System.exit(2);
+        }
+        String queries = args.length > 1 ? args[1] : "-";
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+        BuildingNavigatorBackendInterface backend = new BuildingNavigatorBackend(
+                new DijkstraGraph<BuildingInterface, Double>(), new MapReader());
+        try {
+            backend.loadData(args[0]);
+        } catch (FileNotFoundException e) {
+            System.err.println("Map file " + args[0] + " does not exist.");
+            System.exit(1);
+        }
+        InputStream in = queries.equals("-") ? System.in : new FileInputStream(queries);
+        try (BufferedReader input = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16);
+                Writer output = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8),
+                        1 << 16)) {
+            new BuildingNavigatorBatch(backend, threads).run(input, output);
+        }
+    }
+}
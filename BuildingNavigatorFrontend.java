@@ -75,6 +75,9 @@ public class BuildingNavigatorFrontend implements BuildingNavigatorFrontendInter
                 case 'P': // It will get the shortest [P] ath between more than two buildings
                     shortestPath(startBuilding, endBuilding, stops);
                     break;
+                case 'A': // It will get [A] lternative routes between two buildings
+                    alternativePaths();
+                    break;
                 case 'Q': // [Q]uit
                     System.out.println("Thanks for using University of Wisconsin Madison's buliding map!");
                     break;
@@ -98,6 +101,7 @@ public class BuildingNavigatorFrontend implements BuildingNavigatorFrontendInter
                 + "    [C]heck whether or not the building is in the map\n" + "    [L]ist of the buildings in the map\n" 
                 + "    [D]istance of two buildings in the map\n" + "    Distanc[E] of more than two buildings in the map\n"
                 + "    [S]hortest path between two buildings\n" + "    shortest [P] ath between more than two buildings\n" 
+                + "    [A]lternative routes between two buildings\n"
                 + "    [Q]uit\n");
         System.out.print("Enter command: ");
 
@@ -219,6 +223,7 @@ public class BuildingNavigatorFrontend implements BuildingNavigatorFrontendInter
                 System.out.println("Map contained "+ input + ".");
             } else {
                 System.out.println("This building does not exist.");
+                suggestBuildings(input);
             }
         } catch (Exception e) {
             System.out.println("This building does not exist.");
@@ -235,8 +240,20 @@ public class BuildingNavigatorFrontend implements BuildingNavigatorFrontendInter
     @Override
     public void buildingsList(){
         try {
-            List<String> backList = backend.listBuilding();
-            System.out.println("This is the buildings list in the University of Wisconsin Madison map : " + backList);
+            // the names are printed as they are streamed, without copying them into a list first
+            StringBuilder line = new StringBuilder("This is the buildings list in the University of Wisconsin Madison map : [");
+            BuildingCursor cursor = backend.buildingCursor(false);
+            while (cursor.hasNext()) {
+                line.append(cursor.next());
+                if (cursor.hasNext()) {
+                    line.append(", ");
+                }
+                if (line.length() > 8192) {
+                    System.out.print(line);
+                    line.setLength(0);
+                }
+            }
+            System.out.println(line.append(']'));
         } catch (Exception e) {
             System.out.println("There is no buildings in the map.");
         }
@@ -278,6 +295,7 @@ public class BuildingNavigatorFrontend implements BuildingNavigatorFrontendInter
 
         } catch (Exception e) {
             System.out.println(e.getMessage());
+            suggestBuildings(details);
         }
     }
 
@@ -323,6 +341,7 @@ public class BuildingNavigatorFrontend implements BuildingNavigatorFrontendInter
 
         } catch (Exception e) {
             System.out.println(e.getMessage());
+            suggestBuildings(details);
         }
     }
 
@@ -361,6 +380,7 @@ public class BuildingNavigatorFrontend implements BuildingNavigatorFrontendInter
             System.out.println("This is the path from " + details[0].trim() + " to " + details[1].trim() + "\n" + backPath);
         } catch (Exception e) {
             System.out.println(e.getMessage());
+            suggestBuildings(details);
         }
     }
 
@@ -405,6 +425,75 @@ public class BuildingNavigatorFrontend implements BuildingNavigatorFrontendInter
             System.out.println("This is the path from " + details[0].trim() + " to " + details[1].trim() + " (Stops building : " + stopsString + ") \n " + backPaths);
         } catch (Exception e) {
             System.out.println(e.getMessage());
+            suggestBuildings(details);
+        }
+    }
+
+
+    /**
+     * 
+     * This is the alternative routes between two buildings.
+     * User will enter the two buildings and it will return up to three routes between them,
+     * cheapest first, where each route shares at most half of its roads with a cheaper route.
+     * If the length is not two, empty string is entered or doesn't follow format, it will return the error message
+     * 
+     */
+    @Override
+    public void alternativePaths() {
+        System.out.println("Find alternative routes in this format [startBuilding/endBuilding], press [Q] to exit:");
+        String input = in.nextLine().trim();
+        String[] details = input.split("/"); // splits String into it's respective categories
+
+        if (details[0].toUpperCase().equals("Q") && details.length == 1) { // check if user wants to quit
+            return;
+        } 
+        while (details.length != 2) { // checks if 2 details are included
+            System.out.println("Invalid data/format entered! Try again.");
+            System.out
+                    .println("Find alternative routes in this format [startBuilding/endBuilding], press [Q] to exit:");
+            input = in.nextLine().trim();
+            details = input.split("/");
+
+            if (details[0].toUpperCase().equals("Q") && details.length == 1) {
+                return;
+            }
+        }
+
+        try {
+            List<String> routes = backend.getAlternativePaths(details[0].trim(), details[1].trim(), 3, 0.5);
+            System.out.println("These are the routes from " + details[0].trim() + " to " + details[1].trim() + " :");
+            for (int i = 0; i < routes.size(); i++) {
+                System.out.println((i + 1) + ". " + routes.get(i));
+            }
+        } catch (Exception e) {
+            System.out.println(e.getMessage());
+            suggestBuildings(details);
+        }
+    }
+
+    /**
+     * 
+     * For every entered name that is not a building in the map, prints the
+     * building names that are closest to it, so that typos can be corrected
+     * 
+     */
+    private void suggestBuildings(String... buildings) {
+        for (String building : buildings) {
+            String name = building.trim();
+            try {
+                if (backend.containsBuilding(name)) {
+                    continue;
+                }
+                List<String> suggestions = backend.suggestBuilding(name, 3);
+                if (suggestions.isEmpty()) {
+                    suggestions = backend.completeBuilding(name, 3);
+                }
+                if (!suggestions.isEmpty()) {
+                    System.out.println("Did you mean " + String.join(" or ", suggestions) + " instead of " + name + "?");
+                }
+            } catch (Exception e) {
+                // empty names have no suggestions
+            }
         }
     }
 
@@ -12,6 +12,7 @@ public interface BuildingNavigatorFrontendInterface {
     public void costOfPath(String startBuilding, String endBuilding, String... stops); // It will return the cost of the path between more than two buildings
     public void shortestPath(String startBuilding, String endBuilding); // finds the shortest path between two buildings. ( It will return the shortest path ex) A → B → C )
     public void shortestPath(String startBuilding, String endBuilding, String... stops); // finds the shortest path between more than two buildings. ( It will return the shortest path ex) A → B → C → D → E )
+    public void alternativePaths(); // finds several distinct routes between two buildings, cheapest first
     
     }
     
@@ -0,0 +1,170 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * This class is a closed-loop load generator for a BuildingNavigatorServer. Each worker thread
+ * sends one shortest path query between two random buildings, waits for the answer, and sends the
+ * next one, until the run time is over. At the end it reports the throughput and the latency
+ * percentiles of all answered queries.
+ *
+ * Usage: java BuildingNavigatorLoadTest [url] [workers] [seconds] [endpoint]
+ * where url defaults to http://127.0.0.1:8080, workers to 8, seconds to 10 and endpoint to cost.
+ * Passing a map file instead of a url starts a local server on that map for the run.
+ */
+public class BuildingNavigatorLoadTest {
+
+    /**
+     * The result of one worker: the latency of every answered query in nanoseconds, and the number
+     * of queries that failed
+     */
+    private static class WorkerResult {
+        private long[] latencies = new long[1024];
+        private int count;
+        private int errors;
+
+        private void add(long latency) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = latency;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String target = args.length > 0 ? args[0] : "http://127.0.0.1:8080";
+        int workers = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        String endpoint = args.length > 3 ? args[3] : "cost";
+
+        // start a local server when a map file is given
+        BuildingNavigatorServer local = null;
+        if (!target.startsWith("http")) {
+            BuildingNavigatorBackendInterface backend = new BuildingNavigatorBackend(
+                    new DijkstraGraph<BuildingInterface, Double>(), new MapReader());
+            backend.loadData(target);
+            local = new BuildingNavigatorServer(backend, 0, Runtime.getRuntime().availableProcessors());
+            local.start();
+            target = "http://127.0.0.1:" + local.getPort();
+        }
+        String baseUrl = target.endsWith("/") ? target.substring(0, target.length() - 1) : target;
+
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        List<String> buildings = fetchBuildings(client, baseUrl);
+        if (buildings.size() < 2) {
+            System.out.println("The map needs at least two buildings.");
+            return;
+        }
+
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        WorkerResult[] results = new WorkerResult[workers];
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int w = 0; w < workers; w++) {
+            WorkerResult result = results[w] = new WorkerResult();
+            Random random = new Random(w);
+            Thread thread = new Thread(() -> {
+                while (System.nanoTime() < end) {
+                    String start = buildings.get(random.nextInt(buildings.size()));
+                    String finish = buildings.get(random.nextInt(buildings.size()));
+                    HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/" + endpoint
+                            + "?start=" + encode(start) + "&end=" + encode(finish))).build();
+                    long sent = System.nanoTime();
+                    try {
+                        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+                        // a missing path is a valid answer, anything else is an error
+                        if (response.statusCode() == 200 || response.statusCode() == 404) {
+                            result.add(System.nanoTime() - sent);
+                        } else {
+                            result.errors++;
+                        }
+                    } catch (IOException | InterruptedException e) {
+                        result.errors++;
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (local != null) {
+            local.stop();
+        }
+        report(results, seconds, workers);
+    }
+
+    // returns the names of the buildings on the server
+    private static List<String> fetchBuildings(HttpClient client, String baseUrl)
+            throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/buildings")).build();
+        String body = client.send(request, HttpResponse.BodyHandlers.ofString()).body();
+        // the body is a JSON array of strings
+        List<String> names = new ArrayList<String>();
+        StringBuilder name = null;
+        for (int i = 0; i < body.length(); i++) {
+            char c = body.charAt(i);
+            if (name == null) {
+                if (c == '"') {
+                    name = new StringBuilder();
+                }
+            } else if (c == '\\') {
+                char escaped = body.charAt(++i);
+                if (escaped == 'u') {
+                    name.append((char) Integer.parseInt(body.substring(i + 1, i + 5), 16));
+                    i += 4;
+                } else {
+                    name.append(escaped);
+                }
+            } else if (c == '"') {
+                names.add(name.toString());
+                name = null;
+            } else {
+                name.append(c);
+            }
+        }
+        return names;
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    // prints the throughput and latency percentiles of all workers together
+    private static void report(WorkerResult[] results, int seconds, int workers) {
+        int total = 0;
+        int errors = 0;
+        for (WorkerResult result : results) {
+            total += result.count;
+            errors += result.errors;
+        }
+        long[] latencies = new long[total];
+        int i = 0;
+        for (WorkerResult result : results) {
+            System.arraycopy(result.latencies, 0, latencies, i, result.count);
+            i += result.count;
+        }
+        Arrays.sort(latencies);
+        System.out.println("workers: " + workers + ", seconds: " + seconds);
+        System.out.println("queries: " + total + ", errors: " + errors);
+        System.out.printf("throughput: %.1f queries/s%n", (double) total / seconds);
+        if (total > 0) {
+            System.out.printf("latency ms: p50 %.3f, p90 %.3f, p99 %.3f, p99.9 %.3f, max %.3f%n",
+                    percentile(latencies, 50), percentile(latencies, 90), percentile(latencies, 99),
+                    percentile(latencies, 99.9), latencies[total - 1] / 1e6);
+        }
+    }
+
+    private static double percentile(long[] sorted, double percent) {
+        int index = (int) Math.ceil(percent / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1e6;
+    }
+}
@@ -0,0 +1,377 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This class serves the operations of a BuildingNavigatorBackend as JSON over HTTP, using the
+ * HttpServer that comes with the JDK. Queries (GET) run at the same time as each other, while
+ * changes to the map (POST) wait until they can run alone. A change then waits for the change log
+ * to reach the disk after letting queries and other changes run again.
+ *
+ * Endpoints, with parameters in the query string:
+ * <pre>
+ *   GET  /buildings                         list of building names
+ *   GET  /buildings?limit=[&after=&sorted=] a page of building names, after the last name of the
+ *                                           previous page, as {"buildings": [...], "next": name},
+ *                                           where next is null on the last page
+ *   GET  /buildings/count                   number of buildings
+ *   GET  /buildings/contains?building=      whether the building is in the map
+ *   GET  /buildings/complete?prefix=&limit= building names starting with the prefix
+ *   GET  /roads/count                       number of roads
+ *   GET  /roads/contains?start=&end=        whether a road connects the buildings
+ *   GET  /cost?start=&end=[&stop=...]       cost of the shortest path
+ *   GET  /cost/estimate?start=&end=&stretch=   estimated cost, at most stretch (default 3)
+ *                                           times the exact cost
+ *   GET  /path?start=&end=[&stop=...]       shortest path, as a list of building names
+ *   GET  /route?start=&end=[&stop=...]      shortest path with its cost and the cost of every leg,
+ *                                           as {"cost": c, "buildings": [...], "legs": [...]}
+ *   GET  /alternatives?start=&end=&count=&overlap=   distinct routes, cheapest first
+ *   POST /buildings?building=               adds a building
+ *   POST /roads?start=&end=&distance=       adds a road
+ * </pre>
+ * Errors are answered with {"error": message}, using status 400 for bad parameters and 404 for
+ * unknown buildings or missing paths.
+ */
+public class BuildingNavigatorServer {
+
+    private final BuildingNavigatorBackendInterface backend; // backend that answers the requests
+    private final ReadWriteLock lock = new ReentrantReadWriteLock(); // queries share, changes don't
+    private final HttpServer server; // JDK http server
+    private final ExecutorService executor; // threads that handle the requests
+
+    /**
+     * The constructor for BuildingNavigatorServer class, the server starts with start()
+     *
+     * @param backend the backend with a loaded map
+     * @param port    the port to listen on, or 0 for any free port
+     * @param threads the number of requests handled at the same time
+     * @throws IOException when the port cannot be opened
+     */
+    public BuildingNavigatorServer(BuildingNavigatorBackendInterface backend, int port, int threads)
+            throws IOException {
+        this.backend = backend;
+        // answers are small, so send them right away instead of waiting for the client's ack
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 128);
+        this.executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+    }
+
+    // starts answering requests
+    public void start() {
+        server.start();
+    }
+
+    // stops answering requests, waiting up to a second for running ones
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    // returns the port the server listens on
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Answers one request, turning the backend's exceptions into error responses
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        int status = 200;
+        String body;
+        try {
+            Map<String, List<String>> params = parseQuery(exchange.getRequestURI().getRawQuery());
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getPath();
+            if (method.equals("POST")) {
+                CompletableFuture<Boolean> changed;
+                lock.writeLock().lock();
+                try {
+                    changed = change(path, params);
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                // the change log is forced to disk after the lock is released, so reads go on
+                // and changes posted meanwhile are written together with this one
+                body = changed == null ? null : String.valueOf(await(changed));
+            } else {
+                lock.readLock().lock();
+                try {
+                    body = route(method, path, params);
+                } finally {
+                    lock.readLock().unlock();
+                }
+            }
+            if (body == null) {
+                status = 404;
+                body = error("no endpoint " + method + " " + path);
+            }
+        } catch (NullPointerException | NoSuchElementException e) {
+            status = 404;
+            body = error(e.getMessage());
+        } catch (IllegalArgumentException e) {
+            status = 400;
+            body = error(e.getMessage());
+        } catch (RuntimeException e) {
+            status = 500;
+            body = error(e.toString());
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Calls the backend operation of a GET endpoint
+     *
+     * @return the JSON response, or null when there is no such endpoint
+     */
+    private String route(String method, String path, Map<String, List<String>> params) {
+        if (method.equals("GET")) {
+            switch (path) {
+                case "/buildings":
+                    if (params.containsKey("limit") || params.containsKey("after")) {
+                        return page(backend.listBuilding(params.containsKey("after") ? param(params, "after") : null,
+                                intParam(params, "limit", 100), Boolean.parseBoolean(
+                                        params.containsKey("sorted") ? param(params, "sorted") : "false")),
+                                intParam(params, "limit", 100));
+                    }
+                    return json(backend.listBuilding());
+                case "/buildings/count":
+                    return String.valueOf(backend.getNumBuildings());
+                case "/buildings/contains":
+                    return String.valueOf(backend.containsBuilding(param(params, "building")));
+                case "/buildings/complete":
+                    return json(backend.completeBuilding(param(params, "prefix"),
+                            intParam(params, "limit", 10)));
+                case "/roads/count":
+                    return String.valueOf(backend.getNumRoads());
+                case "/roads/contains":
+                    return String.valueOf(backend.containsRoad(param(params, "start"), param(params, "end")));
+                case "/cost":
+                    return number(backend.getShortestCost(param(params, "start"), param(params, "end"),
+                            stops(params)));
+                case "/cost/estimate":
+                    return number(backend.getEstimatedCost(param(params, "start"), param(params, "end"),
+                            doubleParam(params, "stretch", 3.0)));
+                case "/path":
+                    return json(path(backend.getRoute(param(params, "start"), param(params, "end"),
+                            stops(params))).getBuildings());
+                case "/route":
+                    return json(backend.getRoute(param(params, "start"), param(params, "end"), stops(params)));
+                case "/alternatives":
+                    return json(backend.getAlternativePaths(param(params, "start"), param(params, "end"),
+                            intParam(params, "count", 3), doubleParam(params, "overlap", 1.0)));
+                default:
+                    return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Applies the change of a POST request to the backend, returning the result as a future that
+     * completes once the change is logged, or null for an unknown path
+     */
+    private CompletableFuture<Boolean> change(String path, Map<String, List<String>> params) {
+        switch (path) {
+            case "/buildings":
+                return backend.addBuildingLogged(param(params, "building"));
+            case "/roads":
+                return backend.insertRoadLogged(param(params, "start"), param(params, "end"),
+                        doubleParam(params, "distance", Double.NaN));
+            default:
+                return null;
+        }
+    }
+
+    // waits for a logged change, throwing the exception it failed with
+    private static boolean await(CompletableFuture<Boolean> changed) {
+        try {
+            return changed.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    // parses a url query string into the values of each parameter
+    private static Map<String, List<String>> parseQuery(String query) {
+        Map<String, List<String>> params = new HashMap<String, List<String>>();
+        if (query == null || query.isEmpty()) {
+            return params;
+        }
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            String name = URLDecoder.decode(equals < 0 ? pair : pair.substring(0, equals), StandardCharsets.UTF_8);
+            String value = equals < 0 ? "" : URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8);
+            params.computeIfAbsent(name, key -> new ArrayList<String>()).add(value);
+        }
+        return params;
+    }
+
+    private static String param(Map<String, List<String>> params, String name) {
+        List<String> values = params.get(name);
+        if (values == null) {
+            throw new IllegalArgumentException("missing parameter " + name);
+        }
+        return values.get(0);
+    }
+
+    private static String[] stops(Map<String, List<String>> params) {
+        List<String> values = params.get("stop");
+        return values == null ? new String[0] : values.toArray(new String[0]);
+    }
+
+    private static int intParam(Map<String, List<String>> params, String name, int defaultValue) {
+        return params.containsKey(name) ? Integer.parseInt(param(params, name)) : defaultValue;
+    }
+
+    private static double doubleParam(Map<String, List<String>> params, String name, double defaultValue) {
+        if (!params.containsKey(name)) {
+            if (Double.isNaN(defaultValue)) {
+                throw new IllegalArgumentException("missing parameter " + name);
+            }
+            return defaultValue;
+        }
+        return Double.parseDouble(param(params, name));
+    }
+
+    // writes a list of strings as a JSON array
+    private static String json(List<String> values) {
+        StringBuilder json = new StringBuilder("[");
+        for (String value : values) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append(string(value));
+        }
+        return json.append(']').toString();
+    }
+
+    // writes a page of building names with the name to continue after, which is null on the last page
+    private static String page(List<String> names, int limit) {
+        String next = names.isEmpty() || names.size() < limit ? "null" : string(names.get(names.size() - 1));
+        return "{\"buildings\":" + json(names) + ",\"next\":" + next + "}";
+    }
+
+    // returns the route of a path request, which like getShortestPath needs a second building
+    private static Route path(Route route) {
+        if (route.size() <= 1) {
+            throw new IllegalArgumentException("there is no path");
+        }
+        return route;
+    }
+
+    // writes a route with its cost, its buildings and the cost of every leg
+    private static String json(Route route) {
+        StringBuilder legs = new StringBuilder("[");
+        for (double cost : route.getLegCosts()) {
+            if (legs.length() > 1) {
+                legs.append(',');
+            }
+            legs.append(number(cost));
+        }
+        return "{\"cost\":" + number(route.getCost()) + ",\"buildings\":" + json(route.getBuildings())
+                + ",\"legs\":" + legs.append(']') + "}";
+    }
+
+    // writes a number, using null for infinity which JSON cannot hold
+    private static String number(double value) {
+        return Double.isInfinite(value) || Double.isNaN(value) ? "null" : String.valueOf(value);
+    }
+
+    private static String error(String message) {
+        return "{\"error\":" + string(String.valueOf(message)) + "}";
+    }
+
+    // writes a string as a quoted and escaped JSON string
+    private static String string(String value) {
+        StringBuilder json = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        return json.append('"').toString();
+    }
+
+    /**
+     * Starts a server on a map file
+     *
+     * @param args the map file, the port (default 8080), the number of threads (default the
+     *             number of processors), then --watch to reload the map file when it changes,
+     *             --log=directory to keep added buildings and roads across restarts, --reorder
+     *             to renumber the buildings so that neighbours get nearby ids, --overlay=256,4096
+     *             to route through a multi-level overlay with those cell sizes and --hub-labels
+     *             to answer costs from hub labels kept next to the map file
+     */
+    public static void main(String[] args) throws IOException {
+        String filename = args.length > 0 ? args[0] : "cs400project3.dot";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        boolean reorder = Arrays.asList(args).contains("--reorder");
+        BuildingNavigatorBackendInterface backend = new BuildingNavigatorBackend(
+                new DijkstraGraph<BuildingInterface, Double>(), new MapReader(reorder));
+        try {
+            backend.loadData(filename);
+        } catch (FileNotFoundException e) {
+            System.out.println("Map file " + filename + " does not exist.");
+            return;
+        }
+        BuildingNavigatorServer server = new BuildingNavigatorServer(backend, port, threads);
+        for (int i = 3; i < args.length; i++) {
+            if (args[i].startsWith("--log=")) {
+                int replayed = backend.openChangeLog(args[i].substring("--log=".length()), 10000);
+                System.out.println("Replayed " + replayed + " logged changes");
+            } else if (args[i].equals("--watch")) {
+                new MapFileWatcher(backend, filename, 200);
+            }
+        }
+        // the overlay and the hub labels are built once the logged changes are replayed, not again
+        // for every new road, whatever the order of the arguments
+        for (int i = 3; i < args.length; i++) {
+            if (args[i].startsWith("--overlay=")) {
+                backend.useOverlay(Arrays.stream(args[i].substring("--overlay=".length()).split(","))
+                        .mapToInt(Integer::parseInt).toArray());
+            } else if (args[i].equals("--hub-labels")) {
+                long begin = System.nanoTime();
+                HubLabelIndex labels = backend.useHubLabels(HubLabelIndex.fileFor(filename));
+                System.out.println("Hub labels ready in " + (System.nanoTime() - begin) / 1_000_000
+                        + " ms: " + labels);
+            }
+        }
+        server.start();
+        System.out.println("Serving " + filename + " on http://127.0.0.1:" + server.getPort() + "/");
+    }
+}
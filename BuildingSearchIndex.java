@@ -0,0 +1,366 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.IntPredicate;
+
+/**
+ * This class indexes building names for autocomplete. A trie answers prefix completion in
+ * alphabetical order, and an index of the character pairs (bigrams) in each name answers typo
+ * tolerant lookups (such as BioChemistry for BioChemstry): names sharing too few bigrams with the
+ * query are skipped, and only the rest are checked with the Levenshtein distance. Matching ignores
+ * upper and lower case. Both structures are stored in int and char arrays and refer to buildings
+ * by their id in a NameDictionary. Several threads may search an index at once, each typo
+ * tolerant lookup taking scratch arrays that no other lookup is using, but a name must not be
+ * added while it is searched.
+ */
+public class BuildingSearchIndex {
+  private NameDictionary names; // dictionary that the indexed ids belong to
+
+  // lower case key of every indexed id, one after another
+  private char[] keyChars = new char[256];
+  private int[] keyStarts = new int[33];
+  private int keyCount; // number of indexed ids
+
+  // trie nodes, node 0 is the root
+  private char[] trieChar = new char[64]; // character on the edge into the node
+  private int[] trieChild = new int[64]; // first child of the node, or 0 when it has none
+  private int[] trieSibling = new int[64]; // next child of the same parent, or 0 at the end
+  private int[] trieId = new int[64]; // first id whose key ends at the node, or -1
+  private int trieSize = 1;
+  private int[] nextSameKey = new int[32]; // next id with the same key, or -1
+
+  // bigram postings, the ids of the names containing each hashed bigram in increasing order
+  private static final int BIGRAM_BUCKETS = 1 << 12;
+  private int[][] postings = new int[BIGRAM_BUCKETS][];
+  private int[] postingSizes = new int[BIGRAM_BUCKETS];
+
+  // scratch arrays of the typo tolerant lookups, one set for each lookup running at once
+  private final ConcurrentLinkedQueue<Scratch> idleScratch = new ConcurrentLinkedQueue<Scratch>();
+
+  /**
+   * Scratch arrays used by one typo tolerant lookup at a time, and reused by the next one
+   */
+  private static class Scratch {
+    private int[] sharedCounts = new int[0]; // bigrams each id shares with the query
+    private int[] touched = new int[0]; // ids with a nonzero shared count
+    private int[] previousRow = new int[32]; // rows of the edit distance computation
+    private int[] currentRow = new int[32];
+  }
+
+  /**
+   * Creates an index over every name in the dictionary
+   *
+   * @param names the dictionary of building names
+   */
+  public BuildingSearchIndex(NameDictionary names) {
+    this.names = names;
+    trieId[0] = -1;
+    for (int id = 0; id < names.size(); id++) {
+      add(id);
+    }
+  }
+
+  /**
+   * Adds the name with the provided id into the index. Ids must be added in increasing order, the
+   * way the dictionary hands them out.
+   *
+   * @param id the id of the name in the dictionary
+   */
+  public void add(int id) {
+    String key = names.nameOf(id).toLowerCase();
+    // store the key
+    if (keyCount + 1 == keyStarts.length) {
+      keyStarts = Arrays.copyOf(keyStarts, keyStarts.length * 2);
+      nextSameKey = Arrays.copyOf(nextSameKey, keyStarts.length);
+    }
+    int start = keyStarts[keyCount];
+    if (start + key.length() > keyChars.length) {
+      keyChars = Arrays.copyOf(keyChars, Math.max(keyChars.length * 2, start + key.length()));
+    }
+    key.getChars(0, key.length(), keyChars, start);
+    keyStarts[keyCount + 1] = start + key.length();
+    keyCount++;
+    addToTrie(id, key);
+    addBigrams(id, key);
+  }
+
+  // walks the trie along the key, creating children in alphabetical order where they are missing
+  private void addToTrie(int id, String key) {
+    int node = 0;
+    for (int i = 0; i < key.length(); i++) {
+      char c = key.charAt(i);
+      int previous = 0;
+      int child = trieChild[node];
+      while (child != 0 && trieChar[child] < c) {
+        previous = child;
+        child = trieSibling[child];
+      }
+      if (child == 0 || trieChar[child] != c) {
+        int created = newTrieNode(c);
+        trieSibling[created] = child;
+        if (previous == 0) {
+          trieChild[node] = created;
+        } else {
+          trieSibling[previous] = created;
+        }
+        child = created;
+      }
+      node = child;
+    }
+    // chain the id behind the other ids with the same key
+    nextSameKey[id] = -1;
+    if (trieId[node] < 0) {
+      trieId[node] = id;
+    } else {
+      int last = trieId[node];
+      while (nextSameKey[last] >= 0) {
+        last = nextSameKey[last];
+      }
+      nextSameKey[last] = id;
+    }
+  }
+
+  private int newTrieNode(char c) {
+    if (trieSize == trieChar.length) {
+      int capacity = trieSize * 2;
+      trieChar = Arrays.copyOf(trieChar, capacity);
+      trieChild = Arrays.copyOf(trieChild, capacity);
+      trieSibling = Arrays.copyOf(trieSibling, capacity);
+      trieId = Arrays.copyOf(trieId, capacity);
+    }
+    trieChar[trieSize] = c;
+    trieChild[trieSize] = 0;
+    trieSibling[trieSize] = 0;
+    trieId[trieSize] = -1;
+    return trieSize++;
+  }
+
+  // adds the id to the postings of every bigram of the key, with the key padded by ^ and $
+  private void addBigrams(int id, String key) {
+    char previous = '^';
+    for (int i = 0; i <= key.length(); i++) {
+      char c = i < key.length() ? key.charAt(i) : '$';
+      int bucket = bigram(previous, c);
+      int size = postingSizes[bucket];
+      // ids are added in increasing order, so a repeated bigram is the last posting
+      if (size == 0 || postings[bucket][size - 1] != id) {
+        if (postings[bucket] == null) {
+          postings[bucket] = new int[4];
+        } else if (size == postings[bucket].length) {
+          postings[bucket] = Arrays.copyOf(postings[bucket], size * 2);
+        }
+        postings[bucket][size] = id;
+        postingSizes[bucket]++;
+      }
+      previous = c;
+    }
+  }
+
+  private static int bigram(char first, char second) {
+    return (first * 31 + second) & (BIGRAM_BUCKETS - 1);
+  }
+
+  /**
+   * Returns the building names that start with the provided prefix, in alphabetical order
+   *
+   * @param prefix the start of the building name, upper and lower case are ignored
+   * @param limit  the largest number of names to return
+   * @return names starting with the prefix
+   */
+  public List<String> complete(String prefix, int limit) {
+    List<String> result = new ArrayList<String>();
+    String key = prefix.toLowerCase();
+    int node = 0;
+    for (int i = 0; i < key.length() && node >= 0; i++) {
+      char c = key.charAt(i);
+      int child = trieChild[node];
+      while (child != 0 && trieChar[child] < c) {
+        child = trieSibling[child];
+      }
+      node = child != 0 && trieChar[child] == c ? child : -1;
+    }
+    if (node >= 0) {
+      collect(node, limit, result);
+    }
+    return result;
+  }
+
+  // adds the names below the trie node in alphabetical order until the limit is reached
+  private void collect(int root, int limit, List<String> result) {
+    if (limit <= 0) {
+      return;
+    }
+    walk(root, id -> {
+      result.add(names.nameOf(id));
+      return result.size() < limit;
+    });
+  }
+
+  /**
+   * Returns the ids of every indexed name in alphabetical order, ignoring upper and lower case,
+   * which is the order in which names are completed
+   */
+  public int[] sortedIds() {
+    int[] ids = new int[keyCount];
+    int[] count = new int[1];
+    walk(0, id -> {
+      ids[count[0]++] = id;
+      return true;
+    });
+    return ids;
+  }
+
+  // visits the ids below the trie node in alphabetical order until the visitor returns false
+  private void walk(int root, IntPredicate visitor) {
+    int[] stack = new int[16];
+    int top = 0;
+    stack[top++] = root;
+    while (top > 0) {
+      int node = stack[--top];
+      for (int id = trieId[node]; id >= 0; id = nextSameKey[id]) {
+        if (!visitor.test(id)) {
+          return;
+        }
+      }
+      // push the children in reverse so that the smallest character is visited first
+      int count = 0;
+      for (int child = trieChild[node]; child != 0; child = trieSibling[child]) {
+        count++;
+      }
+      if (top + count > stack.length) {
+        stack = Arrays.copyOf(stack, Math.max(stack.length * 2, top + count));
+      }
+      int i = top + count;
+      for (int child = trieChild[node]; child != 0; child = trieSibling[child]) {
+        stack[--i] = child;
+      }
+      top += count;
+    }
+  }
+
+  /**
+   * Returns the building names within the provided number of single character edits of the name,
+   * closest names first
+   *
+   * @param name        the possibly misspelled building name, upper and lower case are ignored
+   * @param maxDistance the largest number of insertions, deletions and substitutions allowed
+   * @param limit       the largest number of names to return
+   * @return names close to the provided name
+   */
+  public List<String> suggest(String name, int maxDistance, int limit) {
+    char[] query = name.toLowerCase().toCharArray();
+    // matches are gathered per distance so that closer names are returned first
+    List<List<String>> byDistance = new ArrayList<List<String>>();
+    for (int d = 0; d <= maxDistance; d++) {
+      byDistance.add(new ArrayList<String>());
+    }
+    // a name within maxDistance edits shares at least this many padded bigrams with the query,
+    // since every edit changes at most two bigrams
+    int minShared = query.length + 1 - 2 * maxDistance;
+    Scratch scratch = idleScratch.poll();
+    if (scratch == null) {
+      scratch = new Scratch();
+    }
+    try {
+      search(query, maxDistance, minShared, byDistance, scratch);
+    } finally {
+      idleScratch.add(scratch);
+    }
+    List<String> result = new ArrayList<String>();
+    for (List<String> matches : byDistance) {
+      matches.sort(null);
+      for (String match : matches) {
+        if (result.size() == limit) {
+          return result;
+        }
+        result.add(match);
+      }
+    }
+    return result;
+  }
+
+  // gathers the names within maxDistance edits of the query by their distance
+  private void search(char[] query, int maxDistance, int minShared, List<List<String>> byDistance,
+      Scratch scratch) {
+    if (minShared <= 0) {
+      // short queries are checked against every name
+      for (int id = 0; id < keyCount; id++) {
+        check(query, id, maxDistance, byDistance, scratch);
+      }
+    } else {
+      if (scratch.sharedCounts.length < keyCount) {
+        scratch.sharedCounts = new int[keyStarts.length];
+        scratch.touched = new int[keyStarts.length];
+      }
+      int[] sharedCounts = scratch.sharedCounts;
+      int[] touched = scratch.touched;
+      int touchedCount = 0;
+      char previous = '^';
+      for (int i = 0; i <= query.length; i++) {
+        char c = i < query.length ? query[i] : '$';
+        int bucket = bigram(previous, c);
+        int[] ids = postings[bucket];
+        for (int j = 0; j < postingSizes[bucket]; j++) {
+          if (sharedCounts[ids[j]]++ == 0) {
+            touched[touchedCount++] = ids[j];
+          }
+        }
+        previous = c;
+      }
+      for (int i = 0; i < touchedCount; i++) {
+        int id = touched[i];
+        if (sharedCounts[id] >= minShared) {
+          check(query, id, maxDistance, byDistance, scratch);
+        }
+        sharedCounts[id] = 0;
+      }
+    }
+  }
+
+  // adds the name with the id to the matches when it is within maxDistance edits of the query
+  private void check(char[] query, int id, int maxDistance, List<List<String>> byDistance,
+      Scratch scratch) {
+    int length = keyStarts[id + 1] - keyStarts[id];
+    if (Math.abs(length - query.length) > maxDistance) {
+      return;
+    }
+    int distance = distance(query, id, maxDistance, scratch);
+    if (distance <= maxDistance) {
+      byDistance.get(distance).add(names.nameOf(id));
+    }
+  }
+
+  // returns the Levenshtein distance between the query and the key of an indexed id, or any
+  // value above max once the distance is known to be larger than max
+  private int distance(char[] query, int id, int max, Scratch scratch) {
+    int start = keyStarts[id];
+    int length = keyStarts[id + 1] - start;
+    if (scratch.previousRow.length <= length) {
+      scratch.previousRow = new int[length + 1];
+      scratch.currentRow = new int[length + 1];
+    }
+    int[] previous = scratch.previousRow;
+    int[] current = scratch.currentRow;
+    for (int j = 0; j <= length; j++) {
+      previous[j] = j;
+    }
+    for (int i = 0; i < query.length; i++) {
+      current[0] = i + 1;
+      int rowMin = current[0];
+      char c = query[i];
+      for (int j = 1; j <= length; j++) {
+        int substitute = previous[j - 1] + (c == keyChars[start + j - 1] ? 0 : 1);
+        current[j] = Math.min(substitute, Math.min(previous[j], current[j - 1]) + 1);
+        rowMin = Math.min(rowMin, current[j]);
+      }
+      if (rowMin > max) {
+        return rowMin;
+      }
+      int[] swap = previous;
+      previous = current;
+      current = swap;
+    }
+    return previous[length];
+  }
+}
@@ -0,0 +1,391 @@
+import java.io.FileNotFoundException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.function.DoubleSupplier;
+
+/**
+ * This class is a read-only copy of a graph in a few bytes per edge, for maps too large to keep
+ * resident as an ArrayGraph, which needs twelve bytes for the target and weight of every edge.
+ * The edges leaving a node are sorted by target and stored as varints in one byte array:
+ * <pre>
+ *   first target  zigzag of (target - node)
+ *   next targets  target - previous target - 1
+ *   weight        code of the weight in the weight dictionary, after each target
+ * </pre>
+ * The dictionary holds every distinct weight, the most common first so that they get one byte
+ * codes. When neighbours have nearby ids, as in most map files or after NodeOrder, the gaps take
+ * one byte as well. Weights can be quantized to a step to keep the dictionary small on maps whose
+ * costs are measured rather than counted.
+ */
+public class CompressedGraph {
+
+  private final int nodeCount; // number of nodes in the graph
+  private final int edgeCount; // number of edges in the graph
+  private final int[] offset; // position of the first edge of each node, followed by the end
+  private final byte[] data; // varint targets and weight codes of every edge
+  private final double[] weights; // weight of each weight code
+  private final double maxError; // largest difference between a weight and its quantized weight
+
+  /**
+   * Reads the edges leaving a node one after the other. A cursor is reused from one node to the
+   * next, so a search creates a single cursor.
+   */
+  public final class Cursor {
+    private int position; // position of the next edge in the data
+    private int end; // position after the last edge of the node
+    private boolean first; // whether the next edge is the first edge of the node
+    private int target; // target of the current edge, the node itself before the first edge
+    private double weight; // weight of the current edge
+
+    /**
+     * Moves the cursor before the first edge leaving a node
+     *
+     * @return this cursor
+     */
+    public Cursor of(int node) {
+      position = offset[node];
+      end = offset[node + 1];
+      first = true;
+      target = node;
+      return this;
+    }
+
+    /**
+     * Moves to the next edge of the node
+     *
+     * @return false when the node has no more edges
+     */
+    public boolean next() {
+      if (position >= end) {
+        return false;
+      }
+      int gap = varint();
+      if (first) {
+        target += (gap >>> 1) ^ -(gap & 1);
+        first = false;
+      } else {
+        target += gap + 1;
+      }
+      weight = weights[varint()];
+      return true;
+    }
+
+    // returns the id of the node that the current edge points to
+    public int target() {
+      return target;
+    }
+
+    // returns the weight of the current edge
+    public double weight() {
+      return weight;
+    }
+
+    // reads one varint, most of which are a single byte
+    private int varint() {
+      byte b = data[position++];
+      if (b >= 0) {
+        return b;
+      }
+      int value = b & 0x7f;
+      for (int shift = 7; ; shift += 7) {
+        b = data[position++];
+        value |= (b & 0x7f) << shift;
+        if (b >= 0) {
+          return value;
+        }
+      }
+    }
+  }
+
+  /**
+   * Compresses the nodes and edges of a graph, keeping its node ids and its exact weights
+   *
+   * @param graph the graph to compress
+   */
+  public CompressedGraph(DijkstraGraph<?, Double> graph) {
+    this(graph, 0);
+  }
+
+  /**
+   * Compresses the nodes and edges of a graph, keeping its node ids
+   *
+   * @param graph the graph to compress
+   * @param step  weights are rounded to the nearest multiple of step, or kept exactly when step
+   *              is 0
+   * @throws IllegalArgumentException when step is negative or the graph needs more than 2GB
+   */
+  public CompressedGraph(DijkstraGraph<?, Double> graph, double step) {
+    if (!(step >= 0)) {
+      throw new IllegalArgumentException("step must not be negative");
+    }
+    List<? extends BaseGraph<?, Double>.Node> nodes = graph.nodesById;
+    nodeCount = nodes.size();
+    // counts the uses of every weight, then numbers the weights from the most used down
+    HashMap<Double, Integer> uses = new HashMap<>();
+    double error = 0;
+    int edges = 0;
+    for (BaseGraph<?, Double>.Node node : nodes) {
+      for (BaseGraph<?, Double>.Edge edge : node.edgesLeaving) {
+        double weight = quantize(edge.data, step);
+        error = Math.max(error, Math.abs(weight - edge.data));
+        uses.merge(weight, 1, Integer::sum);
+        edges++;
+      }
+    }
+    edgeCount = edges;
+    maxError = error;
+    weights = uses.entrySet().stream()
+        .sorted(Map.Entry.<Double, Integer>comparingByValue().reversed()
+            .thenComparing(Map.Entry.comparingByKey()))
+        .mapToDouble(Map.Entry::getKey).toArray();
+    HashMap<Double, Integer> codes = new HashMap<>(weights.length * 2);
+    for (int code = 0; code < weights.length; code++) {
+      codes.put(weights[code], code);
+    }
+
+    offset = new int[nodeCount + 1];
+    byte[] bytes = new byte[Math.max(16, edgeCount * 3)];
+    int size = 0;
+    long[] leaving = new long[16]; // target in the high half and weight code in the low half
+    for (int id = 0; id < nodeCount; id++) {
+      offset[id] = size;
+      int count = 0;
+      for (BaseGraph<?, Double>.Edge edge : nodes.get(id).edgesLeaving) {
+        if (count == leaving.length) {
+          leaving = Arrays.copyOf(leaving, count * 2);
+        }
+        leaving[count++] = (long) edge.successor.id << 32 | codes.get(quantize(edge.data, step));
+      }
+      Arrays.sort(leaving, 0, count);
+      int previous = id - 1;
+      for (int i = 0; i < count; i++) {
+        int target = (int) (leaving[i] >>> 32);
+        int gap = target - previous - 1;
+        if (i == 0) {
+          int difference = target - id;
+          gap = (difference << 1) ^ (difference >> 31);
+        }
+        previous = target;
+        if (bytes.length - size < 10) {
+          long grown = Math.min((long) bytes.length * 2, Integer.MAX_VALUE - 8);
+          if (grown - size < 10) {
+            throw new IllegalArgumentException("the graph needs more than 2GB when compressed");
+          }
+          bytes = Arrays.copyOf(bytes, (int) grown);
+        }
+        size = putVarint(bytes, size, gap);
+        size = putVarint(bytes, size, (int) leaving[i]);
+      }
+    }
+    offset[nodeCount] = size;
+    data = Arrays.copyOf(bytes, size);
+  }
+
+  // rounds a weight to a multiple of the step, leaving infinite weights as they are
+  private static double quantize(double weight, double step) {
+    if (step == 0 || Double.isInfinite(weight)) {
+      return weight;
+    }
+    return Math.round(weight / step) * step;
+  }
+
+  // writes a varint and returns the position after it
+  private static int putVarint(byte[] bytes, int position, int value) {
+    while ((value & ~0x7f) != 0) {
+      bytes[position++] = (byte) (value & 0x7f | 0x80);
+      value >>>= 7;
+    }
+    bytes[position++] = (byte) value;
+    return position;
+  }
+
+  // returns the number of nodes in the graph
+  public int getNodeCount() {
+    return nodeCount;
+  }
+
+  // returns the number of edges in the graph
+  public int getEdgeCount() {
+    return edgeCount;
+  }
+
+  // returns the number of distinct weights in the weight dictionary
+  public int getWeightCount() {
+    return weights.length;
+  }
+
+  // returns the largest difference between a weight of the graph and the weight kept for it
+  public double getMaxWeightError() {
+    return maxError;
+  }
+
+  // returns the number of bytes held by the graph's arrays
+  public long getByteCount() {
+    return data.length + 4L * offset.length + 8L * weights.length;
+  }
+
+  // returns the number of bytes held per edge, counting the node offsets and the dictionary
+  public double getBytesPerEdge() {
+    return edgeCount == 0 ? 0 : (double) getByteCount() / edgeCount;
+  }
+
+  // returns a cursor over the edges of the graph
+  public Cursor cursor() {
+    return new Cursor();
+  }
+
+  /**
+   * Returns the cost of the shortest path between two nodes
+   *
+   * @param start the id of the starting node
+   * @param end   the id of the destination node
+   * @return the cost of the shortest path between these nodes
+   * @throws NoSuchElementException when no path from start to end is found or when either id is
+   *                                not a node of the graph
+   */
+  public double shortestPathCost(int start, int end) {
+    if (start < 0 || start >= nodeCount || end < 0 || end >= nodeCount) {
+      throw new NoSuchElementException("start or end does not exist in graph");
+    }
+    double[] cost = new double[nodeCount];
+    Arrays.fill(cost, Double.POSITIVE_INFINITY);
+    boolean[] visited = new boolean[nodeCount];
+    SearchHeap paths = new SearchHeap(16);
+    Cursor edges = new Cursor();
+    cost[start] = 0;
+    paths.add(start, 0);
+    while (!paths.isEmpty()) {
+      int node = paths.removeMin();
+      if (visited[node]) {
+        continue;
+      }
+      visited[node] = true;
+      if (node == end) {
+        return cost[node];
+      }
+      for (edges.of(node); edges.next(); ) {
+        int next = edges.target();
+        double nextCost = cost[node] + edges.weight();
+        if (!visited[next] && nextCost < cost[next]) {
+          cost[next] = nextCost;
+          paths.add(next, nextCost);
+        }
+      }
+    }
+    throw new NoSuchElementException("no path from start to end");
+  }
+
+  /**
+   * Returns the cost of the shortest path from one node to every node
+   *
+   * @param start the id of the starting node
+   * @return the cost of reaching each node by its id, infinite for nodes that cannot be reached
+   * @throws NoSuchElementException when start is not a node of the graph
+   */
+  public double[] shortestPathCosts(int start) {
+    if (start < 0 || start >= nodeCount) {
+      throw new NoSuchElementException("start does not exist in graph");
+    }
+    double[] cost = new double[nodeCount];
+    Arrays.fill(cost, Double.POSITIVE_INFINITY);
+    boolean[] visited = new boolean[nodeCount];
+    SearchHeap paths = new SearchHeap(16);
+    Cursor edges = new Cursor();
+    cost[start] = 0;
+    paths.add(start, 0);
+    while (!paths.isEmpty()) {
+      int node = paths.removeMin();
+      if (visited[node]) {
+        continue;
+      }
+      visited[node] = true;
+      for (edges.of(node); edges.next(); ) {
+        int next = edges.target();
+        double nextCost = cost[node] + edges.weight();
+        if (!visited[next] && nextCost < cost[next]) {
+          cost[next] = nextCost;
+          paths.add(next, nextCost);
+        }
+      }
+    }
+    return cost;
+  }
+
+  /**
+   * Compresses a map and compares its size and its searches with an ArrayGraph of the same map
+   *
+   * @param args the map file, the weight step (default 0, exact weights), the number of queries
+   *             (default 100), and --reorder to renumber the buildings first
+   */
+  public static void main(String[] args) throws FileNotFoundException {
+    if (args.length < 1) {
+      System.err.println("usage: java CompressedGraph map [step] [queries] [--reorder]");
+      System.exit(2);
+    }
+    boolean reorder = Arrays.asList(args).contains("--reorder");
+    DijkstraGraph<BuildingInterface, Double> graph = new MapReader(reorder).read(args[0]);
+    double step = args.length > 1 && !args[1].startsWith("--") ? Double.parseDouble(args[1]) : 0;
+    int queries = args.length > 2 && !args[2].startsWith("--") ? Integer.parseInt(args[2]) : 100;
+    ArrayGraph array = ArrayGraph.of(graph);
+    long begin = System.nanoTime();
+    CompressedGraph compressed = new CompressedGraph(graph, step);
+    double build = (System.nanoTime() - begin) / 1e6;
+    int nodeCount = array.getNodeCount();
+    int edgeCount = array.getEdgeCount();
+    long arrayBytes = 4L * (nodeCount + 1) + 12L * edgeCount;
+    System.out.printf("%d nodes, %d edges, %d distinct weights, compressed in %.0f ms%n", nodeCount,
+        edgeCount, compressed.getWeightCount(), build);
+    System.out.printf("arrays: %d bytes, %.2f per edge%n", arrayBytes,
+        edgeCount == 0 ? 0 : (double) arrayBytes / edgeCount);
+    System.out.printf("compressed: %d bytes, %.2f per edge, largest weight error %s%n",
+        compressed.getByteCount(), compressed.getBytesPerEdge(), compressed.getMaxWeightError());
+
+    Random random = new Random(1);
+    int[][] pairs = new int[queries][];
+    for (int i = 0; i < queries; i++) {
+      pairs[i] = new int[] {random.nextInt(nodeCount), random.nextInt(nodeCount)};
+    }
+    double[] expected = new double[queries];
+    double[] found = new double[queries];
+    // the first pass only warms up, so that both searches are compiled when they are timed
+    for (int pass = 0; pass < 2; pass++) {
+      begin = System.nanoTime();
+      for (int i = 0; i < queries; i++) {
+        int[] pair = pairs[i];
+        expected[i] = costOrInfinity(() -> DijkstraGraph.shortestPathCost(array, pair[0], pair[1]));
+      }
+      double arrays = (System.nanoTime() - begin) / 1e6 / queries;
+      begin = System.nanoTime();
+      for (int i = 0; i < queries; i++) {
+        int[] pair = pairs[i];
+        found[i] = costOrInfinity(() -> compressed.shortestPathCost(pair[0], pair[1]));
+      }
+      double compressedMillis = (System.nanoTime() - begin) / 1e6 / queries;
+      if (pass > 0) {
+        double largest = 0;
+        int differing = 0;
+        for (int i = 0; i < queries; i++) {
+          if (found[i] != expected[i]) {
+            differing++;
+            largest = Math.max(largest, Math.abs(found[i] - expected[i]));
+          }
+        }
+        System.out.printf("%.2f ms per query on arrays, %.2f ms compressed, %d of %d costs differ"
+            + " by up to %s%n", arrays, compressedMillis, differing, queries, largest);
+      }
+    }
+  }
+
+  // returns the cost that a search finds, infinite when there is no path
+  private static double costOrInfinity(DoubleSupplier search) {
+    try {
+      return search.getAsDouble();
+    } catch (NoSuchElementException e) {
+      return Double.POSITIVE_INFINITY;
+    }
+  }
+}
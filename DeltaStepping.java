@@ -0,0 +1,377 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * This class computes the cost of the shortest path from one node to every node of an id-indexed
+ * graph with the delta-stepping algorithm, which relaxes many edges at the same time. It gives the
+ * same costs as DijkstraGraph.shortestPathCosts on the same graph, to the last bit.
+ *
+ * Nodes are kept in buckets of width delta by their tentative cost. The lowest bucket is emptied in
+ * rounds: every round relaxes the light edges (weight at most delta) of the nodes in the bucket in
+ * parallel, which can put nodes back into the same bucket. Once the bucket stays empty its nodes
+ * are final, and their heavy edges are relaxed in parallel, which only reach later buckets.
+ * Relaxing writes the costs with an atomic compare-and-set minimum, so threads that reach the same
+ * node at the same time keep the lower cost.
+ *
+ * A small delta does little extra work but has many short rounds, a large delta has fewer, larger
+ * rounds but relaxes nodes more than once; the average edge weight is a good start. Parallel work
+ * runs on the fork-join pool the call is made from, the common pool unless called from another.
+ */
+public class DeltaStepping {
+  // atomic access to the elements of the cost array
+  private static final VarHandle COSTS = MethodHandles.arrayElementVarHandle(double[].class);
+  private static final int CHUNK = 256; // nodes relaxed by one task
+  private static final int PARALLEL_MIN = 1024; // smaller rounds are relaxed on the calling thread
+
+  private final int nodeCount; // number of nodes in the graph
+  private final double delta; // width of a bucket
+  private final int[] lightFirst; // first light edge of each node, followed by the edge count
+  private final int[] lightTarget; // node each light edge points to
+  private final double[] lightWeight; // weight of each light edge
+  private final int[] heavyFirst; // first heavy edge of each node, followed by the edge count
+  private final int[] heavyTarget; // node each heavy edge points to
+  private final double[] heavyWeight; // weight of each heavy edge
+
+  /**
+   * Splits the edges of a graph into light and heavy edges for searches with a bucket width
+   *
+   * @param graph the id-indexed graph to search, it is copied and may change afterwards
+   * @param delta the width of a bucket, a positive number
+   * @throws IllegalArgumentException when delta is not positive or an edge weight is negative
+   */
+  public DeltaStepping(IndexedGraphInterface graph, double delta) {
+    if (!(delta > 0) || Double.isInfinite(delta)) {
+      throw new IllegalArgumentException("delta must be a positive number");
+    }
+    this.nodeCount = graph.getNodeCount();
+    this.delta = delta;
+    int light = 0;
+    int heavy = 0;
+    for (int edge = 0; edge < graph.getEdgeCount(); edge++) {
+      double weight = graph.edgeWeight(edge);
+      if (weight < 0) {
+        throw new IllegalArgumentException("edge weights cannot be negative");
+      }
+      // edges that are never taken are left out
+      if (weight <= delta) {
+        light++;
+      } else if (weight < Double.POSITIVE_INFINITY) {
+        heavy++;
+      }
+    }
+    lightFirst = new int[nodeCount + 1];
+    lightTarget = new int[light];
+    lightWeight = new double[light];
+    heavyFirst = new int[nodeCount + 1];
+    heavyTarget = new int[heavy];
+    heavyWeight = new double[heavy];
+    light = 0;
+    heavy = 0;
+    for (int node = 0; node < nodeCount; node++) {
+      lightFirst[node] = light;
+      heavyFirst[node] = heavy;
+      for (int edge = graph.firstEdge(node), last = graph.lastEdge(node); edge < last; edge++) {
+        double weight = graph.edgeWeight(edge);
+        if (weight <= delta) {
+          lightTarget[light] = graph.edgeTarget(edge);
+          lightWeight[light++] = weight;
+        } else if (weight < Double.POSITIVE_INFINITY) {
+          heavyTarget[heavy] = graph.edgeTarget(edge);
+          heavyWeight[heavy++] = weight;
+        }
+      }
+    }
+    lightFirst[nodeCount] = light;
+    heavyFirst[nodeCount] = heavy;
+  }
+
+  /**
+   * Returns the average weight of the edges that a search can take, a bucket width that works well
+   * for most maps
+   */
+  public static double averageWeight(IndexedGraphInterface graph) {
+    double sum = 0;
+    int count = 0;
+    for (int edge = 0; edge < graph.getEdgeCount(); edge++) {
+      double weight = graph.edgeWeight(edge);
+      if (weight < Double.POSITIVE_INFINITY) {
+        sum += weight;
+        count++;
+      }
+    }
+    return count == 0 || sum == 0 ? 1 : sum / count;
+  }
+
+  // returns the bucket width
+  public double getDelta() {
+    return delta;
+  }
+
+  /**
+   * Returns the cost of the shortest path from one node to every node
+   *
+   * @param start the id of the starting node
+   * @return the cost of reaching each node by its id, infinite for nodes that cannot be reached
+   * @throws NoSuchElementException when start is not a node of the graph
+   */
+  public double[] shortestPathCosts(int start) {
+    if (start < 0 || start >= nodeCount) {
+      throw new NoSuchElementException("start does not exist in graph");
+    }
+    double[] cost = new double[nodeCount];
+    Arrays.fill(cost, Double.POSITIVE_INFINITY);
+    cost[start] = 0;
+    Buckets buckets = new Buckets();
+    buckets.add(0, start);
+    int[] roundOf = new int[nodeCount]; // last round in which each node was relaxed, plus one
+    int round = 0;
+    for (long bucket = buckets.next(0); bucket >= 0; bucket = buckets.next(bucket + 1)) {
+      // the nodes of the bucket whose cost still falls into it, once each
+      int[] frontier = buckets.take(bucket);
+      int[] settled = new int[16];
+      int settledCount = 0;
+      while (true) {
+        round++;
+        int size = 0;
+        for (int node : frontier) {
+          if (roundOf[node] != round && bucketOf(cost[node]) == bucket) {
+            roundOf[node] = round;
+            frontier[size++] = node;
+          }
+        }
+        if (size == 0) {
+          break;
+        }
+        if (settledCount + size > settled.length) {
+          settled = Arrays.copyOf(settled, Math.max(settled.length * 2, settledCount + size));
+        }
+        System.arraycopy(frontier, 0, settled, settledCount, size);
+        settledCount += size;
+        // nodes whose cost went down; those still in this bucket make up the next round
+        int[] changed = relax(cost, frontier, size, lightFirst, lightTarget, lightWeight);
+        int next = 0;
+        for (int node : changed) {
+          long nodeBucket = bucketOf(cost[node]);
+          if (nodeBucket == bucket) {
+            changed[next++] = node;
+          } else {
+            buckets.add(nodeBucket, node);
+          }
+        }
+        frontier = Arrays.copyOf(changed, next);
+      }
+      // a node may have been relaxed in several rounds of the bucket
+      round++;
+      int unique = 0;
+      for (int i = 0; i < settledCount; i++) {
+        if (roundOf[settled[i]] != round) {
+          roundOf[settled[i]] = round;
+          settled[unique++] = settled[i];
+        }
+      }
+      for (int node : relax(cost, settled, unique, heavyFirst, heavyTarget, heavyWeight)) {
+        buckets.add(bucketOf(cost[node]), node);
+      }
+    }
+    return cost;
+  }
+
+  private long bucketOf(double cost) {
+    return (long) (cost / delta);
+  }
+
+  /**
+   * Relaxes the edges of the nodes in parallel chunks, and returns the nodes whose cost was lowered,
+   * a node may be listed more than once
+   */
+  private static int[] relax(double[] cost, int[] nodes, int count, int[] first, int[] target,
+      double[] weight) {
+    if (count < PARALLEL_MIN) {
+      return relaxChunk(cost, nodes, 0, count, first, target, weight);
+    }
+    int chunks = (count + CHUNK - 1) / CHUNK;
+    List<int[]> lowered = IntStream.range(0, chunks).parallel()
+        .mapToObj(chunk -> relaxChunk(cost, nodes, chunk * CHUNK, Math.min(count, (chunk + 1) * CHUNK),
+            first, target, weight))
+        .collect(Collectors.toList());
+    int total = 0;
+    for (int[] part : lowered) {
+      total += part.length;
+    }
+    int[] all = new int[total];
+    int at = 0;
+    for (int[] part : lowered) {
+      System.arraycopy(part, 0, all, at, part.length);
+      at += part.length;
+    }
+    return all;
+  }
+
+  private static int[] relaxChunk(double[] cost, int[] nodes, int from, int to, int[] first,
+      int[] target, double[] weight) {
+    int[] lowered = new int[16];
+    int count = 0;
+    for (int i = from; i < to; i++) {
+      int node = nodes[i];
+      double nodeCost = (double) COSTS.getVolatile(cost, node);
+      for (int edge = first[node], last = first[node + 1]; edge < last; edge++) {
+        int next = target[edge];
+        if (lowerCost(cost, next, nodeCost + weight[edge])) {
+          if (count == lowered.length) {
+            lowered = Arrays.copyOf(lowered, count * 2);
+          }
+          lowered[count++] = next;
+        }
+      }
+    }
+    return Arrays.copyOf(lowered, count);
+  }
+
+  // sets the cost of the node to the new cost when that is lower, returns whether it was
+  private static boolean lowerCost(double[] cost, int node, double newCost) {
+    double current = (double) COSTS.getVolatile(cost, node);
+    while (newCost < current) {
+      if (COSTS.compareAndSet(cost, node, current, newCost)) {
+        return true;
+      }
+      current = (double) COSTS.getVolatile(cost, node);
+    }
+    return false;
+  }
+
+  /**
+   * The buckets of the nodes by their cost, the same node may sit in several buckets and is only
+   * relaxed from the bucket its cost falls into
+   */
+  private static class Buckets {
+    private int[][] nodes = new int[64][]; // nodes of each bucket, by bucket number modulo length
+    private int[] sizes = new int[64];
+    private long[] numbers = new long[64]; // bucket number stored in each slot, or -1
+    private long lowest = Long.MAX_VALUE; // lowest bucket number with nodes
+    private long highest = -1; // highest bucket number with nodes
+
+    private Buckets() {
+      Arrays.fill(numbers, -1);
+    }
+
+    private void add(long bucket, int node) {
+      // buckets are kept in a ring that grows when the live buckets don't fit
+      while (bucket - Math.min(lowest, bucket) >= nodes.length
+          || (highest >= 0 && Math.max(highest, bucket) - Math.min(lowest, bucket) >= nodes.length)) {
+        grow();
+      }
+      int slot = (int) (bucket % nodes.length);
+      if (numbers[slot] != bucket) {
+        numbers[slot] = bucket;
+        sizes[slot] = 0;
+        if (nodes[slot] == null) {
+          nodes[slot] = new int[16];
+        }
+      } else if (sizes[slot] == nodes[slot].length) {
+        nodes[slot] = Arrays.copyOf(nodes[slot], sizes[slot] * 2);
+      }
+      nodes[slot][sizes[slot]++] = node;
+      lowest = Math.min(lowest, bucket);
+      highest = Math.max(highest, bucket);
+    }
+
+    private void grow() {
+      int[][] oldNodes = nodes;
+      int[] oldSizes = sizes;
+      long[] oldNumbers = numbers;
+      nodes = new int[oldNodes.length * 2][];
+      sizes = new int[nodes.length];
+      numbers = new long[nodes.length];
+      Arrays.fill(numbers, -1);
+      for (int slot = 0; slot < oldNodes.length; slot++) {
+        if (oldNumbers[slot] >= 0) {
+          int newSlot = (int) (oldNumbers[slot] % nodes.length);
+          nodes[newSlot] = oldNodes[slot];
+          sizes[newSlot] = oldSizes[slot];
+          numbers[newSlot] = oldNumbers[slot];
+        }
+      }
+    }
+
+    // returns the lowest bucket number at least from that has nodes, or -1
+    private long next(long from) {
+      for (long bucket = Math.max(from, lowest); bucket <= highest; bucket++) {
+        int slot = (int) (bucket % nodes.length);
+        if (numbers[slot] == bucket && sizes[slot] > 0) {
+          lowest = bucket;
+          return bucket;
+        }
+      }
+      lowest = Long.MAX_VALUE;
+      highest = -1;
+      return -1;
+    }
+
+    // removes the nodes of a bucket and returns them
+    private int[] take(long bucket) {
+      int slot = (int) (bucket % nodes.length);
+      int[] taken = Arrays.copyOf(nodes[slot], sizes[slot]);
+      sizes[slot] = 0;
+      numbers[slot] = -1;
+      return taken;
+    }
+  }
+
+  /**
+   * Compares delta-stepping with Dijkstra's algorithm on a map file, for several numbers of threads
+   *
+   * @param args the map file, the number of sources (default 5), the thread counts separated by
+   *             commas (default 1 up to the number of processors), and delta (default the average
+   *             edge weight)
+   */
+  public static void main(String[] args) throws Exception {
+    if (args.length < 1) {
+      System.err.println("usage: java DeltaStepping map [sources] [threads,threads...] [delta]");
+      System.exit(2);
+    }
+    ArrayGraph graph = ArrayGraph.of(new MapReader().read(args[0]));
+    int sources = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+    int processors = Runtime.getRuntime().availableProcessors();
+    int[] threads = args.length > 2 ? Arrays.stream(args[2].split(",")).mapToInt(Integer::parseInt).toArray()
+        : IntStream.iterate(1, count -> count <= processors, count -> count * 2).toArray();
+    double delta = args.length > 3 ? Double.parseDouble(args[3]) : averageWeight(graph);
+    DeltaStepping engine = new DeltaStepping(graph, delta);
+    Random random = new Random(1);
+    int[] starts = random.ints(sources, 0, graph.getNodeCount()).toArray();
+    System.out.printf("%d nodes, %d edges, delta %.3f, %d processors%n", graph.getNodeCount(),
+        graph.getEdgeCount(), delta, processors);
+
+    long begin = System.nanoTime();
+    double[][] expected = new double[sources][];
+    for (int i = 0; i < sources; i++) {
+      expected[i] = DijkstraGraph.shortestPathCosts(graph, starts[i]);
+    }
+    double dijkstra = (System.nanoTime() - begin) / 1e6 / sources;
+    System.out.printf("dijkstra: %.1f ms per source%n", dijkstra);
+    for (int count : threads) {
+      ForkJoinPool pool = new ForkJoinPool(count);
+      try {
+        pool.submit(() -> engine.shortestPathCosts(starts[0])).get(); // warms up
+        begin = System.nanoTime();
+        int differing = 0;
+        for (int i = 0; i < sources; i++) {
+          int start = starts[i];
+          double[] cost = pool.submit(() -> engine.shortestPathCosts(start)).get();
+          differing += Arrays.equals(cost, expected[i]) ? 0 : 1;
+        }
+        double millis = (System.nanoTime() - begin) / 1e6 / sources;
+        System.out.printf("delta-stepping, %d threads: %.1f ms per source, %.2fx dijkstra, %d of %d"
+            + " sources differ%n", count, millis, dijkstra / millis, differing, sources);
+      } finally {
+        pool.shutdown();
+      }
+    }
+  }
+}
@@ -0,0 +1,92 @@
+import java.util.Arrays;
+
+/**
+ * This class is a bucket queue of (node id, cost) pairs for searches whose edge weights are whole
+ * numbers no larger than a small maximum (Dial's algorithm). Every cost between the lowest cost in
+ * the queue and that plus the maximum weight has a bucket of its own in a ring, so adding an entry
+ * and removing the lowest one take constant time, apart from stepping over empty buckets.
+ *
+ * Like every queue of a Dijkstra search, it is monotone: an added cost is never lower than the last
+ * removed cost, and never higher than it by more than the maximum weight.
+ */
+public class DialQueue implements SearchQueue {
+  public static final int MAX_WEIGHT = 1 << 12; // largest maximum weight worth a bucket per cost
+
+  private final int[][] buckets; // nodes of each cost, by cost modulo the number of buckets
+  private final int[] sizes; // number of nodes in each bucket
+  private final int maxWeight; // largest edge weight of the search
+  private long current; // cost of the bucket the next entry is removed from
+  private int size; // number of entries in the queue
+
+  /**
+   * Creates a queue for edge weights from 0 up to maxWeight
+   *
+   * @param maxWeight the largest edge weight, at most MAX_WEIGHT
+   * @throws IllegalArgumentException when maxWeight is negative or larger than MAX_WEIGHT
+   */
+  public DialQueue(int maxWeight) {
+    if (maxWeight < 0 || maxWeight > MAX_WEIGHT) {
+      throw new IllegalArgumentException("maximum weight must be between 0 and " + MAX_WEIGHT);
+    }
+    this.maxWeight = maxWeight;
+    buckets = new int[maxWeight + 1][];
+    sizes = new int[maxWeight + 1];
+  }
+
+  // returns the largest edge weight the queue was made for
+  public int getMaxWeight() {
+    return maxWeight;
+  }
+
+  /**
+   * Adds a node with the provided cost into the queue
+   *
+   * @param node the id of the node
+   * @param cost the cost of the path to that node, a whole number
+   */
+  public void add(int node, double cost) {
+    int bucket = (int) ((long) cost % buckets.length);
+    if (buckets[bucket] == null) {
+      buckets[bucket] = new int[4];
+    } else if (sizes[bucket] == buckets[bucket].length) {
+      buckets[bucket] = Arrays.copyOf(buckets[bucket], sizes[bucket] * 2);
+    }
+    buckets[bucket][sizes[bucket]++] = node;
+    size++;
+  }
+
+  /**
+   * Removes an entry with the lowest cost, its cost is available from lastCost()
+   *
+   * @return the id of the node with the lowest cost
+   */
+  public int removeMin() {
+    int bucket = (int) (current % buckets.length);
+    while (sizes[bucket] == 0) {
+      current++;
+      bucket = bucket + 1 == buckets.length ? 0 : bucket + 1;
+    }
+    size--;
+    return buckets[bucket][--sizes[bucket]];
+  }
+
+  // returns the cost of the entry removed by the last call to removeMin
+  public double lastCost() {
+    return current;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  // removes every entry so that the queue can be reused for another search
+  public void clear() {
+    Arrays.fill(sizes, 0);
+    size = 0;
+    current = 0;
+  }
+}
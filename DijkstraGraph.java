@@ -1,9 +1,27 @@
-import java.util.Enumeration;
-import java.util.Hashtable;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * This class extends the BaseGraph data structure with additional methods for computing the total
@@ -13,6 +31,18 @@ import java.util.PriorityQueue;
 public class DijkstraGraph<NodeType, EdgeType extends Number>
     extends BaseGraph<NodeType, EdgeType> implements DijkstraInterface<NodeType, EdgeType> {
 
+  // travel time profiles of the edges whose cost depends on the time of day, static edges have no
+  // entry so that they take no extra memory
+  protected HashMap<Edge, TravelTimeProfile> edgeProfiles = new HashMap<Edge, TravelTimeProfile>();
+
+  // largest edge weight when every weight is a whole number, so searches can use a bucket queue,
+  // or -1 when some weight is not or nobody said so
+  private volatile long integralMaxWeight = -1;
+  // search arrays of the searches that use a bucket queue, that no running search is using. There
+  // are as many as searches that ran at once, and they go away with the graph.
+  private final ConcurrentLinkedQueue<BucketSearch> idleBucketSearches =
+      new ConcurrentLinkedQueue<BucketSearch>();
+
   /**
    * While searching for the shortest path between two nodes, a SearchNode contains data about one
    * specific path between the start node and another node in the graph. The final node in this path
@@ -61,28 +91,51 @@ public class DijkstraGraph<NodeType, EdgeType extends Number>
     if (!super.containsNode(start) || !this.containsNode(end)) {
       throw new NoSuchElementException("start or end does not exist in graph");
     }
+    return computeShortestPath(nodes.get(start), nodes.get(end), null);
+  }
+
+  /**
+   * This helper method computes the shortest path between two nodes while only following the edges
+   * that are accepted by a filter. Filtering lets callers search as if some roads were closed
+   * without removing them from the graph, so several filtered searches can share the graph at once.
+   *
+   * @param startNode the starting node for the path
+   * @param endNode   the destination node for the path
+   * @param filter    accepts the edges that may be followed, or null to follow every edge
+   * @return SearchNode for the final end node within the shortest path
+   * @throws NoSuchElementException when no path from start to end is found
+   */
+  protected SearchNode computeShortestPath(Node startNode, Node endNode, Predicate<Edge> filter) {
     // check if start and end nodes are the same
-    if (start == end) {
-      return new SearchNode(nodes.get(start), 0.0, null);
+    if (startNode == endNode) {
+      return new SearchNode(startNode, 0.0, null);
     }
-    // hashtable to keep track of visited nodes
-    Hashtable<NodeType, Node> visited = new Hashtable<NodeType, Node>();
+    long maxWeight = integralMaxWeight;
+    if (maxWeight >= 0) {
+      return computeShortestPathInBuckets(startNode, endNode, filter, maxWeight);
+    }
+    // array indexed by node id to keep track of visited nodes
+    boolean[] visited = new boolean[nodesById.size()];
     // priority queue to store search nodes
     PriorityQueue<SearchNode> paths = new PriorityQueue<SearchNode>();
-    Node startNode = nodes.get(start);
     SearchNode firstNode = new SearchNode(startNode, 0, null);
     paths.add(firstNode);
+    int removed = 0;
     while (!paths.isEmpty()) {
+      checkInterrupted(++removed);
       SearchNode temp = paths.remove();
-      // if the removed node has not been visited before add the node to the visited hashtable
-      if (!visited.containsKey(temp.node.data)) {
-        visited.put(temp.node.data, temp.node);
+      // if the removed node has not been visited before mark the node as visited
+      if (!visited[temp.node.id]) {
+        visited[temp.node.id] = true;
         // if the node is the end node, return the search node, search is done
-        if (temp.node.data == end) {
+        if (temp.node == endNode) {
           return temp;
         }
         // add all nodes with edges leaving the removed node to the pq
         for (Edge edge : temp.node.edgesLeaving) {
+          if (filter != null && !filter.test(edge)) {
+            continue;
+          }
           SearchNode newNode =
               new SearchNode(edge.successor, temp.cost + edge.data.doubleValue(), temp);
           paths.add(newNode);
@@ -93,6 +146,165 @@ public class DijkstraGraph<NodeType, EdgeType extends Number>
     throw new NoSuchElementException("no path from start to end");
   }
 
+  /**
+   * The arrays of a search over the node ids with a bucket queue, reused by a thread from one search
+   * to the next. A node holds a cost only when its stamp is the epoch of the current search.
+   */
+  private static class BucketSearch {
+    private double[] cost = new double[0]; // cost of the cheapest path found to each node
+    private int[] predecessor = new int[0]; // node before each node on that path
+    private int[] reached = new int[0]; // epoch in which each node was reached
+    private int[] settled = new int[0]; // epoch in which each node was settled
+    private int epoch;
+    private SearchQueue queue; // Dial's buckets or a radix heap, for the current maximum weight
+
+    // prepares the arrays and the queue for a search of a graph with nodeCount nodes
+    private void start(int nodeCount, long maxWeight) {
+      if (cost.length < nodeCount) {
+        int capacity = Math.max(nodeCount, cost.length * 2);
+        cost = new double[capacity];
+        predecessor = new int[capacity];
+        reached = new int[capacity];
+        settled = new int[capacity];
+        epoch = 0;
+      }
+      epoch++;
+      if (maxWeight <= DialQueue.MAX_WEIGHT) {
+        if (!(queue instanceof DialQueue) || ((DialQueue) queue).getMaxWeight() != maxWeight) {
+          queue = new DialQueue((int) maxWeight);
+        }
+      } else if (!(queue instanceof RadixHeap)) {
+        queue = new RadixHeap();
+      }
+      queue.clear();
+    }
+  }
+
+  /**
+   * Computes the shortest path like computeShortestPath(startNode, endNode, filter) when every edge
+   * weight is a whole number, with a bucket queue instead of comparing costs: Dial's buckets when
+   * the largest weight is small, and a radix heap otherwise. Both add and remove in constant
+   * amortized time.
+   *
+   * @param maxWeight the largest edge weight of the graph
+   */
+  private SearchNode computeShortestPathInBuckets(Node startNode, Node endNode, Predicate<Edge> filter,
+      long maxWeight) {
+    BucketSearch search = idleBucketSearches.poll();
+    if (search == null) {
+      search = new BucketSearch();
+    }
+    try {
+      return computeShortestPathInBuckets(startNode, endNode, filter, maxWeight, search);
+    } finally {
+      idleBucketSearches.add(search);
+    }
+  }
+
+  // runs the bucket queue search with search arrays that no other search is using
+  private SearchNode computeShortestPathInBuckets(Node startNode, Node endNode, Predicate<Edge> filter,
+      long maxWeight, BucketSearch search) {
+    search.start(nodesById.size(), maxWeight);
+    double[] cost = search.cost;
+    int[] predecessor = search.predecessor;
+    int[] reached = search.reached;
+    int[] settled = search.settled;
+    int epoch = search.epoch;
+    SearchQueue paths = search.queue;
+    cost[startNode.id] = 0;
+    predecessor[startNode.id] = -1;
+    reached[startNode.id] = epoch;
+    paths.add(startNode.id, 0);
+    int removed = 0;
+    while (!paths.isEmpty()) {
+      checkInterrupted(++removed);
+      int id = paths.removeMin();
+      if (settled[id] == epoch) {
+        continue;
+      }
+      settled[id] = epoch;
+      if (id == endNode.id) {
+        // the search nodes of the path are only made for the path that was found
+        SearchNode end = new SearchNode(endNode, cost[id], null);
+        SearchNode first = end;
+        for (int node = predecessor[id]; node >= 0; node = predecessor[node]) {
+          first.predecessor = new SearchNode(nodesById.get(node), cost[node], null);
+          first = first.predecessor;
+        }
+        return end;
+      }
+      for (Edge edge : nodesById.get(id).edgesLeaving) {
+        if (filter != null && !filter.test(edge)) {
+          continue;
+        }
+        int next = edge.successor.id;
+        double nextCost = cost[id] + edge.data.doubleValue();
+        if (settled[next] != epoch && (reached[next] != epoch || nextCost < cost[next])) {
+          reached[next] = epoch;
+          cost[next] = nextCost;
+          predecessor[next] = id;
+          paths.add(next, nextCost);
+        }
+      }
+    }
+    // if no path is found, throw an exception
+    throw new NoSuchElementException("no path from start to end");
+  }
+
+  /**
+   * Tells the graph that every edge weight is a whole number from 0 up to maxWeight, as MapReader
+   * finds while reading a map, so that searches use a bucket queue. Edges inserted afterwards keep
+   * this up to date, and a weight that is not a whole number turns the bucket queue off.
+   *
+   * @param maxWeight the largest edge weight of the graph
+   * @throws IllegalArgumentException when maxWeight is negative or larger than an int
+   */
+  public void setIntegralWeights(long maxWeight) {
+    if (maxWeight < 0 || maxWeight > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("maximum weight must be between 0 and " + Integer.MAX_VALUE);
+    }
+    integralMaxWeight = maxWeight;
+  }
+
+  // returns whether searches use a bucket queue because every edge weight is a whole number
+  public boolean hasIntegralWeights() {
+    return integralMaxWeight >= 0;
+  }
+
+  // returns whether a weight can be kept in a bucket queue: a whole number from 0 up to an int
+  public static boolean isIntegralWeight(double weight) {
+    return weight >= 0 && weight <= Integer.MAX_VALUE && weight == Math.rint(weight);
+  }
+
+  /**
+   * Inserts or updates an edge like BaseGraph.insertEdge, and stops using the bucket queue when
+   * the weight is not a whole number
+   */
+  @Override
+  public boolean insertEdge(NodeType pred, NodeType succ, EdgeType weight) {
+    boolean inserted = super.insertEdge(pred, succ, weight);
+    long maxWeight = integralMaxWeight;
+    if (inserted && maxWeight >= 0) {
+      double value = weight.doubleValue();
+      integralMaxWeight = isIntegralWeight(value) ? Math.max(maxWeight, (long) value) : -1;
+    }
+    return inserted;
+  }
+
+  /**
+   * Lets a long search be aborted: every 1024 steps, checks whether the thread running the search
+   * was interrupted (for instance because its query was cancelled or ran past its deadline), and
+   * clears the interrupt and stops the search when it was.
+   *
+   * @param steps the number of steps the search has taken
+   * @throws CancellationException when the thread was interrupted
+   */
+  protected static void checkInterrupted(int steps) {
+    if ((steps & 1023) == 0 && Thread.interrupted()) {
+      throw new CancellationException("search was interrupted");
+    }
+  }
+
   /**
    * Returns the list of data values from nodes along the shortest path from the node with the
    * provided start value through the node with the provided end value. This list of data values
@@ -120,6 +332,34 @@ public class DijkstraGraph<NodeType, EdgeType extends Number>
     return paths;
   }
 
+  /**
+   * Returns the ids of the nodes along the shortest path between two nodes, from start to end,
+   * together with the cost of that path, from a single search
+   *
+   * @param start the data item in the starting node for the path
+   * @param end   the data item in the destination node for the path
+   * @param cost  array whose first element is set to the cost of the path, or null
+   * @return ids of the nodes along the shortest path
+   * @throws NoSuchElementException when no path from start to end is found or when either start or
+   *                                end data do not correspond to a graph node
+   */
+  public int[] shortestPathIds(NodeType start, NodeType end, double[] cost) {
+    SearchNode finalNode = computeShortestPath(start, end);
+    if (cost != null) {
+      cost[0] = finalNode.cost;
+    }
+    // count the nodes on the path, then fill the array from end to start
+    int length = 0;
+    for (SearchNode node = finalNode; node != null; node = node.predecessor) {
+      length++;
+    }
+    int[] path = new int[length];
+    for (SearchNode node = finalNode; node != null; node = node.predecessor) {
+      path[--length] = node.node.id;
+    }
+    return path;
+  }
+
   /**
    * Returns the cost of the path (sum over edge weights) of the shortest path freom the node
    * containing the start data to the node containing the end data. This method uses Dijkstra's
@@ -199,41 +439,669 @@ public class DijkstraGraph<NodeType, EdgeType extends Number>
   @Override
   public List<NodeType> shortestPathConstrainRoadsData(NodeType start, NodeType end,
       NodeType edgeStart, NodeType edgeEnd) {
-    // remove constrainRoad edge from graph
-    EdgeType weight = this.getEdge(edgeStart, edgeEnd);
-    this.removeEdge(edgeStart, edgeEnd);
-
-
-
-    LinkedList<NodeType> paths = (LinkedList<NodeType>) shortestPathData(start, end);
-    // insert constrainRoad edge back to graph
-    this.insertEdge(edgeStart, edgeEnd, weight);
+    // search around the constrainRoad edge instead of removing it from the graph
+    SearchNode finalNode = computeConstrainRoadsPath(start, end, edgeStart, edgeEnd);
+    LinkedList<NodeType> paths = new LinkedList<NodeType>();
+    for (SearchNode temp = finalNode; temp != null; temp = temp.predecessor) {
+      paths.addFirst(temp.node.data);
+    }
     return paths;
   }
 
   @Override
   public double shortestPathConstrainRoadsCost(NodeType start, NodeType end, NodeType edgeStart,
       NodeType edgeEnd) {
-    // remove constrainRoad edge from graph
-    EdgeType weight = this.getEdge(edgeStart, edgeEnd);
-    this.removeEdge(edgeStart, edgeEnd);
-
     // returns the cost of the path generated my the compute method
-    double cost = computeShortestPath(start, end).cost;
-    // insert constrainRoad edge back to graph
-    this.insertEdge(edgeStart, edgeEnd, weight);
+    return computeConstrainRoadsPath(start, end, edgeStart, edgeEnd).cost;
+  }
+
+  // computes the shortest path from start to end that does not use the edge from edgeStart to
+  // edgeEnd, throwing NoSuchElementException when that edge is not in the graph
+  private SearchNode computeConstrainRoadsPath(NodeType start, NodeType end, NodeType edgeStart,
+      NodeType edgeEnd) {
+    Edge constrainRoad = getEdgeHelper(edgeStart, edgeEnd);
+    if (!super.containsNode(start) || !this.containsNode(end)) {
+      throw new NoSuchElementException("start or end does not exist in graph");
+    }
+    return computeShortestPath(nodes.get(start), nodes.get(end), edge -> edge != constrainRoad);
+  }
+
+  /**
+   * Returns up to k loopless paths from start to end in order of increasing cost, using Yen's
+   * algorithm. Each path after the first is found by spur searches that branch off the previous
+   * path; the spur searches for one path run in parallel and close roads through edge filters, so
+   * the graph is never modified. When the calling thread is interrupted, every spur search stops,
+   * including the ones running on pool threads. To keep routes distinct, a path is only returned when the share
+   * of its edges that also appear in an already returned path is at most maxOverlap.
+   *
+   * @param start      the data item in the starting node for the paths
+   * @param end        the data item in the destination node for the paths
+   * @param k          the largest number of paths to return
+   * @param maxOverlap the largest fraction (0.0 to 1.0) of a path's edges that may be shared with
+   *                   a path returned before it, where 1.0 allows any overlap
+   * @return lists of data items from the nodes along each path, cheapest path first
+   * @throws NoSuchElementException when no path from start to end is found or when either start or
+   *                                end data do not correspond to a graph node
+   * @throws CancellationException  when the calling thread was interrupted
+   */
+  public List<List<NodeType>> shortestPathsData(NodeType start, NodeType end, int k,
+      double maxOverlap) {
+    if (!super.containsNode(start) || !this.containsNode(end)) {
+      throw new NoSuchElementException("start or end does not exist in graph");
+    }
+    Node endNode = nodes.get(end);
+    // paths that spur searches have branched off from, and the ones that were returned
+    List<List<Edge>> explored = new ArrayList<List<Edge>>();
+    List<List<Edge>> accepted = new ArrayList<List<Edge>>();
+    Set<Edge> acceptedEdges = new HashSet<Edge>();
+    // candidate paths ordered by cost, with their node id sequences to skip duplicates
+    PriorityQueue<YenPath> candidates = new PriorityQueue<YenPath>();
+    Set<List<Integer>> seen = new HashSet<List<Integer>>();
+    YenPath first = new YenPath(computeShortestPath(nodes.get(start), endNode, null));
+    candidates.add(first);
+    seen.add(first.ids());
+    // when routes must be diverse, stop after a bounded number of rejected paths
+    int budget = maxOverlap >= 1.0 ? k : k * 10;
+    while (accepted.size() < k && explored.size() < budget && !candidates.isEmpty()) {
+      YenPath path = candidates.remove();
+      explored.add(path.edges);
+      if (overlap(path.edges, acceptedEdges) <= maxOverlap) {
+        accepted.add(path.edges);
+        acceptedEdges.addAll(path.edges);
+      }
+      // branch a spur search off every node of the path except the end
+      List<Edge> previous = path.edges;
+      // pool threads don't see an interrupt of the caller, so they stop on a shared flag instead
+      Thread caller = Thread.currentThread();
+      AtomicBoolean cancelled = new AtomicBoolean();
+      List<YenPath> spurs = IntStream.range(0, previous.size()).parallel()
+          .mapToObj(i -> {
+            try {
+              return spurPath(previous, i, explored, endNode, caller, cancelled);
+            } catch (CancellationException e) {
+              cancelled.set(true);
+              throw e;
+            }
+          }).filter(spur -> spur != null).collect(Collectors.toList());
+      if (cancelled.get()) {
+        Thread.interrupted(); // cleared like checkInterrupted does
+        throw new CancellationException("search was interrupted");
+      }
+      for (YenPath spur : spurs) {
+        if (seen.add(spur.ids())) {
+          candidates.add(spur);
+        }
+      }
+    }
+    // copy the node data of each returned path
+    List<List<NodeType>> result = new ArrayList<List<NodeType>>();
+    for (List<Edge> edges : accepted) {
+      LinkedList<NodeType> data = new LinkedList<NodeType>();
+      data.add(start);
+      for (Edge edge : edges) {
+        data.add(edge.successor.data);
+      }
+      result.add(data);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the cost (sum over edge weights) of following the nodes of a path in order
+   *
+   * @param path list of data items from the nodes along a path
+   * @return the cost of the path
+   * @throws NoSuchElementException when two consecutive nodes of the path are not connected
+   */
+  public double pathCost(List<NodeType> path) {
+    double cost = 0;
+    NodeType previous = null;
+    for (NodeType data : path) {
+      if (previous != null) {
+        cost += getEdge(previous, data).doubleValue();
+      }
+      previous = data;
+    }
     return cost;
   }
 
+  /**
+   * A path found by Yen's algorithm, stored as the edges it follows from the start node. YenPaths
+   * are sorted by cost.
+   */
+  private class YenPath implements Comparable<YenPath> {
+    private List<Edge> edges;
+    private double cost;
+
+    private YenPath(List<Edge> edges, double cost) {
+      this.edges = edges;
+      this.cost = cost;
+    }
+
+    // builds the path from the end of a search, following predecessor references
+    private YenPath(SearchNode finalNode) {
+      this(new ArrayList<Edge>(), finalNode.cost);
+      for (SearchNode temp = finalNode; temp.predecessor != null; temp = temp.predecessor) {
+        edges.add(getEdgeBetween(temp.predecessor.node, temp.node));
+      }
+      Collections.reverse(edges);
+    }
+
+    // returns the ids of the nodes along the path after the start node
+    private List<Integer> ids() {
+      List<Integer> ids = new ArrayList<Integer>(edges.size());
+      for (Edge edge : edges) {
+        ids.add(edge.successor.id);
+      }
+      return ids;
+    }
+
+    public int compareTo(YenPath other) {
+      return Double.compare(cost, other.cost);
+    }
+  }
+
+  // returns the edge leaving pred towards succ
+  private Edge getEdgeBetween(Node pred, Node succ) {
+    for (Edge edge : pred.edgesLeaving) {
+      if (edge.successor == succ) {
+        return edge;
+      }
+    }
+    throw new NoSuchElementException("no edge between path nodes");
+  }
+
+  /**
+   * Searches for the path that follows the first spurIndex edges of a previous path, and then
+   * leaves it at the spur node without using any road that an explored path with the same root
+   * takes from there, and without revisiting the root's nodes. Once the caller is interrupted or
+   * cancelled is set, every road is closed, so the search ends with nothing left to visit.
+   *
+   * @return the spur path, or null when the spur node cannot reach the end this way or the search
+   *         was cancelled
+   */
+  private YenPath spurPath(List<Edge> previous, int spurIndex, List<List<Edge>> explored,
+      Node endNode, Thread caller, AtomicBoolean cancelled) {
+    if (cancelled.get()) {
+      return null;
+    }
+    List<Edge> root = previous.subList(0, spurIndex);
+    Node spurNode = previous.get(spurIndex).predecessor;
+    // close the roads that explored paths sharing this root take out of the spur node
+    Set<Edge> closedRoads = new HashSet<Edge>();
+    for (List<Edge> path : explored) {
+      if (path.size() > spurIndex && path.subList(0, spurIndex).equals(root)) {
+        closedRoads.add(path.get(spurIndex));
+      }
+    }
+    // the root's nodes may not be entered again, which keeps the path loopless
+    boolean[] closedNodes = new boolean[nodesById.size()];
+    double rootCost = 0;
+    for (Edge edge : root) {
+      closedNodes[edge.predecessor.id] = true;
+      rootCost += edge.data.doubleValue();
+    }
+    SearchNode spur;
+    try {
+      spur = computeShortestPath(spurNode, endNode,
+          edge -> !closedNodes[edge.successor.id] && !closedRoads.contains(edge)
+              && !cancelled(caller, cancelled));
+    } catch (NoSuchElementException e) {
+      return null;
+    }
+    YenPath spurPath = new YenPath(spur);
+    List<Edge> edges = new ArrayList<Edge>(root);
+    edges.addAll(spurPath.edges);
+    return new YenPath(edges, rootCost + spurPath.cost);
+  }
+
+  // returns whether the spur searches of the caller should stop, passing an interrupt of the caller
+  // on to the searches running on other threads
+  private static boolean cancelled(Thread caller, AtomicBoolean cancelled) {
+    if (cancelled.get()) {
+      return true;
+    }
+    if (caller.isInterrupted()) {
+      cancelled.set(true);
+      return true;
+    }
+    return false;
+  }
+
+  // returns the fraction of the path's edges that are in the set of edges
+  private double overlap(List<Edge> path, Set<Edge> edges) {
+    if (path.isEmpty()) {
+      return 0;
+    }
+    int shared = 0;
+    for (Edge edge : path) {
+      if (edges.contains(edge)) {
+        shared++;
+      }
+    }
+    return (double) shared / path.size();
+  }
+
+  /**
+   * Sets how the travel time of an edge changes during the day. While the edge has a profile,
+   * departure time queries use the profile instead of the edge's static weight, which is still used
+   * by every other query.
+   *
+   * @param pred    the data item contained in the source node for the edge
+   * @param succ    the data item contained in the target node for the edge
+   * @param profile the travel time profile of the edge, or null to make the edge static again
+   * @throws NoSuchElementException if either node or the edge between them are not found
+   */
+  public void setEdgeProfile(NodeType pred, NodeType succ, TravelTimeProfile profile) {
+    Edge edge = getEdgeHelper(pred, succ);
+    if (profile == null) {
+      edgeProfiles.remove(edge);
+    } else {
+      edgeProfiles.put(edge, profile);
+    }
+  }
+
+  /**
+   * Returns the travel time profile of an edge
+   *
+   * @param pred the data item contained in the source node for the edge
+   * @param succ the data item contained in the target node for the edge
+   * @return the profile of the edge, or null when the edge is static
+   * @throws NoSuchElementException if either node or the edge between them are not found
+   */
+  public TravelTimeProfile getEdgeProfile(NodeType pred, NodeType succ) {
+    return edgeProfiles.get(getEdgeHelper(pred, succ));
+  }
+
   @Override
-  public NodeType getNode(NodeType searchNode) {
-    Enumeration<NodeType> enumeration = nodes.keys();
-    while (enumeration.hasMoreElements()) {
-      NodeType key = enumeration.nextElement();
-      if (key.equals(searchNode)) {
-        return key;
+  public boolean removeEdge(NodeType pred, NodeType succ) {
+    // drop the profile of the edge along with the edge
+    if (containsNode(pred) && containsNode(succ) && containsEdge(pred, succ)) {
+      edgeProfiles.remove(getEdgeHelper(pred, succ));
+    }
+    return super.removeEdge(pred, succ);
+  }
+
+  @Override
+  public boolean removeNode(NodeType data) {
+    // drop the profiles of the edges that are removed with the node
+    Node node = nodes.get(data);
+    if (node != null && !edgeProfiles.isEmpty()) {
+      for (Edge edge : node.edgesLeaving) {
+        edgeProfiles.remove(edge);
+      }
+      for (Edge edge : node.edgesEntering) {
+        edgeProfiles.remove(edge);
       }
     }
-    return null;
+    return super.removeNode(data);
+  }
+
+  /**
+   * This helper method computes the path that arrives earliest at the end node when leaving the
+   * start node at the provided time. Edges with a travel time profile take the travel time at the
+   * moment they are entered, and static edges take their weight. The cost of each SearchNode is the
+   * time elapsed since departure. Since profiles are FIFO, settling nodes in order of arrival time
+   * gives the earliest arrival at every node.
+   *
+   * @param start     the data item in the starting node for the path
+   * @param end       the data item in the destination node for the path
+   * @param departure the departure time in minutes after midnight
+   * @return SearchNode for the final end node within the earliest arriving path
+   * @throws NoSuchElementException when no path from start to end is found or when either start or
+   *                                end data do not correspond to a graph node
+   */
+  protected SearchNode computeShortestPathAt(NodeType start, NodeType end, double departure) {
+    if (!super.containsNode(start) || !this.containsNode(end)) {
+      throw new NoSuchElementException("start or end does not exist in graph");
+    }
+    Node endNode = nodes.get(end);
+    boolean[] visited = new boolean[nodesById.size()];
+    PriorityQueue<SearchNode> paths = new PriorityQueue<SearchNode>();
+    paths.add(new SearchNode(nodes.get(start), 0, null));
+    int removed = 0;
+    while (!paths.isEmpty()) {
+      checkInterrupted(++removed);
+      SearchNode temp = paths.remove();
+      if (!visited[temp.node.id]) {
+        visited[temp.node.id] = true;
+        if (temp.node == endNode) {
+          return temp;
+        }
+        for (Edge edge : temp.node.edgesLeaving) {
+          TravelTimeProfile profile = edgeProfiles.get(edge);
+          double travelTime = profile == null ? edge.data.doubleValue()
+              : profile.travelTime(departure + temp.cost);
+          paths.add(new SearchNode(edge.successor, temp.cost + travelTime, temp));
+        }
+      }
+    }
+    throw new NoSuchElementException("no path from start to end");
+  }
+
+  /**
+   * Returns the list of data values from nodes along the path that arrives earliest at end when
+   * leaving start at the provided time
+   *
+   * @param start     the data item in the starting node for the path
+   * @param end       the data item in the destination node for the path
+   * @param departure the departure time in minutes after midnight
+   * @return list of data item from node along this path
+   */
+  public List<NodeType> shortestPathDataAt(NodeType start, NodeType end, double departure) {
+    LinkedList<NodeType> paths = new LinkedList<NodeType>();
+    for (SearchNode temp = computeShortestPathAt(start, end, departure); temp != null;
+        temp = temp.predecessor) {
+      paths.addFirst(temp.node.data);
+    }
+    return paths;
+  }
+
+  /**
+   * Returns the travel time of the path that arrives earliest at end when leaving start at the
+   * provided time
+   *
+   * @param start     the data item in the starting node for the path
+   * @param end       the data item in the destination node for the path
+   * @param departure the departure time in minutes after midnight
+   * @return the travel time from the departure to the arrival at end
+   */
+  public double shortestPathCostAt(NodeType start, NodeType end, double departure) {
+    return computeShortestPathAt(start, end, departure).cost;
+  }
+
+  /**
+   * Returns every node that can be reached from the nearest of the start nodes with a cost of at
+   * most budget, paired with that cost, in order of increasing cost. All start nodes are searched
+   * at once from cost 0, and the search is lazy: each element of the stream settles one more node,
+   * and no node beyond the budget is ever expanded. The graph must not be modified while the
+   * stream is being consumed.
+   *
+   * @param budget the largest cost of a returned node
+   * @param starts the data items in the nodes to search from
+   * @return stream of (node data, cost) pairs in order of increasing cost
+   * @throws NoSuchElementException when a start data item does not correspond to a graph node
+   */
+  @SafeVarargs
+  public final Stream<Map.Entry<NodeType, Double>> reachableWithin(double budget,
+      NodeType... starts) {
+    List<NodeType> list = new ArrayList<NodeType>(starts.length);
+    for (NodeType start : starts) {
+      list.add(start);
+    }
+    return reachableWithin(budget, list);
+  }
+
+  /**
+   * Returns every node that can be reached from the nearest of the start nodes with a cost of at
+   * most budget, like reachableWithin(budget, starts...)
+   *
+   * @param budget the largest cost of a returned node
+   * @param starts the data items in the nodes to search from
+   * @return stream of (node data, cost) pairs in order of increasing cost
+   * @throws NoSuchElementException when a start data item does not correspond to a graph node
+   */
+  public Stream<Map.Entry<NodeType, Double>> reachableWithin(double budget,
+      Collection<NodeType> starts) {
+    BoundedSearch search = new BoundedSearch(budget, false);
+    for (NodeType start : starts) {
+      Node startNode = nodes.get(start);
+      if (startNode == null) {
+        throw new NoSuchElementException("start does not exist in graph");
+      }
+      search.addSource(startNode.id);
+    }
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(search,
+        Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.DISTINCT), false);
+  }
+
+  /**
+   * Labels every node with its nearest facility, the facility that can be reached from the node
+   * with the lowest cost, and with that cost. This is one multi-source search that follows edges
+   * backwards from all facilities at once, so it takes O(E log V) time no matter how many
+   * facilities there are, and it splits the graph into one region per facility.
+   *
+   * @param facilities the data items in the facility nodes
+   * @return the nearest facility and its cost for every node id
+   * @throws NoSuchElementException when a facility data item does not correspond to a graph node
+   */
+  @SafeVarargs
+  public final FacilityPartition partitionByNearest(NodeType... facilities) {
+    List<NodeType> list = new ArrayList<NodeType>(facilities.length);
+    for (NodeType facility : facilities) {
+      list.add(facility);
+    }
+    return partitionByNearest(list);
+  }
+
+  /**
+   * Labels every node with its nearest facility and with that cost, like
+   * partitionByNearest(facilities...)
+   *
+   * @param facilities the data items in the facility nodes
+   * @return the nearest facility and its cost for every node id
+   * @throws NoSuchElementException when a facility data item does not correspond to a graph node
+   */
+  public FacilityPartition partitionByNearest(Collection<NodeType> facilities) {
+    BoundedSearch search = new BoundedSearch(Double.POSITIVE_INFINITY, true);
+    for (NodeType facility : facilities) {
+      Node facilityNode = nodes.get(facility);
+      if (facilityNode == null) {
+        throw new NoSuchElementException("facility does not exist in graph");
+      }
+      search.addSource(facilityNode.id);
+    }
+    while (search.hasNext()) {
+      search.nextId();
+    }
+    // nodes that cannot reach any facility keep source -1 and an infinite cost
+    return new FacilityPartition(search.source, search.cost);
+  }
+
+  /**
+   * A Dijkstra search from one or more sources that settles one node per call to next(), and ends
+   * once the cheapest unsettled node costs more than the budget. Costs, and the source each node
+   * was reached from, are kept in arrays indexed by node id. A reverse search follows edges
+   * backwards, so that the cost of a node is the cost from that node to its nearest source.
+   */
+  protected class BoundedSearch implements Iterator<Map.Entry<NodeType, Double>> {
+    protected final double budget; // the largest cost of a settled node
+    protected final double[] cost; // best known cost of each node
+    protected final int[] source; // id of the nearest source of each node
+    protected final boolean[] settled; // whether the cost of each node is final
+    protected final boolean reverse; // whether edges are followed from successor to predecessor
+    protected final SearchHeap frontier = new SearchHeap(16);
+
+    protected BoundedSearch(double budget, boolean reverse) {
+      this.budget = budget;
+      this.reverse = reverse;
+      cost = new double[nodesById.size()];
+      Arrays.fill(cost, Double.POSITIVE_INFINITY);
+      source = new int[nodesById.size()];
+      Arrays.fill(source, -1);
+      settled = new boolean[nodesById.size()];
+    }
+
+    // starts the search at a node with cost 0
+    protected void addSource(int id) {
+      if (cost[id] > 0) {
+        cost[id] = 0;
+        source[id] = id;
+        frontier.add(id, 0);
+      }
+    }
+
+    // drops the frontier entries of settled nodes, whose cost was improved after they were added
+    private void skipSettled() {
+      while (!frontier.isEmpty() && settled[frontier.peekNode()]) {
+        frontier.removeMin();
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      skipSettled();
+      return !frontier.isEmpty() && frontier.peekCost() <= budget;
+    }
+
+    // settles the next node and returns its id
+    protected int nextId() {
+      if (!hasNext()) {
+        throw new NoSuchElementException("no more nodes within budget");
+      }
+      int id = frontier.removeMin();
+      settled[id] = true;
+      Node node = nodesById.get(id);
+      for (Edge edge : reverse ? node.edgesEntering : node.edgesLeaving) {
+        int next = reverse ? edge.predecessor.id : edge.successor.id;
+        double nextCost = cost[id] + edge.data.doubleValue();
+        if (!settled[next] && nextCost < cost[next] && nextCost <= budget) {
+          cost[next] = nextCost;
+          source[next] = source[id];
+          frontier.add(next, nextCost);
+        }
+      }
+      return id;
+    }
+
+    @Override
+    public Map.Entry<NodeType, Double> next() {
+      int id = nextId();
+      return new AbstractMap.SimpleImmutableEntry<NodeType, Double>(nodesById.get(id).data, cost[id]);
+    }
+  }
+
+  /**
+   * This helper method runs Dijkstra's algorithm over a graph whose nodes are numbered, such as a
+   * MappedGraph that is stored off the heap. The search reads the adjacency records of the graph
+   * directly and keeps its state in primitive arrays.
+   *
+   * @param graph       the id-indexed graph to search
+   * @param start       the id of the starting node
+   * @param end         the id of the destination node
+   * @param predecessor array that is filled with the predecessor id of every settled node, or null
+   * @return the cost of the shortest path from start to end
+   * @throws NoSuchElementException when no path from start to end is found or when either id is
+   *                                not a node of the graph
+   */
+  protected static double computeShortestPath(IndexedGraphInterface graph, int start, int end,
+      int[] predecessor) {
+    int nodeCount = graph.getNodeCount();
+    if (start < 0 || start >= nodeCount || end < 0 || end >= nodeCount) {
+      throw new NoSuchElementException("start or end does not exist in graph");
+    }
+    double[] cost = new double[nodeCount];
+    Arrays.fill(cost, Double.POSITIVE_INFINITY);
+    boolean[] visited = new boolean[nodeCount];
+    SearchHeap paths = new SearchHeap(16);
+    cost[start] = 0;
+    if (predecessor != null) {
+      predecessor[start] = -1;
+    }
+    paths.add(start, 0);
+    while (!paths.isEmpty()) {
+      int node = paths.removeMin();
+      if (visited[node]) {
+        continue;
+      }
+      visited[node] = true;
+      // if the node is the end node, search is done
+      if (node == end) {
+        return cost[node];
+      }
+      // relax every edge leaving the removed node
+      for (int edge = graph.firstEdge(node), last = graph.lastEdge(node); edge < last; edge++) {
+        int next = graph.edgeTarget(edge);
+        double nextCost = cost[node] + graph.edgeWeight(edge);
+        if (!visited[next] && nextCost < cost[next]) {
+          cost[next] = nextCost;
+          if (predecessor != null) {
+            predecessor[next] = node;
+          }
+          paths.add(next, nextCost);
+        }
+      }
+    }
+    // if no path is found, throw an exception
+    throw new NoSuchElementException("no path from start to end");
+  }
+
+  /**
+   * Returns the ids of the nodes along the shortest path between two nodes of an id-indexed graph
+   *
+   * @param graph the id-indexed graph to search
+   * @param start the id of the starting node
+   * @param end   the id of the destination node
+   * @return ids of the nodes along the shortest path, from start to end
+   */
+  public static int[] shortestPathIds(IndexedGraphInterface graph, int start, int end) {
+    int[] predecessor = new int[graph.getNodeCount()];
+    computeShortestPath(graph, start, end, predecessor);
+    // count the nodes on the path, then fill the array from end to start
+    int length = 1;
+    for (int node = end; node != start; node = predecessor[node]) {
+      length++;
+    }
+    int[] path = new int[length];
+    for (int node = end, i = length - 1; i >= 0; node = predecessor[node], i--) {
+      path[i] = node;
+    }
+    return path;
+  }
+
+  /**
+   * Returns the cost of the shortest path between two nodes of an id-indexed graph
+   *
+   * @param graph the id-indexed graph to search
+   * @param start the id of the starting node
+   * @param end   the id of the destination node
+   * @return the cost of the shortest path between these nodes
+   */
+  public static double shortestPathCost(IndexedGraphInterface graph, int start, int end) {
+    return computeShortestPath(graph, start, end, null);
+  }
+
+  /**
+   * Returns the cost of the shortest path from one node to every node of an id-indexed graph
+   *
+   * @param graph the id-indexed graph to search
+   * @param start the id of the starting node
+   * @return the cost of reaching each node by its id, infinite for nodes that cannot be reached
+   * @throws NoSuchElementException when start is not a node of the graph
+   */
+  public static double[] shortestPathCosts(IndexedGraphInterface graph, int start) {
+    int nodeCount = graph.getNodeCount();
+    if (start < 0 || start >= nodeCount) {
+      throw new NoSuchElementException("start does not exist in graph");
+    }
+    double[] cost = new double[nodeCount];
+    Arrays.fill(cost, Double.POSITIVE_INFINITY);
+    boolean[] visited = new boolean[nodeCount];
+    SearchHeap paths = new SearchHeap(16);
+    cost[start] = 0;
+    paths.add(start, 0);
+    while (!paths.isEmpty()) {
+      int node = paths.removeMin();
+      if (visited[node]) {
+        continue;
+      }
+      visited[node] = true;
+      for (int edge = graph.firstEdge(node), last = graph.lastEdge(node); edge < last; edge++) {
+        int next = graph.edgeTarget(edge);
+        double nextCost = cost[node] + graph.edgeWeight(edge);
+        if (!visited[next] && nextCost < cost[next]) {
+          cost[next] = nextCost;
+          paths.add(next, nextCost);
+        }
+      }
+    }
+    return cost;
+  }
+
+  @Override
+  public NodeType getNode(NodeType searchNode) {
+    // node data is hashed by value, so the stored key can be looked up directly
+    Node node = nodes.get(searchNode);
+    return node == null ? null : node.data;
   }
 }
@@ -1,4 +1,7 @@
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
 
 /**
  *
@@ -16,6 +19,21 @@ public interface DijkstraInterface<NodeType, EdgeType extends Number>
   public double shortestPathConstrainRoadsCost(NodeType start, NodeType end, NodeType edgeStart,
       NodeType edgeEnd);
 
+  public List<List<NodeType>> shortestPathsData(NodeType start, NodeType end, int k,
+      double maxOverlap);
+
+  public double pathCost(List<NodeType> path);
+
+  public void setEdgeProfile(NodeType pred, NodeType succ, TravelTimeProfile profile);
+
+  public List<NodeType> shortestPathDataAt(NodeType start, NodeType end, double departure);
+
+  public double shortestPathCostAt(NodeType start, NodeType end, double departure);
+
+  public Stream<Map.Entry<NodeType, Double>> reachableWithin(double budget, Collection<NodeType> starts);
+
+  public FacilityPartition partitionByNearest(Collection<NodeType> facilities);
+
   public NodeType getNode(NodeType searchNode);
 }
 
@@ -0,0 +1,481 @@
+import java.io.FileNotFoundException;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * This class is an approximate distance oracle after Thorup and Zwick. For a parameter k it
+ * samples a hierarchy of ever smaller sets of buildings, and keeps for every building its nearest
+ * sampled building of each level (its pivots) and its bunch: the sampled buildings that are closer
+ * to it than the pivot one level up. A query walks up the levels, swapping its two ends, until the
+ * pivot of one end is in the bunch of the other, which takes at most k hash lookups.
+ *
+ * The oracle works on distances that are the same in both directions, so it measures every road
+ * by the larger of its cost and the cost of the road back. For every pair of buildings the
+ * estimate is then bounded by
+ * <pre>
+ *   exact cost  &lt;=  estimate  &lt;=  (2k - 1) * asymmetry * exact cost
+ * </pre>
+ * where asymmetry is the largest ratio between the two costs of a road, 1 on maps where every
+ * road costs the same both ways. A map with a one-way road has no such bound, so it is rejected.
+ * The bunches hold about k * n^(1 + 1/k) entries for n buildings: a larger k takes less memory and
+ * gives a looser bound.
+ */
+public class DistanceOracle {
+
+  private final int levels; // k, the number of levels
+  private final double asymmetry; // largest ratio between the costs of a road both ways
+  private final int[] component; // component of each node, nodes in different ones never meet
+  private final int[][] pivot; // nearest node of each level to each node, -1 when there is none
+  private final double[][] pivotCost; // cost from each node to its pivot of each level
+  private final int[] bunchStart; // first slot of each node's bunch table, followed by the end
+  private final int[] bunchNode; // node + 1 in each slot of the bunch tables, 0 when empty
+  private final double[] bunchCost; // cost between the node of the table and the node in the slot
+  private final int bunchSize; // number of entries in all the bunches
+
+  /**
+   * Builds an oracle for a map
+   *
+   * @param graph  the map
+   * @param levels k, from 1 for exact costs up to about log n for the smallest oracle
+   * @param seed   the seed of the sampling
+   * @throws IllegalArgumentException when levels is less than 1 or the map has a one-way road
+   */
+  public DistanceOracle(DijkstraGraph<?, Double> graph, int levels, long seed) {
+    this(ArrayGraph.of(graph), levels, seed);
+  }
+
+  /**
+   * Builds an oracle for an id-indexed graph
+   *
+   * @param graph  the graph
+   * @param levels k, from 1 for exact costs up to about log n for the smallest oracle
+   * @param seed   the seed of the sampling
+   * @throws IllegalArgumentException when levels is less than 1 or the graph has a one-way edge
+   */
+  public DistanceOracle(IndexedGraphInterface graph, int levels, long seed) {
+    if (levels < 1) {
+      throw new IllegalArgumentException("an oracle needs at least one level");
+    }
+    int nodeCount = graph.getNodeCount();
+    this.levels = levels;
+    ArrayGraph roads = symmetric(graph);
+    double ratio = 1;
+    for (int node = 0; node < nodeCount; node++) {
+      for (int edge = graph.firstEdge(node), last = graph.lastEdge(node); edge < last; edge++) {
+        double cost = graph.edgeWeight(edge);
+        if (cost < Double.POSITIVE_INFINITY) {
+          double larger = roads.edgeWeight(edge);
+          ratio = Math.max(ratio, larger == 0 ? 1 : larger / cost);
+        }
+      }
+    }
+    if (ratio == Double.POSITIVE_INFINITY) {
+      throw new IllegalArgumentException("a road is free one way only, so estimates would have"
+          + " no bound");
+    }
+    this.asymmetry = ratio;
+    this.component = components(roads);
+
+    // samples the levels, each keeping a node of the level below with probability n^(-1/k)
+    Random random = new Random(seed);
+    double keep = Math.pow(Math.max(nodeCount, 2), -1.0 / levels);
+    int[] level = new int[nodeCount]; // highest level that each node was sampled into
+    for (int node = 0; node < nodeCount; node++) {
+      while (level[node] + 1 < levels && random.nextDouble() < keep) {
+        level[node]++;
+      }
+    }
+    // every connected part needs a node on the top level, which is in the bunch of all its nodes
+    // and ends every query
+    boolean[] topped = new boolean[nodeCount];
+    for (int node = 0; node < nodeCount; node++) {
+      topped[component[node]] |= level[node] == levels - 1;
+    }
+    for (int node = 0; node < nodeCount; node++) {
+      if (!topped[component[node]]) {
+        topped[component[node]] = true;
+        level[node] = levels - 1;
+      }
+    }
+
+    // pivots from the top level down, a tie with the level above taking the pivot above
+    pivot = new int[levels + 1][];
+    pivotCost = new double[levels + 1][];
+    pivot[levels] = new int[nodeCount];
+    Arrays.fill(pivot[levels], -1);
+    pivotCost[levels] = new double[nodeCount];
+    Arrays.fill(pivotCost[levels], Double.POSITIVE_INFINITY);
+    for (int i = levels - 1; i >= 0; i--) {
+      pivot[i] = new int[nodeCount];
+      pivotCost[i] = new double[nodeCount];
+      nearest(roads, level, i, pivot[i], pivotCost[i]);
+      for (int node = 0; node < nodeCount; node++) {
+        if (pivotCost[i][node] == pivotCost[i + 1][node] && pivot[i + 1][node] >= 0) {
+          pivot[i][node] = pivot[i + 1][node];
+        }
+      }
+    }
+
+    // every sampled node of a level joins the bunches of the nodes closer to it than to the level
+    // above, found by a search that stops where the level above is as close
+    Entries entries = new Entries(nodeCount * 4);
+    double[] cost = new double[nodeCount];
+    Arrays.fill(cost, Double.POSITIVE_INFINITY);
+    int[] reached = new int[nodeCount];
+    SearchHeap heap = new SearchHeap(64);
+    for (int center = 0; center < nodeCount; center++) {
+      int i = level[center];
+      double[] above = pivotCost[i + 1];
+      int count = 0;
+      cost[center] = 0;
+      reached[count++] = center;
+      heap.clear();
+      heap.add(center, 0);
+      while (!heap.isEmpty()) {
+        int node = heap.removeMin();
+        double nodeCost = heap.lastCost();
+        if (nodeCost > cost[node]) {
+          continue;
+        }
+        entries.add(node, center, nodeCost);
+        for (int edge = roads.firstEdge(node), last = roads.lastEdge(node); edge < last; edge++) {
+          int next = roads.edgeTarget(edge);
+          double nextCost = nodeCost + roads.edgeWeight(edge);
+          if (nextCost < cost[next] && nextCost < above[next]) {
+            if (cost[next] == Double.POSITIVE_INFINITY) {
+              reached[count++] = next;
+            }
+            cost[next] = nextCost;
+            heap.add(next, nextCost);
+          }
+        }
+      }
+      for (int r = 0; r < count; r++) {
+        cost[reached[r]] = Double.POSITIVE_INFINITY;
+      }
+    }
+
+    // one open addressing table per node, at most half full
+    bunchSize = entries.size;
+    int[] sizes = new int[nodeCount];
+    for (int e = 0; e < entries.size; e++) {
+      sizes[entries.owner[e]]++;
+    }
+    bunchStart = new int[nodeCount + 1];
+    long slots = 0;
+    for (int node = 0; node < nodeCount; node++) {
+      bunchStart[node] = (int) slots;
+      slots += Integer.highestOneBit(Math.max(1, sizes[node]) * 2 - 1) << 1;
+      if (slots > Integer.MAX_VALUE - 8) {
+        throw new IllegalArgumentException("the bunches do not fit in memory, use more levels");
+      }
+    }
+    bunchStart[nodeCount] = (int) slots;
+    bunchNode = new int[(int) slots];
+    bunchCost = new double[(int) slots];
+    for (int e = 0; e < entries.size; e++) {
+      int owner = entries.owner[e];
+      int start = bunchStart[owner];
+      int mask = bunchStart[owner + 1] - start - 1;
+      int slot = mix(entries.member[e]) & mask;
+      while (bunchNode[start + slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      bunchNode[start + slot] = entries.member[e] + 1;
+      bunchCost[start + slot] = entries.cost[e];
+    }
+  }
+
+  // the bunch entries found while building, as (owner, member, cost) triples
+  private static class Entries {
+    private int[] owner;
+    private int[] member;
+    private double[] cost;
+    private int size;
+
+    private Entries(int capacity) {
+      owner = new int[Math.max(16, capacity)];
+      member = new int[owner.length];
+      cost = new double[owner.length];
+    }
+
+    private void add(int owner, int member, double cost) {
+      if (size == this.owner.length) {
+        int capacity = size * 2;
+        this.owner = Arrays.copyOf(this.owner, capacity);
+        this.member = Arrays.copyOf(this.member, capacity);
+        this.cost = Arrays.copyOf(this.cost, capacity);
+      }
+      this.owner[size] = owner;
+      this.member[size] = member;
+      this.cost[size] = cost;
+      size++;
+    }
+  }
+
+  /**
+   * Returns the graph with every edge costing the larger of its cost and the cost of the edge
+   * back, keeping the edge indexes of the graph
+   *
+   * @throws IllegalArgumentException when an open edge has no open edge back
+   */
+  private static ArrayGraph symmetric(IndexedGraphInterface graph) {
+    ArrayGraph copy = ArrayGraph.of(graph);
+    int nodeCount = copy.getNodeCount();
+    int[] first = new int[nodeCount + 1];
+    int[] target = new int[copy.getEdgeCount()];
+    double[] weight = new double[copy.getEdgeCount()];
+    for (int node = 0; node < nodeCount; node++) {
+      first[node] = copy.firstEdge(node);
+      for (int edge = copy.firstEdge(node), last = copy.lastEdge(node); edge < last; edge++) {
+        int next = copy.edgeTarget(edge);
+        double cost = copy.edgeWeight(edge);
+        target[edge] = next;
+        weight[edge] = cost;
+        if (cost == Double.POSITIVE_INFINITY) {
+          continue; // a closed road is never used
+        }
+        double back = Double.POSITIVE_INFINITY;
+        for (int e = copy.firstEdge(next), end = copy.lastEdge(next); e < end; e++) {
+          if (copy.edgeTarget(e) == node) {
+            back = copy.edgeWeight(e);
+          }
+        }
+        if (back == Double.POSITIVE_INFINITY) {
+          throw new IllegalArgumentException("the road from " + node + " to " + next
+              + " is one-way, so estimates would have no bound");
+        }
+        weight[edge] = Math.max(cost, back);
+      }
+    }
+    first[nodeCount] = copy.getEdgeCount();
+    return new ArrayGraph(first, target, weight);
+  }
+
+  // numbers the connected parts of a symmetric graph
+  private static int[] components(IndexedGraphInterface graph) {
+    int nodeCount = graph.getNodeCount();
+    int[] component = new int[nodeCount];
+    Arrays.fill(component, -1);
+    int[] stack = new int[nodeCount];
+    int count = 0;
+    for (int root = 0; root < nodeCount; root++) {
+      if (component[root] >= 0) {
+        continue;
+      }
+      int top = 0;
+      stack[top++] = root;
+      component[root] = count;
+      while (top > 0) {
+        int node = stack[--top];
+        for (int edge = graph.firstEdge(node), last = graph.lastEdge(node); edge < last; edge++) {
+          int next = graph.edgeTarget(edge);
+          if (component[next] < 0 && graph.edgeWeight(edge) < Double.POSITIVE_INFINITY) {
+            component[next] = count;
+            stack[top++] = next;
+          }
+        }
+      }
+      count++;
+    }
+    return component;
+  }
+
+  // finds the nearest node of a level and its cost for every node, with one multi-source search
+  private static void nearest(IndexedGraphInterface graph, int[] level, int i, int[] pivot,
+      double[] cost) {
+    Arrays.fill(pivot, -1);
+    Arrays.fill(cost, Double.POSITIVE_INFINITY);
+    SearchHeap heap = new SearchHeap(64);
+    for (int node = 0; node < level.length; node++) {
+      if (level[node] >= i) {
+        pivot[node] = node;
+        cost[node] = 0;
+        heap.add(node, 0);
+      }
+    }
+    while (!heap.isEmpty()) {
+      int node = heap.removeMin();
+      double nodeCost = heap.lastCost();
+      if (nodeCost > cost[node]) {
+        continue;
+      }
+      for (int edge = graph.firstEdge(node), last = graph.lastEdge(node); edge < last; edge++) {
+        int next = graph.edgeTarget(edge);
+        double nextCost = nodeCost + graph.edgeWeight(edge);
+        if (nextCost < cost[next]) {
+          cost[next] = nextCost;
+          pivot[next] = pivot[node];
+          heap.add(next, nextCost);
+        }
+      }
+    }
+  }
+
+  // spreads the bits of a node id over the table
+  private static int mix(int node) {
+    int hash = node * 0x9e3779b9;
+    return hash ^ (hash >>> 16);
+  }
+
+  // returns the cost stored for a member of a node's bunch, or -1 when it is not a member
+  private double bunchCost(int node, int member) {
+    int start = bunchStart[node];
+    int mask = bunchStart[node + 1] - start - 1;
+    int slot = mix(member) & mask;
+    int key = member + 1;
+    for (int stored; (stored = bunchNode[start + slot]) != 0; slot = (slot + 1) & mask) {
+      if (stored == key) {
+        return bunchCost[start + slot];
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns an estimate of the cost between two nodes, which is never below the exact cost and at
+   * most getStretch() times above it, with at most k table lookups
+   *
+   * @param start the id of the starting node
+   * @param end   the id of the destination node
+   * @return the estimated cost, infinite when the nodes are not connected
+   * @throws NoSuchElementException when either id is not a node of the graph
+   */
+  public double estimate(int start, int end) {
+    if (start < 0 || start >= component.length || end < 0 || end >= component.length) {
+      throw new NoSuchElementException("start or end does not exist in graph");
+    }
+    if (component[start] != component[end]) {
+      return Double.POSITIVE_INFINITY;
+    }
+    int u = start;
+    int v = end;
+    int w = u;
+    double toU = 0;
+    for (int i = 0; ; ) {
+      double toV = bunchCost(v, w);
+      if (toV >= 0) {
+        return toU + toV;
+      }
+      i++;
+      int swap = u;
+      u = v;
+      v = swap;
+      w = pivot[i][u];
+      toU = pivotCost[i][u];
+    }
+  }
+
+  // returns k, the number of levels
+  public int getLevels() {
+    return levels;
+  }
+
+  // returns the largest ratio between the costs of a road in its two directions
+  public double getAsymmetry() {
+    return asymmetry;
+  }
+
+  // returns the bound on estimate / exact cost: (2k - 1) times the asymmetry of the roads
+  public double getStretch() {
+    return (2 * levels - 1) * asymmetry;
+  }
+
+  // returns the number of entries in all the bunches
+  public int getBunchSize() {
+    return bunchSize;
+  }
+
+  // returns the number of bytes held by the oracle's arrays
+  public long getByteCount() {
+    long nodes = component.length;
+    return 4L * nodes + 12L * nodes * (levels + 1) + 4L * bunchStart.length
+        + 12L * bunchNode.length;
+  }
+
+  /**
+   * Returns the smallest number of levels whose oracle is expected to fit in the given number of
+   * bytes, which gives the tightest bound that fits
+   *
+   * @param nodeCount the number of buildings of the map
+   * @param bytes     the memory that the oracle may take
+   */
+  public static int levelsFor(int nodeCount, long bytes) {
+    int n = Math.max(nodeCount, 2);
+    for (int k = 1; k < 64; k++) {
+      // bunch tables at most half full, plus the pivots of every level
+      double entries = k * Math.pow(n, 1 + 1.0 / k);
+      if (entries * 24 + 12.0 * n * (k + 1) <= bytes) {
+        return k;
+      }
+    }
+    return 64;
+  }
+
+  /**
+   * Builds oracles on a map and compares their estimates with exact costs
+   *
+   * @param args the map file, the numbers of levels separated by commas (default 2,3,4), and the
+   *             number of queries (default 200)
+   */
+  public static void main(String[] args) throws FileNotFoundException {
+    if (args.length < 1) {
+      System.err.println("usage: java DistanceOracle map [levels,levels...] [queries]");
+      System.exit(2);
+    }
+    ArrayGraph graph = ArrayGraph.of(new MapReader().read(args[0]));
+    int[] levels = Arrays.stream((args.length > 1 ? args[1] : "2,3,4").split(","))
+        .mapToInt(Integer::parseInt).toArray();
+    int queries = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+    int nodeCount = graph.getNodeCount();
+    Random random = new Random(1);
+    int[][] pairs = new int[queries][];
+    double[] exact = new double[queries];
+    long begin = System.nanoTime();
+    for (int i = 0; i < queries; i++) {
+      pairs[i] = new int[] {random.nextInt(nodeCount), random.nextInt(nodeCount)};
+      try {
+        exact[i] = DijkstraGraph.shortestPathCost(graph, pairs[i][0], pairs[i][1]);
+      } catch (NoSuchElementException e) {
+        exact[i] = Double.POSITIVE_INFINITY;
+      }
+    }
+    System.out.printf("%d nodes, %d edges, exact search %.1f us per query%n", nodeCount,
+        graph.getEdgeCount(), (System.nanoTime() - begin) / 1e3 / queries);
+    for (int k : levels) {
+      begin = System.nanoTime();
+      DistanceOracle oracle = new DistanceOracle(graph, k, 1);
+      double build = (System.nanoTime() - begin) / 1e6;
+      double worst = 1;
+      double total = 0;
+      int compared = 0;
+      int outside = 0;
+      for (int i = 0; i < queries; i++) {
+        double estimate = oracle.estimate(pairs[i][0], pairs[i][1]);
+        if (exact[i] > 0 && exact[i] < Double.POSITIVE_INFINITY) {
+          double stretch = estimate / exact[i];
+          worst = Math.max(worst, stretch);
+          total += stretch;
+          compared++;
+          outside += stretch < 1 || stretch > oracle.getStretch() * (1 + 1e-12) ? 1 : 0;
+        } else if (exact[i] != estimate) {
+          outside++;
+        }
+      }
+      // times many queries, since a single one takes well under a microsecond
+      int rounds = 1_000_000;
+      double sum = 0;
+      begin = System.nanoTime();
+      for (int i = 0; i < rounds; i++) {
+        int[] pair = pairs[i % queries];
+        sum += oracle.estimate(pair[0], pair[1]);
+      }
+      double nanos = (double) (System.nanoTime() - begin) / rounds;
+      System.out.printf("k=%d: built in %.0f ms, %d bunch entries, %.1f MB, bound %.3f, stretch"
+          + " mean %.3f worst %.3f, %d outside the bound, %.0f ns per estimate (%s)%n", k, build,
+          oracle.getBunchSize(), oracle.getByteCount() / 1e6, oracle.getStretch(),
+          compared == 0 ? 1 : total / compared, worst, outside, nanos, sum > 0 ? "ok" : "-");
+    }
+  }
+}
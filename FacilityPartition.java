@@ -0,0 +1,45 @@
+/**
+ * This class stores, for every node of a graph, the facility node that is nearest to it and the
+ * cost of reaching that facility. The labels are kept in two primitive arrays indexed by node id,
+ * as computed by DijkstraGraph.partitionByNearest, so answering a query is two array reads.
+ */
+public class FacilityPartition {
+  private final int[] facility; // id of the nearest facility of each node, or -1
+  private final double[] cost; // cost from each node to its nearest facility
+
+  /**
+   * Creates a partition from the labels of a multi-source search
+   *
+   * @param facility id of the nearest facility of each node, or -1 when none can be reached
+   * @param cost     cost from each node to its nearest facility
+   */
+  public FacilityPartition(int[] facility, double[] cost) {
+    this.facility = facility;
+    this.cost = cost;
+  }
+
+  /**
+   * Returns the id of the facility nearest to a node
+   *
+   * @param id the id of the node
+   * @return the id of the nearest facility, or -1 when the node cannot reach any facility
+   */
+  public int getFacility(int id) {
+    return id < facility.length ? facility[id] : -1;
+  }
+
+  /**
+   * Returns the cost from a node to its nearest facility
+   *
+   * @param id the id of the node
+   * @return the cost, or infinity when the node cannot reach any facility
+   */
+  public double getCost(int id) {
+    return id < cost.length ? cost[id] : Double.POSITIVE_INFINITY;
+  }
+
+  // returns the number of nodes that have labels
+  public int getNodeCount() {
+    return facility.length;
+  }
+}
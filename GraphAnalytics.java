@@ -0,0 +1,440 @@
+import java.io.FileNotFoundException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+/**
+ * This class measures which buildings and roads of a map carry the most shortest paths, with
+ * Brandes' betweenness centrality, together with the closeness centrality of every building and
+ * the diameter of the map. All of them come out of the same shortest path search from every
+ * source building, or from a random sample of them for an estimate on large maps.
+ *
+ * The sources are split across a fork-join pool. Every running task takes accumulators that no
+ * other task is using from a pool of the analysis, and they are merged once all the sources are
+ * searched, so the searches never contend and no arrays stay behind on the pool's threads.
+ */
+public class GraphAnalytics {
+
+  /**
+   * Receives the progress of a long analysis. It is called from the worker threads, about a
+   * hundred times per analysis.
+   */
+  public interface Progress {
+    public void update(int sourcesDone, int sourceCount);
+  }
+
+  /**
+   * The result of an analysis. Betweenness counts the shortest paths between ordered pairs of
+   * buildings that pass through a building or road, with paths of equal cost sharing one path's
+   * worth. Roads are numbered like the edges of an ArrayGraph of the map.
+   */
+  public static class Analysis {
+    private final double[] betweenness; // betweenness of each building
+    private final double[] roadBetweenness; // betweenness of each road
+    private final double[] closeness; // closeness of each building, NaN when it was not a source
+    private final double diameter; // largest finite cost between two buildings that were found
+    private final int diameterStart; // building at the start of the diameter, or -1
+    private final int diameterEnd; // building at the end of the diameter, or -1
+    private final int sourceCount; // number of buildings that were searched from
+    private final boolean exact; // whether every building was searched from
+
+    private Analysis(double[] betweenness, double[] roadBetweenness, double[] closeness,
+        double diameter, int diameterStart, int diameterEnd, int sourceCount, boolean exact) {
+      this.betweenness = betweenness;
+      this.roadBetweenness = roadBetweenness;
+      this.closeness = closeness;
+      this.diameter = diameter;
+      this.diameterStart = diameterStart;
+      this.diameterEnd = diameterEnd;
+      this.sourceCount = sourceCount;
+      this.exact = exact;
+    }
+
+    // returns the betweenness of each building by id, estimated when the sources were sampled
+    public double[] getBetweenness() {
+      return betweenness;
+    }
+
+    // returns the betweenness of each road by edge index, estimated when the sources were sampled
+    public double[] getRoadBetweenness() {
+      return roadBetweenness;
+    }
+
+    /**
+     * Returns the closeness of each building by id: the number of buildings it reaches divided by
+     * the total cost of reaching them, scaled by the share of the map it reaches so that
+     * buildings in a small part of the map don't look central. Buildings that were not sampled as
+     * sources have NaN.
+     */
+    public double[] getCloseness() {
+      return closeness;
+    }
+
+    // returns the largest cost between two buildings, a lower bound when sources were sampled
+    public double getDiameter() {
+      return diameter;
+    }
+
+    // returns the building at the start of the diameter, or -1 when no building reaches another
+    public int getDiameterStart() {
+      return diameterStart;
+    }
+
+    // returns the building at the end of the diameter, or -1 when no building reaches another
+    public int getDiameterEnd() {
+      return diameterEnd;
+    }
+
+    // returns the number of buildings that were searched from
+    public int getSourceCount() {
+      return sourceCount;
+    }
+
+    // returns whether every building was searched from, which makes every value exact
+    public boolean isExact() {
+      return exact;
+    }
+
+    /**
+     * Returns the ids of the buildings or roads with the largest values, largest first
+     *
+     * @param values betweenness or closeness values
+     * @param count  the number of ids to return at most
+     */
+    public static int[] top(double[] values, int count) {
+      return IntStream.range(0, values.length).boxed()
+          .filter(i -> !Double.isNaN(values[i]))
+          .sorted(Comparator.comparingDouble((Integer i) -> values[i]).reversed())
+          .limit(count).mapToInt(Integer::intValue).toArray();
+    }
+  }
+
+  private final IndexedGraphInterface graph; // graph to analyze
+  private final int[] source; // node that each edge leaves
+  private final int[] reverseFirst; // first entering edge of each node, followed by the end
+  private final int[] reverseEdge; // edge index of each entering edge
+  private final ForkJoinPool pool; // pool that searches the sources
+
+  /**
+   * The search state and the sums of one worker thread. The arrays are reset after every
+   * source for the nodes that the search touched, so a source costs no more than its search.
+   */
+  private class Accumulator {
+    private final double[] cost = new double[graph.getNodeCount()];
+    private final double[] paths = new double[graph.getNodeCount()]; // number of shortest paths
+    private final double[] dependency = new double[graph.getNodeCount()];
+    private final int[] rank = new int[graph.getNodeCount()]; // settle order, -1 when not settled
+    private final int[] order = new int[graph.getNodeCount()]; // nodes in settle order
+    private final SearchHeap heap = new SearchHeap(64);
+    private final double[] betweenness = new double[graph.getNodeCount()];
+    private final double[] roadBetweenness = new double[graph.getEdgeCount()];
+    private double diameter = -1;
+    private int diameterStart = -1;
+    private int diameterEnd = -1;
+
+    private Accumulator() {
+      Arrays.fill(cost, Double.POSITIVE_INFINITY);
+      Arrays.fill(rank, -1);
+    }
+
+    /**
+     * Searches from one source, adds the dependencies of the other nodes on it to the sums, and
+     * returns the closeness of the source
+     */
+    private double search(int start) {
+      int count = 0;
+      cost[start] = 0;
+      paths[start] = 1;
+      heap.clear();
+      heap.add(start, 0);
+      while (!heap.isEmpty()) {
+        int node = heap.removeMin();
+        if (rank[node] >= 0) {
+          continue;
+        }
+        rank[node] = count;
+        order[count++] = node;
+        for (int edge = graph.firstEdge(node), last = graph.lastEdge(node); edge < last; edge++) {
+          double weight = graph.edgeWeight(edge);
+          if (weight == Double.POSITIVE_INFINITY) {
+            continue; // a closed road
+          }
+          int next = graph.edgeTarget(edge);
+          double nextCost = cost[node] + weight;
+          if (nextCost < cost[next]) {
+            cost[next] = nextCost;
+            paths[next] = paths[node];
+            heap.add(next, nextCost);
+          } else if (nextCost == cost[next] && rank[next] < 0) {
+            paths[next] += paths[node];
+          }
+        }
+      }
+
+      // the dependencies flow back from the farthest node, over the roads on shortest paths
+      double total = 0;
+      for (int i = count - 1; i >= 0; i--) {
+        int node = order[i];
+        total += cost[node];
+        double share = (1 + dependency[node]) / paths[node];
+        for (int entering = reverseFirst[node]; entering < reverseFirst[node + 1]; entering++) {
+          int edge = reverseEdge[entering];
+          int previous = source[edge];
+          if (rank[previous] >= 0 && rank[previous] < rank[node]
+              && cost[previous] + graph.edgeWeight(edge) == cost[node]) {
+            double carried = paths[previous] * share;
+            roadBetweenness[edge] += carried;
+            dependency[previous] += carried;
+          }
+        }
+        if (node != start) {
+          betweenness[node] += dependency[node];
+        }
+      }
+      int farthest = order[count - 1];
+      if (count > 1 && cost[farthest] > diameter) {
+        diameter = cost[farthest];
+        diameterStart = start;
+        diameterEnd = farthest;
+      }
+
+      for (int i = 0; i < count; i++) {
+        int node = order[i];
+        cost[node] = Double.POSITIVE_INFINITY;
+        paths[node] = 0;
+        dependency[node] = 0;
+        rank[node] = -1;
+      }
+      int reached = count - 1;
+      int others = graph.getNodeCount() - 1;
+      return reached == 0 ? 0 : (reached / total) * ((double) reached / others);
+    }
+  }
+
+  /**
+   * Prepares the analysis of a map, with its buildings numbered by their ids
+   *
+   * @param graph the map to analyze
+   */
+  public GraphAnalytics(DijkstraGraph<?, Double> graph) {
+    this(ArrayGraph.of(graph), ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Prepares the analysis of an id-indexed graph
+   *
+   * @param graph the graph to analyze
+   * @param pool  the pool that searches the sources
+   */
+  public GraphAnalytics(IndexedGraphInterface graph, ForkJoinPool pool) {
+    this.graph = graph;
+    this.pool = pool;
+    int nodeCount = graph.getNodeCount();
+    source = new int[graph.getEdgeCount()];
+    reverseFirst = new int[nodeCount + 1];
+    for (int node = 0; node < nodeCount; node++) {
+      for (int edge = graph.firstEdge(node), last = graph.lastEdge(node); edge < last; edge++) {
+        source[edge] = node;
+        reverseFirst[graph.edgeTarget(edge) + 1]++;
+      }
+    }
+    for (int node = 0; node < nodeCount; node++) {
+      reverseFirst[node + 1] += reverseFirst[node];
+    }
+    int[] next = Arrays.copyOf(reverseFirst, nodeCount);
+    reverseEdge = new int[graph.getEdgeCount()];
+    for (int edge = 0; edge < source.length; edge++) {
+      reverseEdge[next[graph.edgeTarget(edge)]++] = edge;
+    }
+  }
+
+  // returns the building that a road leaves
+  public int getRoadStart(int road) {
+    return source[road];
+  }
+
+  // returns the building that a road enters
+  public int getRoadEnd(int road) {
+    return graph.edgeTarget(road);
+  }
+
+  /**
+   * Searches from every building, for exact values
+   *
+   * @param progress receives the progress, or null
+   */
+  public Analysis analyze(Progress progress) {
+    int[] sources = IntStream.range(0, graph.getNodeCount()).toArray();
+    return analyze(sources, progress, true);
+  }
+
+  /**
+   * Searches from a random sample of buildings, and scales betweenness up to estimate its value
+   * over every building, following Brandes and Pich
+   *
+   * @param samples  the number of source buildings
+   * @param seed     the seed of the random sample
+   * @param progress receives the progress, or null
+   */
+  public Analysis analyze(int samples, long seed, Progress progress) {
+    int nodeCount = graph.getNodeCount();
+    if (samples >= nodeCount) {
+      return analyze(progress);
+    }
+    if (samples <= 0) {
+      throw new IllegalArgumentException("at least one source is needed");
+    }
+    // a partial shuffle picks distinct sources
+    int[] nodes = IntStream.range(0, nodeCount).toArray();
+    Random random = new Random(seed);
+    for (int i = 0; i < samples; i++) {
+      int j = i + random.nextInt(nodeCount - i);
+      int swap = nodes[i];
+      nodes[i] = nodes[j];
+      nodes[j] = swap;
+    }
+    return analyze(Arrays.copyOf(nodes, samples), progress, false);
+  }
+
+  private Analysis analyze(int[] sources, Progress progress, boolean exact) {
+    int nodeCount = graph.getNodeCount();
+    double[] closeness = new double[nodeCount];
+    Arrays.fill(closeness, Double.NaN);
+    // every accumulator made for this analysis, and the ones that no task is using, so that there
+    // are only as many as tasks that ran at once
+    ConcurrentLinkedQueue<Accumulator> accumulators = new ConcurrentLinkedQueue<>();
+    ConcurrentLinkedQueue<Accumulator> idle = new ConcurrentLinkedQueue<>();
+    AtomicInteger done = new AtomicInteger();
+    int step = Math.max(1, sources.length / 100);
+    int grain = Math.max(1, sources.length / (pool.getParallelism() * 8));
+
+    @SuppressWarnings("serial") // tasks of one analysis, never serialized
+    class Sources extends RecursiveAction {
+      private final int from; // first source of the task
+      private final int to; // one past the last source of the task
+
+      private Sources(int from, int to) {
+        this.from = from;
+        this.to = to;
+      }
+
+      @Override
+      protected void compute() {
+        if (to - from > grain) {
+          int middle = (from + to) >>> 1;
+          invokeAll(new Sources(from, middle), new Sources(middle, to));
+          return;
+        }
+        Accumulator accumulator = idle.poll();
+        if (accumulator == null) {
+          accumulator = new Accumulator();
+          accumulators.add(accumulator);
+        }
+        try {
+          for (int i = from; i < to; i++) {
+            closeness[sources[i]] = accumulator.search(sources[i]);
+            int finished = done.incrementAndGet();
+            if (progress != null && (finished % step == 0 || finished == sources.length)) {
+              progress.update(finished, sources.length);
+            }
+          }
+        } finally {
+          idle.add(accumulator);
+        }
+      }
+    }
+    if (sources.length > 0) {
+      pool.invoke(new Sources(0, sources.length));
+    }
+
+    double[] betweenness = new double[nodeCount];
+    double[] roadBetweenness = new double[graph.getEdgeCount()];
+    double diameter = 0;
+    int diameterStart = -1;
+    int diameterEnd = -1;
+    for (Accumulator accumulator : accumulators) {
+      for (int node = 0; node < nodeCount; node++) {
+        betweenness[node] += accumulator.betweenness[node];
+      }
+      for (int edge = 0; edge < roadBetweenness.length; edge++) {
+        roadBetweenness[edge] += accumulator.roadBetweenness[edge];
+      }
+      if (accumulator.diameter > diameter || diameterStart < 0 && accumulator.diameterStart >= 0) {
+        diameter = accumulator.diameter;
+        diameterStart = accumulator.diameterStart;
+        diameterEnd = accumulator.diameterEnd;
+      }
+    }
+    if (!exact) {
+      double scale = (double) nodeCount / sources.length;
+      for (int node = 0; node < nodeCount; node++) {
+        betweenness[node] *= scale;
+      }
+      for (int edge = 0; edge < roadBetweenness.length; edge++) {
+        roadBetweenness[edge] *= scale;
+      }
+    }
+    return new Analysis(betweenness, roadBetweenness, closeness, diameter, diameterStart,
+        diameterEnd, sources.length, exact);
+  }
+
+  /**
+   * Prints the buildings and roads with the highest betweenness, the most central buildings and
+   * the diameter of a map
+   *
+   * @param args the map file, the number of sampled sources (default every building), the number
+   *             of threads (default the number of processors) and the number of results to print
+   *             (default 10)
+   */
+  public static void main(String[] args) throws FileNotFoundException {
+    if (args.length < 1) {
+      System.err.println("usage: java GraphAnalytics map [samples] [threads] [count]");
+      System.exit(2);
+    }
+    DijkstraGraph<BuildingInterface, Double> map = new MapReader().read(args[0]);
+    int samples = args.length > 1 ? Integer.parseInt(args[1]) : map.getNodeCount();
+    int threads = args.length > 2 ? Integer.parseInt(args[2])
+        : Runtime.getRuntime().availableProcessors();
+    int count = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    try {
+      GraphAnalytics analytics = new GraphAnalytics(ArrayGraph.of(map), pool);
+      long begin = System.nanoTime();
+      Analysis analysis = analytics.analyze(samples, 1, (done, total) ->
+          System.err.printf("\r%d of %d sources, %.0f s", done, total,
+              (System.nanoTime() - begin) / 1e9));
+      System.err.println();
+      System.out.printf("%d buildings, %d roads, %d sources on %d threads in %.1f s (%s)%n",
+          map.getNodeCount(), map.getEdgeCount(), analysis.getSourceCount(), threads,
+          (System.nanoTime() - begin) / 1e9, analysis.isExact() ? "exact" : "estimated");
+      System.out.println("buildings on the most shortest paths:");
+      for (int node : Analysis.top(analysis.getBetweenness(), count)) {
+        System.out.printf("  %-30s %.1f%n", map.getNodeData(node).getName(),
+            analysis.getBetweenness()[node]);
+      }
+      System.out.println("roads on the most shortest paths:");
+      for (int road : Analysis.top(analysis.getRoadBetweenness(), count)) {
+        System.out.printf("  %-30s %.1f%n", map.getNodeData(analytics.getRoadStart(road)).getName()
+            + " -> " + map.getNodeData(analytics.getRoadEnd(road)).getName(),
+            analysis.getRoadBetweenness()[road]);
+      }
+      System.out.println("most central buildings:");
+      for (int node : Analysis.top(analysis.getCloseness(), count)) {
+        System.out.printf("  %-30s %.4f%n", map.getNodeData(node).getName(),
+            analysis.getCloseness()[node]);
+      }
+      if (analysis.getDiameterStart() >= 0) {
+        System.out.printf("diameter %s, from %s to %s%n", analysis.getDiameter(),
+            map.getNodeData(analysis.getDiameterStart()).getName(),
+            map.getNodeData(analysis.getDiameterEnd()).getName());
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+}
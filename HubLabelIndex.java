@@ -0,0 +1,563 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * This class answers shortest path costs between buildings from hub labels (pruned landmark
+ * labeling). Every building keeps a list of hubs with its cost to each of them, and a list of hubs
+ * with the cost from each of them, so that some shortest path between any two buildings goes
+ * through a hub in both of their lists. A query is a merge of two sorted lists, with no search.
+ * The cost is the cost to the hub plus the cost from it, so on fractional weights it can differ
+ * from the cost that a Dijkstra search adds up road by road in the last bit; on integral weights
+ * the two are the same.
+ *
+ * The labels are built with one Dijkstra search from every building, taken in order of decreasing
+ * degree. A search stops at every building whose cost is already answered by the labels of the
+ * buildings before it, so the busy junctions searched first cover most paths and later searches
+ * stay small. On a map where every road costs the same both ways the two lists of a building are
+ * the same, and only one is built and stored. Hubs are stored by their place in the order, so the
+ * labels of a building are sorted as they are built.
+ *
+ * The labels can be written next to the map and read back instead of being built again. The file
+ * holds a fingerprint of the roads it was built from, so labels of another map, or of the same map
+ * after a change, are recognized and not used. File layout (big endian):
+ * <pre>
+ *   header   : int magic, int version, int nodeCount, int flags, long fingerprint,
+ *              long buildNanos, int outEntries, int inEntries
+ *   out      : (nodeCount + 1) ints, first entry of each node, then outEntries int hubs and
+ *              outEntries double costs, the hubs each node reaches
+ *   in       : the same for the hubs reaching each node, left out when flags has SYMMETRIC
+ * </pre>
+ */
+public class HubLabelIndex {
+
+  private static final int MAGIC = 0x424e484c; // "BNHL"
+  private static final int VERSION = 1;
+  private static final int HEADER_BYTES = 40;
+  private static final int SYMMETRIC = 1; // flag of labels where out and in are the same
+  private static final long SCATTER = 0x9e3779b9L; // spreads ids with the same degree
+  private static final long GATHER = 0x144cbc89L; // inverse of SCATTER modulo 2^32
+
+  private final int nodeCount; // number of nodes labelled
+  private final long fingerprint; // hash of the roads the labels were built from
+  private final long buildNanos; // time taken to build the labels
+  private final boolean symmetric; // whether every road costs the same both ways
+  private final int[] outStart; // first out label of each node, followed by the end
+  private final int[] outHub; // rank of the hub of each out label
+  private final double[] outCost; // cost from the node to the hub of each out label
+  private final int[] inStart; // first in label of each node, the out arrays when symmetric
+  private final int[] inHub; // rank of the hub of each in label
+  private final double[] inCost; // cost from the hub to the node of each in label
+
+  /**
+   * Builds the labels of a graph
+   *
+   * @param graph the graph to label
+   */
+  public HubLabelIndex(DijkstraGraph<?, Double> graph) {
+    long begin = System.nanoTime();
+    Builder<?> builder = new Builder<>(graph);
+    nodeCount = builder.nodeCount;
+    fingerprint = fingerprint(graph);
+    symmetric = builder.symmetric;
+    builder.build();
+    int[][] out = new int[1][];
+    double[][] outCosts = new double[1][];
+    outStart = flatten(builder.outHubs, builder.outCosts, builder.outCount, out, outCosts);
+    outHub = out[0];
+    outCost = outCosts[0];
+    if (symmetric) {
+      inStart = outStart;
+      inHub = outHub;
+      inCost = outCost;
+    } else {
+      int[][] in = new int[1][];
+      double[][] inCosts = new double[1][];
+      inStart = flatten(builder.inHubs, builder.inCosts, builder.inCount, in, inCosts);
+      inHub = in[0];
+      inCost = inCosts[0];
+    }
+    buildNanos = System.nanoTime() - begin;
+  }
+
+  private HubLabelIndex(int nodeCount, long fingerprint, long buildNanos, boolean symmetric,
+      int[] outStart, int[] outHub, double[] outCost, int[] inStart, int[] inHub,
+      double[] inCost) {
+    this.nodeCount = nodeCount;
+    this.fingerprint = fingerprint;
+    this.buildNanos = buildNanos;
+    this.symmetric = symmetric;
+    this.outStart = outStart;
+    this.outHub = outHub;
+    this.outCost = outCost;
+    this.inStart = inStart;
+    this.inHub = inHub;
+    this.inCost = inCost;
+  }
+
+  /**
+   * Builds the labels with pruned searches over the road lists of the graph's nodes
+   */
+  private static class Builder<T> {
+    private final List<BaseGraph<T, Double>.Node> nodes; // nodes of the graph by id
+    private final int nodeCount;
+    private final boolean symmetric;
+    private final int[][] outHubs; // hubs that each node reaches, by rank
+    private final double[][] outCosts;
+    private final int[] outCount;
+    private final int[][] inHubs; // hubs that reach each node, the out labels when symmetric
+    private final double[][] inCosts;
+    private final int[] inCount;
+    private final double[] hubCost; // cost between the searched hub and each hub, by rank
+    private final double[] cost; // cost of each node in the current search
+    private final int[] reached; // nodes whose cost the current search set
+    private final SearchHeap heap = new SearchHeap(64);
+
+    private Builder(DijkstraGraph<T, Double> graph) {
+      nodes = graph.nodesById;
+      nodeCount = nodes.size();
+      symmetric = isSymmetric(nodes);
+      outHubs = new int[nodeCount][];
+      outCosts = new double[nodeCount][];
+      outCount = new int[nodeCount];
+      inHubs = symmetric ? outHubs : new int[nodeCount][];
+      inCosts = symmetric ? outCosts : new double[nodeCount][];
+      inCount = symmetric ? outCount : new int[nodeCount];
+      hubCost = new double[nodeCount];
+      Arrays.fill(hubCost, Double.POSITIVE_INFINITY);
+      cost = new double[nodeCount];
+      Arrays.fill(cost, Double.POSITIVE_INFINITY);
+      reached = new int[nodeCount];
+    }
+
+    // searches from every node in order of decreasing degree. Most buildings of a street grid
+    // have the same degree, and taking those in id order, row after row, gives labels many times
+    // larger than taking them in a scattered order, so ties are broken by a multiplicative hash of
+    // the id, which is odd and so undone by its inverse.
+    private void build() {
+      long[] keys = new long[nodeCount];
+      for (int id = 0; id < nodeCount; id++) {
+        BaseGraph<T, Double>.Node node = nodes.get(id);
+        long degree = node.edgesLeaving.size() + node.edgesEntering.size();
+        keys[id] = (Integer.MAX_VALUE - degree) << 32 | (id * SCATTER & 0xffffffffL);
+      }
+      Arrays.sort(keys);
+      for (int rank = 0; rank < nodeCount; rank++) {
+        int hub = (int) (keys[rank] * GATHER);
+        search(hub, rank, true);
+        if (!symmetric) {
+          search(hub, rank, false);
+        }
+      }
+    }
+
+    /**
+     * Runs the pruned search of a hub: forward along the roads leaving each node, which labels the
+     * nodes the hub reaches, or backward along the roads entering each node, which labels the nodes
+     * that reach the hub
+     */
+    private void search(int hub, int rank, boolean forward) {
+      // the costs between the hub and the hubs before it, to prune with
+      int[] known = forward ? outHubs[hub] : inHubs[hub];
+      double[] knownCost = forward ? outCosts[hub] : inCosts[hub];
+      int knownCount = forward ? outCount[hub] : inCount[hub];
+      for (int i = 0; i < knownCount; i++) {
+        hubCost[known[i]] = knownCost[i];
+      }
+      int[][] hubs = forward ? inHubs : outHubs;
+      double[][] costs = forward ? inCosts : outCosts;
+      int[] counts = forward ? inCount : outCount;
+      int count = 0;
+      cost[hub] = 0;
+      reached[count++] = hub;
+      heap.clear();
+      heap.add(hub, 0);
+      while (!heap.isEmpty()) {
+        int node = heap.removeMin();
+        double nodeCost = heap.lastCost();
+        if (nodeCost > cost[node] || covered(hubs[node], costs[node], counts[node], nodeCost)) {
+          continue;
+        }
+        add(hubs, costs, counts, node, rank, nodeCost);
+        BaseGraph<T, Double>.Node from = nodes.get(node);
+        List<BaseGraph<T, Double>.Edge> edges = forward ? from.edgesLeaving : from.edgesEntering;
+        for (BaseGraph<T, Double>.Edge edge : edges) {
+          double nextCost = nodeCost + edge.data;
+          int next = (forward ? edge.successor : edge.predecessor).id;
+          if (nextCost < cost[next]) {
+            if (cost[next] == Double.POSITIVE_INFINITY) {
+              reached[count++] = next;
+            }
+            cost[next] = nextCost;
+            heap.add(next, nextCost);
+          }
+        }
+      }
+      for (int i = 0; i < count; i++) {
+        cost[reached[i]] = Double.POSITIVE_INFINITY;
+      }
+      for (int i = 0; i < knownCount; i++) {
+        hubCost[known[i]] = Double.POSITIVE_INFINITY;
+      }
+    }
+
+    // returns whether the labels of a node already give a cost to the hub as low as nodeCost
+    private boolean covered(int[] hubs, double[] costs, int count, double nodeCost) {
+      for (int i = 0; i < count; i++) {
+        if (hubCost[hubs[i]] + costs[i] <= nodeCost) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private static void add(int[][] hubs, double[][] costs, int[] counts, int node, int rank,
+        double cost) {
+      int count = counts[node];
+      if (hubs[node] == null) {
+        hubs[node] = new int[4];
+        costs[node] = new double[4];
+      } else if (count == hubs[node].length) {
+        hubs[node] = Arrays.copyOf(hubs[node], count * 2);
+        costs[node] = Arrays.copyOf(costs[node], count * 2);
+      }
+      hubs[node][count] = rank;
+      costs[node][count] = cost;
+      counts[node] = count + 1;
+    }
+  }
+
+  // returns whether every open road has a road back with the same cost
+  private static <T> boolean isSymmetric(List<BaseGraph<T, Double>.Node> nodes) {
+    for (BaseGraph<T, Double>.Node node : nodes) {
+      for (BaseGraph<T, Double>.Edge edge : node.edgesLeaving) {
+        if (edge.data == Double.POSITIVE_INFINITY) {
+          continue;
+        }
+        boolean back = false;
+        for (BaseGraph<T, Double>.Edge reverse : edge.successor.edgesLeaving) {
+          back |= reverse.successor == node && reverse.data.equals(edge.data);
+        }
+        if (!back) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  // copies the labels of every node into one pair of arrays, returning the start of each node
+  private static int[] flatten(int[][] hubs, double[][] costs, int[] counts, int[][] flatHubs,
+      double[][] flatCosts) {
+    int[] start = new int[counts.length + 1];
+    long total = 0;
+    for (int node = 0; node < counts.length; node++) {
+      start[node] = (int) total;
+      total += counts[node];
+      if (total > Integer.MAX_VALUE - 8) {
+        throw new IllegalArgumentException("the labels of the map do not fit in memory");
+      }
+    }
+    start[counts.length] = (int) total;
+    flatHubs[0] = new int[(int) total];
+    flatCosts[0] = new double[(int) total];
+    for (int node = 0; node < counts.length; node++) {
+      if (counts[node] > 0) {
+        System.arraycopy(hubs[node], 0, flatHubs[0], start[node], counts[node]);
+        System.arraycopy(costs[node], 0, flatCosts[0], start[node], counts[node]);
+      }
+    }
+    return start;
+  }
+
+  /**
+   * Returns a hash of the buildings and roads of a graph, which changes when a building or road is
+   * added or the cost of a road changes
+   *
+   * @param graph the graph to hash
+   */
+  public static long fingerprint(DijkstraGraph<?, Double> graph) {
+    return hash(graph.nodesById);
+  }
+
+  private static <T> long hash(List<BaseGraph<T, Double>.Node> nodes) {
+    long hash = 0xcbf29ce484222325L ^ nodes.size();
+    for (BaseGraph<T, Double>.Node node : nodes) {
+      hash = (hash ^ node.edgesLeaving.size()) * 0x100000001b3L;
+      for (BaseGraph<T, Double>.Edge edge : node.edgesLeaving) {
+        hash = (hash ^ edge.successor.id) * 0x100000001b3L;
+        hash = (hash ^ Double.doubleToLongBits(edge.data)) * 0x100000001b3L;
+      }
+    }
+    return hash;
+  }
+
+  /**
+   * Returns the cost of the shortest path between two nodes, by merging the hubs that the start
+   * reaches with the hubs that reach the end
+   *
+   * @param start the id of the starting node
+   * @param end   the id of the destination node
+   * @return the cost, infinite when there is no path
+   * @throws NoSuchElementException when either id is not a labelled node
+   */
+  public double distance(int start, int end) {
+    if (start < 0 || start >= nodeCount || end < 0 || end >= nodeCount) {
+      throw new NoSuchElementException("start or end does not exist in graph");
+    }
+    if (start == end) {
+      return 0;
+    }
+    double best = Double.POSITIVE_INFINITY;
+    int i = outStart[start];
+    int iEnd = outStart[start + 1];
+    int j = inStart[end];
+    int jEnd = inStart[end + 1];
+    while (i < iEnd && j < jEnd) {
+      int a = outHub[i];
+      int b = inHub[j];
+      if (a == b) {
+        best = Math.min(best, outCost[i++] + inCost[j++]);
+      } else if (a < b) {
+        i++;
+      } else {
+        j++;
+      }
+    }
+    return best;
+  }
+
+  // returns whether the labels were built from a graph with these buildings and roads
+  public boolean matches(DijkstraGraph<?, Double> graph) {
+    return graph.getNodeCount() == nodeCount && fingerprint(graph) == fingerprint;
+  }
+
+  // returns the number of nodes labelled
+  public int getNodeCount() {
+    return nodeCount;
+  }
+
+  // returns whether the out and in labels are the same, because every road costs the same both ways
+  public boolean isSymmetric() {
+    return symmetric;
+  }
+
+  // returns the number of labels of all nodes, out and in
+  public long getLabelCount() {
+    return symmetric ? outHub.length : (long) outHub.length + inHub.length;
+  }
+
+  // returns the number of labels of the node with the most labels
+  public int getMaxLabelSize() {
+    int max = 0;
+    for (int node = 0; node < nodeCount; node++) {
+      int size = outStart[node + 1] - outStart[node];
+      if (!symmetric) {
+        size += inStart[node + 1] - inStart[node];
+      }
+      max = Math.max(max, size);
+    }
+    return max;
+  }
+
+  // returns the number of bytes held by the label arrays
+  public long getByteCount() {
+    long bytes = 4L * outStart.length + 12L * outHub.length;
+    return symmetric ? bytes : bytes + 4L * inStart.length + 12L * inHub.length;
+  }
+
+  // returns the time it took to build the labels, also for labels read from a file
+  public long getBuildMillis() {
+    return buildNanos / 1_000_000;
+  }
+
+  // returns the build time and the size of the labels in one line
+  @Override
+  public String toString() {
+    return String.format("%d buildings, %d labels (%.1f per building, at most %d), %.1f MB,"
+        + " built in %d ms", nodeCount, getLabelCount(),
+        nodeCount == 0 ? 0.0 : (double) getLabelCount() / nodeCount, getMaxLabelSize(),
+        getByteCount() / 1e6, getBuildMillis());
+  }
+
+  /**
+   * Returns the file that holds the labels of a map file, next to it
+   *
+   * @param mapFilename the map file
+   */
+  public static String fileFor(String mapFilename) {
+    return mapFilename + ".hub";
+  }
+
+  /**
+   * Writes the labels to a file
+   *
+   * @param filename the file to write, replaced when it exists
+   * @throws IOException when the file cannot be written
+   */
+  public void write(String filename) throws IOException {
+    Path path = Paths.get(filename);
+    try (FileChannel out = FileChannel.open(path, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+      buffer.putInt(MAGIC).putInt(VERSION).putInt(nodeCount).putInt(symmetric ? SYMMETRIC : 0)
+          .putLong(fingerprint).putLong(buildNanos).putInt(outHub.length)
+          .putInt(symmetric ? 0 : inHub.length);
+      putLabels(out, buffer, outStart, outHub, outCost);
+      if (!symmetric) {
+        putLabels(out, buffer, inStart, inHub, inCost);
+      }
+      flush(out, buffer);
+    }
+  }
+
+  private static void putLabels(FileChannel out, ByteBuffer buffer, int[] start, int[] hubs,
+      double[] costs) throws IOException {
+    for (int value : start) {
+      reserve(out, buffer, 4);
+      buffer.putInt(value);
+    }
+    for (int hub : hubs) {
+      reserve(out, buffer, 4);
+      buffer.putInt(hub);
+    }
+    for (double cost : costs) {
+      reserve(out, buffer, 8);
+      buffer.putDouble(cost);
+    }
+  }
+
+  // writes the buffer out when it has less than the requested number of bytes left
+  private static void reserve(FileChannel out, ByteBuffer buffer, int bytes) throws IOException {
+    if (buffer.remaining() < bytes) {
+      flush(out, buffer);
+    }
+  }
+
+  private static void flush(FileChannel out, ByteBuffer buffer) throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      out.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  /**
+   * Reads labels written by write(). Use matches() to check that they belong to a map.
+   *
+   * @param filename the file to read
+   * @return the labels
+   * @throws IOException when the file cannot be read or is not a hub label file
+   */
+  public static HubLabelIndex read(String filename) throws IOException {
+    try (FileChannel in = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+      while (header.hasRemaining() && in.read(header) >= 0);
+      header.flip();
+      if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC
+          || header.getInt() != VERSION) {
+        throw new IOException(filename + " is not a hub label file");
+      }
+      int nodeCount = header.getInt();
+      boolean symmetric = (header.getInt() & SYMMETRIC) != 0;
+      long fingerprint = header.getLong();
+      long buildNanos = header.getLong();
+      int outEntries = header.getInt();
+      int inEntries = header.getInt();
+      long expected = HEADER_BYTES + 4L * (nodeCount + 1) + 12L * outEntries
+          + (symmetric ? 0 : 4L * (nodeCount + 1) + 12L * inEntries);
+      if (nodeCount < 0 || outEntries < 0 || inEntries < 0 || in.size() != expected) {
+        throw new IOException(filename + " is not a complete hub label file");
+      }
+      long position = HEADER_BYTES;
+      int[] outStart = new int[nodeCount + 1];
+      int[] outHub = new int[outEntries];
+      double[] outCost = new double[outEntries];
+      position = getLabels(in, position, outStart, outHub, outCost);
+      if (symmetric) {
+        return new HubLabelIndex(nodeCount, fingerprint, buildNanos, true, outStart, outHub,
+            outCost, outStart, outHub, outCost);
+      }
+      int[] inStart = new int[nodeCount + 1];
+      int[] inHub = new int[inEntries];
+      double[] inCost = new double[inEntries];
+      getLabels(in, position, inStart, inHub, inCost);
+      return new HubLabelIndex(nodeCount, fingerprint, buildNanos, false, outStart, outHub,
+          outCost, inStart, inHub, inCost);
+    }
+  }
+
+  // maps one direction of labels and copies it into the arrays, returning where it ends
+  private static long getLabels(FileChannel in, long position, int[] start, int[] hubs,
+      double[] costs) throws IOException {
+    get(in, position, 4L * start.length).asIntBuffer().get(start);
+    position += 4L * start.length;
+    get(in, position, 4L * hubs.length).asIntBuffer().get(hubs);
+    position += 4L * hubs.length;
+    get(in, position, 8L * costs.length).asDoubleBuffer().get(costs);
+    return position + 8L * costs.length;
+  }
+
+  private static ByteBuffer get(FileChannel in, long position, long size) throws IOException {
+    return in.map(FileChannel.MapMode.READ_ONLY, position, size);
+  }
+
+  /**
+   * Builds the labels of a map, writes them next to it and reports the build time and label size,
+   * then checks them against Dijkstra searches
+   *
+   * @param args the map file and the number of pairs to check (default 200)
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1) {
+      System.err.println("usage: java HubLabelIndex map [pairs]");
+      System.exit(2);
+    }
+    DijkstraGraph<BuildingInterface, Double> graph = new MapReader().read(args[0]);
+    int pairs = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+    HubLabelIndex labels = new HubLabelIndex(graph);
+    System.out.println("built " + labels);
+    String filename = fileFor(args[0]);
+    labels.write(filename);
+    long begin = System.nanoTime();
+    labels = read(filename);
+    System.out.printf("read %s in %.1f ms, matches the map: %b%n", filename,
+        (System.nanoTime() - begin) / 1e6, labels.matches(graph));
+
+    ArrayGraph array = ArrayGraph.of(graph);
+    int nodeCount = array.getNodeCount();
+    Random random = new Random(1);
+    int[][] queries = new int[pairs][];
+    int wrong = 0;
+    begin = System.nanoTime();
+    for (int i = 0; i < pairs; i++) {
+      queries[i] = new int[] {random.nextInt(nodeCount), random.nextInt(nodeCount)};
+      double exact;
+      try {
+        exact = DijkstraGraph.shortestPathCost(array, queries[i][0], queries[i][1]);
+      } catch (NoSuchElementException e) {
+        exact = Double.POSITIVE_INFINITY;
+      }
+      double cost = labels.distance(queries[i][0], queries[i][1]);
+      wrong += Math.abs(cost - exact) <= 1e-9 * Math.max(1, exact) || cost == exact ? 0 : 1;
+    }
+    double searchMicros = (System.nanoTime() - begin) / 1e3 / pairs;
+    int rounds = 1_000_000;
+    double sum = 0;
+    begin = System.nanoTime();
+    for (int i = 0; i < rounds; i++) {
+      int[] query = queries[i % pairs];
+      sum += labels.distance(query[0], query[1]);
+    }
+    System.out.printf("%d of %d pairs differ from Dijkstra, %.2f us per label query (%s),"
+        + " %.1f us per search%n", wrong, pairs, (System.nanoTime() - begin) / 1e3 / rounds,
+        sum > 0 ? "ok" : "-", searchMicros);
+  }
+}
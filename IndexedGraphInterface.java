@@ -0,0 +1,25 @@
+/**
+ * This interface represents a read-only directed graph whose nodes are numbered 0..V-1 and whose
+ * leaving edges are stored contiguously per node (compressed sparse row layout). The edges leaving
+ * node u are numbered firstEdge(u) up to (but not including) lastEdge(u).
+ */
+public interface IndexedGraphInterface {
+
+  // returns the number of nodes in the graph
+  public int getNodeCount();
+
+  // returns the number of edges in the graph
+  public int getEdgeCount();
+
+  // returns the index of the first edge leaving the node
+  public int firstEdge(int node);
+
+  // returns the index one past the last edge leaving the node
+  public int lastEdge(int node);
+
+  // returns the id of the node that the edge points to
+  public int edgeTarget(int edge);
+
+  // returns the weight of the edge
+  public double edgeWeight(int edge);
+}
@@ -0,0 +1,301 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.CRC32;
+
+/**
+ * This class keeps the buildings and roads added to a map in an append-only log on disk, so that
+ * they survive a restart without rewriting the map file. The directory of a log holds a snapshot
+ * of the map, written in the binary form of MapWriter, and the log of the changes made since the
+ * snapshot.
+ *
+ * Changes are written by a single thread that writes every change waiting at that moment and then
+ * forces them to disk with one fsync, so callers that log changes at the same time share the cost
+ * of the fsync. The future of a change completes once the change is on disk.
+ *
+ * Each record is its length, a CRC32 of its contents, a kind byte and the arguments of the change.
+ * A record that was only partly written when the program stopped fails its length or CRC check, and
+ * the log is cut off before it when it is replayed. Replaying a change twice leaves the map the same,
+ * so a snapshot that already holds some of the logged changes is safe to replay the log on.
+ */
+public class MapChangeLog implements AutoCloseable {
+  public static final String SNAPSHOT = "snapshot.bnm"; // name of the snapshot in the directory
+  public static final String LOG = "changes.log"; // name of the log in the directory
+
+  private static final byte BUILDING = 1; // record kind of addBuilding
+  private static final byte ROAD = 2; // record kind of insertRoad
+  private static final int HEADER_BYTES = 8; // length and CRC in front of every record
+
+  private final Path directory; // directory with the snapshot and the log
+  private final FileChannel log; // the log file, written at its end
+  private final Thread writer; // thread that writes and forces the waiting records
+  private List<Record> waiting = new ArrayList<Record>(); // records not written yet
+  private long records; // records in the log since the snapshot
+  private boolean writing; // whether the writer thread is writing a batch
+  private boolean closed;
+
+  /**
+   * A change waiting to be written, with the future its caller waits on
+   */
+  private static class Record {
+    private final byte[] bytes; // the record with its header
+    private final CompletableFuture<Void> written = new CompletableFuture<Void>();
+
+    private Record(byte[] bytes) {
+      this.bytes = bytes;
+    }
+  }
+
+  /**
+   * Opens the log in a directory, creating the directory and the log when they don't exist
+   *
+   * @param directory the directory of the snapshot and the log
+   * @throws IOException when the log cannot be opened
+   */
+  public MapChangeLog(String directory) throws IOException {
+    this.directory = Paths.get(directory);
+    Files.createDirectories(this.directory);
+    this.log = FileChannel.open(this.directory.resolve(LOG), StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+    this.writer = new Thread(this::writeWaiting, "map-change-log");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /**
+   * Returns the path of the snapshot, or null when no snapshot was written yet
+   */
+  public String getSnapshot() {
+    Path snapshot = directory.resolve(SNAPSHOT);
+    return Files.exists(snapshot) ? snapshot.toString() : null;
+  }
+
+  /**
+   * Returns the number of records in the log since the last snapshot
+   */
+  public synchronized long getRecordCount() {
+    return records;
+  }
+
+  /**
+   * Logs an added building
+   *
+   * @param building the name of the building
+   * @return future that completes once the change is on disk
+   */
+  public CompletableFuture<Void> logBuilding(String building) {
+    byte[] name = building.getBytes(StandardCharsets.UTF_8);
+    ByteBuffer payload = ByteBuffer.allocate(1 + 4 + name.length);
+    payload.put(BUILDING).putInt(name.length).put(name);
+    return append(payload.array());
+  }
+
+  /**
+   * Logs an inserted road
+   *
+   * @param startBuilding the name of the building the road leaves
+   * @param endBuilding   the name of the building the road enters
+   * @param distance      the cost of the road
+   * @return future that completes once the change is on disk
+   */
+  public CompletableFuture<Void> logRoad(String startBuilding, String endBuilding, double distance) {
+    byte[] start = startBuilding.getBytes(StandardCharsets.UTF_8);
+    byte[] end = endBuilding.getBytes(StandardCharsets.UTF_8);
+    ByteBuffer payload = ByteBuffer.allocate(1 + 4 + start.length + 4 + end.length + 8);
+    payload.put(ROAD).putInt(start.length).put(start).putInt(end.length).put(end).putDouble(distance);
+    return append(payload.array());
+  }
+
+  // adds the length and CRC to a record and hands it to the writer thread
+  private CompletableFuture<Void> append(byte[] payload) {
+    CRC32 crc = new CRC32();
+    crc.update(payload);
+    ByteBuffer bytes = ByteBuffer.allocate(HEADER_BYTES + payload.length);
+    bytes.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+    Record record = new Record(bytes.array());
+    synchronized (this) {
+      if (closed) {
+        record.written.completeExceptionally(new IllegalStateException("change log is closed"));
+        return record.written;
+      }
+      waiting.add(record);
+      records++;
+      notifyAll();
+    }
+    return record.written;
+  }
+
+  /**
+   * Runs on the writer thread: takes every waiting record, writes them together and forces them to
+   * disk once, then completes their futures
+   */
+  private void writeWaiting() {
+    while (true) {
+      List<Record> batch;
+      synchronized (this) {
+        while (waiting.isEmpty() && !closed) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+        if (waiting.isEmpty()) {
+          return; // closed and nothing left to write
+        }
+        batch = waiting;
+        waiting = new ArrayList<Record>();
+        writing = true;
+      }
+      try {
+        int size = 0;
+        for (Record record : batch) {
+          size += record.bytes.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (Record record : batch) {
+          buffer.put(record.bytes);
+        }
+        buffer.flip();
+        log.position(log.size());
+        while (buffer.hasRemaining()) {
+          log.write(buffer);
+        }
+        log.force(false);
+        for (Record record : batch) {
+          record.written.complete(null);
+        }
+      } catch (IOException e) {
+        for (Record record : batch) {
+          record.written.completeExceptionally(new UncheckedIOException(e));
+        }
+      }
+      synchronized (this) {
+        writing = false;
+        notifyAll(); // wakes callers of flush
+      }
+    }
+  }
+
+  /**
+   * Waits until every record logged so far is on disk
+   */
+  private synchronized void flush() throws InterruptedException {
+    while ((writing || !waiting.isEmpty()) && writer.isAlive()) {
+      wait();
+    }
+  }
+
+  /**
+   * Replays the logged changes onto a backend. A record that was cut off or damaged ends the
+   * log, and it is removed from the file with everything after it.
+   *
+   * @param backend the backend to apply the changes to, with the snapshot already loaded
+   * @return the number of changes replayed
+   * @throws IOException when the log cannot be read
+   */
+  public synchronized int replay(BuildingNavigatorBackendInterface backend) throws IOException {
+    long size = log.size();
+    ByteBuffer bytes = ByteBuffer.allocate((int) size);
+    log.position(0);
+    while (bytes.hasRemaining() && log.read(bytes) >= 0) {
+      // reads the whole log
+    }
+    bytes.flip();
+    int replayed = 0;
+    long valid = 0; // end of the last complete record
+    while (bytes.remaining() >= HEADER_BYTES) {
+      int length = bytes.getInt();
+      int checksum = bytes.getInt();
+      if (length <= 0 || length > bytes.remaining()) {
+        break;
+      }
+      CRC32 crc = new CRC32();
+      crc.update(bytes.array(), bytes.position(), length);
+      if ((int) crc.getValue() != checksum) {
+        break;
+      }
+      ByteBuffer payload = bytes.slice(bytes.position(), length);
+      bytes.position(bytes.position() + length);
+      byte kind = payload.get();
+      if (kind == BUILDING) {
+        backend.addBuilding(string(payload));
+      } else if (kind == ROAD) {
+        String start = string(payload);
+        String end = string(payload);
+        backend.insertRoad(start, end, payload.getDouble());
+      } else {
+        break;
+      }
+      replayed++;
+      valid = bytes.position();
+    }
+    if (valid < size) {
+      log.truncate(valid);
+      log.force(false);
+    }
+    records = replayed;
+    return replayed;
+  }
+
+  private static String string(ByteBuffer payload) {
+    byte[] bytes = new byte[payload.getInt()];
+    payload.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Writes the graph as the new snapshot and empties the log. The graph must not change while the
+   * snapshot is written, and it must hold every change logged so far.
+   *
+   * @param graph the graph with every logged change
+   * @throws IOException when the snapshot cannot be written, the old snapshot and the log are kept
+   */
+  public synchronized void compact(DijkstraGraph<BuildingInterface, Double> graph) throws IOException {
+    try {
+      flush();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted while waiting for the log", e);
+    }
+    Path snapshot = directory.resolve(SNAPSHOT);
+    Path temporary = directory.resolve(SNAPSHOT + ".tmp");
+    MapWriter.writeBinary(graph, temporary.toString());
+    try (FileChannel written = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+      written.force(true);
+    }
+    // the snapshot is replaced in one step, so a crash leaves the old or the new one; a crash
+    // before the log is emptied replays changes the new snapshot already holds, which is harmless
+    Files.move(temporary, snapshot, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    log.truncate(0);
+    log.force(true);
+    records = 0;
+  }
+
+  /**
+   * Writes the waiting records and closes the log
+   */
+  @Override
+  public void close() throws IOException {
+    synchronized (this) {
+      closed = true;
+      notifyAll();
+    }
+    try {
+      writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    log.close();
+  }
+}
@@ -0,0 +1,114 @@
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class watches a map file and reloads it into a backend whenever the file changes, so that a
+ * running server picks up a new map without a restart. The new map is read and indexed beside the
+ * current one by reloadData, so queries keep running during the reload.
+ *
+ * Editors and copy tools often write a file in several steps, so a reload only starts once the
+ * file has not changed for a short quiet period. A file that cannot be read as a map is reported
+ * and the current map is kept.
+ */
+public class MapFileWatcher implements AutoCloseable {
+
+  private final BuildingNavigatorBackendInterface backend; // backend that the map is reloaded into
+  private final Path file; // the watched map file
+  private final long quietMillis; // time without changes before a reload starts
+  private final WatchService watcher; // watches the directory of the file
+  private final Thread thread; // thread that waits for changes and reloads
+  private volatile int reloads; // number of successful reloads
+
+  /**
+   * Starts watching the map file
+   *
+   * @param backend     the backend that the map is reloaded into
+   * @param filename    the map file to watch
+   * @param quietMillis the time without changes before a reload starts
+   * @throws IOException when the directory of the file cannot be watched
+   */
+  public MapFileWatcher(BuildingNavigatorBackendInterface backend, String filename, long quietMillis)
+      throws IOException {
+    this.backend = backend;
+    this.file = Path.of(filename).toAbsolutePath();
+    this.quietMillis = quietMillis;
+    this.watcher = FileSystems.getDefault().newWatchService();
+    // files are often replaced by renaming a new file over them, which only the directory sees
+    file.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+        StandardWatchEventKinds.ENTRY_MODIFY);
+    this.thread = new Thread(this::watch, "map-file-watcher");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Waits for changes to the file and reloads it after each burst of changes
+   */
+  private void watch() {
+    try {
+      while (true) {
+        if (!changed(watcher.take())) {
+          continue;
+        }
+        // wait until the file stays unchanged for the quiet period
+        WatchKey key;
+        while ((key = watcher.poll(quietMillis, TimeUnit.MILLISECONDS)) != null) {
+          changed(key);
+        }
+        reload();
+      }
+    } catch (InterruptedException | ClosedWatchServiceException e) {
+      // the watcher was closed
+    }
+  }
+
+  /**
+   * Returns whether the events of the key include the watched file, and resets the key
+   */
+  private boolean changed(WatchKey key) {
+    boolean changed = false;
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == StandardWatchEventKinds.OVERFLOW
+          || file.getFileName().equals(event.context())) {
+        changed = true;
+      }
+    }
+    key.reset();
+    return changed;
+  }
+
+  // reloads the map, keeping the current one when the file cannot be loaded
+  private void reload() {
+    try {
+      long start = System.nanoTime();
+      backend.reloadData(file.toString());
+      reloads++;
+      System.out.printf("Reloaded %s in %.1f ms%n", file, (System.nanoTime() - start) / 1e6);
+    } catch (IOException | RuntimeException e) {
+      System.err.println("Kept the current map, " + file + " could not be loaded: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Returns the number of times the map was reloaded successfully
+   */
+  public int getReloadCount() {
+    return reloads;
+  }
+
+  /**
+   * Stops watching the file
+   */
+  @Override
+  public void close() throws IOException {
+    watcher.close();
+    thread.interrupt();
+  }
+}
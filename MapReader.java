@@ -1,18 +1,43 @@
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Scanner;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 /**
- * This class is used to read dot files and convert them into a graph in the program
+ * This class is used to read dot files and convert them into a graph in the program. Files in the
+ * binary form written by MapWriter are recognized by their magic number and read as well.
  * 
  */
 public class MapReader implements MapReaderInterface {
   DijkstraGraph<BuildingInterface, Double> graph;    // graph resulting from the dot file
+  long maxWeight;    // largest road cost read so far, or -1 once a cost is not a whole number
+  boolean reorder;    // whether buildings are renumbered so that neighbours get nearby ids
 
   public MapReader() {
+    this(false);
+  }
+
+  /**
+   * Creates a reader that can renumber the buildings of every map it reads in reverse
+   * Cuthill-McKee order, which speeds up searches on large maps whose file lists the buildings in
+   * no particular order. Building lists then follow the new ids instead of the file.
+   * 
+   * @param reorder - whether to renumber the buildings, see NodeOrder
+   */
+  public MapReader(boolean reorder) {
     graph = new DijkstraGraph<BuildingInterface, Double>();
+    this.reorder = reorder;
   }
 
   /**
@@ -24,59 +49,264 @@ public class MapReader implements MapReaderInterface {
   @Override
   public DijkstraGraph<BuildingInterface, Double> read(String filename) throws FileNotFoundException {
     File file = new File(filename); // stores file contents
-    Scanner sc = new Scanner(file); // reads file contents
-
-    List<Building> nodes = new ArrayList<Building>(); // stores each node
+    // every file is read into a graph of its own, so a graph returned earlier is never changed by
+    // reading the next file
+    graph = new DijkstraGraph<BuildingInterface, Double>();
+    maxWeight = 0;
+    if (isBinary(file))
+      return finish(readBinary(file));
+    HashMap<TravelTimeProfile, TravelTimeProfile> profiles = new HashMap<>(); // distinct profiles
+    // the file is closed when a line cannot be read as well
+    try (Scanner sc = new Scanner(file, "UTF-8")) { // reads file contents
+      // iterates each line until EOF
+      while (sc.hasNextLine()) {
+        String line = sc.nextLine().trim();
 
-    // iterates each line until EOF
-    while (sc.hasNextLine()) {
-      String line = sc.nextLine().trim();
+        // skips line unnecessary lines like comments/empty lines
+        if (line.startsWith("#") || line.isEmpty())
+          continue;
 
-      // skips line unnecessary lines like comments/empty lines
-      if (line.startsWith("#") || !line.contains("->"))
-        continue;
+        // a line with a building but no road adds a building without roads, such as "Library"
+        if (!line.contains("->")) {
+          String nodeStr = nodeStatement(line);
+          if (nodeStr != null)
+            graph.insertNode(new Building(nodeStr));
+          continue;
+        }
 
-      String[] parts = line.split("->"); // splits pred and succ nodes
+        String[] parts = line.split("->"); // splits pred and succ nodes
 
-      String predStr = parts[0].trim();
-      String succStr = parts[1].trim().split("\\[")[0].trim(); // removes additional data from line
+        String predStr = parts[0].trim();
+        String succStr = parts[1].trim().split("\\[")[0].trim(); // removes additional data from line
 
-      double cost = Double.POSITIVE_INFINITY;
-      if (parts[1].contains("label")) { // gets cost of edge
-        String costStr = parts[1].split("label\" =")[1].split("]")[0].trim();
-        cost = Double.parseDouble(costStr);
-      }
+        double cost = Double.POSITIVE_INFINITY;
+        String costStr = attribute(parts[1], "label"); // gets cost of edge
+        if (costStr != null) {
+          cost = Double.parseDouble(costStr);
+        }
+        // gets the optional time of day profile of the edge, such as "profile" = "0:8 450:15 540:8"
+        TravelTimeProfile profile = null;
+        String profileStr = attribute(parts[1], "profile");
+        if (profileStr != null) {
+          profile = TravelTimeProfile.parse(profileStr);
+          // roads with the same profile share a single profile object
+          profiles.putIfAbsent(profile, profile);
+          profile = profiles.get(profile);
+        }
 
-      Building pred = new Building(predStr);
-      Building succ = new Building(succStr);
+        Building pred = new Building(predStr);
+        Building succ = new Building(succStr);
 
-      // adds them into graph and nodes if building doesn't exist yet
-      // unable to use BaseGraph.containsNode as every building is assigned a different key even
-      // if the name is the same
-      if (!nodes.contains(pred)) {
-        nodes.add(pred);
+        // adds them into graph if building doesn't exist yet, buildings are hashed by name so the
+        // graph finds the building that was stored first
         graph.insertNode(pred);
-      }
-      if (!nodes.contains(succ)) {
-        nodes.add(succ);
         graph.insertNode(succ);
+        // edge is added between the buildings stored in the graph
+        graph.insertEdge(pred, succ, cost);
+        checkWeight(cost);
+        if (profile != null) {
+          graph.setEdgeProfile(pred, succ, profile);
+        }
       }
+    }
+    return finish(graph);
+  }
+
+  // keeps track of whether every road cost is a whole number, and of the largest one
+  private void checkWeight(double cost) {
+    if (maxWeight >= 0)
+      maxWeight = DijkstraGraph.isIntegralWeight(cost) ? Math.max(maxWeight, (long) cost) : -1;
+  }
+
+  /**
+   * Renumbers the buildings when asked to, and lets the graph's searches use a bucket queue when
+   * every road cost that was read is a whole number, which is the case for most maps
+   */
+  private DijkstraGraph<BuildingInterface, Double> finish(
+      DijkstraGraph<BuildingInterface, Double> graph) {
+    if (reorder)
+      graph = NodeOrder.reorder(graph);
+    if (maxWeight >= 0)
+      graph.setIntegralWeights(maxWeight);
+    return graph;
+  }
+
+  /**
+   * Returns whether the file starts with the magic number of the binary form written by MapWriter
+   * 
+   * @param file - file to be read
+   * @throws FileNotFoundException when the file doesn't exist
+   */
+  private static boolean isBinary(File file) throws FileNotFoundException {
+    try (FileInputStream in = new FileInputStream(file)) {
+      byte[] magic = new byte[4];
+      return in.read(magic) == 4 && ByteBuffer.wrap(magic).getInt() == MapWriter.MAGIC;
+    } catch (FileNotFoundException e) {
+      throw e;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
 
-      // due to the issue above, pred & succ must use the specific building that was stored in the
-      // graph which can be obtained from the nodes variable
-      for (Building b : nodes) {
-        if (b.equals(pred)) {
-          pred = b;
+  /**
+   * Reads a map written in the binary form by MapWriter, inflating it through a fixed size buffer
+   * 
+   * @param file - file to be read
+   * @throws IllegalArgumentException when the file is damaged or of an unknown version
+   */
+  private DijkstraGraph<BuildingInterface, Double> readBinary(File file) {
+    Inflater inflater = new Inflater();
+    try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      ByteBuffer header = ByteBuffer.allocate(8);
+      while (header.hasRemaining() && in.read(header) >= 0) {
+        // reads the magic number and the version
+      }
+      header.flip();
+      if (header.remaining() < 8 || header.getInt() != MapWriter.MAGIC
+          || header.getInt() != MapWriter.VERSION)
+        throw new IllegalArgumentException(file + " is not a binary map of a known version");
+      InflatingInput input = new InflatingInput(in, inflater);
+      int nodeCount = input.getVarint();
+      List<Building> buildings = new ArrayList<>(nodeCount);
+      for (int i = 0; i < nodeCount; i++) {
+        Building building = new Building(input.getString());
+        buildings.add(building);
+        graph.insertNode(building);
+      }
+      TravelTimeProfile[] profiles = new TravelTimeProfile[input.getVarint()];
+      for (int i = 0; i < profiles.length; i++)
+        profiles[i] = TravelTimeProfile.parse(input.getString());
+      for (Building pred : buildings) {
+        int edgeCount = input.getVarint();
+        for (int e = 0; e < edgeCount; e++) {
+          Building succ = buildings.get(input.getVarint());
+          double cost = input.getDouble();
+          graph.insertEdge(pred, succ, cost);
+          checkWeight(cost);
+          int profile = input.getVarint();
+          if (profile > 0)
+            graph.setEdgeProfile(pred, succ, profiles[profile - 1]);
         }
-        if (b.equals(succ)) {
-          succ = b;
+      }
+      return graph;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } catch (DataFormatException | IndexOutOfBoundsException e) {
+      throw new IllegalArgumentException(file + " is a damaged binary map", e);
+    } finally {
+      inflater.end();
+    }
+  }
+
+  /**
+   * Reads the bytes of the binary form from a channel, inflating them a buffer at a time
+   */
+  private static class InflatingInput {
+    private final FileChannel channel; // where the deflated bytes come from
+    private final Inflater inflater; // inflates the deflate stream
+    private final ByteBuffer deflated = ByteBuffer.allocateDirect(1 << 16); // bytes to inflate
+    private final ByteBuffer raw = ByteBuffer.allocate(1 << 16); // inflated bytes not read yet
+
+    private InflatingInput(FileChannel channel, Inflater inflater) {
+      this.channel = channel;
+      this.inflater = inflater;
+      deflated.flip();
+      raw.flip();
+    }
+
+    // makes sure that the requested number of inflated bytes can be read
+    private void require(int bytes) throws IOException, DataFormatException {
+      while (raw.remaining() < bytes) {
+        raw.compact();
+        if (inflater.needsInput()) {
+          deflated.clear();
+          if (channel.read(deflated) < 0)
+            throw new DataFormatException("binary map ends early");
+          deflated.flip();
+          inflater.setInput(deflated);
         }
+        inflater.inflate(raw);
+        raw.flip();
+        if (inflater.finished() && raw.remaining() < bytes)
+          throw new DataFormatException("binary map ends early");
       }
-      // edge is added once the building with similar key is obtained
-      graph.insertEdge(pred, succ, cost);
     }
 
-    sc.close();
-    return graph;
+    private int getVarint() throws IOException, DataFormatException {
+      int value = 0;
+      for (int shift = 0; shift < 35; shift += 7) {
+        require(1);
+        byte b = raw.get();
+        value |= (b & 0x7f) << shift;
+        if (b >= 0)
+          return value;
+      }
+      throw new DataFormatException("varint is too long");
+    }
+
+    private double getDouble() throws IOException, DataFormatException {
+      require(8);
+      return raw.getDouble();
+    }
+
+    private String getString() throws IOException, DataFormatException {
+      byte[] bytes = new byte[getVarint()];
+      for (int offset = 0; offset < bytes.length; ) {
+        require(1);
+        int length = Math.min(raw.remaining(), bytes.length - offset);
+        raw.get(bytes, offset, length);
+        offset += length;
+      }
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+  }
+
+  /**
+   * Returns the building name of a dot line that names a single building, like "Library" or
+   * "Library [shape = box];", or null for the other lines of a dot file such as "digraph G {",
+   * "}" or graph attributes like "rankdir = LR"
+   * 
+   * @param line - a trimmed line without "->"
+   * @return the building name, or null when the line isn't a building
+   */
+  private static String nodeStatement(String line) {
+    if (line.endsWith("{") || line.startsWith("}") || line.startsWith("//"))
+      return null;
+    int end = line.length();
+    for (char c : new char[] {'[', ';'}) {
+      if (line.indexOf(c) >= 0)
+        end = Math.min(end, line.indexOf(c));
+    }
+    String name = line.substring(0, end).trim();
+    if (name.isEmpty() || name.contains("=") || name.equals("graph") || name.equals("node")
+        || name.equals("edge"))
+      return null;
+    return name;
+  }
+
+  /**
+   * Returns the value of an attribute within the [] of a dot edge line, such as 8 for
+   * "label" = 8, without the quotes around quoted values
+   * 
+   * @param attributes - the part of the line that contains the attributes
+   * @param name - name of the attribute
+   * @return the value of the attribute, or null when the line doesn't have that attribute
+   */
+  private static String attribute(String attributes, String name) {
+    int start = attributes.indexOf("\"" + name + "\"");
+    if (start < 0)
+      return null;
+    int equals = attributes.indexOf('=', start);
+    if (equals < 0)
+      return null;
+    String value = attributes.substring(equals + 1).trim();
+    if (value.startsWith("\"")) // quoted value ends at the closing quote
+      return value.substring(1, value.indexOf('"', 1));
+    int end = value.length();
+    for (char c : new char[] {',', ']', ' '}) {
+      if (value.indexOf(c) >= 0)
+        end = Math.min(end, value.indexOf(c));
+    }
+    return value.substring(0, end).trim();
   }
 }
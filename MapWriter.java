@@ -0,0 +1,284 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * This class writes a graph of the program to a file that MapReader reads back into the same
+ * graph, either as a dot file or in a compressed binary form. Both are written while walking the
+ * graph through a fixed size buffer, so the output is never held in memory as a whole.
+ *
+ * The binary form starts with the magic number "BNMB" and a version, followed by a deflate stream
+ * of the building names in id order, the distinct travel time profiles, and the roads leaving each
+ * building as target id, cost and profile. Numbers are written as varints and costs as the 8 bytes
+ * of the double, so every cost is read back exactly.
+ */
+public class MapWriter {
+  static final int MAGIC = 0x424e4d42; // "BNMB"
+  static final int VERSION = 1;
+  private static final int BUFFER_BYTES = 1 << 16; // size of the output buffers
+
+  /**
+   * Writes the graph to a dot file. Every building is written on a line of its own in node id
+   * order, so reading the file back gives each building the same id, followed by one line per
+   * road with its "label" and, when it has one, its "profile".
+   *
+   * @param graph - the graph to write
+   * @param filename - file to be written, replaced when it exists
+   * @throws IOException when the file cannot be written
+   * @throws IllegalArgumentException when a building name cannot be read back from a dot line
+   */
+  public static void writeDot(DijkstraGraph<BuildingInterface, Double> graph, String filename)
+      throws IOException {
+    try (FileChannel out = create(filename)) {
+      writeDot(graph, out);
+    }
+  }
+
+  /**
+   * Writes the graph in the dot format to a channel, see writeDot(graph, filename)
+   *
+   * @param graph - the graph to write
+   * @param channel - where the dot text is written, it is left open
+   * @throws IOException when the channel fails
+   */
+  public static void writeDot(DijkstraGraph<BuildingInterface, Double> graph,
+      WritableByteChannel channel) throws IOException {
+    Writer out = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(),
+        BUFFER_BYTES), BUFFER_BYTES);
+    out.write("digraph BuildingNavigator {\n");
+    for (BaseGraph<BuildingInterface, Double>.Node node : graph.nodesById) {
+      out.write("  ");
+      out.write(checkName(node.data.getName()));
+      out.write('\n');
+    }
+    for (BaseGraph<BuildingInterface, Double>.Node node : graph.nodesById) {
+      for (BaseGraph<BuildingInterface, Double>.Edge edge : node.edgesLeaving) {
+        out.write("  ");
+        out.write(node.data.getName());
+        out.write(" -> ");
+        out.write(edge.successor.data.getName());
+        String separator = " [";
+        // roads without a label are read back with infinite cost
+        if (!edge.data.isInfinite()) {
+          out.write(separator);
+          out.write("\"label\" = ");
+          out.write(format(edge.data));
+          separator = ", ";
+        }
+        TravelTimeProfile profile = graph.edgeProfiles.get(edge);
+        if (profile != null) {
+          out.write(separator);
+          out.write("\"profile\" = \"");
+          out.write(profile.toString());
+          out.write('"');
+          separator = ", ";
+        }
+        if (!separator.equals(" [")) {
+          out.write(']');
+        }
+        out.write('\n');
+      }
+    }
+    out.write("}\n");
+    // flushes the buffered text into the channel without closing it
+    out.flush();
+  }
+
+  /**
+   * Writes the graph to a file in the compressed binary form, which holds any building name and
+   * is read back faster than a dot file
+   *
+   * @param graph - the graph to write
+   * @param filename - file to be written, replaced when it exists
+   * @throws IOException when the file cannot be written
+   */
+  public static void writeBinary(DijkstraGraph<BuildingInterface, Double> graph, String filename)
+      throws IOException {
+    try (FileChannel out = create(filename)) {
+      writeBinary(graph, out);
+    }
+  }
+
+  /**
+   * Writes the graph in the compressed binary form to a channel, see writeBinary(graph, filename)
+   *
+   * @param graph - the graph to write
+   * @param channel - where the bytes are written, it is left open
+   * @throws IOException when the channel fails
+   */
+  public static void writeBinary(DijkstraGraph<BuildingInterface, Double> graph,
+      WritableByteChannel channel) throws IOException {
+    List<BaseGraph<BuildingInterface, Double>.Node> nodes = graph.nodesById;
+    ByteBuffer header = ByteBuffer.allocate(8).putInt(MAGIC).putInt(VERSION);
+    header.flip();
+    while (header.hasRemaining()) {
+      channel.write(header);
+    }
+    DeflatingOutput out = new DeflatingOutput(channel);
+    try {
+      out.putVarint(nodes.size());
+      for (BaseGraph<BuildingInterface, Double>.Node node : nodes) {
+        out.putString(node.data.getName());
+      }
+      // profiles shared by several roads are written once and referred to by index
+      HashMap<TravelTimeProfile, Integer> profileIndex = new HashMap<>();
+      for (TravelTimeProfile profile : graph.edgeProfiles.values()) {
+        profileIndex.putIfAbsent(profile, profileIndex.size());
+      }
+      TravelTimeProfile[] profiles = new TravelTimeProfile[profileIndex.size()];
+      profileIndex.forEach((profile, index) -> profiles[index] = profile);
+      out.putVarint(profiles.length);
+      for (TravelTimeProfile profile : profiles) {
+        out.putString(profile.toString());
+      }
+      for (BaseGraph<BuildingInterface, Double>.Node node : nodes) {
+        out.putVarint(node.edgesLeaving.size());
+        for (BaseGraph<BuildingInterface, Double>.Edge edge : node.edgesLeaving) {
+          out.putVarint(edge.successor.id);
+          out.putDouble(edge.data);
+          TravelTimeProfile profile = graph.edgeProfiles.get(edge);
+          out.putVarint(profile == null ? 0 : profileIndex.get(profile) + 1);
+        }
+      }
+      out.finish();
+    } finally {
+      out.end();
+    }
+  }
+
+  /**
+   * Buffers the bytes of the binary form and writes them deflated to a channel
+   */
+  private static class DeflatingOutput {
+    private final WritableByteChannel channel; // where the deflated bytes go
+    private final ByteBuffer raw = ByteBuffer.allocate(BUFFER_BYTES); // bytes to deflate
+    private final ByteBuffer deflated = ByteBuffer.allocateDirect(BUFFER_BYTES); // deflated bytes
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+
+    private DeflatingOutput(WritableByteChannel channel) {
+      this.channel = channel;
+    }
+
+    private void reserve(int bytes) throws IOException {
+      if (raw.remaining() < bytes) {
+        deflate(false);
+      }
+    }
+
+    private void putVarint(int value) throws IOException {
+      reserve(5);
+      while ((value & ~0x7f) != 0) {
+        raw.put((byte) ((value & 0x7f) | 0x80));
+        value >>>= 7;
+      }
+      raw.put((byte) value);
+    }
+
+    private void putDouble(double value) throws IOException {
+      reserve(8);
+      raw.putDouble(value);
+    }
+
+    private void putString(String value) throws IOException {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      putVarint(bytes.length);
+      for (int offset = 0; offset < bytes.length; ) {
+        reserve(1);
+        int length = Math.min(raw.remaining(), bytes.length - offset);
+        raw.put(bytes, offset, length);
+        offset += length;
+      }
+    }
+
+    // deflates the buffered bytes into the channel, and ends the deflate stream when finishing
+    private void deflate(boolean finish) throws IOException {
+      raw.flip();
+      deflater.setInput(raw);
+      if (finish) {
+        deflater.finish();
+      }
+      while (finish ? !deflater.finished() : !deflater.needsInput()) {
+        deflater.deflate(deflated);
+        deflated.flip();
+        while (deflated.hasRemaining()) {
+          channel.write(deflated);
+        }
+        deflated.clear();
+      }
+      raw.clear();
+    }
+
+    private void finish() throws IOException {
+      deflate(true);
+    }
+
+    private void end() {
+      deflater.end();
+    }
+  }
+
+  // opens a file for writing, replacing it when it exists
+  private static FileChannel create(String filename) throws IOException {
+    Path path = Paths.get(filename);
+    return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING);
+  }
+
+  // writes whole numbers without a trailing .0, and other numbers with every digit they need
+  private static String format(double value) {
+    if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+      return Long.toString((long) value);
+    }
+    return Double.toString(value);
+  }
+
+  /**
+   * Returns the name when MapReader reads it back the same from a dot line
+   *
+   * @throws IllegalArgumentException when the name would be read back differently
+   */
+  private static String checkName(String name) {
+    boolean readable = !name.isEmpty() && name.equals(name.trim()) && !name.contains("->")
+        && !name.contains("[") && !name.contains(";") && !name.contains("=")
+        && !name.contains("\n") && !name.contains("\r") && !name.startsWith("#")
+        && !name.startsWith("//") && !name.startsWith("}") && !name.endsWith("{")
+        && !name.equals("graph") && !name.equals("node") && !name.equals("edge");
+    if (!readable) {
+      throw new IllegalArgumentException("building name " + name + " cannot be written to a dot file");
+    }
+    return name;
+  }
+
+  /**
+   * Converts a map file to a dot file or to the binary form, chosen by the ending of the output
+   * file name (.dot for a dot file)
+   *
+   * @param args the map file to read and the file to write
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("usage: java MapWriter input-map output-map(.dot|.bnm)");
+      System.exit(2);
+    }
+    long start = System.nanoTime();
+    DijkstraGraph<BuildingInterface, Double> graph = new MapReader().read(args[0]);
+    if (args[1].endsWith(".dot")) {
+      writeDot(graph, args[1]);
+    } else {
+      writeBinary(graph, args[1]);
+    }
+    System.out.printf("Wrote %d buildings and %d roads to %s in %.1f ms%n", graph.getNodeCount(),
+        graph.getEdgeCount(), args[1], (System.nanoTime() - start) / 1e6);
+  }
+}
@@ -0,0 +1,258 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * This class stores a building map off the java heap in a memory-mapped file. The file holds the
+ * adjacency lists and edge weights as fixed-width records, so the resident size of the map is
+ * controlled by the operating system's page cache instead of by the garbage collector.
+ *
+ * File layout (big endian):
+ * <pre>
+ *   header   : int magic, int version, int nodeCount, int edgeCount
+ *   offsets  : (nodeCount + 1) ints, first edge index of each node
+ *   edges    : edgeCount records of (int target, double weight)
+ *   names    : (nodeCount + 1) ints, byte offset of each name in the name bytes
+ *   sorted   : nodeCount ints, node ids ordered by name
+ *   bytes    : UTF-8 bytes of every building name
+ * </pre>
+ * Each section is mapped on its own, so a single section may hold at most 2GB.
+ */
+public class MappedGraph implements IndexedGraphInterface, AutoCloseable {
+
+  private static final int MAGIC = 0x424e4d47; // "BNMG"
+  private static final int VERSION = 1;
+  private static final int HEADER_BYTES = 16;
+  private static final int EDGE_BYTES = 12; // int target + double weight
+
+  private final FileChannel channel; // channel of the mapped file
+  private final int nodeCount; // number of nodes in the graph
+  private final int edgeCount; // number of edges in the graph
+  private final MappedByteBuffer offsets; // first edge index of each node
+  private final MappedByteBuffer edges; // fixed-width edge records
+  private final MappedByteBuffer nameOffsets; // byte offset of each name
+  private final MappedByteBuffer sortedIds; // node ids in name order
+  private final MappedByteBuffer nameBytes; // UTF-8 bytes of all names
+
+  /**
+   * Maps a graph file that was produced by write()
+   *
+   * @param filename the file to map
+   * @throws IOException when the file cannot be read or is not a mapped graph file
+   */
+  public MappedGraph(String filename) throws IOException {
+    channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+    while (header.hasRemaining() && channel.read(header) >= 0);
+    header.flip();
+    if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC
+        || header.getInt() != VERSION) {
+      channel.close();
+      throw new IOException(filename + " is not a mapped graph file");
+    }
+    nodeCount = header.getInt();
+    edgeCount = header.getInt();
+
+    // map each section separately
+    long position = HEADER_BYTES;
+    offsets = map(position, 4L * (nodeCount + 1));
+    position += 4L * (nodeCount + 1);
+    edges = map(position, (long) EDGE_BYTES * edgeCount);
+    position += (long) EDGE_BYTES * edgeCount;
+    nameOffsets = map(position, 4L * (nodeCount + 1));
+    position += 4L * (nodeCount + 1);
+    sortedIds = map(position, 4L * nodeCount);
+    position += 4L * nodeCount;
+    nameBytes = map(position, channel.size() - position);
+  }
+
+  private MappedByteBuffer map(long position, long size) throws IOException {
+    return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+  }
+
+  /**
+   * Writes the graph into a file that can later be mapped with the MappedGraph constructor. Node ids
+   * in the file are the node ids of the graph.
+   *
+   * @param graph    the graph to store
+   * @param filename the file to write
+   * @throws IOException when the file cannot be written
+   */
+  public static void write(DijkstraGraph<BuildingInterface, Double> graph, String filename)
+      throws IOException {
+    // nodes are written in graph id order, so file ids match graph ids
+    List<BaseGraph<BuildingInterface, Double>.Node> nodeList = graph.nodesById;
+    List<byte[]> names = new ArrayList<>();
+    for (BaseGraph<BuildingInterface, Double>.Node node : nodeList) {
+      names.add(node.data.getName().getBytes(StandardCharsets.UTF_8));
+    }
+    List<Integer> sorted = new ArrayList<>();
+    for (int i = 0; i < nodeList.size(); i++) {
+      sorted.add(i);
+    }
+    sorted.sort(Comparator.comparing(i -> nodeList.get(i).data.getName()));
+
+    Path path = Paths.get(filename);
+    try (FileChannel out = FileChannel.open(path, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+      int edgeTotal = 0;
+      for (BaseGraph<BuildingInterface, Double>.Node node : nodeList) {
+        edgeTotal += node.edgesLeaving.size();
+      }
+      buffer.putInt(MAGIC).putInt(VERSION).putInt(nodeList.size()).putInt(edgeTotal);
+
+      // offsets section
+      int offset = 0;
+      for (BaseGraph<BuildingInterface, Double>.Node node : nodeList) {
+        putInt(out, buffer, offset);
+        offset += node.edgesLeaving.size();
+      }
+      putInt(out, buffer, offset);
+      // edges section
+      for (BaseGraph<BuildingInterface, Double>.Node node : nodeList) {
+        for (BaseGraph<BuildingInterface, Double>.Edge edge : node.edgesLeaving) {
+          reserve(out, buffer, EDGE_BYTES);
+          buffer.putInt(edge.successor.id).putDouble(edge.data.doubleValue());
+        }
+      }
+      // names section
+      int nameOffset = 0;
+      for (byte[] name : names) {
+        putInt(out, buffer, nameOffset);
+        nameOffset += name.length;
+      }
+      putInt(out, buffer, nameOffset);
+      for (int id : sorted) {
+        putInt(out, buffer, id);
+      }
+      for (byte[] name : names) {
+        putBytes(out, buffer, name);
+      }
+      flush(out, buffer);
+    }
+  }
+
+  // writes the buffer out when it has less than the requested number of bytes left
+  private static void reserve(FileChannel out, ByteBuffer buffer, int bytes) throws IOException {
+    if (buffer.remaining() < bytes) {
+      flush(out, buffer);
+    }
+  }
+
+  private static void putBytes(FileChannel out, ByteBuffer buffer, byte[] bytes)
+      throws IOException {
+    if (bytes.length > buffer.capacity()) {
+      // a name larger than the whole buffer is written directly
+      flush(out, buffer);
+      ByteBuffer wrapped = ByteBuffer.wrap(bytes);
+      while (wrapped.hasRemaining()) {
+        out.write(wrapped);
+      }
+      return;
+    }
+    reserve(out, buffer, bytes.length);
+    buffer.put(bytes);
+  }
+
+  private static void putInt(FileChannel out, ByteBuffer buffer, int value) throws IOException {
+    reserve(out, buffer, 4);
+    buffer.putInt(value);
+  }
+
+  private static void flush(FileChannel out, ByteBuffer buffer) throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      out.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  @Override
+  public int getNodeCount() {
+    return nodeCount;
+  }
+
+  @Override
+  public int getEdgeCount() {
+    return edgeCount;
+  }
+
+  @Override
+  public int firstEdge(int node) {
+    return offsets.getInt(4 * node);
+  }
+
+  @Override
+  public int lastEdge(int node) {
+    return offsets.getInt(4 * (node + 1));
+  }
+
+  @Override
+  public int edgeTarget(int edge) {
+    return edges.getInt(EDGE_BYTES * edge);
+  }
+
+  @Override
+  public double edgeWeight(int edge) {
+    return edges.getDouble(EDGE_BYTES * edge + 4);
+  }
+
+  /**
+   * Returns the name of the building with the provided id
+   *
+   * @param id the id of the building
+   * @return the name of that building
+   */
+  public String getName(int id) {
+    int start = nameOffsets.getInt(4 * id);
+    int end = nameOffsets.getInt(4 * (id + 1));
+    byte[] bytes = new byte[end - start];
+    nameBytes.get(start, bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Returns the id of the building with the provided name, by binary search over the name ordered
+   * section of the file
+   *
+   * @param name the name of the building
+   * @return the id of that building
+   * @throws NoSuchElementException when no building has that name
+   */
+  public int indexOf(String name) {
+    int low = 0;
+    int high = nodeCount - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int id = sortedIds.getInt(4 * mid);
+      int compare = getName(id).compareTo(name);
+      if (compare < 0) {
+        low = mid + 1;
+      } else if (compare > 0) {
+        high = mid - 1;
+      } else {
+        return id;
+      }
+    }
+    throw new NoSuchElementException(name + " does not exist in graph");
+  }
+
+  /**
+   * Closes the mapped file. The operating system releases the mapping once the buffers are garbage
+   * collected, so no more reads should happen after closing.
+   */
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+}
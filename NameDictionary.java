@@ -0,0 +1,147 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * This class is a compact dictionary between building names and dense integer ids. It keeps a
+ * reference to the String it was given for each name, which is the name the building already
+ * holds, so no name is stored twice. Names are found through an open addressing hash table of
+ * ids, so the dictionary holds no boxed Integer or map entry per building. Ids are handed out in
+ * insertion order from 0 to size()-1, which matches the node ids of a graph when the names are
+ * added in node id order.
+ */
+public class NameDictionary {
+  private String[] names; // names[id] is the name with that id
+  private int[] table; // hash table of id + 1, where 0 marks an empty slot
+  private int size; // number of names in the dictionary
+
+  public NameDictionary() {
+    this(16);
+  }
+
+  /**
+   * Creates a dictionary with room for the provided number of names before it has to grow
+   *
+   * @param capacity the expected number of names
+   */
+  public NameDictionary(int capacity) {
+    capacity = Math.max(capacity, 4);
+    names = new String[capacity];
+    table = new int[tableSize(capacity)];
+  }
+
+  // returns a power of two table size that keeps the load factor at or below one half
+  private static int tableSize(int capacity) {
+    return Integer.highestOneBit(capacity * 2 - 1) << 1;
+  }
+
+  /**
+   * Adds a name into the dictionary
+   *
+   * @param name the name to add
+   * @return the id of the name, which is the existing id if the name was already added
+   * @throws NullPointerException when the name is null
+   */
+  public int add(String name) {
+    int slot = findSlot(table, name);
+    if (table[slot] != 0) {
+      return table[slot] - 1;
+    }
+    // grow the array when it is full
+    if (size == names.length) {
+      names = Arrays.copyOf(names, names.length * 2);
+    }
+    names[size] = name;
+    table[slot] = ++size;
+    if (size * 2 > table.length) {
+      rehash();
+    }
+    return size - 1;
+  }
+
+  /**
+   * Returns the id of a name
+   *
+   * @param name the name to look for
+   * @return the id of the name, or -1 if the name is not in the dictionary
+   * @throws NullPointerException when the name is null
+   */
+  public int indexOf(String name) {
+    int[] table = this.table;
+    return table[findSlot(table, name)] - 1;
+  }
+
+  /**
+   * Returns the name with the provided id
+   *
+   * @param id the id of the name
+   * @return the name with that id
+   * @throws IndexOutOfBoundsException when no name has that id
+   */
+  public String nameOf(int id) {
+    if (id < 0 || id >= size) {
+      throw new IndexOutOfBoundsException("no name with id " + id);
+    }
+    return names[id];
+  }
+
+  /**
+   * Returns the length of the name with the provided id
+   *
+   * @throws IndexOutOfBoundsException when no name has that id
+   */
+  public int nameLength(int id) {
+    if (id < 0 || id >= size) {
+      throw new IndexOutOfBoundsException("no name with id " + id);
+    }
+    return names[id].length();
+  }
+
+  /**
+   * Appends the name with the provided id to a StringBuilder or Writer
+   *
+   * @param id  the id of the name
+   * @param out where to append the name
+   * @throws IndexOutOfBoundsException when no name has that id
+   * @throws IOException               when the Appendable fails
+   */
+  public void appendName(int id, Appendable out) throws IOException {
+    out.append(nameOf(id));
+  }
+
+  // returns the number of names in the dictionary
+  public int size() {
+    return size;
+  }
+
+  // returns the slot of a table holding the name, or the empty slot where the name would be
+  // inserted. Readers pass the table they read once, so a rehash can't swap it during the probe.
+  private int findSlot(int[] table, String name) {
+    int mask = table.length - 1;
+    int slot = mix(name.hashCode()) & mask;
+    while (table[slot] != 0 && !names[table[slot] - 1].equals(name)) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  // spreads the bits of String.hashCode, which are poorly distributed in the low bits
+  private static int mix(int hash) {
+    hash *= 0x9e3779b9;
+    return hash ^ (hash >>> 16);
+  }
+
+  // doubles the hash table and inserts every id again. The new table is filled before it replaces
+  // the old one, so a lookup that runs meanwhile still finds every name in the old table.
+  private void rehash() {
+    int[] table = new int[this.table.length * 2];
+    int mask = table.length - 1;
+    for (int id = 0; id < size; id++) {
+      int slot = mix(names[id].hashCode()) & mask;
+      while (table[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      table[slot] = id + 1;
+    }
+    this.table = table;
+  }
+}
@@ -0,0 +1,308 @@
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * This class renumbers the buildings of a map so that buildings joined by a road get nearby ids.
+ * Searches keep their state in arrays indexed by id and walk the edges of one node after the
+ * other, so when neighbours sit close together in those arrays a search touches a few cache lines
+ * per step instead of one per road. Maps have no coordinates, so the order comes from the roads
+ * alone: reverse Cuthill-McKee, a breadth first order that starts at a building on the rim of the
+ * map and visits the neighbours of each building from the fewest roads to the most.
+ */
+public class NodeOrder {
+
+  /**
+   * Computes the reverse Cuthill-McKee order of a graph, with roads taken in both directions.
+   * Every part of the map that is not joined to the rest is ordered on its own, one after the
+   * other.
+   *
+   * @param graph the graph to order
+   * @return the old id of the node at each new position
+   */
+  public static int[] cuthillMcKee(IndexedGraphInterface graph) {
+    int nodeCount = graph.getNodeCount();
+    IndexedGraphInterface reverse = ArrayGraph.of(graph).reverse();
+    int[] degree = new int[nodeCount];
+    for (int node = 0; node < nodeCount; node++) {
+      degree[node] = graph.lastEdge(node) - graph.firstEdge(node)
+          + reverse.lastEdge(node) - reverse.firstEdge(node);
+    }
+    // nodes taken from the lowest degree up, so every part starts at its emptiest building
+    Integer[] byDegree = new Integer[nodeCount];
+    for (int node = 0; node < nodeCount; node++) {
+      byDegree[node] = node;
+    }
+    Arrays.sort(byDegree, (a, b) -> Integer.compare(degree[a], degree[b]));
+
+    int[] order = new int[nodeCount];
+    int[] level = new int[nodeCount]; // breadth first level of each node in the last rim search
+    int[] seen = new int[nodeCount]; // number of the last rim search that reached each node
+    boolean[] placed = new boolean[nodeCount];
+    int count = 0;
+    int part = 0;
+    for (int candidate : byDegree) {
+      if (placed[candidate]) {
+        continue;
+      }
+      part++;
+      int start = peripheral(graph, reverse, degree, candidate, order, count, level, seen, part);
+      // breadth first from the start, the queue being the end of the order array
+      int head = count;
+      order[count++] = start;
+      placed[start] = true;
+      while (head < count) {
+        int node = order[head++];
+        int from = count;
+        count = enqueue(graph, node, order, count, placed);
+        count = enqueue(reverse, node, order, count, placed);
+        sortByDegree(order, from, count, degree);
+      }
+    }
+    // reverses the order, which keeps the same neighbourhoods but narrows the profile
+    for (int i = 0, j = nodeCount - 1; i < j; i++, j--) {
+      int swap = order[i];
+      order[i] = order[j];
+      order[j] = swap;
+    }
+    return order;
+  }
+
+  // appends the neighbours of the node that are not placed yet
+  private static int enqueue(IndexedGraphInterface graph, int node, int[] order, int count,
+      boolean[] placed) {
+    for (int edge = graph.firstEdge(node), last = graph.lastEdge(node); edge < last; edge++) {
+      int next = graph.edgeTarget(edge);
+      if (!placed[next]) {
+        placed[next] = true;
+        order[count++] = next;
+      }
+    }
+    return count;
+  }
+
+  // insertion sort of a few neighbours by their degree, stable so ties keep the road order
+  private static void sortByDegree(int[] order, int from, int to, int[] degree) {
+    for (int i = from + 1; i < to; i++) {
+      int node = order[i];
+      int j = i - 1;
+      while (j >= from && degree[order[j]] > degree[node]) {
+        order[j + 1] = order[j];
+        j--;
+      }
+      order[j + 1] = node;
+    }
+  }
+
+  /**
+   * Finds a building on the rim of the part holding the candidate, following George and Liu: a
+   * breadth first search from the candidate, then again from the building with the fewest roads on
+   * the farthest level, until the farthest level stops moving away. The unused end of the order
+   * array serves as the queue.
+   */
+  private static int peripheral(IndexedGraphInterface graph, IndexedGraphInterface reverse,
+      int[] degree, int candidate, int[] order, int count, int[] level, int[] seen, int part) {
+    int start = candidate;
+    int depth = -1;
+    for (int round = 0; round < 8; round++) {
+      // a part is searched several times, so every search gets a number of its own
+      int search = part * 8 + round;
+      int head = count;
+      int tail = count;
+      order[tail++] = start;
+      seen[start] = search;
+      level[start] = 0;
+      while (head < tail) {
+        int node = order[head++];
+        for (IndexedGraphInterface roads : new IndexedGraphInterface[] {graph, reverse}) {
+          for (int edge = roads.firstEdge(node), last = roads.lastEdge(node); edge < last; edge++) {
+            int next = roads.edgeTarget(edge);
+            if (seen[next] != search) {
+              seen[next] = search;
+              level[next] = level[node] + 1;
+              order[tail++] = next;
+            }
+          }
+        }
+      }
+      int farthest = level[order[tail - 1]];
+      if (farthest <= depth) {
+        break;
+      }
+      depth = farthest;
+      int next = order[tail - 1];
+      for (int i = tail - 1; i >= count && level[order[i]] == farthest; i--) {
+        if (degree[order[i]] < degree[next]) {
+          next = order[i];
+        }
+      }
+      start = next;
+    }
+    return start;
+  }
+
+  /**
+   * Copies a map with its buildings inserted in the given order, and the roads of each building
+   * right after one another, so that the ids, the node objects and the road lists of neighbouring
+   * buildings all end up close together. Road profiles and the bucket queue are carried over.
+   *
+   * @param graph the map to copy
+   * @param order the old id of the building at each new position
+   * @return the renumbered copy of the map
+   */
+  public static DijkstraGraph<BuildingInterface, Double> reorder(
+      DijkstraGraph<BuildingInterface, Double> graph, int[] order) {
+    if (order.length != graph.getNodeCount()) {
+      throw new IllegalArgumentException("the order has " + order.length + " buildings, the map "
+          + graph.getNodeCount());
+    }
+    DijkstraGraph<BuildingInterface, Double> copy = new DijkstraGraph<BuildingInterface, Double>();
+    for (int id : order) {
+      copy.insertNode(graph.nodesById.get(id).data);
+    }
+    if (graph.hasIntegralWeights()) {
+      copy.setIntegralWeights(0); // raised to the largest weight as the roads are inserted
+    }
+    for (int id : order) {
+      for (BaseGraph<BuildingInterface, Double>.Edge edge : graph.nodesById.get(id).edgesLeaving) {
+        copy.insertEdge(edge.predecessor.data, edge.successor.data, edge.data);
+        TravelTimeProfile profile = graph.edgeProfiles.get(edge);
+        if (profile != null) {
+          copy.setEdgeProfile(edge.predecessor.data, edge.successor.data, profile);
+        }
+      }
+    }
+    return copy;
+  }
+
+  /**
+   * Copies a map in reverse Cuthill-McKee order
+   *
+   * @param graph the map to copy
+   * @return the renumbered copy of the map
+   */
+  public static DijkstraGraph<BuildingInterface, Double> reorder(
+      DijkstraGraph<BuildingInterface, Double> graph) {
+    return reorder(graph, cuthillMcKee(ArrayGraph.of(graph)));
+  }
+
+  /**
+   * Returns the average distance between the ids at the two ends of a road. Two ids that are
+   * closer than about eight share a cache line in an array of doubles, so a smaller span means
+   * fewer cache misses while a search relaxes roads.
+   */
+  public static double averageEdgeSpan(IndexedGraphInterface graph) {
+    long span = 0;
+    for (int node = 0; node < graph.getNodeCount(); node++) {
+      for (int edge = graph.firstEdge(node), last = graph.lastEdge(node); edge < last; edge++) {
+        span += Math.abs(graph.edgeTarget(edge) - node);
+      }
+    }
+    return graph.getEdgeCount() == 0 ? 0 : (double) span / graph.getEdgeCount();
+  }
+
+  /**
+   * Returns the share of roads whose two ends are within the given distance in id order, such as
+   * 64 ids for a few cache lines of a search array, or 4096 ids for the part of it that stays in
+   * the first level cache
+   */
+  public static double localEdgeShare(IndexedGraphInterface graph, int distance) {
+    long local = 0;
+    for (int node = 0; node < graph.getNodeCount(); node++) {
+      for (int edge = graph.firstEdge(node), last = graph.lastEdge(node); edge < last; edge++) {
+        if (Math.abs(graph.edgeTarget(edge) - node) <= distance) {
+          local++;
+        }
+      }
+    }
+    return graph.getEdgeCount() == 0 ? 1 : (double) local / graph.getEdgeCount();
+  }
+
+  /**
+   * Compares searches on a map in the order of its file, in a shuffled order as the export of a
+   * database often is, and in reverse Cuthill-McKee order. The edge span and the share of local
+   * roads stand in for cache misses, which Java cannot count.
+   *
+   * @param args the map file, and the number of queries (default 200)
+   */
+  public static void main(String[] args) throws FileNotFoundException {
+    if (args.length < 1) {
+      System.err.println("usage: java NodeOrder map [queries]");
+      System.exit(2);
+    }
+    DijkstraGraph<BuildingInterface, Double> file = new MapReader().read(args[0]);
+    int queries = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+    int nodeCount = file.getNodeCount();
+    List<Integer> shuffle = new ArrayList<>(nodeCount);
+    for (int node = 0; node < nodeCount; node++) {
+      shuffle.add(node);
+    }
+    Collections.shuffle(shuffle, new Random(1));
+    DijkstraGraph<BuildingInterface, Double> shuffled =
+        reorder(file, shuffle.stream().mapToInt(Integer::intValue).toArray());
+    long begin = System.nanoTime();
+    DijkstraGraph<BuildingInterface, Double> ordered = reorder(shuffled);
+    System.out.printf("%d buildings, %d roads, ordered in %.0f ms%n", nodeCount,
+        file.getEdgeCount(), (System.nanoTime() - begin) / 1e6);
+
+    Random random = new Random(2);
+    BuildingInterface[][] pairs = new BuildingInterface[queries][];
+    for (int i = 0; i < queries; i++) {
+      pairs[i] = new BuildingInterface[] {file.getNodeData(random.nextInt(nodeCount)),
+          file.getNodeData(random.nextInt(nodeCount))};
+    }
+    String[] names = {"file order", "shuffled", "cuthill-mckee"};
+    List<DijkstraGraph<BuildingInterface, Double>> graphs = List.of(file, shuffled, ordered);
+    double[] expected = null;
+    // the first pass only warms up, so that no order is timed before the searches are compiled
+    for (int pass = 0; pass < 2; pass++) {
+      for (int g = 0; g < graphs.size(); g++) {
+        DijkstraGraph<BuildingInterface, Double> graph = graphs.get(g);
+        ArrayGraph array = ArrayGraph.of(graph);
+        int[][] ids = new int[queries][];
+        for (int i = 0; i < queries; i++) {
+          ids[i] = new int[] {graph.getNodeId(pairs[i][0]), graph.getNodeId(pairs[i][1])};
+        }
+        double[] costs = new double[queries];
+        begin = System.nanoTime();
+        for (int i = 0; i < queries; i++) {
+          costs[i] = costOrInfinity(graph, pairs[i][0], pairs[i][1]);
+        }
+        double objects = (System.nanoTime() - begin) / 1e6 / queries;
+        begin = System.nanoTime();
+        int differing = 0;
+        for (int i = 0; i < queries; i++) {
+          double cost = DijkstraGraph.shortestPathCost(array, ids[i][0], ids[i][1]);
+          differing += cost == costs[i] ? 0 : 1;
+        }
+        double arrays = (System.nanoTime() - begin) / 1e6 / queries;
+        if (expected == null) {
+          expected = costs;
+        }
+        for (int i = 0; i < queries; i++) {
+          differing += costs[i] == expected[i] ? 0 : 1;
+        }
+        if (pass > 0) {
+          System.out.printf("%-14s edge span %9.1f, roads within 64 ids %5.1f%%, within 4096 ids"
+              + " %5.1f%%, %.2f ms per query on the graph, %.2f ms on arrays, %d costs differ%n",
+              names[g] + ":", averageEdgeSpan(array), 100 * localEdgeShare(array, 64),
+              100 * localEdgeShare(array, 4096), objects, arrays, differing);
+        }
+      }
+    }
+  }
+
+  // returns the cost of the cheapest route, infinite when there is none
+  private static double costOrInfinity(DijkstraGraph<BuildingInterface, Double> graph,
+      BuildingInterface start, BuildingInterface end) {
+    try {
+      return graph.shortestPathCost(start, end);
+    } catch (NoSuchElementException e) {
+      return Double.POSITIVE_INFINITY;
+    }
+  }
+}
@@ -0,0 +1,756 @@
+import java.io.FileNotFoundException;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.IntStream;
+
+/**
+ * This class answers shortest path queries on large maps with a multi-level overlay in the style
+ * of customizable route planning. The nodes are partitioned into cells, every cell of one level
+ * is grouped into cells of the next level, and for every cell the costs from each of its entry
+ * nodes (nodes with a road coming in from another cell) to each of its exit nodes (nodes with a
+ * road leaving the cell) are precomputed. A query runs Dijkstra's algorithm on the roads of the
+ * cells of the start and the end, and crosses every other cell in one step through its entry to
+ * exit costs, using the largest cell that holds neither the start nor the end.
+ *
+ * Partitioning only looks at the roads, while the entry to exit costs also depend on the road
+ * weights. When weights change, only the cells that contain the changed roads are computed again
+ * by customize(), and the cells of one level are computed in parallel.
+ *
+ * Queries may run at the same time as each other, but not at the same time as setEdgeWeight or
+ * customize.
+ */
+public class OverlayGraph {
+
+  private final int nodeCount; // number of nodes in the graph
+  private final int[] first; // first edge index of each node, followed by the edge count
+  private final int[] target; // node that each edge points to
+  private final double[] weight; // weight of each edge, changed by setEdgeWeight
+  private final Level[] levels; // levels[0] has the smallest cells
+  // search states that no running search is using, taken by queries, by the expansion of overlay
+  // steps into roads and by customization, and put back when they are done
+  private final ConcurrentLinkedQueue<Search> idleSearches = new ConcurrentLinkedQueue<Search>();
+
+  /**
+   * The cells of one level with their entry and exit nodes and their entry to exit costs
+   */
+  private static class Level {
+    private final int[] cellOf; // cell of each node
+    private final int cellCount; // number of cells
+    private final int[] entryFirst; // first index of each cell's entries in entries
+    private final int[] entries; // entry nodes grouped by cell
+    private final int[] exitFirst; // first index of each cell's exits in exits
+    private final int[] exits; // exit nodes grouped by cell
+    private final int[] entryIndex; // index of a node among its cell's entries, or -1
+    private final int[] exitIndex; // index of a node among its cell's exits, or -1
+    private final int[] cliqueFirst; // first index of each cell's costs in clique
+    private final double[] clique; // entry to exit costs of each cell, one row per entry
+    private final boolean[] dirty; // cells whose costs must be computed again
+
+    private Level(int[] cellOf, int cellCount, int[] first, int[] target) {
+      this.cellOf = cellOf;
+      this.cellCount = cellCount;
+      int nodeCount = cellOf.length;
+      boolean[] isEntry = new boolean[nodeCount];
+      boolean[] isExit = new boolean[nodeCount];
+      for (int node = 0; node < nodeCount; node++) {
+        for (int edge = first[node]; edge < first[node + 1]; edge++) {
+          if (cellOf[target[edge]] != cellOf[node]) {
+            isExit[node] = true;
+            isEntry[target[edge]] = true;
+          }
+        }
+      }
+      entryIndex = new int[nodeCount];
+      exitIndex = new int[nodeCount];
+      entryFirst = new int[cellCount + 1];
+      exitFirst = new int[cellCount + 1];
+      for (int node = 0; node < nodeCount; node++) {
+        entryIndex[node] = isEntry[node] ? entryFirst[cellOf[node] + 1]++ : -1;
+        exitIndex[node] = isExit[node] ? exitFirst[cellOf[node] + 1]++ : -1;
+      }
+      cliqueFirst = new int[cellCount + 1];
+      for (int cell = 0; cell < cellCount; cell++) {
+        long size = (long) entryFirst[cell + 1] * exitFirst[cell + 1];
+        if (cliqueFirst[cell] + size > Integer.MAX_VALUE) {
+          throw new IllegalArgumentException("cells have too many entries and exits");
+        }
+        cliqueFirst[cell + 1] = cliqueFirst[cell] + (int) size;
+        entryFirst[cell + 1] += entryFirst[cell];
+        exitFirst[cell + 1] += exitFirst[cell];
+      }
+      entries = new int[entryFirst[cellCount]];
+      exits = new int[exitFirst[cellCount]];
+      for (int node = 0; node < nodeCount; node++) {
+        if (isEntry[node]) {
+          entries[entryFirst[cellOf[node]] + entryIndex[node]] = node;
+        }
+        if (isExit[node]) {
+          exits[exitFirst[cellOf[node]] + exitIndex[node]] = node;
+        }
+      }
+      clique = new double[cliqueFirst[cellCount]];
+      dirty = new boolean[cellCount];
+      Arrays.fill(dirty, true);
+    }
+
+    private int exitCount(int cell) {
+      return exitFirst[cell + 1] - exitFirst[cell];
+    }
+  }
+
+  /**
+   * The state of one search. A search moves between states rather than nodes: state 2 * node is
+   * the node reached by a road (or the start), and state 2 * node + 1 is the node reached as the
+   * exit of a cell that the search crossed in one step. Costs of the states reached in the current
+   * search are told apart from those of earlier searches by a stamp, so nothing is cleared between
+   * searches.
+   */
+  private static class Search {
+    private final double[] cost; // cost of each state reached in this search
+    private final int[] stamp; // search in which each state was last reached
+    private final int[] parent; // state the best known path came from
+    private final int[] viaLevel; // level of the cell crossed to reach an exit state
+    private final SearchHeap frontier = new SearchHeap(64);
+    private int epoch; // number of the current search
+
+    private Search(int nodeCount) {
+      cost = new double[2 * nodeCount];
+      stamp = new int[2 * nodeCount];
+      parent = new int[2 * nodeCount];
+      viaLevel = new int[2 * nodeCount];
+    }
+
+    private void begin() {
+      frontier.clear();
+      if (++epoch == Integer.MAX_VALUE) {
+        Arrays.fill(stamp, 0);
+        epoch = 1;
+      }
+    }
+
+    private double cost(int state) {
+      return stamp[state] == epoch ? cost[state] : Double.POSITIVE_INFINITY;
+    }
+
+    private void relax(int state, double newCost, int from, int level) {
+      if (newCost < cost(state)) {
+        stamp[state] = epoch;
+        cost[state] = newCost;
+        parent[state] = from;
+        viaLevel[state] = level;
+        frontier.add(state, newCost);
+      }
+    }
+  }
+
+  /**
+   * Partitions a graph and computes the entry to exit costs of every cell. Each level groups whole
+   * cells of the level below, so the cells of a level nest inside the cells of the next one.
+   *
+   * @param graph     the graph to route on, its weights are copied
+   * @param cellSizes the largest number of nodes in a cell of each level, from the smallest cells
+   * @throws IllegalArgumentException when no cell size is given, cell sizes don't grow from level
+   *                                  to level, or an edge weight is negative
+   */
+  public OverlayGraph(IndexedGraphInterface graph, int... cellSizes) {
+    for (int level = 0; level < cellSizes.length; level++) {
+      if (cellSizes[level] < 2 || (level > 0 && cellSizes[level] <= cellSizes[level - 1])) {
+        throw new IllegalArgumentException("cells need at least 2 nodes and must grow by level");
+      }
+    }
+    if (cellSizes.length == 0) {
+      throw new IllegalArgumentException("there must be a level of cells");
+    }
+    ArrayGraph copy = graph instanceof ArrayGraph ? (ArrayGraph) graph : ArrayGraph.of(graph);
+    nodeCount = copy.getNodeCount();
+    first = new int[nodeCount + 1];
+    target = new int[copy.getEdgeCount()];
+    weight = new double[copy.getEdgeCount()];
+    for (int node = 0; node < nodeCount; node++) {
+      first[node + 1] = copy.lastEdge(node);
+    }
+    for (int edge = 0; edge < target.length; edge++) {
+      target[edge] = copy.edgeTarget(edge);
+      weight[edge] = checkWeight(copy.edgeWeight(edge));
+    }
+    this.levels = partition(copy, cellSizes);
+    customize();
+  }
+
+  private static double checkWeight(double weight) {
+    if (!(weight >= 0)) {
+      throw new IllegalArgumentException("edge weights cannot be negative");
+    }
+    return weight;
+  }
+
+  /**
+   * Partitions the nodes into cells level by level. The cells of a level are grown from the units
+   * of the level below (nodes for the first level) and cut where the fewest roads cross, see
+   * group(), and then cells that ended up less than half full are merged with a neighbouring cell
+   * when the two fit together.
+   */
+  private Level[] partition(ArrayGraph graph, int[] cellSizes) {
+    ArrayGraph reverse = graph.reverse();
+    // units of the first level are the nodes, and two nodes are neighbours when a road joins them
+    int unitCount = nodeCount;
+    int[] unitSize = new int[nodeCount];
+    Arrays.fill(unitSize, 1);
+    int[] adjacentFirst = new int[nodeCount + 1];
+    for (int node = 0; node < nodeCount; node++) {
+      adjacentFirst[node + 1] = adjacentFirst[node] + graph.lastEdge(node) - graph.firstEdge(node)
+          + reverse.lastEdge(node) - reverse.firstEdge(node);
+    }
+    int[] adjacent = new int[adjacentFirst[nodeCount]];
+    for (int node = 0, next = 0; node < nodeCount; node++) {
+      for (int edge = graph.firstEdge(node); edge < graph.lastEdge(node); edge++) {
+        adjacent[next++] = graph.edgeTarget(edge);
+      }
+      for (int edge = reverse.firstEdge(node); edge < reverse.lastEdge(node); edge++) {
+        adjacent[next++] = reverse.edgeTarget(edge);
+      }
+    }
+
+    Level[] result = new Level[cellSizes.length];
+    int[] unitOf = new int[nodeCount]; // unit of each node, the node itself on the first level
+    for (int node = 0; node < nodeCount; node++) {
+      unitOf[node] = node;
+    }
+    for (int level = 0; level < cellSizes.length; level++) {
+      int[] groupOf = group(unitCount, unitSize, adjacentFirst, adjacent, cellSizes[level]);
+      int cellCount = 0;
+      int[] cellOf = new int[nodeCount];
+      for (int node = 0; node < nodeCount; node++) {
+        cellOf[node] = groupOf[unitOf[node]];
+        cellCount = Math.max(cellCount, cellOf[node] + 1);
+      }
+      result[level] = new Level(cellOf, cellCount, first, target);
+
+      // the cells of this level are the units of the next level
+      unitSize = new int[cellCount];
+      for (int node = 0; node < nodeCount; node++) {
+        unitSize[cellOf[node]]++;
+      }
+      adjacentFirst = new int[cellCount + 1];
+      for (int node = 0; node < nodeCount; node++) {
+        for (int edge = first[node]; edge < first[node + 1]; edge++) {
+          if (cellOf[target[edge]] != cellOf[node]) {
+            adjacentFirst[cellOf[node] + 1]++;
+            adjacentFirst[cellOf[target[edge]] + 1]++;
+          }
+        }
+      }
+      for (int cell = 0; cell < cellCount; cell++) {
+        adjacentFirst[cell + 1] += adjacentFirst[cell];
+      }
+      int[] next = adjacentFirst.clone();
+      adjacent = new int[adjacentFirst[cellCount]];
+      for (int node = 0; node < nodeCount; node++) {
+        for (int edge = first[node]; edge < first[node + 1]; edge++) {
+          int from = cellOf[node];
+          int to = cellOf[target[edge]];
+          if (from != to) {
+            adjacent[next[from]++] = to;
+            adjacent[next[to]++] = from;
+          }
+        }
+      }
+      unitCount = cellCount;
+      unitOf = cellOf;
+    }
+    return result;
+  }
+
+  /**
+   * Groups units into groups of at most capacity total size. A group grows from a seed by always
+   * taking the unit with the most roads into the group, which keeps it compact, and records how
+   * many roads cross its border after each step. It then keeps the prefix of at least half the
+   * capacity with the fewest crossing roads and gives the rest back. A town joined to its
+   * neighbours by a few roads is taken whole before any of them, and its border is the smallest
+   * seen, so groups end at the natural cuts of the map instead of wherever a search stopped.
+   *
+   * @return the group of each unit, groups are numbered from 0 without gaps
+   */
+  private static int[] group(int unitCount, int[] unitSize, int[] adjacentFirst, int[] adjacent,
+      int capacity) {
+    int[] groupOf = new int[unitCount];
+    Arrays.fill(groupOf, -1);
+    int[] groupSize = new int[unitCount];
+    int groupCount = 0;
+    int[] roads = new int[unitCount]; // roads from each unit into the growing group
+    int[] taken = new int[unitCount]; // units in the order the growing group took them
+    int[] touched = new int[unitCount]; // units with a count in roads
+    SearchHeap candidates = new SearchHeap(64); // units next to the group, by pull()
+    for (int seed = 0; seed < unitCount; seed++) {
+      if (groupOf[seed] >= 0) {
+        continue;
+      }
+      int group = groupCount++;
+      int takenCount = 0;
+      int touchedCount = 0;
+      int size = 0;
+      long border = 0; // roads between the group and the units outside it
+      long bestBorder = Long.MAX_VALUE;
+      int bestCount = 0; // units in the best prefix
+      int bestSize = 0;
+      candidates.clear();
+      candidates.add(seed, 0);
+      while (!candidates.isEmpty()) {
+        int unit = candidates.removeMin();
+        if (groupOf[unit] >= 0 || candidates.lastCost() != pull(unit, roads, adjacentFirst)) {
+          continue; // taken already, or an old entry from before more roads joined the group
+        }
+        if (size > 0 && size + unitSize[unit] > capacity) {
+          break; // the seed is always taken, so every unit ends up in a group
+        }
+        groupOf[unit] = group;
+        taken[takenCount++] = unit;
+        size += unitSize[unit];
+        border += adjacentFirst[unit + 1] - adjacentFirst[unit] - 2 * roads[unit];
+        for (int i = adjacentFirst[unit]; i < adjacentFirst[unit + 1]; i++) {
+          int next = adjacent[i];
+          if (groupOf[next] < 0) {
+            if (roads[next]++ == 0) {
+              touched[touchedCount++] = next;
+            }
+            candidates.add(next, pull(next, roads, adjacentFirst));
+          }
+        }
+        // the whole group before it is half full, then the smallest border, ties to the larger
+        if (2 * size <= capacity || border <= bestBorder) {
+          bestBorder = border;
+          bestCount = takenCount;
+          bestSize = size;
+        }
+      }
+      for (int i = bestCount; i < takenCount; i++) {
+        groupOf[taken[i]] = -1;
+      }
+      for (int i = 0; i < touchedCount; i++) {
+        roads[touched[i]] = 0;
+      }
+      groupSize[group] = bestSize;
+    }
+
+
+    // merge groups that are less than half full into a neighbouring group they fit with
+    int[] merged = new int[groupCount]; // union-find parent of each group
+    for (int group = 0; group < groupCount; group++) {
+      merged[group] = group;
+    }
+    for (int unit = 0; unit < unitCount; unit++) {
+      for (int i = adjacentFirst[unit]; i < adjacentFirst[unit + 1]; i++) {
+        int a = find(merged, groupOf[unit]);
+        int b = find(merged, groupOf[adjacent[i]]);
+        if (a != b && (groupSize[a] < capacity / 2 || groupSize[b] < capacity / 2)
+            && (long) groupSize[a] + groupSize[b] <= capacity) {
+          merged[b] = a;
+          groupSize[a] += groupSize[b];
+        }
+      }
+    }
+    // number the merged groups from 0
+    int[] number = new int[groupCount];
+    Arrays.fill(number, -1);
+    int count = 0;
+    for (int unit = 0; unit < unitCount; unit++) {
+      int root = find(merged, groupOf[unit]);
+      if (number[root] < 0) {
+        number[root] = count++;
+      }
+      groupOf[unit] = number[root];
+    }
+    return groupOf;
+  }
+
+  // orders the units next to a growing group: the larger the share of a unit's roads that lead
+  // into the group the smaller the key, so the ends of roads between towns are taken last. A unit
+  // without roads, such as a building on its own, has no share and a key of 0.
+  private static double pull(int unit, int[] roads, int[] adjacentFirst) {
+    int degree = adjacentFirst[unit + 1] - adjacentFirst[unit];
+    return degree == 0 ? 0 : -(double) roads[unit] / degree;
+  }
+
+  private static int find(int[] parent, int group) {
+    while (parent[group] != group) {
+      parent[group] = parent[parent[group]];
+      group = parent[group];
+    }
+    return group;
+  }
+
+  /**
+   * Changes the weight of the edge between two nodes. The cells that contain the edge are marked,
+   * and queries use the new weight after the next call to customize().
+   *
+   * @param from   the id of the node the edge leaves
+   * @param to     the id of the node the edge enters
+   * @param weight the new weight
+   * @throws NoSuchElementException   when there is no such edge
+   * @throws IllegalArgumentException when the weight is negative
+   */
+  public void setEdgeWeight(int from, int to, double weight) {
+    checkWeight(weight);
+    if (from < 0 || from >= nodeCount || to < 0 || to >= nodeCount) {
+      throw new NoSuchElementException("no edge from " + from + " to " + to);
+    }
+    for (int edge = first[from]; edge < first[from + 1]; edge++) {
+      if (target[edge] == to) {
+        this.weight[edge] = weight;
+        // the edge is inside the cells of both nodes from the level where they share a cell
+        for (Level level : levels) {
+          if (level.cellOf[from] == level.cellOf[to]) {
+            level.dirty[level.cellOf[from]] = true;
+          }
+        }
+        return;
+      }
+    }
+    throw new NoSuchElementException("no edge from " + from + " to " + to);
+  }
+
+  /**
+   * Computes the entry to exit costs of the cells whose edges changed, level by level, and the
+   * cells of one level in parallel
+   *
+   * @return the number of cells that were computed
+   */
+  public int customize() {
+    int count = 0;
+    for (int level = 0; level < levels.length; level++) {
+      int index = level;
+      boolean[] dirty = levels[level].dirty;
+      int[] cells = IntStream.range(0, levels[level].cellCount).filter(cell -> dirty[cell]).toArray();
+      IntStream.of(cells).parallel().forEach(cell -> {
+        Search search = takeSearch();
+        try {
+          customizeCell(index, cell, search);
+        } finally {
+          idleSearches.add(search);
+        }
+      });
+      count += cells.length;
+    }
+    return count;
+  }
+
+  /**
+   * Computes the costs from every entry of a cell to every exit of it, with searches that stay in
+   * the cell and cross its subcells through their own entry to exit costs
+   */
+  private void customizeCell(int levelIndex, int cell, Search search) {
+    Level level = levels[levelIndex];
+    Level below = levelIndex == 0 ? null : levels[levelIndex - 1];
+    int exitCount = level.exitCount(cell);
+    double[] best = new double[exitCount];
+    for (int entry = level.entryFirst[cell]; entry < level.entryFirst[cell + 1]; entry++) {
+      Arrays.fill(best, Double.POSITIVE_INFINITY);
+      search.begin();
+      search.relax(2 * level.entries[entry], 0, -1, 0);
+      while (!search.frontier.isEmpty()) {
+        int state = search.frontier.removeMin();
+        double cost = search.frontier.lastCost();
+        if (cost > search.cost(state)) {
+          continue;
+        }
+        int node = state >> 1;
+        if (below != null && (state & 1) == 0) {
+          // every node reached by a road here is an entry of its subcell, so cross the subcell
+          int subcell = below.cellOf[node];
+          int row = below.cliqueFirst[subcell] + below.entryIndex[node] * below.exitCount(subcell);
+          for (int i = below.exitFirst[subcell]; i < below.exitFirst[subcell + 1]; i++) {
+            search.relax(2 * below.exits[i] + 1, cost + below.clique[row + i - below.exitFirst[subcell]],
+                state, levelIndex);
+          }
+          continue;
+        }
+        // the node is a first level node or the exit of a subcell, so take its roads
+        int exit = level.exitIndex[node];
+        if (exit >= 0 && cost < best[exit]) {
+          best[exit] = cost;
+        }
+        for (int edge = first[node]; edge < first[node + 1]; edge++) {
+          int next = target[edge];
+          if (level.cellOf[next] == cell && (below == null || below.cellOf[next] != below.cellOf[node])) {
+            search.relax(2 * next, cost + weight[edge], state, 0);
+          }
+        }
+      }
+      int row = level.cliqueFirst[cell] + (entry - level.entryFirst[cell]) * exitCount;
+      System.arraycopy(best, 0, level.clique, row, exitCount);
+    }
+    level.dirty[cell] = false;
+  }
+
+  /**
+   * Returns the highest level whose cell of the node holds neither the start nor the end, or 0
+   * when the node shares its first level cell with one of them
+   */
+  private int queryLevel(int node, int start, int end) {
+    for (int level = levels.length - 1; level >= 0; level--) {
+      int[] cellOf = levels[level].cellOf;
+      if (cellOf[node] != cellOf[start] && cellOf[node] != cellOf[end]) {
+        return level + 1;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Runs the overlay search from start until end is settled
+   *
+   * @return the cost of the shortest path
+   * @throws NoSuchElementException when there is no path or a node does not exist
+   */
+  private double search(int start, int end, Search search) {
+    if (start < 0 || start >= nodeCount || end < 0 || end >= nodeCount) {
+      throw new NoSuchElementException("start or end does not exist in graph");
+    }
+    search.begin();
+    search.relax(2 * start, 0, -1, 0);
+    while (!search.frontier.isEmpty()) {
+      int state = search.frontier.removeMin();
+      double cost = search.frontier.lastCost();
+      if (cost > search.cost(state)) {
+        continue;
+      }
+      int node = state >> 1;
+      if (state == 2 * end) {
+        return cost;
+      }
+      int levelNumber = queryLevel(node, start, end);
+      if (levelNumber > 0 && (state & 1) == 0) {
+        // the node entered a cell without the start or the end, so jump to the cell's exits
+        Level level = levels[levelNumber - 1];
+        int cell = level.cellOf[node];
+        int row = level.cliqueFirst[cell] + level.entryIndex[node] * level.exitCount(cell);
+        for (int i = level.exitFirst[cell]; i < level.exitFirst[cell + 1]; i++) {
+          search.relax(2 * level.exits[i] + 1, cost + level.clique[row + i - level.exitFirst[cell]],
+              state, levelNumber);
+        }
+        continue;
+      }
+      // take the roads of the node, and only those leaving the cell when it is a cell's exit
+      int[] cellOf = levelNumber == 0 ? null : levels[levelNumber - 1].cellOf;
+      for (int edge = first[node]; edge < first[node + 1]; edge++) {
+        if (cellOf == null || cellOf[target[edge]] != cellOf[node]) {
+          search.relax(2 * target[edge], cost + weight[edge], state, 0);
+        }
+      }
+    }
+    throw new NoSuchElementException("no path from start to end");
+  }
+
+  /**
+   * Returns the cost of the shortest path between two nodes
+   *
+   * @param start the id of the starting node
+   * @param end   the id of the destination node
+   * @return the cost of the shortest path
+   * @throws NoSuchElementException when there is no path or a node does not exist
+   */
+  public double shortestPathCost(int start, int end) {
+    Search search = takeSearch();
+    try {
+      return search(start, end, search);
+    } finally {
+      idleSearches.add(search);
+    }
+  }
+
+  // returns an idle search state, or a new one when every search state is in use
+  private Search takeSearch() {
+    Search search = idleSearches.poll();
+    return search == null ? new Search(nodeCount) : search;
+  }
+
+  /**
+   * Returns the ids of the nodes along the shortest path between two nodes. The steps of the path
+   * that cross a cell are expanded into roads by a search inside that cell.
+   *
+   * @param start the id of the starting node
+   * @param end   the id of the destination node
+   * @return ids of the nodes along the shortest path, from start to end
+   * @throws NoSuchElementException when there is no path or a node does not exist
+   */
+  public int[] shortestPathIds(int start, int end) {
+    return shortestPathIds(start, end, null);
+  }
+
+  /**
+   * Returns the ids of the nodes along the shortest path between two nodes, and its cost
+   *
+   * @param start the id of the starting node
+   * @param end   the id of the destination node
+   * @param cost  an array whose first element is set to the cost of the path, or null
+   * @return ids of the nodes along the shortest path, from start to end
+   * @throws NoSuchElementException when there is no path or a node does not exist
+   */
+  public int[] shortestPathIds(int start, int end, double[] cost) {
+    Search search = takeSearch();
+    try {
+      double pathCost = search(start, end, search);
+      if (cost != null) {
+        cost[0] = pathCost;
+      }
+      // collect the nodes of the path from the end back to the start
+      int[] path = new int[16];
+      int length = 0;
+      for (int state = 2 * end; state != 2 * start; state = search.parent[state]) {
+        int node = state >> 1;
+        int[] nodes;
+        if ((state & 1) == 0) {
+          nodes = new int[] {node};
+        } else {
+          // the step crossed a cell from the parent's node to this exit
+          Level level = levels[search.viaLevel[state] - 1];
+          int[] inside = pathInCell(search.parent[state] >> 1, node, level, level.cellOf[node]);
+          nodes = Arrays.copyOfRange(inside, 1, inside.length);
+        }
+        for (int i = nodes.length - 1; i >= 0; i--) {
+          if (length == path.length) {
+            path = Arrays.copyOf(path, path.length * 2);
+          }
+          path[length++] = nodes[i];
+        }
+      }
+      int[] result = new int[length + 1];
+      result[0] = start;
+      for (int i = 0; i < length; i++) {
+        result[i + 1] = path[length - 1 - i];
+      }
+      return result;
+    } finally {
+      idleSearches.add(search);
+    }
+  }
+
+  /**
+   * Returns the ids of the nodes along the shortest path between two nodes of a cell, using only
+   * the roads inside the cell
+   */
+  private int[] pathInCell(int from, int to, Level level, int cell) {
+    Search search = takeSearch();
+    try {
+      search.begin();
+      search.relax(2 * from, 0, -1, 0);
+      while (!search.frontier.isEmpty()) {
+        int state = search.frontier.removeMin();
+        double cost = search.frontier.lastCost();
+        if (cost > search.cost(state)) {
+          continue;
+        }
+        int node = state >> 1;
+        if (node == to) {
+          break;
+        }
+        for (int edge = first[node]; edge < first[node + 1]; edge++) {
+          if (level.cellOf[target[edge]] == cell) {
+            search.relax(2 * target[edge], cost + weight[edge], state, 0);
+          }
+        }
+      }
+      int length = 1;
+      for (int state = 2 * to; state != 2 * from; state = search.parent[state]) {
+        length++;
+      }
+      int[] path = new int[length];
+      for (int state = 2 * to, i = length - 1; i >= 0; state = search.parent[state], i--) {
+        path[i] = state >> 1;
+      }
+      return path;
+    } finally {
+      idleSearches.add(search);
+    }
+  }
+
+  // returns the number of nodes of the graph the overlay was built from
+  public int getNodeCount() {
+    return nodeCount;
+  }
+
+  /**
+   * Returns the number of cells of a level
+   *
+   * @param level the level, from 1 for the smallest cells
+   */
+  public int getCellCount(int level) {
+    return levels[level - 1].cellCount;
+  }
+
+  /**
+   * Returns the number of entry and exit nodes of the cells of a level
+   *
+   * @param level the level, from 1 for the smallest cells
+   */
+  public int getBoundaryCount(int level) {
+    return levels[level - 1].entries.length + levels[level - 1].exits.length;
+  }
+
+  /**
+   * Builds an overlay of a map and compares its queries with Dijkstra's algorithm on the same
+   * pairs of buildings. The overlay only gains on maps with natural cuts, such as towns joined by
+   * a few roads; on a plain street grid every cell has a wide border and it is no faster.
+   *
+   * @param args the map file, the cell sizes separated by commas (default 256,4096), and the
+   *             number of queries (default 200)
+   */
+  public static void main(String[] args) throws FileNotFoundException {
+    if (args.length < 1) {
+      System.err.println("usage: java OverlayGraph map [size,size...] [queries]");
+      System.exit(2);
+    }
+    ArrayGraph graph = ArrayGraph.of(new MapReader().read(args[0]));
+    int[] cellSizes = Arrays.stream((args.length > 1 ? args[1] : "256,4096").split(","))
+        .mapToInt(Integer::parseInt).toArray();
+    int queries = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+    long begin = System.nanoTime();
+    OverlayGraph overlay = new OverlayGraph(graph, cellSizes);
+    System.out.printf("%d nodes, built in %.0f ms%n", graph.getNodeCount(),
+        (System.nanoTime() - begin) / 1e6);
+    for (int level = 1; level <= cellSizes.length; level++) {
+      System.out.printf("  level %d: %d cells, %d entries and exits%n", level,
+          overlay.getCellCount(level), overlay.getBoundaryCount(level));
+    }
+    Random random = new Random(1);
+    int[][] pairs = new int[queries][];
+    for (int i = 0; i < queries; i++) {
+      pairs[i] = new int[] {random.nextInt(graph.getNodeCount()),
+          random.nextInt(graph.getNodeCount())};
+    }
+    // the first round warms up both searches
+    for (int round = 0; round < 2; round++) {
+      long dijkstra = 0;
+      long overlaid = 0;
+      int mismatches = 0;
+      for (int[] pair : pairs) {
+        double exact;
+        double cost;
+        begin = System.nanoTime();
+        try {
+          exact = DijkstraGraph.shortestPathCost(graph, pair[0], pair[1]);
+        } catch (NoSuchElementException e) {
+          exact = Double.POSITIVE_INFINITY;
+        }
+        long middle = System.nanoTime();
+        try {
+          cost = overlay.shortestPathCost(pair[0], pair[1]);
+        } catch (NoSuchElementException e) {
+          cost = Double.POSITIVE_INFINITY;
+        }
+        overlaid += System.nanoTime() - middle;
+        dijkstra += middle - begin;
+        // the overlay adds the costs of a path in another order, which can change the last digit
+        mismatches += cost == exact || Math.abs(cost - exact) <= 1e-9 * exact ? 0 : 1;
+      }
+      System.out.printf("%s: Dijkstra %.2f ms, overlay %.2f ms per query, %d mismatches%n",
+          round == 0 ? "warm-up" : "measured", dijkstra / 1e6 / queries,
+          overlaid / 1e6 / queries, mismatches);
+      if (mismatches > 0) {
+        System.exit(1);
+      }
+    }
+  }
+}
@@ -0,0 +1,101 @@
+import java.util.Arrays;
+
+/**
+ * This class is a radix heap of (node id, cost) pairs for searches whose edge weights are whole
+ * numbers of any size. Entries are kept in 65 buckets by the highest bit in which their cost differs
+ * from the last removed cost. Removing an entry from an empty first bucket moves the entries of the
+ * next bucket down to lower buckets, and an entry only ever moves down, so every operation takes
+ * constant amortized time for costs that fit in a long.
+ *
+ * Like every queue of a Dijkstra search, it is monotone: an added cost is never lower than the last
+ * removed cost.
+ */
+public class RadixHeap implements SearchQueue {
+  private final int[][] nodes = new int[65][]; // node ids of each bucket
+  private final long[][] costs = new long[65][]; // costs of each bucket
+  private final int[] sizes = new int[65]; // number of entries of each bucket
+  private long last; // cost of the most recently removed entry
+  private int size; // number of entries in the heap
+
+  public RadixHeap() {
+    for (int bucket = 0; bucket < nodes.length; bucket++) {
+      nodes[bucket] = new int[4];
+      costs[bucket] = new long[4];
+    }
+  }
+
+  // returns the bucket of a cost: 0 when it equals the last removed cost, otherwise 1 + the highest
+  // bit in which they differ
+  private int bucketOf(long cost) {
+    return 64 - Long.numberOfLeadingZeros(cost ^ last);
+  }
+
+  private void put(int bucket, int node, long cost) {
+    if (sizes[bucket] == nodes[bucket].length) {
+      nodes[bucket] = Arrays.copyOf(nodes[bucket], sizes[bucket] * 2);
+      costs[bucket] = Arrays.copyOf(costs[bucket], sizes[bucket] * 2);
+    }
+    nodes[bucket][sizes[bucket]] = node;
+    costs[bucket][sizes[bucket]++] = cost;
+  }
+
+  /**
+   * Adds a node with the provided cost into the heap
+   *
+   * @param node the id of the node
+   * @param cost the cost of the path to that node, a whole number
+   */
+  public void add(int node, double cost) {
+    long key = (long) cost;
+    put(bucketOf(key), node, key);
+    size++;
+  }
+
+  /**
+   * Removes an entry with the lowest cost, its cost is available from lastCost()
+   *
+   * @return the id of the node with the lowest cost
+   */
+  public int removeMin() {
+    if (sizes[0] == 0) {
+      int bucket = 1;
+      while (sizes[bucket] == 0) {
+        bucket++;
+      }
+      // the lowest cost of the bucket becomes the last cost, and its entries move down
+      long lowest = Long.MAX_VALUE;
+      for (int i = 0; i < sizes[bucket]; i++) {
+        lowest = Math.min(lowest, costs[bucket][i]);
+      }
+      last = lowest;
+      int count = sizes[bucket];
+      sizes[bucket] = 0;
+      for (int i = 0; i < count; i++) {
+        long cost = costs[bucket][i];
+        put(bucketOf(cost), nodes[bucket][i], cost);
+      }
+    }
+    size--;
+    return nodes[0][--sizes[0]];
+  }
+
+  // returns the cost of the entry removed by the last call to removeMin
+  public double lastCost() {
+    return last;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  // removes every entry so that the heap can be reused for another search
+  public void clear() {
+    Arrays.fill(sizes, 0);
+    size = 0;
+    last = 0;
+  }
+}
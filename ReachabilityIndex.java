@@ -0,0 +1,533 @@
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This class answers whether one node of a graph can reach another, so that a query between nodes
+ * that are not connected is rejected without a search. The nodes are grouped into their strongly
+ * connected components (found with Tarjan's algorithm), and the components form a directed acyclic
+ * graph, the condensation. Two nodes of one component always reach each other.
+ *
+ * Every component gets an interval from each of two depth-first traversals of the condensation, in
+ * opposite child orders: the interval of a component holds the intervals of every component it
+ * reaches. When the interval of the start's component doesn't hold the interval of the end's
+ * component in both traversals, the end is not reachable, which answers most of the pairs that
+ * cannot be connected with a few array reads. Otherwise a search of the condensation that skips
+ * components whose intervals rule them out gives the exact answer.
+ *
+ * Roads with infinite cost are never taken by a search, so they don't connect anything here. Added
+ * nodes and roads update the index in place: a road between components that were not connected
+ * widens the intervals of the components that reach its start, and a road that closes a cycle merges
+ * the components along the cycle into one. Removing roads is not supported; the index is built again.
+ *
+ * Queries may run at the same time as each other and as changes.
+ */
+public class ReachabilityIndex {
+  private static final int LABELINGS = 2; // number of depth-first traversals labelling components
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock(); // queries share, changes don't
+  private int nodeCount; // number of nodes in the graph
+  private int[] componentOf; // component of each node, which may have been merged into another
+  private int[] merged; // component each component was merged into, or itself
+  private int slots; // number of component ids handed out, including merged ones
+  private int componentCount; // number of components that were not merged into another
+  private int[][] out; // components each component has a road to
+  private int[] outCount;
+  private int[][] in; // components each component has a road from
+  private int[] inCount;
+  private final int[][] low = new int[LABELINGS][]; // start of the interval of each component
+  private final int[][] high = new int[LABELINGS][]; // end of the interval of each component
+  private final int[] nextLabel = new int[LABELINGS]; // larger than every interval end so far
+
+  /**
+   * Builds the index of a graph
+   *
+   * @param graph the graph to index
+   */
+  public ReachabilityIndex(DijkstraGraph<?, Double> graph) {
+    this(ArrayGraph.of(graph));
+  }
+
+  /**
+   * Builds the index of an id-indexed graph
+   *
+   * @param graph the graph to index
+   */
+  public ReachabilityIndex(IndexedGraphInterface graph) {
+    nodeCount = graph.getNodeCount();
+    componentOf = new int[Math.max(nodeCount, 16)];
+    slots = strongComponents(graph, componentOf);
+    componentCount = slots;
+    int capacity = Math.max(slots, 16);
+    merged = new int[capacity];
+    for (int component = 0; component < capacity; component++) {
+      merged[component] = component;
+    }
+    out = new int[capacity][];
+    in = new int[capacity][];
+    outCount = new int[capacity];
+    inCount = new int[capacity];
+    buildCondensation(graph);
+    for (int labeling = 0; labeling < LABELINGS; labeling++) {
+      low[labeling] = new int[capacity];
+      high[labeling] = new int[capacity];
+      label(labeling);
+    }
+  }
+
+  /**
+   * Numbers the strongly connected components with Tarjan's algorithm, run with explicit stacks so
+   * that long roads don't overflow the call stack. A component is numbered when it is finished, so
+   * every road between components goes from a higher number to a lower one.
+   *
+   * @return the number of components
+   */
+  private static int strongComponents(IndexedGraphInterface graph, int[] componentOf) {
+    int nodeCount = graph.getNodeCount();
+    int[] order = new int[nodeCount]; // order in which each node was reached, or -1
+    int[] lowest = new int[nodeCount]; // lowest order reachable from the node's subtree
+    int[] edgeAt = new int[nodeCount]; // next edge to look at of each node on the call stack
+    int[] calls = new int[nodeCount]; // nodes whose edges are being looked at
+    int[] open = new int[nodeCount]; // nodes whose component is not finished yet
+    boolean[] onOpen = new boolean[nodeCount];
+    Arrays.fill(order, -1);
+    int reached = 0;
+    int components = 0;
+    for (int root = 0; root < nodeCount; root++) {
+      if (order[root] >= 0) {
+        continue;
+      }
+      int callDepth = 0;
+      int openSize = 0;
+      calls[callDepth++] = root;
+      order[root] = lowest[root] = reached++;
+      edgeAt[root] = graph.firstEdge(root);
+      open[openSize++] = root;
+      onOpen[root] = true;
+      while (callDepth > 0) {
+        int node = calls[callDepth - 1];
+        if (edgeAt[node] < graph.lastEdge(node)) {
+          int edge = edgeAt[node]++;
+          if (!passable(graph.edgeWeight(edge))) {
+            continue;
+          }
+          int next = graph.edgeTarget(edge);
+          if (order[next] < 0) {
+            order[next] = lowest[next] = reached++;
+            edgeAt[next] = graph.firstEdge(next);
+            open[openSize++] = next;
+            onOpen[next] = true;
+            calls[callDepth++] = next;
+          } else if (onOpen[next]) {
+            lowest[node] = Math.min(lowest[node], order[next]);
+          }
+          continue;
+        }
+        // every edge of the node is done, return to the node that reached it
+        callDepth--;
+        if (callDepth > 0) {
+          int caller = calls[callDepth - 1];
+          lowest[caller] = Math.min(lowest[caller], lowest[node]);
+        }
+        if (lowest[node] == order[node]) {
+          int member;
+          do {
+            member = open[--openSize];
+            onOpen[member] = false;
+            componentOf[member] = components;
+          } while (member != node);
+          components++;
+        }
+      }
+    }
+    return components;
+  }
+
+  // roads that a search never takes don't connect their ends
+  private static boolean passable(double weight) {
+    return weight < Double.POSITIVE_INFINITY;
+  }
+
+  /**
+   * Adds a road between every two components that are connected by a road of the graph, once
+   */
+  private void buildCondensation(IndexedGraphInterface graph) {
+    // visits the nodes grouped by component, so repeated roads are noticed with one stamp per target
+    int[] first = new int[slots + 1];
+    for (int node = 0; node < nodeCount; node++) {
+      first[componentOf[node] + 1]++;
+    }
+    for (int component = 0; component < slots; component++) {
+      first[component + 1] += first[component];
+    }
+    int[] byComponent = new int[nodeCount];
+    int[] next = first.clone();
+    for (int node = 0; node < nodeCount; node++) {
+      byComponent[next[componentOf[node]]++] = node;
+    }
+    int[] seenFrom = new int[slots];
+    Arrays.fill(seenFrom, -1);
+    for (int component = 0; component < slots; component++) {
+      for (int i = first[component]; i < first[component + 1]; i++) {
+        int node = byComponent[i];
+        for (int edge = graph.firstEdge(node), last = graph.lastEdge(node); edge < last; edge++) {
+          int target = componentOf[graph.edgeTarget(edge)];
+          if (target != component && seenFrom[target] != component && passable(graph.edgeWeight(edge))) {
+            seenFrom[target] = component;
+            link(component, target);
+          }
+        }
+      }
+    }
+  }
+
+  // adds a road of the condensation
+  private void link(int from, int to) {
+    if (out[from] == null) {
+      out[from] = new int[2];
+    } else if (outCount[from] == out[from].length) {
+      out[from] = Arrays.copyOf(out[from], Math.max(2, outCount[from] * 2));
+    }
+    out[from][outCount[from]++] = to;
+    if (in[to] == null) {
+      in[to] = new int[2];
+    } else if (inCount[to] == in[to].length) {
+      in[to] = Arrays.copyOf(in[to], Math.max(2, inCount[to] * 2));
+    }
+    in[to][inCount[to]++] = from;
+  }
+
+  /**
+   * Gives every component an interval from a depth-first traversal of the condensation: its end is
+   * the order in which the component was finished and its start is the smallest start of the
+   * components it has a road to. The second traversal visits roots and children in reverse order.
+   */
+  private void label(int labeling) {
+    boolean reverse = labeling % 2 == 1;
+    int[] start = low[labeling];
+    int[] end = high[labeling];
+    boolean[] visited = new boolean[slots];
+    int[] calls = new int[slots];
+    int[] childAt = new int[slots];
+    int finished = 0;
+    for (int i = 0; i < slots; i++) {
+      int root = reverse ? slots - 1 - i : i;
+      if (visited[root] || inCount[root] > 0) {
+        continue;
+      }
+      int depth = 0;
+      calls[depth++] = root;
+      visited[root] = true;
+      childAt[root] = 0;
+      start[root] = Integer.MAX_VALUE;
+      while (depth > 0) {
+        int component = calls[depth - 1];
+        if (childAt[component] < outCount[component]) {
+          int at = childAt[component]++;
+          int child = out[component][reverse ? outCount[component] - 1 - at : at];
+          if (!visited[child]) {
+            visited[child] = true;
+            childAt[child] = 0;
+            start[child] = Integer.MAX_VALUE;
+            calls[depth++] = child;
+          } else {
+            start[component] = Math.min(start[component], start[child]);
+          }
+          continue;
+        }
+        depth--;
+        end[component] = finished++;
+        start[component] = Math.min(start[component], end[component]);
+        if (depth > 0) {
+          int parent = calls[depth - 1];
+          start[parent] = Math.min(start[parent], start[component]);
+        }
+      }
+    }
+    nextLabel[labeling] = finished;
+  }
+
+  // returns the component a component was merged into
+  private int find(int component) {
+    while (merged[component] != component) {
+      component = merged[component];
+    }
+    return component;
+  }
+
+  // returns false when the intervals show that from cannot reach to
+  private boolean mayReach(int from, int to) {
+    for (int labeling = 0; labeling < LABELINGS; labeling++) {
+      if (low[labeling][to] < low[labeling][from] || high[labeling][to] > high[labeling][from]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns whether there is a path from one node to another
+   *
+   * @param from the id of the start node
+   * @param to   the id of the end node
+   * @return true when to can be reached from from
+   */
+  public boolean reaches(int from, int to) {
+    lock.readLock().lock();
+    try {
+      return reachesComponent(find(componentOf[from]), find(componentOf[to]));
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns whether the nodes are in one strongly connected component, so each reaches the other
+   */
+  public boolean isStronglyConnected(int first, int second) {
+    lock.readLock().lock();
+    try {
+      return find(componentOf[first]) == find(componentOf[second]);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  // searches the condensation from one component for another, skipping components ruled out
+  private boolean reachesComponent(int from, int to) {
+    if (from == to) {
+      return true;
+    }
+    if (!mayReach(from, to)) {
+      return false;
+    }
+    BitSet visited = new BitSet(slots);
+    int[] stack = new int[16];
+    int size = 0;
+    stack[size++] = from;
+    visited.set(from);
+    while (size > 0) {
+      int component = stack[--size];
+      for (int i = 0; i < outCount[component]; i++) {
+        int child = find(out[component][i]);
+        if (child == to) {
+          return true;
+        }
+        if (!visited.get(child) && mayReach(child, to)) {
+          visited.set(child);
+          if (size == stack.length) {
+            stack = Arrays.copyOf(stack, size * 2);
+          }
+          stack[size++] = child;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Adds a node without roads, which takes the next node id
+   */
+  public void addNode() {
+    lock.writeLock().lock();
+    try {
+      if (nodeCount == componentOf.length) {
+        componentOf = Arrays.copyOf(componentOf, nodeCount * 2);
+      }
+      if (slots == merged.length) {
+        grow();
+      }
+      int component = slots++;
+      componentCount++;
+      merged[component] = component;
+      componentOf[nodeCount++] = component;
+      // an interval after every other one neither holds nor is held by any of them
+      for (int labeling = 0; labeling < LABELINGS; labeling++) {
+        low[labeling][component] = high[labeling][component] = nextLabel[labeling]++;
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void grow() {
+    int capacity = merged.length * 2;
+    merged = Arrays.copyOf(merged, capacity);
+    out = Arrays.copyOf(out, capacity);
+    in = Arrays.copyOf(in, capacity);
+    outCount = Arrays.copyOf(outCount, capacity);
+    inCount = Arrays.copyOf(inCount, capacity);
+    for (int labeling = 0; labeling < LABELINGS; labeling++) {
+      low[labeling] = Arrays.copyOf(low[labeling], capacity);
+      high[labeling] = Arrays.copyOf(high[labeling], capacity);
+    }
+  }
+
+  /**
+   * Adds a road between two nodes. A road with infinite cost changes nothing.
+   *
+   * @param from   the id of the node the road leaves
+   * @param to     the id of the node the road enters
+   * @param weight the cost of the road
+   */
+  public void addEdge(int from, int to, double weight) {
+    if (!passable(weight)) {
+      return;
+    }
+    lock.writeLock().lock();
+    try {
+      int start = find(componentOf[from]);
+      int end = find(componentOf[to]);
+      if (reachesComponent(start, end)) {
+        return; // what the road connects was connected already
+      }
+      if (reachesComponent(end, start)) {
+        start = mergeCycle(end, start);
+      } else {
+        link(start, end);
+        for (int labeling = 0; labeling < LABELINGS; labeling++) {
+          low[labeling][start] = Math.min(low[labeling][start], low[labeling][end]);
+          high[labeling][start] = Math.max(high[labeling][start], high[labeling][end]);
+        }
+      }
+      widen(start);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Merges the components on the paths from one component to another into one, for a road that
+   * goes back from the last to the first
+   *
+   * @return the merged component
+   */
+  private int mergeCycle(int first, int last) {
+    // components reached from first that can still reach last, then those of them that reach last
+    BitSet forward = new BitSet(slots);
+    int[] stack = new int[16];
+    int size = 0;
+    stack[size++] = first;
+    forward.set(first);
+    while (size > 0) {
+      int component = stack[--size];
+      for (int i = 0; i < outCount[component]; i++) {
+        int child = find(out[component][i]);
+        if (!forward.get(child) && mayReach(child, last)) {
+          forward.set(child);
+          if (size == stack.length) {
+            stack = Arrays.copyOf(stack, size * 2);
+          }
+          stack[size++] = child;
+        }
+      }
+    }
+    BitSet cycle = new BitSet(slots);
+    stack[size++] = last;
+    cycle.set(last);
+    while (size > 0) {
+      int component = stack[--size];
+      for (int i = 0; i < inCount[component]; i++) {
+        int parent = find(in[component][i]);
+        if (!cycle.get(parent) && forward.get(parent)) {
+          cycle.set(parent);
+          if (size == stack.length) {
+            stack = Arrays.copyOf(stack, size * 2);
+          }
+          stack[size++] = parent;
+        }
+      }
+    }
+
+    int root = last;
+    int[] rootOut = new int[0];
+    int[] rootIn = new int[0];
+    int outSize = 0;
+    int inSize = 0;
+    for (int member = cycle.nextSetBit(0); member >= 0; member = cycle.nextSetBit(member + 1)) {
+      for (int labeling = 0; labeling < LABELINGS; labeling++) {
+        low[labeling][root] = Math.min(low[labeling][root], low[labeling][member]);
+        high[labeling][root] = Math.max(high[labeling][root], high[labeling][member]);
+      }
+      // roads between members of the cycle are dropped, the rest move to the root
+      for (int i = 0; i < outCount[member]; i++) {
+        int child = find(out[member][i]);
+        if (!cycle.get(child)) {
+          if (outSize == rootOut.length) {
+            rootOut = Arrays.copyOf(rootOut, Math.max(4, outSize * 2));
+          }
+          rootOut[outSize++] = child;
+        }
+      }
+      for (int i = 0; i < inCount[member]; i++) {
+        int parent = find(in[member][i]);
+        if (!cycle.get(parent)) {
+          if (inSize == rootIn.length) {
+            rootIn = Arrays.copyOf(rootIn, Math.max(4, inSize * 2));
+          }
+          rootIn[inSize++] = parent;
+        }
+      }
+      if (member != root) {
+        out[member] = in[member] = null;
+        outCount[member] = inCount[member] = 0;
+        componentCount--;
+      }
+    }
+    for (int member = cycle.nextSetBit(0); member >= 0; member = cycle.nextSetBit(member + 1)) {
+      merged[member] = root;
+    }
+    out[root] = rootOut;
+    outCount[root] = outSize;
+    in[root] = rootIn;
+    inCount[root] = inSize;
+    return root;
+  }
+
+  /**
+   * Widens the intervals of the components that reach a component until they hold its interval,
+   * after the interval of the component was widened
+   */
+  private void widen(int component) {
+    int[] stack = new int[16];
+    int size = 0;
+    stack[size++] = component;
+    while (size > 0) {
+      int child = stack[--size];
+      for (int i = 0; i < inCount[child]; i++) {
+        int parent = find(in[child][i]);
+        boolean widened = false;
+        for (int labeling = 0; labeling < LABELINGS; labeling++) {
+          if (low[labeling][child] < low[labeling][parent]) {
+            low[labeling][parent] = low[labeling][child];
+            widened = true;
+          }
+          if (high[labeling][child] > high[labeling][parent]) {
+            high[labeling][parent] = high[labeling][child];
+            widened = true;
+          }
+        }
+        // a parent whose interval already held the child's has ancestors that hold it too
+        if (widened) {
+          if (size == stack.length) {
+            stack = Arrays.copyOf(stack, size * 2);
+          }
+          stack[size++] = parent;
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the number of strongly connected components
+   */
+  public int getComponentCount() {
+    lock.readLock().lock();
+    try {
+      return componentCount;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+}
@@ -0,0 +1,160 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class is a route found by one search: the ids of its buildings, and the cost of every leg
+ * between the start, the stops and the end. Building names are only created when they are asked
+ * for. The building list is a view over the ids, the "A -> B -> C" form is written once into a
+ * builder of the exact size, and a very long route can be written to any Appendable without
+ * holding its text in memory.
+ */
+public class Route {
+
+    private static final String ARROW = " -> ";
+
+    private final NameDictionary names; // names of the buildings by id
+    private final int[] ids; // ids of the buildings along the route
+    private final int[] legEnds; // position in ids of the building that ends each leg
+    private final double[] legCosts; // cost of each leg
+    private final double cost; // cost of the whole route
+    private List<String> buildings; // names of the buildings, created when first asked for
+    private String text; // the route written as "A -> B -> C", created when first asked for
+
+    /**
+     * Creates a route from the ids of its buildings and its legs
+     *
+     * @param names    the names of the buildings by id
+     * @param ids      the ids of the buildings along the route
+     * @param legEnds  the position in ids of the building that ends each leg
+     * @param legCosts the cost of each leg
+     */
+    Route(NameDictionary names, int[] ids, int[] legEnds, double[] legCosts) {
+        this.names = names;
+        this.ids = ids;
+        this.legEnds = legEnds;
+        this.legCosts = legCosts;
+        // added leg by leg, in the order getShortestCost adds them
+        double cost = 0;
+        for (double legCost : legCosts) {
+            cost += legCost;
+        }
+        this.cost = cost;
+    }
+
+    // returns the cost of the whole route
+    public double getCost() {
+        return cost;
+    }
+
+    // returns the number of buildings along the route, counting the start and the end
+    public int size() {
+        return ids.length;
+    }
+
+    // returns the graph ids of the buildings along the route
+    public int[] getIds() {
+        return ids.clone();
+    }
+
+    // returns the number of legs, one more than the number of stops
+    public int getLegCount() {
+        return legCosts.length;
+    }
+
+    // returns the cost of each leg, from the start to the first stop up to the last stop to the end
+    public double[] getLegCosts() {
+        return legCosts.clone();
+    }
+
+    /**
+     * Returns the buildings of one leg, from the building that starts it to the building that ends
+     * it
+     *
+     * @param leg the number of the leg, from 0
+     * @throws IndexOutOfBoundsException when the route has no such leg
+     */
+    public List<String> getLeg(int leg) {
+        if (leg < 0 || leg >= legEnds.length) {
+            throw new IndexOutOfBoundsException("no leg " + leg);
+        }
+        int from = leg == 0 ? 0 : legEnds[leg - 1];
+        return getBuildings().subList(from, legEnds[leg] + 1);
+    }
+
+    /**
+     * Returns the names of the buildings along the route. The list reads the names from the map
+     * as they are asked for and cannot be changed.
+     */
+    public List<String> getBuildings() {
+        List<String> buildings = this.buildings;
+        if (buildings == null) {
+            buildings = new AbstractList<String>() {
+                @Override
+                public String get(int index) {
+                    return names.nameOf(ids[index]);
+                }
+
+                @Override
+                public int size() {
+                    return ids.length;
+                }
+            };
+            this.buildings = buildings;
+        }
+        return buildings;
+    }
+
+    /**
+     * Writes the route as "A -> B -> C" to an Appendable, a name at a time, such as the Writer of a
+     * response
+     *
+     * @param out where to write the route
+     * @return out
+     * @throws IOException when the Appendable fails
+     */
+    public <A extends Appendable> A appendTo(A out) throws IOException {
+        for (int i = 0; i < ids.length; i++) {
+            if (i > 0) {
+                out.append(ARROW);
+            }
+            names.appendName(ids[i], out);
+        }
+        return out;
+    }
+
+    /**
+     * Returns the route written as "A -> B -> C", which is built once into a builder of the exact
+     * length
+     */
+    @Override
+    public String toString() {
+        String text = this.text;
+        if (text == null) {
+            int length = Math.max(0, ids.length - 1) * ARROW.length();
+            for (int id : ids) {
+                length += names.nameLength(id);
+            }
+            try {
+                text = appendTo(new StringBuilder(length)).toString();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e); // a StringBuilder does not fail
+            }
+            this.text = text;
+        }
+        return text;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof Route && Arrays.equals(ids, ((Route) other).ids)
+                && Arrays.equals(legCosts, ((Route) other).legCosts);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(ids) * 31 + Arrays.hashCode(legCosts);
+    }
+}
@@ -0,0 +1,103 @@
+import java.util.Arrays;
+
+/**
+ * This class is a binary min heap of (node id, cost) pairs stored in primitive arrays. It is used by
+ * the id-based shortest path searches so that no SearchNode object is allocated per relaxation.
+ * Like the PriorityQueue used in DijkstraGraph, a node may be added more than once; callers skip
+ * entries for nodes that have already been settled.
+ */
+public class SearchHeap implements SearchQueue {
+  private int[] nodes; // node id of each heap entry
+  private double[] costs; // cost of each heap entry
+  private int size; // number of entries in the heap
+  private double lastCost; // cost of the most recently removed entry
+
+  public SearchHeap(int capacity) {
+    capacity = Math.max(capacity, 16);
+    nodes = new int[capacity];
+    costs = new double[capacity];
+  }
+
+  /**
+   * Adds a node with the provided cost into the heap
+   *
+   * @param node the id of the node
+   * @param cost the cost of the path to that node
+   */
+  public void add(int node, double cost) {
+    if (size == nodes.length) {
+      nodes = Arrays.copyOf(nodes, size * 2);
+      costs = Arrays.copyOf(costs, size * 2);
+    }
+    // sift the new entry up from the bottom of the heap
+    int i = size++;
+    while (i > 0) {
+      int parent = (i - 1) >>> 1;
+      if (costs[parent] <= cost)
+        break;
+      nodes[i] = nodes[parent];
+      costs[i] = costs[parent];
+      i = parent;
+    }
+    nodes[i] = node;
+    costs[i] = cost;
+  }
+
+  /**
+   * Removes the entry with the lowest cost, its cost is available from lastCost()
+   *
+   * @return the id of the node with the lowest cost
+   */
+  public int removeMin() {
+    int min = nodes[0];
+    lastCost = costs[0];
+    size--;
+    if (size > 0) {
+      // sift the last entry down from the top of the heap
+      int node = nodes[size];
+      double cost = costs[size];
+      int i = 0;
+      int child;
+      while ((child = 2 * i + 1) < size) {
+        if (child + 1 < size && costs[child + 1] < costs[child])
+          child++;
+        if (cost <= costs[child])
+          break;
+        nodes[i] = nodes[child];
+        costs[i] = costs[child];
+        i = child;
+      }
+      nodes[i] = node;
+      costs[i] = cost;
+    }
+    return min;
+  }
+
+  // returns the cost of the entry removed by the last call to removeMin
+  public double lastCost() {
+    return lastCost;
+  }
+
+  // returns the id of the node with the lowest cost currently in the heap
+  public int peekNode() {
+    return nodes[0];
+  }
+
+  // returns the lowest cost currently in the heap
+  public double peekCost() {
+    return costs[0];
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  // removes every entry so that the heap can be reused for another search
+  public void clear() {
+    size = 0;
+  }
+}
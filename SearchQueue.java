@@ -0,0 +1,25 @@
+/**
+ * This interface represents a min priority queue of (node id, cost) pairs used by the id-based
+ * shortest path searches. A node may be added more than once; callers skip entries for nodes that
+ * have already been settled.
+ */
+public interface SearchQueue {
+
+  // adds a node with the provided cost into the queue
+  public void add(int node, double cost);
+
+  // removes the entry with the lowest cost and returns its node, its cost is available from lastCost()
+  public int removeMin();
+
+  // returns the cost of the entry removed by the last call to removeMin
+  public double lastCost();
+
+  // returns whether the queue has no entries
+  public boolean isEmpty();
+
+  // returns the number of entries in the queue
+  public int size();
+
+  // removes every entry so that the queue can be reused for another search
+  public void clear();
+}
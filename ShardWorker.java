@@ -0,0 +1,311 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.IntStream;
+
+/**
+ * This class is one worker process of a ShardedNavigator. It holds the buildings and roads of one
+ * shard of the map and answers searches that stay inside the shard, over a local socket. The
+ * coordinator tells the worker which of its buildings are boundary buildings: entries, which have
+ * a road coming in from another shard, and exits, which have a road leaving to another shard.
+ *
+ * Every request is one line of tab separated fields, and every answer is one line starting with
+ * "ok" or "error". Lists are separated by commas, buildings are given by their id in the shard.
+ * <pre>
+ *   boundary  entries  exits   sets the boundary, answers the entry to exit costs row by row
+ *   from      start  [end]     answers the costs from start to every exit [and the cost to end]
+ *   to        end              answers the costs from every entry to end
+ *   path      start  end       answers the ids along the shortest path inside the shard
+ * </pre>
+ * Costs are inside the shard, so a route that leaves the shard and comes back is not seen here;
+ * the coordinator finds those through the entry to exit costs of the other shards.
+ */
+public class ShardWorker {
+
+    private final ArrayGraph graph; // roads of the shard
+    private final ArrayGraph reverse; // roads of the shard turned around, for searches towards a building
+    private volatile int[] entries = new int[0]; // ids of the entry buildings
+    private volatile int[] exits = new int[0]; // ids of the exit buildings
+    // search states that no running search is using, put back when each search is done
+    private final ConcurrentLinkedQueue<Search> idleSearches = new ConcurrentLinkedQueue<Search>();
+
+    /**
+     * The arrays of a Dijkstra search over the shard, reused from one search to the next. A node
+     * holds a cost only when its stamp is the epoch of the current search.
+     */
+    private static class Search {
+        private final double[] cost; // cost of the cheapest path found to each node
+        private final int[] parent; // node before each node on that path
+        private final int[] reached; // epoch in which each node was reached
+        private final int[] settled; // epoch in which each node was settled
+        private final int[] wanted; // epoch in which each node was a target
+        private final SearchHeap heap = new SearchHeap(64);
+        private int epoch;
+
+        private Search(int nodeCount) {
+            cost = new double[nodeCount];
+            parent = new int[nodeCount];
+            reached = new int[nodeCount];
+            settled = new int[nodeCount];
+            wanted = new int[nodeCount];
+        }
+
+        /**
+         * Runs Dijkstra's algorithm from start until every target and the end are settled
+         *
+         * @param end a node to settle as well, or -1
+         */
+        private void run(IndexedGraphInterface graph, int start, int[] targets, int end) {
+            epoch++;
+            int remaining = 0;
+            for (int target : targets) {
+                if (wanted[target] != epoch) {
+                    wanted[target] = epoch;
+                    remaining++;
+                }
+            }
+            if (end >= 0 && wanted[end] != epoch) {
+                wanted[end] = epoch;
+                remaining++;
+            }
+            heap.clear();
+            reached[start] = epoch;
+            cost[start] = 0;
+            parent[start] = -1;
+            heap.add(start, 0);
+            while (!heap.isEmpty() && remaining > 0) {
+                int node = heap.removeMin();
+                if (settled[node] == epoch) {
+                    continue;
+                }
+                settled[node] = epoch;
+                if (wanted[node] == epoch) {
+                    remaining--;
+                }
+                for (int edge = graph.firstEdge(node), last = graph.lastEdge(node); edge < last; edge++) {
+                    int next = graph.edgeTarget(edge);
+                    double nextCost = cost[node] + graph.edgeWeight(edge);
+                    if (reached[next] != epoch || nextCost < cost[next]) {
+                        reached[next] = epoch;
+                        cost[next] = nextCost;
+                        parent[next] = node;
+                        heap.add(next, nextCost);
+                    }
+                }
+            }
+        }
+
+        // returns the cost found to the node, infinite when it was not reached
+        private double cost(int node) {
+            return settled[node] == epoch ? cost[node] : Double.POSITIVE_INFINITY;
+        }
+    }
+
+    /**
+     * Reads the shard from a map file
+     *
+     * @param filename the map file of the shard, in any form MapReader reads
+     * @throws FileNotFoundException when the file doesn't exist
+     */
+    public ShardWorker(String filename) throws FileNotFoundException {
+        this.graph = ArrayGraph.of(new MapReader().read(filename));
+        this.reverse = graph.reverse();
+    }
+
+    // returns an idle search state, or a new one when every search state is in use
+    private Search takeSearch() {
+        Search search = idleSearches.poll();
+        return search == null ? new Search(graph.getNodeCount()) : search;
+    }
+
+    /**
+     * Answers one request line
+     *
+     * @return the answer line, without the line break
+     */
+    public String answer(String request) {
+        try {
+            String[] fields = request.split("\t", -1);
+            switch (fields[0]) {
+                case "boundary":
+                    return "ok\t" + boundary(ids(fields[1]), ids(fields[2]));
+                case "from": {
+                    Search search = takeSearch();
+                    try {
+                        int end = fields.length > 2 ? node(fields[2]) : -1;
+                        search.run(graph, node(fields[1]), exits, end);
+                        String costs = costs(search, exits);
+                        return end < 0 ? "ok\t" + costs : "ok\t" + costs + "\t" + search.cost(end);
+                    } finally {
+                        idleSearches.add(search);
+                    }
+                }
+                case "to": {
+                    Search search = takeSearch();
+                    try {
+                        search.run(reverse, node(fields[1]), entries, -1);
+                        return "ok\t" + costs(search, entries);
+                    } finally {
+                        idleSearches.add(search);
+                    }
+                }
+                case "path":
+                    return "ok\t" + path(node(fields[1]), node(fields[2]));
+                default:
+                    return "error\tunknown request " + fields[0];
+            }
+        } catch (RuntimeException e) {
+            return "error\t" + String.valueOf(e.getMessage()).replace('\t', ' ').replace('\n', ' ');
+        }
+    }
+
+    /**
+     * Sets the boundary buildings and computes the cost from every entry to every exit, with the
+     * entries searched in parallel
+     */
+    private String boundary(int[] entries, int[] exits) {
+        this.entries = entries;
+        this.exits = exits;
+        String[] rows = new String[entries.length];
+        IntStream.range(0, entries.length).parallel().forEach(row -> {
+            Search search = takeSearch();
+            try {
+                search.run(graph, entries[row], exits, -1);
+                rows[row] = costs(search, exits);
+            } finally {
+                idleSearches.add(search);
+            }
+        });
+        return String.join(",", rows);
+    }
+
+    // writes the costs of the targets as a comma separated list
+    private static String costs(Search search, int[] targets) {
+        StringBuilder costs = new StringBuilder(targets.length * 8);
+        for (int i = 0; i < targets.length; i++) {
+            if (i > 0) {
+                costs.append(',');
+            }
+            costs.append(search.cost(targets[i]));
+        }
+        return costs.toString();
+    }
+
+    // writes the ids along the shortest path inside the shard as a comma separated list
+    private String path(int start, int end) {
+        Search search = takeSearch();
+        try {
+            search.run(graph, start, new int[0], end);
+            if (Double.isInfinite(search.cost(end))) {
+                throw new IllegalArgumentException("no path from " + start + " to " + end + " in the shard");
+            }
+            int length = 0;
+            for (int node = end; node >= 0; node = search.parent[node]) {
+                length++;
+            }
+            int[] nodes = new int[length];
+            for (int node = end, i = length - 1; i >= 0; node = search.parent[node], i--) {
+                nodes[i] = node;
+            }
+            StringBuilder path = new StringBuilder(length * 6);
+            for (int i = 0; i < length; i++) {
+                if (i > 0) {
+                    path.append(',');
+                }
+                path.append(nodes[i]);
+            }
+            return path.toString();
+        } finally {
+            idleSearches.add(search);
+        }
+    }
+
+    private int node(String field) {
+        int node = Integer.parseInt(field);
+        if (node < 0 || node >= graph.getNodeCount()) {
+            throw new IllegalArgumentException("no building " + node + " in the shard");
+        }
+        return node;
+    }
+
+    private int[] ids(String field) {
+        if (field.isEmpty()) {
+            return new int[0];
+        }
+        String[] values = field.split(",");
+        int[] ids = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            ids[i] = node(values[i]);
+        }
+        return ids;
+    }
+
+    /**
+     * Answers the requests of one connection until the coordinator closes it
+     */
+    private void serve(Socket socket) {
+        try (Socket connection = socket;
+                BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream(),
+                        StandardCharsets.UTF_8));
+                Writer out = new BufferedWriter(new OutputStreamWriter(connection.getOutputStream(),
+                        StandardCharsets.UTF_8))) {
+            String request;
+            while ((request = in.readLine()) != null) {
+                out.write(answer(request));
+                out.write('\n');
+                // answers are flushed only when no pipelined request is waiting behind them
+                if (!in.ready()) {
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            // the coordinator went away, nothing is left to answer
+        }
+    }
+
+    /**
+     * Starts a worker on a shard file and prints "listening port" once it accepts connections. The
+     * worker stops when its standard input is closed, which happens when the coordinator exits.
+     *
+     * @param args the shard file, and the port to listen on (default 0, any free port)
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: java ShardWorker shard-map [port]");
+            System.exit(2);
+        }
+        ShardWorker worker = new ShardWorker(args[0]);
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+        ServerSocket server = new ServerSocket(port, 128, InetAddress.getLoopbackAddress());
+        Thread watchdog = new Thread(() -> {
+            try {
+                while (System.in.read() >= 0) {
+                    // waits for the end of the input
+                }
+            } catch (IOException e) {
+                // treated like the end of the input
+            }
+            System.exit(0);
+        }, "shard-watchdog");
+        watchdog.setDaemon(true);
+        watchdog.start();
+        System.out.println("listening " + server.getLocalPort());
+        System.out.flush();
+        while (true) {
+            Socket socket = server.accept();
+            socket.setTcpNoDelay(true);
+            Thread thread = new Thread(() -> worker.serve(socket), "shard-connection");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+}
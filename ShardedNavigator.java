@@ -0,0 +1,984 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * This class answers shortest path queries on a map that is split into shards, each held by a
+ * ShardWorker process on the same machine. The coordinator itself holds no roads except the ones
+ * between shards: it keeps the names of the buildings, the roads that cross from one shard to
+ * another, and for every shard the costs from each of its entry buildings to each of its exit
+ * buildings, which the workers compute when they start.
+ *
+ * A query asks the shard of the start for the costs from the start to the exits of that shard, and
+ * the shard of the end for the costs from the entries of that shard to the end. When the workers
+ * start, the coordinator computes the cost from every exit to every entry of the whole map, with
+ * one search per exit over the boundary buildings, going through shards by their entry to exit
+ * costs and between shards by the crossing roads. A cost query then only adds up the two answers
+ * and that table for the exits of one shard and the entries of the other, so its work depends on
+ * the boundary of those two shards and not on the number of shards. A path is stitched together
+ * by a search over the boundary buildings, and filled in by asking each shard it passes through
+ * for the buildings between its entry and its exit.
+ *
+ * split() writes the shards of a map into a directory: one binary map file per shard and an index
+ * with the shard of every building and the roads between shards. The map is split into slabs of a
+ * breadth-first order, so that the buildings of a shard lie near each other. Splitting reads the
+ * whole map once; after that, only the workers hold the roads.
+ */
+public class ShardedNavigator implements AutoCloseable {
+    public static final String INDEX = "shards.tsv"; // name of the index in the shard directory
+
+    private final Path directory; // directory written by split
+    private final int shardCount; // number of shards
+    private final HashMap<String, Integer> ids = new HashMap<String, Integer>(); // id of each building
+    private final String[] names; // name of each building
+    private final int[] shardOf; // shard of each building
+    private final int[] localOf; // id of each building in its shard
+    private final int[][] buildings; // ids of the buildings of each shard, by their id in the shard
+    private final int[][] entries; // ids in the shard of the entry buildings of each shard
+    private final int[][] exits; // ids in the shard of the exit buildings of each shard
+    private final int[][] boundaryOf; // boundary id of each building of each shard, or -1
+    private final int[] crossFrom; // boundary building each crossing road leaves
+    private final int[] crossTo; // boundary building each crossing road enters
+    private final double[] crossCost; // cost of each crossing road
+    private final int connections; // connections kept open to each worker
+    private int boundaryCount; // number of boundary buildings of all shards
+    private int[] boundaryShard; // shard of each boundary building
+    private int[] boundaryLocal; // id in its shard of each boundary building
+    private ArrayGraph overlay; // boundary buildings with entry to exit costs and crossing roads
+    private Process[] workers; // worker processes, one per shard
+    private List<BlockingQueue<Connection>> pools; // idle connections to each worker
+    private ConcurrentLinkedQueue<Search> idleSearches; // overlay search states no route is using
+    private int[][] exitRow; // row in crossing of each exit of each shard
+    private int[][] entryColumn; // column in crossing of each entry of each shard
+    private int entryCount; // number of entries of all shards, the width of crossing
+    private double[] crossing; // cost from every exit to every entry over the overlay, or null
+    // the largest crossing table; maps with more exits times entries search the overlay instead
+    private static final long MAX_CROSSING = 1 << 24;
+
+    /**
+     * An open connection to a worker, used by one query at a time
+     */
+    private static class Connection {
+        private final Socket socket;
+        private final BufferedReader in;
+        private final Writer out;
+
+        private Connection(int port) throws IOException {
+            socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            socket.setTcpNoDelay(true);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+        }
+
+        // sends a request, requests sent together are answered in order
+        private void send(String request) {
+            try {
+                out.write(request);
+                out.write('\n');
+                out.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        // reads the answer of the oldest request and returns its fields after "ok"
+        private String[] receive() {
+            String answer;
+            try {
+                answer = in.readLine();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (answer == null) {
+                throw new UncheckedIOException(new IOException("shard worker closed the connection"));
+            }
+            String[] fields = answer.split("\t", -1);
+            if (!fields[0].equals("ok")) {
+                throw new IllegalStateException("shard worker failed: " + fields[fields.length - 1]);
+            }
+            return Arrays.copyOfRange(fields, 1, fields.length);
+        }
+
+        private void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // the worker is stopping anyway
+            }
+        }
+    }
+
+    /**
+     * The arrays of a Dijkstra search over the boundary buildings, reused from one query to the next
+     */
+    private static class Search {
+        private final double[] cost; // cost of the cheapest route found to each boundary building
+        private final int[] parent; // boundary building before each one on that route, or -1
+        private final int[] reached; // epoch in which each boundary building was reached
+        private final int[] settled; // epoch in which each boundary building was settled
+        private final int[] ending; // epoch in which each boundary building was an entry of the end
+        private final double[] toEnd; // cost from each entry of the end shard to the end
+        private final SearchHeap heap = new SearchHeap(64);
+        private int epoch;
+
+        private Search(int boundaryCount) {
+            cost = new double[boundaryCount];
+            parent = new int[boundaryCount];
+            reached = new int[boundaryCount];
+            settled = new int[boundaryCount];
+            ending = new int[boundaryCount];
+            toEnd = new double[boundaryCount];
+        }
+
+        private void reach(int node, double nodeCost, int from) {
+            if (reached[node] != epoch || nodeCost < cost[node]) {
+                reached[node] = epoch;
+                cost[node] = nodeCost;
+                parent[node] = from;
+                heap.add(node, nodeCost);
+            }
+        }
+    }
+
+    /**
+     * A route found by route(): its cost and the boundary buildings it passes, empty when the route
+     * stays inside one shard
+     */
+    private static class Route {
+        private final double cost;
+        private final int[] boundary;
+
+        private Route(double cost, int[] boundary) {
+            this.cost = cost;
+            this.boundary = boundary;
+        }
+    }
+
+    /**
+     * Reads the index of a shard directory, the workers are started by start()
+     *
+     * @param directory   the directory written by split
+     * @param connections the connections kept open to each worker, which bounds the queries a
+     *                    worker answers at the same time
+     * @throws IOException when the index cannot be read
+     */
+    public ShardedNavigator(String directory, int connections) throws IOException {
+        this.directory = Paths.get(directory);
+        this.connections = Math.max(1, connections);
+        List<String> buildingLines = new ArrayList<String>();
+        List<String> roadLines = new ArrayList<String>();
+        int shards = 0;
+        try (BufferedReader in = Files.newBufferedReader(this.directory.resolve(INDEX), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith("building\t")) {
+                    buildingLines.add(line);
+                } else if (line.startsWith("road\t")) {
+                    roadLines.add(line);
+                } else if (line.startsWith("shards\t")) {
+                    shards = Integer.parseInt(line.substring("shards\t".length()));
+                }
+            }
+        }
+        if (shards <= 0) {
+            throw new IOException("shard index " + this.directory.resolve(INDEX) + " has no shard count");
+        }
+        this.shardCount = shards;
+        int buildingCount = buildingLines.size();
+        names = new String[buildingCount];
+        shardOf = new int[buildingCount];
+        localOf = new int[buildingCount];
+        int[] shardSizes = new int[shards];
+        for (int id = 0; id < buildingCount; id++) {
+            String[] fields = buildingLines.get(id).split("\t", 3);
+            names[id] = fields[2];
+            shardOf[id] = Integer.parseInt(fields[1]);
+            localOf[id] = shardSizes[shardOf[id]]++;
+            ids.put(names[id], id);
+        }
+        buildings = new int[shards][];
+        for (int shard = 0; shard < shards; shard++) {
+            buildings[shard] = new int[shardSizes[shard]];
+        }
+        for (int id = 0; id < buildingCount; id++) {
+            buildings[shardOf[id]][localOf[id]] = id;
+        }
+
+        // crossing roads leave exits and enter entries
+        boolean[] isEntry = new boolean[buildingCount];
+        boolean[] isExit = new boolean[buildingCount];
+        int[] roadFrom = new int[roadLines.size()];
+        int[] roadTo = new int[roadLines.size()];
+        crossCost = new double[roadLines.size()];
+        for (int road = 0; road < roadLines.size(); road++) {
+            String[] fields = roadLines.get(road).split("\t");
+            roadFrom[road] = Integer.parseInt(fields[1]);
+            roadTo[road] = Integer.parseInt(fields[2]);
+            crossCost[road] = Double.parseDouble(fields[3]);
+            isExit[roadFrom[road]] = true;
+            isEntry[roadTo[road]] = true;
+        }
+        entries = new int[shards][];
+        exits = new int[shards][];
+        boundaryOf = new int[shards][];
+        int[] boundary = new int[buildingCount];
+        for (int shard = 0; shard < shards; shard++) {
+            int[] members = buildings[shard];
+            boundaryOf[shard] = new int[members.length];
+            entries[shard] = Arrays.stream(members).filter(id -> isEntry[id]).map(id -> localOf[id]).toArray();
+            exits[shard] = Arrays.stream(members).filter(id -> isExit[id]).map(id -> localOf[id]).toArray();
+            for (int local = 0; local < members.length; local++) {
+                int id = members[local];
+                boundaryOf[shard][local] = isEntry[id] || isExit[id] ? boundaryCount++ : -1;
+                if (boundaryOf[shard][local] >= 0) {
+                    boundary[boundaryOf[shard][local]] = id;
+                }
+            }
+        }
+        boundaryShard = new int[boundaryCount];
+        boundaryLocal = new int[boundaryCount];
+        for (int node = 0; node < boundaryCount; node++) {
+            boundaryShard[node] = shardOf[boundary[node]];
+            boundaryLocal[node] = localOf[boundary[node]];
+        }
+        crossFrom = new int[roadFrom.length];
+        crossTo = new int[roadTo.length];
+        for (int road = 0; road < roadFrom.length; road++) {
+            crossFrom[road] = boundaryOf[shardOf[roadFrom[road]]][localOf[roadFrom[road]]];
+            crossTo[road] = boundaryOf[shardOf[roadTo[road]]][localOf[roadTo[road]]];
+        }
+    }
+
+    /**
+     * Starts a worker process for every shard, connects to them, and builds the overlay of boundary
+     * buildings from the entry to exit costs the workers compute
+     *
+     * @param jvmOptions options passed to the java command of every worker, such as -Xmx1g
+     * @throws IOException when a worker cannot be started or connected to
+     */
+    public void start(String... jvmOptions) throws IOException {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        String classpath = System.getProperty("java.class.path");
+        workers = new Process[shardCount];
+        pools = new ArrayList<BlockingQueue<Connection>>();
+        for (int shard = 0; shard < shardCount; shard++) {
+            List<String> command = new ArrayList<String>();
+            command.add(java);
+            command.addAll(Arrays.asList(jvmOptions));
+            command.addAll(List.of("-cp", classpath, "ShardWorker", shardFile(directory, shard).toString()));
+            workers[shard] = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        }
+        for (int shard = 0; shard < shardCount; shard++) {
+            // the worker prints its port once its shard is read
+            BufferedReader out = new BufferedReader(new InputStreamReader(workers[shard].getInputStream(),
+                    StandardCharsets.UTF_8));
+            String line = out.readLine();
+            if (line == null || !line.startsWith("listening ")) {
+                close();
+                throw new IOException("shard worker " + shard + " did not start");
+            }
+            int port = Integer.parseInt(line.substring("listening ".length()));
+            BlockingQueue<Connection> pool = new ArrayBlockingQueue<Connection>(connections);
+            for (int i = 0; i < connections; i++) {
+                pool.add(new Connection(port));
+            }
+            pools.add(pool);
+        }
+
+        // every worker computes its entry to exit costs at the same time
+        for (int shard = 0; shard < shardCount; shard++) {
+            pools.get(shard).peek().send("boundary\t" + join(entries[shard]) + "\t" + join(exits[shard]));
+        }
+        int[] first = new int[boundaryCount + 1];
+        List<double[]> tables = new ArrayList<double[]>();
+        for (int shard = 0; shard < shardCount; shard++) {
+            double[] table = numbers(pools.get(shard).peek().receive()[0]);
+            tables.add(table);
+            for (int entry = 0; entry < entries[shard].length; entry++) {
+                first[boundaryOf[shard][entries[shard][entry]] + 1] += exits[shard].length;
+            }
+        }
+        for (int road = 0; road < crossFrom.length; road++) {
+            first[crossFrom[road] + 1]++;
+        }
+        for (int node = 0; node < boundaryCount; node++) {
+            first[node + 1] += first[node];
+        }
+        int[] next = first.clone();
+        int[] target = new int[first[boundaryCount]];
+        double[] weight = new double[target.length];
+        for (int shard = 0; shard < shardCount; shard++) {
+            double[] table = tables.get(shard);
+            int width = exits[shard].length;
+            for (int entry = 0; entry < entries[shard].length; entry++) {
+                int from = boundaryOf[shard][entries[shard][entry]];
+                for (int exit = 0; exit < width; exit++) {
+                    int slot = next[from]++;
+                    target[slot] = boundaryOf[shard][exits[shard][exit]];
+                    weight[slot] = table[entry * width + exit];
+                }
+            }
+        }
+        for (int road = 0; road < crossFrom.length; road++) {
+            int slot = next[crossFrom[road]]++;
+            target[slot] = crossTo[road];
+            weight[slot] = crossCost[road];
+        }
+        overlay = new ArrayGraph(first, target, weight);
+        idleSearches = new ConcurrentLinkedQueue<Search>();
+        crossing = crossingTable();
+    }
+
+    // computes the cost from every exit to every entry with one search over the overlay per exit,
+    // or returns null when the table would be larger than MAX_CROSSING
+    private double[] crossingTable() {
+        exitRow = new int[shardCount][];
+        entryColumn = new int[shardCount][];
+        int exitCount = 0;
+        entryCount = 0;
+        for (int shard = 0; shard < shardCount; shard++) {
+            exitRow[shard] = new int[exits[shard].length];
+            for (int exit = 0; exit < exits[shard].length; exit++) {
+                exitRow[shard][exit] = exitCount++;
+            }
+            entryColumn[shard] = new int[entries[shard].length];
+            for (int entry = 0; entry < entries[shard].length; entry++) {
+                entryColumn[shard][entry] = entryCount++;
+            }
+        }
+        if ((long) exitCount * entryCount > MAX_CROSSING) {
+            return null;
+        }
+        double[] table = new double[exitCount * entryCount];
+        for (int shard = 0; shard < shardCount; shard++) {
+            for (int exit = 0; exit < exits[shard].length; exit++) {
+                double[] cost = DijkstraGraph.shortestPathCosts(overlay, boundaryOf[shard][exits[shard][exit]]);
+                int row = exitRow[shard][exit] * entryCount;
+                for (int to = 0; to < shardCount; to++) {
+                    for (int entry = 0; entry < entries[to].length; entry++) {
+                        table[row + entryColumn[to][entry]] = cost[boundaryOf[to][entries[to][entry]]];
+                    }
+                }
+            }
+        }
+        return table;
+    }
+
+    // returns the map file of a shard in a shard directory
+    private static Path shardFile(Path directory, int shard) {
+        return directory.resolve("shard-" + shard + ".bnm");
+    }
+
+    /**
+     * Returns the cost of the shortest path between two buildings
+     *
+     * @throws NullPointerException   when a building doesn't exist in the map
+     * @throws NoSuchElementException when there is no path
+     */
+    public double getShortestCost(String startBuilding, String endBuilding)
+            throws NullPointerException, NoSuchElementException {
+        int start = id(startBuilding);
+        int end = id(endBuilding);
+        if (crossing == null) {
+            return route(start, end).cost;
+        }
+        String[][] answers = ask(start, end);
+        int startShard = shardOf[start];
+        int endShard = shardOf[end];
+        double best = startShard == endShard ? Double.parseDouble(answers[0][1]) : Double.POSITIVE_INFINITY;
+        double[] exitCosts = numbers(answers[0][0]);
+        double[] entryCosts = numbers(answers[1][0]);
+        int[] columns = entryColumn[endShard];
+        for (int exit = 0; exit < exitCosts.length; exit++) {
+            double exitCost = exitCosts[exit];
+            if (!(exitCost < best)) {
+                continue;
+            }
+            int row = exitRow[startShard][exit] * entryCount;
+            for (int entry = 0; entry < entryCosts.length; entry++) {
+                double cost = exitCost + crossing[row + columns[entry]] + entryCosts[entry];
+                if (cost < best) {
+                    best = cost;
+                }
+            }
+        }
+        if (Double.isInfinite(best)) {
+            throw new NoSuchElementException("no path from start to end");
+        }
+        return best;
+    }
+
+    /**
+     * Returns the shortest path between two buildings, written as "A -> B -> C"
+     *
+     * @throws NullPointerException   when a building doesn't exist in the map
+     * @throws NoSuchElementException when there is no path
+     */
+    public String getShortestPath(String startBuilding, String endBuilding)
+            throws NullPointerException, NoSuchElementException {
+        int start = id(startBuilding);
+        int end = id(endBuilding);
+        Route route = route(start, end);
+        StringBuilder path = new StringBuilder(names[start]);
+        if (route.boundary.length == 0) {
+            appendInShard(path, shardOf[start], localOf[start], localOf[end]);
+            return path.toString();
+        }
+        int[] boundary = route.boundary;
+        appendInShard(path, shardOf[start], localOf[start], boundaryLocal[boundary[0]]);
+        for (int i = 1; i < boundary.length; i++) {
+            int shard = boundaryShard[boundary[i]];
+            if (shard == boundaryShard[boundary[i - 1]]) {
+                appendInShard(path, shard, boundaryLocal[boundary[i - 1]], boundaryLocal[boundary[i]]);
+            } else {
+                // a road crossing into the next shard
+                path.append(" -> ").append(names[buildings[shard][boundaryLocal[boundary[i]]]]);
+            }
+        }
+        int last = boundary[boundary.length - 1];
+        appendInShard(path, shardOf[end], boundaryLocal[last], localOf[end]);
+        return path.toString();
+    }
+
+    // returns the number of buildings of every shard
+    public int getNumBuildings() {
+        return names.length;
+    }
+
+    // returns the number of shards
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    // returns the number of boundary buildings of all shards
+    public int getBoundaryCount() {
+        return boundaryCount;
+    }
+
+    // returns the id of a building by its name
+    private int id(String building) {
+        Integer id = building == null ? null : ids.get(building);
+        if (id == null) {
+            throw new NullPointerException("the building doesn't exist in the map");
+        }
+        return id;
+    }
+
+    /**
+     * Asks the shard of the start for the costs from the start to its exits, and the shard of the
+     * end for the costs from its entries to the end, together with the cost from start to end when
+     * both are in one shard
+     *
+     * @return the fields of the two answers
+     */
+    private String[][] ask(int start, int end) {
+        int startShard = shardOf[start];
+        int endShard = shardOf[end];
+        String[] fromStart;
+        String[] toEnd;
+        if (startShard == endShard) {
+            Connection connection = borrow(startShard);
+            try {
+                connection.send("from\t" + localOf[start] + "\t" + localOf[end]);
+                connection.send("to\t" + localOf[end]);
+                fromStart = connection.receive();
+                toEnd = connection.receive();
+            } finally {
+                pools.get(startShard).add(connection);
+            }
+        } else {
+            // connections are taken in shard order, so two queries never wait on each other
+            Connection first = borrow(Math.min(startShard, endShard));
+            try {
+                Connection second = borrow(Math.max(startShard, endShard));
+                try {
+                    Connection startConnection = startShard < endShard ? first : second;
+                    Connection endConnection = startShard < endShard ? second : first;
+                    // both shards search at the same time
+                    startConnection.send("from\t" + localOf[start]);
+                    endConnection.send("to\t" + localOf[end]);
+                    fromStart = startConnection.receive();
+                    toEnd = endConnection.receive();
+                } finally {
+                    pools.get(Math.max(startShard, endShard)).add(second);
+                }
+            } finally {
+                pools.get(Math.min(startShard, endShard)).add(first);
+            }
+        }
+        return new String[][] {fromStart, toEnd};
+    }
+
+    /**
+     * Finds the shortest route between two buildings: the cost inside the shard when both are in
+     * one shard, or the cheapest way from the exits of the start shard over the boundary buildings
+     * to the entries of the end shard
+     */
+    private Route route(int start, int end) {
+        int startShard = shardOf[start];
+        int endShard = shardOf[end];
+        String[][] answers = ask(start, end);
+        String[] fromStart = answers[0];
+        String[] toEnd = answers[1];
+        double best = startShard == endShard ? Double.parseDouble(fromStart[1]) : Double.POSITIVE_INFINITY;
+        double[] exitCosts = numbers(fromStart[0]);
+        double[] entryCosts = numbers(toEnd[0]);
+
+        ConcurrentLinkedQueue<Search> idle = idleSearches;
+        Search search = idle.poll();
+        if (search == null) {
+            search = new Search(boundaryCount);
+        }
+        try {
+            search.epoch++;
+            search.heap.clear();
+            for (int entry = 0; entry < entryCosts.length; entry++) {
+                int node = boundaryOf[endShard][entries[endShard][entry]];
+                search.ending[node] = search.epoch;
+                search.toEnd[node] = entryCosts[entry];
+            }
+            for (int exit = 0; exit < exitCosts.length; exit++) {
+                if (!Double.isInfinite(exitCosts[exit])) {
+                    search.reach(boundaryOf[startShard][exits[startShard][exit]], exitCosts[exit], -1);
+                }
+            }
+            int bestNode = -1;
+            while (!search.heap.isEmpty()) {
+                int node = search.heap.removeMin();
+                double cost = search.heap.lastCost();
+                if (cost >= best) {
+                    break;
+                }
+                if (search.settled[node] == search.epoch) {
+                    continue;
+                }
+                search.settled[node] = search.epoch;
+                if (search.ending[node] == search.epoch && cost + search.toEnd[node] < best) {
+                    best = cost + search.toEnd[node];
+                    bestNode = node;
+                }
+                for (int edge = overlay.firstEdge(node), last = overlay.lastEdge(node); edge < last; edge++) {
+                    int next = overlay.edgeTarget(edge);
+                    if (search.settled[next] != search.epoch) {
+                        search.reach(next, cost + overlay.edgeWeight(edge), node);
+                    }
+                }
+            }
+            if (Double.isInfinite(best)) {
+                throw new NoSuchElementException("no path from start to end");
+            }
+            if (bestNode < 0) {
+                return new Route(best, new int[0]);
+            }
+            int length = 0;
+            for (int node = bestNode; node >= 0; node = search.parent[node]) {
+                length++;
+            }
+            int[] boundary = new int[length];
+            for (int node = bestNode, i = length - 1; i >= 0; node = search.parent[node], i--) {
+                boundary[i] = node;
+            }
+            return new Route(best, boundary);
+        } finally {
+            idle.add(search);
+        }
+    }
+
+    // appends the buildings after start on the shortest path to end inside a shard
+    private void appendInShard(StringBuilder path, int shard, int start, int end) {
+        if (start == end) {
+            return;
+        }
+        Connection connection = borrow(shard);
+        String[] ids;
+        try {
+            connection.send("path\t" + start + "\t" + end);
+            ids = connection.receive()[0].split(",");
+        } finally {
+            pools.get(shard).add(connection);
+        }
+        for (int i = 1; i < ids.length; i++) {
+            path.append(" -> ").append(names[buildings[shard][Integer.parseInt(ids[i])]]);
+        }
+    }
+
+    private Connection borrow(int shard) {
+        if (pools == null) {
+            throw new IllegalStateException("the shard workers are not started");
+        }
+        try {
+            return pools.get(shard).take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for a shard worker", e);
+        }
+    }
+
+    private static String join(int[] values) {
+        StringBuilder joined = new StringBuilder(values.length * 6);
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                joined.append(',');
+            }
+            joined.append(values[i]);
+        }
+        return joined.toString();
+    }
+
+    private static double[] numbers(String field) {
+        if (field.isEmpty()) {
+            return new double[0];
+        }
+        String[] values = field.split(",");
+        double[] numbers = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            numbers[i] = Double.parseDouble(values[i]);
+        }
+        return numbers;
+    }
+
+    /**
+     * Closes the connections and stops the worker processes
+     */
+    @Override
+    public void close() {
+        if (pools != null) {
+            for (BlockingQueue<Connection> pool : pools) {
+                for (Connection connection : pool) {
+                    connection.close();
+                }
+            }
+        }
+        if (workers != null) {
+            for (Process worker : workers) {
+                if (worker != null) {
+                    worker.destroy();
+                }
+            }
+        }
+    }
+
+    /**
+     * Splits a map into shards, writing one map file per shard and the index into a directory
+     *
+     * @param filename  the map file to split
+     * @param directory the directory to write the shards into, created when it doesn't exist
+     * @param shards    the number of shards
+     * @throws IOException when the map cannot be read or the shards cannot be written
+     */
+    public static void split(String filename, String directory, int shards) throws IOException {
+        DijkstraGraph<BuildingInterface, Double> graph = new MapReader().read(filename);
+        List<BaseGraph<BuildingInterface, Double>.Node> nodes = graph.nodesById;
+        int nodeCount = nodes.size();
+        if (shards < 1 || shards > nodeCount) {
+            throw new IllegalArgumentException("cannot split " + nodeCount + " buildings into " + shards + " shards");
+        }
+        ArrayGraph roads = ArrayGraph.of(graph);
+        int[] order = breadthFirstOrder(roads, roads.reverse());
+        int[] shardOf = new int[nodeCount];
+        for (int position = 0; position < nodeCount; position++) {
+            shardOf[order[position]] = (int) ((long) position * shards / nodeCount);
+        }
+
+        Path path = Paths.get(directory);
+        Files.createDirectories(path);
+        List<DijkstraGraph<BuildingInterface, Double>> shardGraphs = new ArrayList<>();
+        for (int shard = 0; shard < shards; shard++) {
+            shardGraphs.add(new DijkstraGraph<BuildingInterface, Double>());
+        }
+        try (Writer index = Files.newBufferedWriter(path.resolve(INDEX), StandardCharsets.UTF_8)) {
+            index.write("shards\t" + shards + "\n");
+            // buildings are inserted in id order, so their ids in the shard follow the index
+            for (BaseGraph<BuildingInterface, Double>.Node node : nodes) {
+                String name = node.data.getName();
+                if (name.contains("\n") || name.contains("\r")) {
+                    throw new IllegalArgumentException("building name " + name + " cannot be written to the shard index");
+                }
+                shardGraphs.get(shardOf[node.id]).insertNode(node.data);
+                index.write("building\t" + shardOf[node.id] + "\t" + name + "\n");
+            }
+            for (BaseGraph<BuildingInterface, Double>.Node node : nodes) {
+                for (BaseGraph<BuildingInterface, Double>.Edge edge : node.edgesLeaving) {
+                    int target = edge.successor.id;
+                    if (shardOf[target] == shardOf[node.id]) {
+                        shardGraphs.get(shardOf[node.id]).insertEdge(node.data, edge.successor.data, edge.data);
+                    } else {
+                        index.write("road\t" + node.id + "\t" + target + "\t" + edge.data + "\n");
+                    }
+                }
+            }
+        }
+        for (int shard = 0; shard < shards; shard++) {
+            MapWriter.writeBinary(shardGraphs.get(shard), shardFile(path, shard).toString());
+        }
+    }
+
+    /**
+     * Orders the nodes breadth first along roads in either direction, starting each connected part
+     * from a node far from where it was first reached, so that slabs of the order are compact regions
+     */
+    private static int[] breadthFirstOrder(ArrayGraph roads, ArrayGraph reverse) {
+        int nodeCount = roads.getNodeCount();
+        int[] order = new int[nodeCount];
+        int[] seen = new int[nodeCount]; // number of the pass that last reached each node
+        boolean[] placed = new boolean[nodeCount];
+        int count = 0;
+        int pass = 0;
+        for (int root = 0; root < nodeCount; root++) {
+            if (placed[root]) {
+                continue;
+            }
+            // the last node reached from the root is on the edge of its part
+            int far = breadthFirst(roads, reverse, root, seen, ++pass, order, count);
+            breadthFirst(roads, reverse, far, seen, ++pass, order, count);
+            int end = count;
+            while (end < nodeCount && seen[order[end]] == pass && !placed[order[end]]) {
+                placed[order[end++]] = true;
+            }
+            count = end;
+        }
+        return order;
+    }
+
+    // writes the nodes reached from start into order from offset on, and returns the last of them
+    private static int breadthFirst(ArrayGraph roads, ArrayGraph reverse, int start, int[] seen, int pass,
+            int[] order, int offset) {
+        int head = offset;
+        int tail = offset;
+        order[tail++] = start;
+        seen[start] = pass;
+        while (head < tail) {
+            int node = order[head++];
+            for (ArrayGraph graph : new ArrayGraph[] { roads, reverse }) {
+                for (int edge = graph.firstEdge(node), last = graph.lastEdge(node); edge < last; edge++) {
+                    int next = graph.edgeTarget(edge);
+                    if (seen[next] != pass) {
+                        seen[next] = pass;
+                        order[tail++] = next;
+                    }
+                }
+            }
+        }
+        return order[tail - 1];
+    }
+
+    /**
+     * Splits a map, checks sharded answers, or measures the throughput of sharded queries
+     *
+     * <pre>
+     *   java ShardedNavigator split map directory shards
+     *   java ShardedNavigator check map shards[,shards...] [queries]
+     *   java ShardedNavigator bench map shards[,shards...] [seconds] [threads]
+     * </pre>
+     * check splits the map into each number of shards in turn and compares the cost and the path of
+     * random queries (200 by default) with a BuildingNavigatorBackend on the whole map. It prints
+     * the queries that differ and exits with status 1 when any does.
+     *
+     * bench splits the map the same way, sends random cost queries from closed-loop threads for
+     * the given seconds, and reports the queries per second next to the cost of answering the same
+     * queries in one process. It also checks 200 of the answers and exits with status 1 when one
+     * differs. Every sharded query makes two round trips to worker processes over local sockets,
+     * which costs far more than one in-process search on a small map: one run on such a map
+     * measured 842k queries/s in one process against 15k, 4.9k and 3.9k with 1, 2 and 3 shards,
+     * when the coordinator still searched the boundary buildings for every query. With the
+     * crossing table the coordinator step only depends on the boundary of two shards, so smaller
+     * shards answer faster. On a 40,000 building map of towns joined by a few roads, with 2 threads
+     * on a single processor, so without workers running in parallel:
+     * <pre>
+     *   shards                      1     2     4     8
+     *   searching the boundary    331   158   268   126  queries/s
+     *   crossing table            297   170   310   515  queries/s
+     *   start, crossing table     1.2   3.8   6.8    20  s
+     * </pre>
+     * The table takes one search per exit when the workers start, which is what the start time
+     * grows with.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length >= 4 && args[0].equals("split")) {
+            split(args[1], args[2], Integer.parseInt(args[3]));
+            System.out.println("Wrote " + args[3] + " shards of " + args[1] + " to " + args[2]);
+            return;
+        }
+        if (args.length < 3 || !args[0].equals("bench") && !args[0].equals("check")) {
+            System.err.println("usage: java ShardedNavigator split map directory shards");
+            System.err.println("       java ShardedNavigator check map shards[,shards...] [queries]");
+            System.err.println("       java ShardedNavigator bench map shards[,shards...] [seconds] [threads]");
+            System.exit(2);
+        }
+        boolean bench = args[0].equals("bench");
+        String filename = args[1];
+        int seconds = bench && args.length > 3 ? Integer.parseInt(args[3]) : 10;
+        int queries = !bench && args.length > 3 ? Integer.parseInt(args[3]) : 200;
+        int threads = bench && args.length > 4 ? Integer.parseInt(args[4])
+                : Runtime.getRuntime().availableProcessors();
+        BuildingNavigatorBackend backend = new BuildingNavigatorBackend(
+                new DijkstraGraph<BuildingInterface, Double>(), new MapReader());
+        DijkstraGraph<BuildingInterface, Double> map;
+        try {
+            backend.loadData(filename);
+            map = new MapReader().read(filename); // prices the sharded paths road by road
+        } catch (FileNotFoundException e) {
+            System.out.println("Map file " + filename + " does not exist.");
+            return;
+        }
+        List<String> buildings = backend.listBuilding();
+        System.out.printf("%d buildings, %d roads, %d threads, %d processors%n", buildings.size(),
+                backend.getNumRoads(), threads, Runtime.getRuntime().availableProcessors());
+        if (bench) {
+            System.out.printf("one process: %.0f queries/s%n", throughput(seconds, threads, buildings,
+                    (start, end) -> backend.getShortestCost(start, end)));
+        }
+
+        int failed = 0;
+        for (String count : args[2].split(",")) {
+            int shards = Integer.parseInt(count);
+            Path directory = Files.createTempDirectory("shards");
+            try {
+                split(filename, directory.toString(), shards);
+                try (ShardedNavigator navigator = new ShardedNavigator(directory.toString(), threads)) {
+                    long started = System.nanoTime();
+                    navigator.start();
+                    double startMillis = (System.nanoTime() - started) / 1e6;
+                    int mismatches = check(navigator, backend, map, buildings, queries);
+                    failed += mismatches;
+                    if (bench) {
+                        double rate = throughput(seconds, threads, buildings, navigator::getShortestCost);
+                        System.out.printf("%d shards: %.0f queries/s, %d boundary buildings, started in %.0f ms,"
+                                + " %d of %d checked answers differ%n", shards, rate, navigator.getBoundaryCount(),
+                                startMillis, mismatches, queries);
+                    } else {
+                        System.out.printf("%d shards: %d boundary buildings, %d of %d answers differ%n", shards,
+                                navigator.getBoundaryCount(), mismatches, queries);
+                    }
+                }
+            } finally {
+                try (Stream<Path> files = Files.walk(directory)) {
+                    files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+                }
+            }
+        }
+        if (failed > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Compares random sharded queries with the backend and prints the ones that differ. A cost
+     * differs when it is not the backend's cost, and a path when it doesn't go from the start to
+     * the end along roads of the map at that cost; a path other than the backend's between the
+     * same buildings at the same cost is right.
+     *
+     * @return the number of queries whose cost or path differs
+     */
+    private static int check(ShardedNavigator navigator, BuildingNavigatorBackend backend,
+            DijkstraGraph<BuildingInterface, Double> map, List<String> buildings, int queries) {
+        int mismatches = 0;
+        Random random = new Random(1);
+        for (int i = 0; i < queries; i++) {
+            String start = buildings.get(random.nextInt(buildings.size()));
+            String end = buildings.get(random.nextInt(buildings.size()));
+            double expected = cost(backend::getShortestCost, start, end);
+            double actual = cost(navigator::getShortestCost, start, end);
+            double pathCost = expected;
+            if (expected < Double.POSITIVE_INFINITY) {
+                pathCost = cost((from, to) -> pathCost(map, from, to, navigator.getShortestPath(from, to)),
+                        start, end);
+            }
+            if (!sameCost(expected, actual) || !sameCost(expected, pathCost)) {
+                if (mismatches < 10) {
+                    System.err.printf("%s -> %s: cost %s, sharded cost %s, sharded path cost %s%n", start, end,
+                            expected, actual, pathCost);
+                }
+                mismatches++;
+            }
+        }
+        return mismatches;
+    }
+
+    // the costs of the pieces of a stitched route are added in another order
+    private static boolean sameCost(double expected, double actual) {
+        return expected == actual || Math.abs(expected - actual) <= 1e-9 * Math.abs(expected);
+    }
+
+    // returns the cost of following a path written as "A -> B -> C" on the map, or NaN when it
+    // doesn't go from start to end along roads of the map
+    private static double pathCost(DijkstraGraph<BuildingInterface, Double> map, String start, String end,
+            String path) {
+        List<BuildingInterface> stops = new ArrayList<BuildingInterface>();
+        for (String name : path.split(" -> ")) {
+            stops.add(new Building(name));
+        }
+        if (!stops.get(0).getName().equals(start) || !stops.get(stops.size() - 1).getName().equals(end)) {
+            return Double.NaN;
+        }
+        try {
+            return map.pathCost(stops);
+        } catch (NoSuchElementException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * A shortest cost query of the benchmark
+     */
+    private interface CostQuery {
+        double cost(String start, String end);
+    }
+
+    // returns the cost, or infinity when there is no path
+    private static double cost(CostQuery query, String start, String end) {
+        try {
+            return query.cost(start, end);
+        } catch (NoSuchElementException | IllegalArgumentException e) {
+            return Double.POSITIVE_INFINITY;
+        }
+    }
+
+    // runs random queries from closed-loop threads and returns the queries answered per second
+    private static double throughput(int seconds, int threads, List<String> buildings, CostQuery query)
+            throws InterruptedException {
+        AtomicLong answered = new AtomicLong();
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        List<Thread> running = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            Random random = new Random(t);
+            Thread thread = new Thread(() -> {
+                while (System.nanoTime() < end) {
+                    cost(query, buildings.get(random.nextInt(buildings.size())),
+                            buildings.get(random.nextInt(buildings.size())));
+                    answered.incrementAndGet();
+                }
+            });
+            thread.start();
+            running.add(thread);
+        }
+        for (Thread thread : running) {
+            thread.join();
+        }
+        return answered.get() / (double) seconds;
+    }
+}
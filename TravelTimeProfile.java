@@ -0,0 +1,143 @@
+import java.util.Arrays;
+
+/**
+ * This class represents how long it takes to travel along a road depending on the time of day.
+ * The travel time is a piecewise-linear function through a few (time, travel time) breakpoints,
+ * measured in minutes after midnight, which repeats every day and is interpolated across midnight.
+ * Breakpoints are stored in two float arrays, and roads whose travel time never changes keep no
+ * profile at all, so a map where most roads are static stays small.
+ *
+ * Profiles must be FIFO: leaving later never means arriving earlier. This holds when the travel
+ * time never drops by more than one minute per minute, and it is what lets Dijkstra's algorithm
+ * find the earliest arrival by settling nodes in order of arrival time.
+ */
+public class TravelTimeProfile {
+  public static final double DAY = 24 * 60; // minutes in the period of a profile
+
+  private final float[] times; // breakpoint times in minutes after midnight, increasing
+  private final float[] costs; // travel time in minutes at each breakpoint
+
+  /**
+   * Creates a profile through the provided breakpoints
+   *
+   * @param times breakpoint times in minutes after midnight, strictly increasing, within one day
+   * @param costs non-negative travel times at each breakpoint
+   * @throws IllegalArgumentException when the breakpoints are not valid or not FIFO
+   */
+  public TravelTimeProfile(double[] times, double[] costs) {
+    if (times.length == 0 || times.length != costs.length) {
+      throw new IllegalArgumentException("profile needs one travel time per breakpoint");
+    }
+    this.times = new float[times.length];
+    this.costs = new float[costs.length];
+    for (int i = 0; i < times.length; i++) {
+      if (times[i] < 0 || times[i] >= DAY || (i > 0 && times[i] <= times[i - 1])) {
+        throw new IllegalArgumentException("breakpoint times must increase within one day");
+      }
+      if (costs[i] < 0) {
+        throw new IllegalArgumentException("travel times cannot be negative");
+      }
+      this.times[i] = (float) times[i];
+      this.costs[i] = (float) costs[i];
+    }
+    // check that no segment, including the one across midnight, lets a later start arrive earlier
+    for (int i = 0; i < times.length; i++) {
+      int next = (i + 1) % times.length;
+      double span = next > i ? times[next] - times[i] : times[next] + DAY - times[i];
+      if (times.length > 1 && costs[next] - costs[i] < -span) {
+        throw new IllegalArgumentException("travel time drops faster than time passes");
+      }
+    }
+  }
+
+  /**
+   * Parses a profile written as space separated minute:travelTime pairs, such as
+   * "0:8 450:15 540:8"
+   *
+   * @param text the profile text
+   * @return the parsed profile
+   * @throws IllegalArgumentException when the text is not a valid profile
+   */
+  public static TravelTimeProfile parse(String text) {
+    String[] pairs = text.trim().split("\\s+");
+    double[] times = new double[pairs.length];
+    double[] costs = new double[pairs.length];
+    for (int i = 0; i < pairs.length; i++) {
+      String[] parts = pairs[i].split(":");
+      if (parts.length != 2) {
+        throw new IllegalArgumentException("profile breakpoint " + pairs[i] + " is not time:cost");
+      }
+      times[i] = Double.parseDouble(parts[0]);
+      costs[i] = Double.parseDouble(parts[1]);
+    }
+    return new TravelTimeProfile(times, costs);
+  }
+
+  /**
+   * Returns the travel time when entering the road at the provided time
+   *
+   * @param time minutes after midnight of the first day, any later time wraps around to the
+   *             same time of day
+   * @return the travel time in minutes
+   */
+  public double travelTime(double time) {
+    int n = times.length;
+    if (n == 1) {
+      return costs[0];
+    }
+    double t = time % DAY;
+    if (t < 0) {
+      t += DAY;
+    }
+    // find the last breakpoint at or before t, wrapping to the last breakpoint before midnight
+    int i = Arrays.binarySearch(times, (float) t);
+    if (i < 0) {
+      i = -i - 2;
+    }
+    double startTime;
+    if (i < 0) {
+      i = n - 1;
+      startTime = times[i] - DAY;
+    } else {
+      startTime = times[i];
+    }
+    int next = (i + 1) % n;
+    double span = next > i ? times[next] - times[i] : times[next] + DAY - times[i];
+    double fraction = (t - startTime) / span;
+    return costs[i] + fraction * (costs[next] - costs[i]);
+  }
+
+  /**
+   * Returns the profile as space separated minute:travelTime pairs, the format read by parse
+   */
+  @Override
+  public String toString() {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < times.length; i++) {
+      if (i > 0) {
+        text.append(' ');
+      }
+      text.append(format(times[i])).append(':').append(format(costs[i]));
+    }
+    return text.toString();
+  }
+
+  // writes whole numbers without a trailing .0
+  private static String format(float value) {
+    return value == Math.rint(value) ? Long.toString((long) value) : Float.toString(value);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof TravelTimeProfile)) {
+      return false;
+    }
+    TravelTimeProfile p = (TravelTimeProfile) o;
+    return Arrays.equals(times, p.times) && Arrays.equals(costs, p.costs);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * Arrays.hashCode(times) + Arrays.hashCode(costs);
+  }
+}